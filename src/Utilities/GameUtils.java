@@ -4,7 +4,7 @@ import bricklets.Wall;
 import gameengine.collisiondetection.EntityType;
 import gameengine.collisiondetection.World;
 import gameengine.collisiondetection.shapes.Circle;
-import gameengine.collisiondetection.shapes.Polygon;
+import gameengine.collisiondetection.shapes.EdgeChain;
 import gameengine.collisiondetection.shapes.Shape;
 import gameengine.entities.RegionSensor;
 import gameengine.geometry.Vector2D;
@@ -56,36 +56,43 @@ public class GameUtils {
         }
     }
 
+    /**
+     * Creates a wall along the points as a single static body with an {@link EdgeChain}, so a
+     * long wall is only one entity.  The wall is rounded at its ends and joints.
+     *
+     * @param world     The world
+     * @param wallType  The entity type of the wall
+     * @param thickness The thickness of the wall
+     * @param points    The points of the wall in order
+     */
     public static void createWalls(World world, EntityType wallType, double thickness,
                                    Vector2D... points) {
-        for (int i = 0; i < points.length - 1; i++) {
-            Vector2D from = points[i];
-            Vector2D to = points[i + 1];
-            createWall(world, wallType, thickness, from, to);
+        assert points.length >= 2;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (Vector2D point : points) {
+            minX = Math.min(minX, point.getX());
+            minY = Math.min(minY, point.getY());
+            maxX = Math.max(maxX, point.getX());
+            maxY = Math.max(maxY, point.getY());
+        }
+        double centerX = (minX + maxX) / 2;
+        double centerY = (minY + maxY) / 2;
+        double[] xPoints = new double[points.length];
+        double[] yPoints = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            xPoints[i] = points[i].getX() - centerX;
+            yPoints[i] = points[i].getY() - centerY;
         }
+
+        Shape shape = new EdgeChain(xPoints, yPoints, thickness, false);
+        Wall wall = new Wall(centerX, centerY, shape);
+        wall.setEntityType(wallType);
+        world.addStaticEntity(wall);
     }
 
     public static void createWall(World world, EntityType wallType, double thickness, Vector2D
             from, Vector2D to) {
-        double[] xPoints = new double[4];
-        double[] yPoints = new double[4];
-
-        Vector2D length = new Vector2D(to.getX() - from.getX(), to.getY() - from.getY());
-        Vector2D width = new Vector2D(length);
-        width.perpendicular();
-        width.scale(thickness / width.length());
-
-        xPoints[0] = from.getX() + width.getX() * 0.5;
-        yPoints[0] = from.getY() + width.getY() * 0.5;
-        xPoints[1] = xPoints[0] + length.getX();
-        yPoints[1] = yPoints[0] + length.getY();
-        xPoints[2] = xPoints[1] - width.getX();
-        yPoints[2] = yPoints[1] - width.getY();
-        xPoints[3] = from.getX() - width.getX() * 0.5;
-        yPoints[3] = from.getY() - width.getY() * 0.5;
-
-        Shape shape = new Polygon(xPoints, yPoints);
-        Wall wall = new Wall((from.getX() + to.getX()) / 2, (from.getY() + to.getY()) / 2, shape);
-        world.addEntity(wall);
+        createWalls(world, wallType, thickness, from, to);
     }
 }
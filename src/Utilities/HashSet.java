@@ -67,6 +67,10 @@ public class HashSet<T> {
         }
     }
 
+    public int size() {
+        return numItems;
+    }
+
     public boolean contains(T item) {
         return items[getIndex(item)].getElementIndex(item) >= 0;
     }
@@ -96,7 +100,7 @@ public class HashSet<T> {
         createLists();
         numItems = 0;
         for (int i = 0; i < oldItems.length; i++) {
-            UnorderedArrayList<T> list = items[i];
+            UnorderedArrayList<T> list = oldItems[i];
             int listSize = list.size();
             for (int j = 0; j < listSize; j++) {
                 add(list.get(j));
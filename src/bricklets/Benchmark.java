@@ -1,5 +1,6 @@
 package bricklets;
 
+import gameengine.collisiondetection.Broadphase;
 import gameengine.collisiondetection.Collision;
 import gameengine.collisiondetection.EntityType;
 import gameengine.context.Context;
@@ -14,14 +15,20 @@ import gameengine.input.InputCode;
 import gameengine.physics.Material;
 import gameengine.physics.Physics;
 
+import java.util.ArrayList;
 import java.util.Random;
 
 public class Benchmark extends Context {
 
     private static final String EXIT = "Exit";
     private static final String INCREASE_BALL_COUNT = "Increase Ball Count";
+    /**
+     * The radius of the balls
+     */
+    static final double BALL_SIZE = 2;
 
     private Random rand = new Random(0);
+    private ArrayList<Entity> newBalls = new ArrayList<>();
     private Material ballMaterial = Material.createMaterial(0, 1, 1);
     private double currentTime = 0;
     private double lastTime = 0;
@@ -33,6 +40,18 @@ public class Benchmark extends Context {
         init();
     }
 
+    /**
+     * Creates the context with a world that uses the given broadphase, which is used to compare
+     * the broadphases on this scene.
+     *
+     * @param controller        the {@link GameController} of the game
+     * @param broadphaseFactory creates the broadphase of the world
+     */
+    public Benchmark(GameController controller, Broadphase.Factory broadphaseFactory) {
+        super(controller, broadphaseFactory);
+        init();
+    }
+
     public void init() {
         world.clear();
         world.setCollisionGroups(EntityType.BALL, EntityType.BALL, EntityType.WALL);
@@ -62,10 +81,10 @@ public class Benchmark extends Context {
         BoxEntity leftBounds = new BoxEntity(0, height / 2, borderThickness, height);
         BoxEntity rightBounds = new BoxEntity(width, height / 2, borderThickness, height);
 
-        world.addEntity(topBounds);
-        world.addEntity(bottomBounds);
-        world.addEntity(leftBounds);
-        world.addEntity(rightBounds);
+        world.addStaticEntity(topBounds);
+        world.addStaticEntity(bottomBounds);
+        world.addStaticEntity(leftBounds);
+        world.addStaticEntity(rightBounds);
     }
 
     @Override
@@ -74,16 +93,18 @@ public class Benchmark extends Context {
         currentTime = gameTime;
         double timeBetweenBalls = 25;
         if (lastTime + timeBetweenBalls <= currentTime && balls < maxBalls) {
-            int ballSize = 2;
+            double ballSize = BALL_SIZE;
             double halfWidth = width * 0.5;
             double halfHeight = height * 0.5;
             double xLength = width - 50;
             double yLength = height - 100;
             for (int i = 0; i < 100; i++) {
-                addBall(halfWidth + (rand.nextDouble() - 0.5) * xLength, halfHeight + (rand
-                        .nextDouble() - 0.5) * yLength, ballSize);
+                newBalls.add(createBall(halfWidth + (rand.nextDouble() - 0.5) * xLength,
+                        halfHeight + (rand.nextDouble() - 0.5) * yLength, ballSize));
                 balls++;
             }
+            world.addEntities(newBalls);
+            newBalls.clear();
             lastTime = currentTime;// - (currentTime - lastTime + timeBetweenBalls);
         }
     }
@@ -115,26 +136,28 @@ public class Benchmark extends Context {
 
         mapActionStartedHandler(EXIT, () -> controller.exitContext());
         mapActionStartedHandler(INCREASE_BALL_COUNT, () -> {
-            int ballSize = 2;
+            double ballSize = BALL_SIZE;
             double halfWidth = width * 0.5;
             double halfHeight = height * 0.5;
             double xLength = width - 50;
             double yLength = height - 100;
             for (int i = 0; i < 200; i++) {
-                addBall(halfWidth + (rand.nextDouble() - 0.5) * xLength, halfHeight + (rand
-                        .nextDouble() - 0.5) * yLength, ballSize);
+                newBalls.add(createBall(halfWidth + (rand.nextDouble() - 0.5) * xLength,
+                        halfHeight + (rand.nextDouble() - 0.5) * yLength, ballSize));
                 balls++;
             }
+            world.addEntities(newBalls);
+            newBalls.clear();
         });
     }
 
-    private void addBall(double x, double y, double radius) {
+    private Entity createBall(double x, double y, double radius) {
         double speed = 0.1;
         CircleEntity entity = new CircleEntity(x, y, radius);
         entity.setMass(1);
         entity.setVelocity((Math.random() - 0.5) * speed, (Math.random() - 0.5) * speed);
         entity.setMaterial(ballMaterial);
         entity.setEntityType(EntityType.BALL);
-        world.addEntity(entity);
+        return entity;
     }
 }
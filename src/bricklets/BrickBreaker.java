@@ -1,6 +1,7 @@
 package bricklets;
 
 import Utilities.GameUtils;
+import gameengine.collisiondetection.Broadphase;
 import gameengine.collisiondetection.Collision;
 import gameengine.collisiondetection.EntityType;
 import gameengine.context.Context;
@@ -12,7 +13,6 @@ import gameengine.graphics.Renderer;
 import gameengine.graphics.ScreenManager;
 import gameengine.input.InputCode;
 import gameengine.motion.environmentmotions.VelocityEnforcerWorldEffect;
-import gameengine.motion.motions.AttractMotion;
 import gameengine.motion.motions.MotionCompositor;
 import gameengine.motion.motions.MouseMotion;
 import gameengine.motion.motions.VerticalAttractMotion;
@@ -29,7 +29,7 @@ public class BrickBreaker extends Context {
     private static final String EXIT = "Exit";
 
     private int width, height;
-    private int brickCount = 0;
+    private BrickWall brickWall;
     private Paddle paddle;
     private BoxEntity topBounds, rightBounds, leftBounds, bottomBounds;
 
@@ -57,6 +57,18 @@ public class BrickBreaker extends Context {
         init();
     }
 
+    /**
+     * Creates the context with a world that uses the given broadphase, which is used to compare
+     * the broadphases on this scene.
+     *
+     * @param controller        the {@link GameController} of the game
+     * @param broadphaseFactory creates the broadphase of the world
+     */
+    public BrickBreaker(GameController controller, Broadphase.Factory broadphaseFactory) {
+        super(controller, broadphaseFactory);
+        init();
+    }
+
     private void init() {
         ScreenManager screen = controller.getScreenManager();
         width = screen.getWidth();
@@ -103,14 +115,13 @@ public class BrickBreaker extends Context {
         leftBounds = new BoxEntity(0, height / 2, borderThickness, height);
         rightBounds = new BoxEntity(width, height / 2, borderThickness, height);
 
-        world.addEntity(topBounds);
-        world.addEntity(bottomBounds);
-        world.addEntity(leftBounds);
-        world.addEntity(rightBounds);
+        world.addStaticEntity(topBounds);
+        world.addStaticEntity(bottomBounds);
+        world.addStaticEntity(leftBounds);
+        world.addStaticEntity(rightBounds);
     }
 
     private void initBricks() {
-        brickCount = 0;
         int rows = 10;
         int columns = 70;
         double padding = ballRadius * 1.5;
@@ -118,19 +129,15 @@ public class BrickBreaker extends Context {
         double yOffset = borderPadding * 1.75;
         double brickWidth = (width - borderPadding * 2 - (columns + 1) * padding) / columns;
         double brickHeight = brickWidth;
+        // each brick is centered in a cell that includes half of the padding on either side
+        double cellWidth = brickWidth + padding;
+        double cellHeight = brickHeight + padding;
+        double xPos = borderPadding + padding / 2 + columns * cellWidth / 2;
+        double yPos = yOffset + padding / 2 + rows * cellHeight / 2;
         Entity.setDefaultEntityType(EntityType.STANDARD);
-        for (int x = 0; x < columns; x++) {
-            for (int y = 0; y < rows; y++) {
-                double xPos = padding * (1 + x) + brickWidth * x + brickWidth / 2 + borderPadding;
-                double yPos = padding * (1 + y) + brickHeight * y + brickHeight / 2 + yOffset;
-                Brick brick = new Brick(xPos, yPos, brickWidth, brickHeight);
-//                brick.setShape(new Circle(xPos, yPos, brickWidth));
-                brick.setMass(20);
-                brick.setMotion(new AttractMotion(xPos, yPos, 0.0005, 0.3, brick.getMass()));
-                brickCount++;
-                world.addEntity(brick);
-            }
-        }
+        brickWall = new BrickWall(xPos, yPos, columns, rows, cellWidth, cellHeight, brickWidth,
+                brickHeight, Material.createMaterial(0, 1, Double.POSITIVE_INFINITY));
+        world.addStaticEntity(brickWall);
 
         //path experiment
         Vector2D[] path = new Vector2D[4];
@@ -155,7 +162,7 @@ public class BrickBreaker extends Context {
     protected void updateContext(long gameTime, double mouseDeltaX, double mouseDeltaY, double
             mouseWheelRotation) {
         currentTime = gameTime;
-        if (brickCount == 0) {
+        if (brickWall.getBrickCount() == 0) {
             init();
         }
     }
@@ -172,7 +179,7 @@ public class BrickBreaker extends Context {
 
         renderer.drawStrings(25, 50, 20, "fps " + controller.getFrameRateCounter()
                 .getCurrentTickRate(), "Lives " + lives, "entities " + world.getEntityCount(),
-                "bricks " + brickCount);
+                "bricks " + brickWall.getBrickCount());
     }
 
     @Override
@@ -186,12 +193,8 @@ public class BrickBreaker extends Context {
         Entity b = collision.getB();
         boolean isABall = a instanceof CircleEntity;
         boolean isBBall = b instanceof CircleEntity;
-        if (a instanceof Brick && isBBall) {
-//            damage *= b.getMass();
-            damageBrick((Brick) a, damage);
-        } else if (b instanceof Brick && isABall) {
-//            damage *= a.getMass();
-            damageBrick((Brick) b, damage);
+        if (a == brickWall && isBBall || isABall && b == brickWall) {
+            brickWall.doDamage(collision.getTileIndex(), damage);
         } else if (a == bottomBounds && isBBall || isABall && b == bottomBounds) {
 //            if (lives > 0) {
             lives--;
@@ -206,14 +209,6 @@ public class BrickBreaker extends Context {
         }
     }
 
-    private void damageBrick(Brick brick, double damage) {
-        brick.doDamage(damage);
-        if (brick.isDead()) {
-            brick.removeFromWorld();
-            brickCount--;
-        }
-    }
-
     private void setupInput() {
         mapInputAction(EXIT, InputCode.KEY_ESCAPE);
         mapInputAction(SHOOT, InputCode.MOUSE_LEFT_BUTTON);
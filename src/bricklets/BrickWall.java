@@ -0,0 +1,54 @@
+package bricklets;
+
+import gameengine.collisiondetection.shapes.Rectangle;
+import gameengine.collisiondetection.shapes.TileMap;
+import gameengine.graphics.Renderer;
+import gameengine.physics.Material;
+
+/**
+ * A wall of bricks to be used in brick breaker levels.  The bricks are the tiles of a single
+ * {@link TileMap} and each tile holds the health that its brick has left, so a brick is broken by
+ * clearing its tile.  The wall doesn't move.
+ *
+ * @author davidrusu
+ */
+public class BrickWall extends TestingEntity {
+    private static final byte TOTAL_HEALTH = 100;
+    private final TileMap tileMap;
+
+    public BrickWall(double x, double y, int columns, int rows, double cellWidth, double
+            cellHeight, double brickWidth, double brickHeight, Material material) {
+        super(x, y, new TileMap(columns, rows, cellWidth, cellHeight, brickWidth, brickHeight),
+                Double.POSITIVE_INFINITY, material);
+        tileMap = (TileMap) getShape();
+        tileMap.setAllTiles(TOTAL_HEALTH);
+    }
+
+    public int getBrickCount() {
+        return tileMap.getNumTiles();
+    }
+
+    /**
+     * @param index the index of the tile of the brick, see
+     *              {@link gameengine.collisiondetection.Collision#getTileIndex()}
+     */
+    public void doDamage(int index, double amount) {
+        double health = tileMap.getTile(index) - amount;
+        tileMap.setTile(index, health <= 0 ? TileMap.EMPTY : (byte) health);
+    }
+
+    @Override
+    public void draw(Renderer renderer) {
+        double offset = 0.1;
+        Rectangle brick = tileMap.getTileShape();
+        for (int i = 0; i < tileMap.getNumColumns() * tileMap.getNumRows(); i++) {
+            byte health = tileMap.getTile(i);
+            if (health == TileMap.EMPTY) {
+                continue;
+            }
+            float grad = (float) (((1 - health / (double) TOTAL_HEALTH) + offset) / (offset + 1));
+            renderer.setForegroundColor(grad, grad, grad);
+            brick.fill(renderer, tileMap.getTileX(this, i), tileMap.getTileY(this, i));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package bricklets;
+
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.EntityType;
+import gameengine.collisiondetection.World;
+import gameengine.context.Context;
+import gameengine.entities.Entity;
+import gameengine.physics.Material;
+import gameengine.physics.Physics;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Runs the scene of the {@link Benchmark} without a window on each broadphase and prints how
+ * long the updates take, so the broadphases can be compared on the same scene.  The balls are
+ * created from a fixed seed so every broadphase sees the same balls.  Each broadphase runs the
+ * scene once to warm up before the measured run, the updates are only measured once all the
+ * balls have been added.
+ * <p>
+ * Usage: {@code java -da bricklets.BroadphaseBenchmark [frames] [broadphase ...]}, the
+ * broadphases are the names of the {@link BroadphaseType}s and all of them are run by default.
+ * <p>
+ * The cache misses of a broadphase are measured by running only that broadphase under the
+ * hardware counters of perf, eg. {@code perf stat -e cache-references,cache-misses java -da
+ * bricklets.BroadphaseBenchmark 300 LINEAR_QUADTREE}, and comparing the counts with the ones of
+ * {@code SPATIAL_TREE}.  The counts include the warm up run, the JIT and the setup of the scene,
+ * so only the difference between two broadphases means anything.
+ *
+ * @author davidrusu
+ */
+public class BroadphaseBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int MAX_BALLS = 3000;
+    private static final int BALLS_PER_BATCH = 100;
+    private static final long NANOS_BETWEEN_BATCHES = 25000000;
+    private static final long FRAME_NANOS = 1000000000 / 60;
+    private static final int DEFAULT_FRAMES = 300;
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAMES;
+        BroadphaseType[] types = BroadphaseType.values();
+        if (args.length > 1) {
+            types = new BroadphaseType[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                types[i - 1] = BroadphaseType.valueOf(args[i]);
+            }
+        }
+        System.out.println("balls: " + MAX_BALLS + ", frames: " + frames);
+        for (BroadphaseType type : types) {
+            run(type, frames);
+            long[] frameNanos = run(type, frames);
+            long total = 0;
+            long max = 0;
+            for (long nanos : frameNanos) {
+                total += nanos;
+                max = Math.max(max, nanos);
+            }
+            System.out.printf("%-16s total %8.1f ms, mean %6.2f ms, max %6.2f ms%n", type,
+                    total / 1e6, total / 1e6 / frames, max / 1e6);
+        }
+    }
+
+    /**
+     * Runs the scene on the broadphase.
+     *
+     * @param type   the broadphase to run the scene on
+     * @param frames the number of updates to measure once all the balls have been added
+     * @return the time that each of the measured updates took in nanoseconds
+     */
+    public static long[] run(BroadphaseType type, int frames) {
+        World world = new World(type.createFactory(WIDTH, HEIGHT, Benchmark.BALL_SIZE));
+        Scene scene = new Scene(world);
+        while (scene.balls < MAX_BALLS) {
+            scene.update(FRAME_NANOS, 0, 0, 0);
+        }
+        long[] frameNanos = new long[frames];
+        for (int i = 0; i < frames; i++) {
+            long start = System.nanoTime();
+            scene.update(FRAME_NANOS, 0, 0, 0);
+            frameNanos[i] = System.nanoTime() - start;
+        }
+        return frameNanos;
+    }
+
+    /**
+     * The balls and walls of the {@link Benchmark} with the balls added on the same schedule.
+     */
+    private static class Scene extends Context {
+        private final Random rand = new Random(0);
+        private final ArrayList<Entity> newBalls = new ArrayList<>();
+        private final Material ballMaterial = Material.createMaterial(0, 1, 1);
+        private long lastTime = -NANOS_BETWEEN_BATCHES;
+        private int balls = 0;
+
+        Scene(World world) {
+            super(world, WIDTH, HEIGHT);
+            world.setCollisionGroups(EntityType.BALL, EntityType.BALL, EntityType.WALL);
+
+            double borderThickness = 0.0000001;
+            Entity.setDefaultMaterial(Material.createMaterial(0, 1, Double.POSITIVE_INFINITY));
+            Entity.setDefaultEntityType(EntityType.WALL);
+            world.addStaticEntity(new BoxEntity(WIDTH / 2, 0, WIDTH, borderThickness));
+            world.addStaticEntity(new BoxEntity(WIDTH / 2, HEIGHT, WIDTH, borderThickness));
+            world.addStaticEntity(new BoxEntity(0, HEIGHT / 2, borderThickness, HEIGHT));
+            world.addStaticEntity(new BoxEntity(WIDTH, HEIGHT / 2, borderThickness, HEIGHT));
+        }
+
+        @Override
+        protected void updateContext(long gameTime, double mouseDeltaX, double mouseDeltaY,
+                                     double mouseWheelRotation) {
+            if (lastTime + NANOS_BETWEEN_BATCHES > gameTime || balls >= MAX_BALLS) {
+                return;
+            }
+            double speed = 0.1;
+            double xLength = WIDTH - 50;
+            double yLength = HEIGHT - 100;
+            for (int i = 0; i < BALLS_PER_BATCH; i++) {
+                CircleEntity ball = new CircleEntity(WIDTH * 0.5 + (rand.nextDouble() - 0.5) *
+                        xLength, HEIGHT * 0.5 + (rand.nextDouble() - 0.5) * yLength, Benchmark
+                        .BALL_SIZE);
+                ball.setMass(1);
+                ball.setVelocity((rand.nextDouble() - 0.5) * speed, (rand.nextDouble() - 0.5) *
+                        speed);
+                ball.setMaterial(ballMaterial);
+                ball.setEntityType(EntityType.BALL);
+                newBalls.add(ball);
+                balls++;
+            }
+            world.addEntities(newBalls);
+            newBalls.clear();
+            lastTime = gameTime;
+        }
+
+        @Override
+        public void handleCollision(Collision collision) {
+            Physics.performCollision(collision);
+        }
+    }
+}
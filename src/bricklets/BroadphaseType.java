@@ -0,0 +1,63 @@
+package bricklets;
+
+import gameengine.collisiondetection.Broadphase;
+import gameengine.collisiondetection.tree.AABBTree;
+import gameengine.collisiondetection.tree.LinearQuadTree;
+import gameengine.collisiondetection.tree.SpatialHash;
+import gameengine.collisiondetection.tree.SpatialTree;
+import gameengine.collisiondetection.tree.SweepAndPrune;
+
+/**
+ * The broadphases that the benchmark scenes can be run on, used to pick the broadphase by name
+ * from the command line.
+ *
+ * @author davidrusu
+ */
+public enum BroadphaseType {
+    SPATIAL_TREE {
+        @Override
+        public Broadphase.Factory createFactory(double width, double height, double
+                entityRadius) {
+            return world -> new SpatialTree(world, width * 0.5, height * 0.5, Math.max(width,
+                    height) * 0.5);
+        }
+    },
+    SPATIAL_HASH {
+        @Override
+        public Broadphase.Factory createFactory(double width, double height, double
+                entityRadius) {
+            return world -> new SpatialHash(world, entityRadius * 4);
+        }
+    },
+    SWEEP_AND_PRUNE {
+        @Override
+        public Broadphase.Factory createFactory(double width, double height, double
+                entityRadius) {
+            return SweepAndPrune::new;
+        }
+    },
+    AABB_TREE {
+        @Override
+        public Broadphase.Factory createFactory(double width, double height, double
+                entityRadius) {
+            return AABBTree::new;
+        }
+    },
+    LINEAR_QUADTREE {
+        @Override
+        public Broadphase.Factory createFactory(double width, double height, double
+                entityRadius) {
+            return LinearQuadTree::new;
+        }
+    };
+
+    /**
+     * @param width        the width of the scene
+     * @param height       the height of the scene
+     * @param entityRadius the radius of the moving entities of the scene, the cells of the
+     *                     spatial hash are twice as wide as the entities
+     * @return the factory that creates this broadphase for a scene of the size
+     */
+    public abstract Broadphase.Factory createFactory(double width, double height, double
+            entityRadius);
+}
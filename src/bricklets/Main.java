@@ -23,19 +23,36 @@ public class Main implements ButtonHandler {
     private Test testing;
 
     public Main(GameController controller) {
+        this(controller, null);
+    }
+
+    /**
+     * @param controller     the {@link GameController} of the game
+     * @param benchmarkPhase the broadphase that the benchmark is run on, null for the default
+     */
+    public Main(GameController controller, BroadphaseType benchmarkPhase) {
         this.controller = controller;
         BasicButton[] buttons = {gameButton, benchmarkButton, testButton, exitButton};
-        benchmark = new Benchmark(controller);
+        ScreenManager screen = controller.getScreenManager();
+        if (benchmarkPhase == null) {
+            benchmark = new Benchmark(controller);
+        } else {
+            benchmark = new Benchmark(controller, benchmarkPhase.createFactory(screen.getWidth(),
+                    screen.getHeight(), Benchmark.BALL_SIZE));
+        }
         bricks = new BrickBreaker(controller);
         testing = new Test(controller);
-        ScreenManager screen = controller.getScreenManager();
         menu = new BasicMenu(controller, buttons, this, new SolidColorGraphic(new RColor
                 (19, 9, 18), screen.getWidth(), screen.getHeight()));
     }
 
+    /**
+     * @param args optionally the name of the {@link BroadphaseType} to run the benchmark on
+     */
     public static void main(String[] args) {
+        BroadphaseType benchmarkPhase = args.length > 0 ? BroadphaseType.valueOf(args[0]) : null;
         GameController controller = new GameController(60);
-        Main main = new Main(controller);
+        Main main = new Main(controller, benchmarkPhase);
         main.startGame();
     }
 
@@ -0,0 +1,161 @@
+package bricklets;
+
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.EntityType;
+import gameengine.collisiondetection.World;
+import gameengine.context.Context;
+import gameengine.entities.Entity;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Times {@link World#findNearest(double, double, Entity[], double[])} and
+ * {@link World#findWithinRadius(double, double, double, Entity[], double[])} against a brute
+ * force scan of every entity, without a window.  The balls are placed on a jittered grid from a
+ * fixed seed and the world is updated once before the searches so its tree is built.  Every
+ * search is checked against the brute force scan before it is timed.
+ * <p>
+ * Usage: {@code java -da bricklets.NeighbourBenchmark [broadphase]}, the broadphase is the name
+ * of a {@link BroadphaseType} and is {@code SPATIAL_TREE} by default.
+ *
+ * @author davidrusu
+ */
+public class NeighbourBenchmark {
+    private static final int[] ENTITY_COUNTS = {1000, 10000, 100000};
+    private static final double SPACING = 10;
+    private static final double BALL_RADIUS = 2;
+    private static final int NUM_NEAREST = 8;
+    private static final double RADIUS = 100;
+    private static final int NUM_QUERIES = 2000;
+    private static final long FRAME_NANOS = 1000000000 / 60;
+
+    public static void main(String[] args) {
+        BroadphaseType type = args.length > 0 ? BroadphaseType.valueOf(args[0]) :
+                BroadphaseType.SPATIAL_TREE;
+        System.out.println(type + ", " + NUM_NEAREST + " nearest / within " + RADIUS + ", " +
+                NUM_QUERIES + " queries");
+        for (int count : ENTITY_COUNTS) {
+            run(type, count);
+        }
+    }
+
+    private static void run(BroadphaseType type, int count) {
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        double size = columns * SPACING;
+        Random rand = new Random(0);
+        World world = new World(type.createFactory(size, size, BALL_RADIUS));
+        world.setCollisionGroups(EntityType.BALL, EntityType.BALL);
+        Scene scene = new Scene(world, (int) size);
+        Entity.setDefaultEntityType(EntityType.BALL);
+        ArrayList<Entity> balls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double x = (i % columns + 0.5 + (rand.nextDouble() - 0.5) * 0.5) * SPACING;
+            double y = (i / columns + 0.5 + (rand.nextDouble() - 0.5) * 0.5) * SPACING;
+            balls.add(new CircleEntity(x, y, BALL_RADIUS));
+        }
+        world.addEntities(balls);
+        scene.update(FRAME_NANOS, 0, 0, 0);
+
+        double[] xs = new double[NUM_QUERIES];
+        double[] ys = new double[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            xs[i] = rand.nextDouble() * size;
+            ys[i] = rand.nextDouble() * size;
+        }
+        Entity[] found = new Entity[NUM_NEAREST];
+        double[] distances = new double[NUM_NEAREST];
+        Entity[] expected = new Entity[NUM_NEAREST];
+        double[] expectedDistances = new double[NUM_NEAREST];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            int numFound = world.findNearest(xs[i], ys[i], found, distances);
+            check(numFound, distances, bruteForce(balls, xs[i], ys[i], Double
+                    .POSITIVE_INFINITY, expected, expectedDistances), expectedDistances);
+            numFound = world.findWithinRadius(xs[i], ys[i], RADIUS, found, distances);
+            check(numFound, distances, bruteForce(balls, xs[i], ys[i], RADIUS, expected,
+                    expectedDistances), expectedDistances);
+        }
+
+        long nearestNanos = 0;
+        long radiusNanos = 0;
+        long bruteNanos = 0;
+        // the first pass warms up the searches, the second one is timed
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                world.findNearest(xs[i], ys[i], found, distances);
+            }
+            nearestNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                world.findWithinRadius(xs[i], ys[i], RADIUS, found, distances);
+            }
+            radiusNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                bruteForce(balls, xs[i], ys[i], Double.POSITIVE_INFINITY, expected,
+                        expectedDistances);
+            }
+            bruteNanos = System.nanoTime() - start;
+        }
+        System.out.printf("%7d entities: nearest %8.2f us, radius %8.2f us, brute force %9.2f " +
+                "us%n", count, nearestNanos / 1e3 / NUM_QUERIES, radiusNanos / 1e3 /
+                NUM_QUERIES, bruteNanos / 1e3 / NUM_QUERIES);
+    }
+
+    /**
+     * Scans every entity and keeps the nearest ones that are within the radius sorted by
+     * distance, as many as the array can hold.
+     *
+     * @return the number of entities that were found
+     */
+    private static int bruteForce(ArrayList<Entity> balls, double x, double y, double radius,
+                                  Entity[] entities, double[] distances) {
+        int numFound = 0;
+        for (int i = 0; i < balls.size(); i++) {
+            Entity ball = balls.get(i);
+            double dx = ball.getX() - x;
+            double dy = ball.getY() - y;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (distance > radius || numFound == entities.length && distance >=
+                    distances[numFound - 1]) {
+                continue;
+            }
+            int index = numFound == entities.length ? numFound - 1 : numFound++;
+            while (index > 0 && distances[index - 1] > distance) {
+                entities[index] = entities[index - 1];
+                distances[index] = distances[index - 1];
+                index--;
+            }
+            entities[index] = ball;
+            distances[index] = distance;
+        }
+        return numFound;
+    }
+
+    private static void check(int numFound, double[] distances, int expectedNumFound, double[]
+            expectedDistances) {
+        if (numFound != expectedNumFound) {
+            throw new AssertionError("found " + numFound + " instead of " + expectedNumFound);
+        }
+        for (int i = 0; i < numFound; i++) {
+            if (distances[i] != expectedDistances[i]) {
+                throw new AssertionError("distance " + i + " is " + distances[i] + " instead " +
+                        "of " + expectedDistances[i]);
+            }
+        }
+    }
+
+    /**
+     * Updates the world once so the broadphase is built before the searches.
+     */
+    private static class Scene extends Context {
+        Scene(World world, int size) {
+            super(world, size, size);
+        }
+
+        @Override
+        public void handleCollision(Collision collision) {
+        }
+    }
+}
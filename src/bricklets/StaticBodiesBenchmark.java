@@ -0,0 +1,139 @@
+package bricklets;
+
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.EntityType;
+import gameengine.collisiondetection.World;
+import gameengine.context.Context;
+import gameengine.entities.Entity;
+import gameengine.physics.Material;
+import gameengine.physics.Physics;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks that keeping the walls of a level as static bodies doesn't make the broadphases do
+ * more narrowphase tests than keeping the same walls as ordinary entities with infinite mass.
+ * Balls coast around a level of walls without colliding with each other, so almost every test
+ * is a ball against a wall.  Each broadphase runs the scene both ways from the same seed and
+ * the number of narrowphase tests of each are printed, an {@link AssertionError} is thrown if
+ * the static bodies do more tests.
+ * <p>
+ * Usage: {@code java bricklets.StaticBodiesBenchmark [frames] [broadphase ...]}, the
+ * broadphases are the names of the {@link BroadphaseType}s and all of them are run by default.
+ *
+ * @author davidrusu
+ */
+public class StaticBodiesBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int NUM_BALLS = 1000;
+    private static final double BALL_RADIUS = 5;
+    private static final int NUM_PILLARS = 24;
+    private static final long FRAME_NANOS = 1000000000 / 60;
+    private static final int DEFAULT_FRAMES = 150;
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAMES;
+        BroadphaseType[] types = BroadphaseType.values();
+        if (args.length > 1) {
+            types = new BroadphaseType[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                types[i - 1] = BroadphaseType.valueOf(args[i]);
+            }
+        }
+        System.out.println("balls: " + NUM_BALLS + ", frames: " + frames);
+        for (BroadphaseType type : types) {
+            long staticTests = run(type, frames, true);
+            long entityTests = run(type, frames, false);
+            System.out.printf("%-16s static bodies %10d tests, entities %10d tests%n", type,
+                    staticTests, entityTests);
+            if (staticTests > entityTests) {
+                throw new AssertionError(type + ": the static bodies did " + staticTests +
+                        " narrowphase tests, the same walls as entities did " + entityTests);
+            }
+        }
+    }
+
+    /**
+     * Runs the scene on the broadphase.
+     *
+     * @param type           the broadphase to run the scene on
+     * @param frames         the number of updates to run
+     * @param areWallsStatic true to add the walls as static bodies, false to add them as
+     *                       ordinary entities
+     * @return the number of narrowphase tests that the updates did
+     */
+    public static long run(BroadphaseType type, int frames, boolean areWallsStatic) {
+        World world = new World(type.createFactory(WIDTH, HEIGHT, BALL_RADIUS));
+        Scene scene = new Scene(world);
+        world.setCollisionGroup(EntityType.BALL.ordinal(), EntityType.WALL.ordinal());
+        Random rand = new Random(0);
+
+        Entity.setDefaultMaterial(Material.createMaterial(0, 1, Double.POSITIVE_INFINITY));
+        Entity.setDefaultEntityType(EntityType.WALL);
+        double thickness = 10;
+        ArrayList<Entity> walls = new ArrayList<>();
+        walls.add(new BoxEntity(WIDTH / 2, 0, WIDTH, thickness));
+        walls.add(new BoxEntity(WIDTH / 2, HEIGHT, WIDTH, thickness));
+        walls.add(new BoxEntity(0, HEIGHT / 2, thickness, HEIGHT));
+        walls.add(new BoxEntity(WIDTH, HEIGHT / 2, thickness, HEIGHT));
+        for (int i = 0; i < NUM_PILLARS; i++) {
+            walls.add(new BoxEntity(100 + rand.nextDouble() * (WIDTH - 200), 100 + rand
+                    .nextDouble() * (HEIGHT - 200), 40, 40));
+        }
+        for (Entity wall : walls) {
+            if (areWallsStatic) {
+                world.addStaticEntity(wall);
+            } else {
+                world.addEntity(wall);
+            }
+        }
+
+        Material ballMaterial = Material.createMaterial(0, 1, 1);
+        ArrayList<Entity> balls = new ArrayList<>();
+        double speed = 0.5;
+        while (balls.size() < NUM_BALLS) {
+            CircleEntity ball = new CircleEntity(50 + rand.nextDouble() * (WIDTH - 100), 50 +
+                    rand.nextDouble() * (HEIGHT - 100), BALL_RADIUS);
+            if (isInsidePillar(walls, ball)) {
+                continue;
+            }
+            ball.setMass(1);
+            ball.setMaterial(ballMaterial);
+            ball.setEntityType(EntityType.BALL);
+            ball.setVelocity((rand.nextDouble() - 0.5) * speed, (rand.nextDouble() - 0.5) *
+                    speed);
+            balls.add(ball);
+        }
+        world.addEntities(balls);
+
+        world.resetNarrowphaseTestCount();
+        for (int i = 0; i < frames; i++) {
+            scene.update(FRAME_NANOS, 0, 0, 0);
+        }
+        return world.getNumNarrowphaseTests();
+    }
+
+    private static boolean isInsidePillar(ArrayList<Entity> walls, Entity ball) {
+        for (Entity wall : walls) {
+            if (Math.abs(ball.getX() - wall.getX()) <= ball.getHalfWidth() + wall
+                    .getHalfWidth() && Math.abs(ball.getY() - wall.getY()) <= ball
+                    .getHalfHeight() + wall.getHalfHeight()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Scene extends Context {
+        Scene(World world) {
+            super(world, WIDTH, HEIGHT);
+        }
+
+        @Override
+        public void handleCollision(Collision collision) {
+            Physics.performCollision(collision);
+        }
+    }
+}
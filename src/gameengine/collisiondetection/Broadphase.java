@@ -0,0 +1,120 @@
+package gameengine.collisiondetection;
+
+import Utilities.UnorderedArrayList;
+import gameengine.context.Context;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+import gameengine.motion.environmentmotions.WorldEffect;
+
+import java.util.Collection;
+
+/**
+ * The structure that a {@link World} stores its entities in.  It is responsible for finding the
+ * collisions between the entities and handling them in the order that they happen.
+ *
+ * @author davidrusu
+ */
+public interface Broadphase {
+
+    void addEntity(Entity entity);
+
+    /**
+     * Adds all the entities at once, broadphases that can build their structure for many
+     * entities faster than adding them one at a time override this.
+     *
+     * @param entities the entities to add
+     */
+    default void addEntities(Collection<? extends Entity> entities) {
+        for (Entity entity : entities) {
+            addEntity(entity);
+        }
+    }
+
+    void clear();
+
+    void updateMotions(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects);
+
+    /**
+     * Recalculates the bounding boxes of the entities for the next update and moves the entities
+     * that no longer fit where they are stored.
+     *
+     * @param time the amount of time that the bounding boxes have to cover
+     */
+    void ensureEntitiesAreContained(double time);
+
+    /**
+     * Finds and handles all the collisions that happen in the elapsed time in the order that
+     * they happen.
+     *
+     * @param elapsedTime the amount of time to update the entities by
+     * @param context     the {@link Context} that handles the collisions
+     */
+    void calcCollision(double elapsedTime, Context context);
+
+    void updateEntities(double elapsedTime);
+
+    void draw(double minX, double maxX, double minY, double maxY, Renderer renderer);
+
+    /**
+     * Draws the outline of the structure, used for debugging.
+     *
+     * @param renderer the {@link Renderer} to draw with
+     * @param color    the color to draw the structure in
+     */
+    void drawStructure(Renderer renderer, RColor color);
+
+    int getEntityCount();
+
+    /**
+     * Passes the entities that could overlap the region of the query to
+     * {@link RegionQuery#test(Entity)}, only the parts of the structure that overlap the bounds
+     * of the query are visited.  Called between updates.
+     *
+     * @param query the query to pass the entities to
+     */
+    void query(RegionQuery query);
+
+    /**
+     * Passes the entities that the ray of the raycast could hit to
+     * {@link RaycastQuery#test(Entity)}, only the parts of the structure that the ray passes
+     * through are visited.  Called between updates.
+     *
+     * @param raycast the raycast to pass the entities to
+     */
+    void raycast(RaycastQuery raycast);
+
+    /**
+     * Passes the entities that could be among the nearest to the point of the search to
+     * {@link NearestQuery#test(Entity)}, the parts of the structure that are farther than the
+     * bound of the search are skipped.  Called between updates.
+     *
+     * @param search the search to pass the entities to
+     */
+    void findNearest(NearestQuery search);
+
+    /**
+     * Called when the collision groups of the world have changed or an entity has changed its
+     * type, broadphases that only pair the entities whose types collide override this.
+     */
+    default void collisionGroupsChanged() {
+    }
+
+    /**
+     * Calculates the collisions at the start of each update on several threads, broadphases
+     * that can split that work override this.  It is ignored by the others.
+     *
+     * @param parallelism      the number of threads to use, 1 or less turns the parallel pass off
+     * @param sequentialCutoff parts of the structure with at most this many entities are
+     *                         calculated on a single thread
+     */
+    default void setParallelism(int parallelism, int sequentialCutoff) {
+    }
+
+    /**
+     * Creates the {@link Broadphase} of a {@link World}.
+     */
+    interface Factory {
+        Broadphase create(World world);
+    }
+}
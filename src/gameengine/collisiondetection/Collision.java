@@ -15,6 +15,7 @@ public class Collision {
     private Entity a = null, b = null;
     private double timeToCollision = CollisionData.NO_COLLISION;
     private double tempMin, tempMax;
+    private int tileIndex = -1;
 
     public Collision() {
     }
@@ -31,6 +32,7 @@ public class Collision {
         collisionNormal.set(normalX, normalY);
         this.a = a;
         this.b = b;
+        tileIndex = -1;
     }
 
     public void set(double timeToCollision, Vector2D collisionNormal, Entity a, Entity b) {
@@ -38,6 +40,7 @@ public class Collision {
         this.collisionNormal = collisionNormal;
         this.a = a;
         this.b = b;
+        tileIndex = -1;
     }
 
     public void set(Collision collision) {
@@ -45,6 +48,7 @@ public class Collision {
         collisionNormal.set(collision.collisionNormal);
         a = collision.a;
         b = collision.b;
+        tileIndex = collision.tileIndex;
     }
 
     public void setNoCollision() {
@@ -52,6 +56,7 @@ public class Collision {
         collisionNormal.clear();
         a = null;
         b = null;
+        tileIndex = -1;
     }
 
     public double getCollisionTime() {
@@ -70,6 +75,18 @@ public class Collision {
         return b;
     }
 
+    /**
+     * @return the index of the tile that was hit when one of the entities has a
+     * {@link gameengine.collisiondetection.shapes.TileMap}, -1 otherwise
+     */
+    public int getTileIndex() {
+        return tileIndex;
+    }
+
+    public void setTileIndex(int tileIndex) {
+        this.tileIndex = tileIndex;
+    }
+
     public void setCollisionTime(double collisionTime) {
         this.timeToCollision = collisionTime;
     }
@@ -78,10 +95,10 @@ public class Collision {
         if (timeToCollision != CollisionData.NO_COLLISION) {
             assert a != null : timeToCollision;
             assert b != null : timeToCollision;
-            assert a.getContainingTree() != null;
-            assert a.getContainingTree().isEntityInTree(a);
-            assert b.getContainingTree() != null;
-            assert b.getContainingTree().isEntityInTree(b);
+            assert a.isStaticBody() || a.getContainingTree() != null && a.getContainingTree()
+                    .isEntityInTree(a);
+            assert b.isStaticBody() || b.getContainingTree() != null && b.getContainingTree()
+                    .isEntityInTree(b);
         } else {
             assert a == null;
             assert b == null;
@@ -0,0 +1,57 @@
+package gameengine.collisiondetection;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * A worker of the {@link ForkJoinPool} that calculates collisions in parallel.  Each worker has
+ * its own temp {@link Collision} so the workers don't share the temp collision of the
+ * {@link World}, and its own count of narrowphase tests so the count of the world isn't shared
+ * either.
+ *
+ * @author davidrusu
+ */
+public class CollisionWorkerThread extends ForkJoinWorkerThread {
+    private final Collision tempCollision = new Collision();
+    private long numNarrowphaseTests = 0;
+
+    protected CollisionWorkerThread(ForkJoinPool pool) {
+        super(pool);
+    }
+
+    /**
+     * Creates a pool whose workers are {@link CollisionWorkerThread}s.
+     *
+     * @param parallelism the number of workers
+     * @return the new pool
+     */
+    public static ForkJoinPool createPool(int parallelism) {
+        return new ForkJoinPool(parallelism, CollisionWorkerThread::new, null, false);
+    }
+
+    public Collision getTempCollision() {
+        return tempCollision;
+    }
+
+    public void narrowphaseTested() {
+        numNarrowphaseTests++;
+    }
+
+    /**
+     * Returns the number of narrowphase tests that the current thread has counted since the
+     * last call and resets it.  Threads that aren't workers count into the world directly so
+     * they always return 0.
+     *
+     * @return the number of tests that haven't been taken yet
+     */
+    public static long takeNarrowphaseTests() {
+        Thread thread = Thread.currentThread();
+        if (!(thread instanceof CollisionWorkerThread)) {
+            return 0;
+        }
+        CollisionWorkerThread worker = (CollisionWorkerThread) thread;
+        long numTests = worker.numNarrowphaseTests;
+        worker.numNarrowphaseTests = 0;
+        return numTests;
+    }
+}
@@ -1,10 +1,32 @@
 package gameengine.collisiondetection;
 
 /**
- * documentation
+ * The built in types of entities, which entities collide is set by the collision groups of the
+ * {@link World}.  An entity's type is stored as an int so any number of user defined types can
+ * be used alongside these, a user defined type is any int from {@link #FIRST_USER_TYPE} up.
  *
  * @author davidrusu
  */
 public enum EntityType {
-    STANDARD, WALL, BALL, PADDLE, ENEMY
+    STANDARD, WALL, BALL, PADDLE, ENEMY;
+
+    /**
+     * The first type that is free to be used as a user defined type
+     */
+    public static final int FIRST_USER_TYPE = ENEMY.ordinal() + 1;
+
+    /**
+     * The number of bits in the type masks that the nodes use to skip the entities that can't
+     * collide, types that are a multiple of this apart share a bit so the masks are exact for
+     * the first 64 types and only rule out fewer nodes after that.
+     */
+    public static final int MASK_BITS = Long.SIZE;
+
+    /**
+     * @param type the type of an entity
+     * @return the type mask that has the bit of the type set
+     */
+    public static long getBitMask(int type) {
+        return 1L << (type & MASK_BITS - 1);
+    }
 }
@@ -0,0 +1,153 @@
+package gameengine.collisiondetection;
+
+import gameengine.entities.Entity;
+
+/**
+ * A search for the entities of a {@link World} that are nearest to a point, see
+ * {@link World#findNearest(double, double, Entity[], double[])}.  The distance to an entity is
+ * the distance to its center.  The world reuses a single search and the nearest entities are
+ * written into the arrays that are passed in, so searching doesn't allocate anything.
+ * <p>
+ * The search keeps the nearest entities so far sorted by distance.  Once as many entities as
+ * were asked for have been found, the distance to the farthest of them bounds the search, and
+ * the {@link Broadphase} skips the parts of its structure that are farther away than that.
+ * The parts that are nearest are visited first so the bound shrinks quickly.
+ *
+ * @author davidrusu
+ */
+public class NearestQuery {
+    private final World world;
+    private double x, y;
+    private double maxDistanceSquared;
+    private int type;
+    private long typeMask;
+    private Entity[] entities;
+    private double[] distancesSquared = new double[0];
+    private int maxNumFound;
+    private int numFound;
+    private boolean isSearching = false;
+
+    NearestQuery(World world) {
+        this.world = world;
+    }
+
+    /**
+     * @param entities receives the nearest entities, nearest first, as many as it can hold
+     */
+    void begin(double x, double y, double maxDistance, int type, Entity[] entities) {
+        assert !isSearching : "the world can't be searched from inside a search";
+        assert type == RegionQuery.ALL_TYPES || type >= 0;
+        assert maxDistance >= 0;
+        assert entities.length > 0;
+        isSearching = true;
+        this.x = x;
+        this.y = y;
+        maxDistanceSquared = maxDistance * maxDistance;
+        this.type = type;
+        typeMask = type == RegionQuery.ALL_TYPES ? -1L : world.getCollisionMask(type);
+        this.entities = entities;
+        maxNumFound = entities.length;
+        if (distancesSquared.length < maxNumFound) {
+            distancesSquared = new double[maxNumFound];
+        }
+        numFound = 0;
+    }
+
+    /**
+     * @param distances receives the distances to the entities that were found, or null
+     */
+    void end(double[] distances) {
+        isSearching = false;
+        if (distances != null) {
+            assert distances.length >= numFound;
+            for (int i = 0; i < numFound; i++) {
+                distances[i] = Math.sqrt(distancesSquared[i]);
+            }
+        }
+        entities = null;
+    }
+
+    /**
+     * @return the x coordinate of the point that the search is around
+     */
+    public double getX() {
+        return x;
+    }
+
+    /**
+     * @return the y coordinate of the point that the search is around
+     */
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * @return the number of entities that the last search found
+     */
+    public int getNumFound() {
+        return numFound;
+    }
+
+    /**
+     * @return the square of the distance beyond which entities can't be found anymore, it
+     * shrinks once as many entities as were asked for have been found
+     */
+    public double getBoundSquared() {
+        return numFound < maxNumFound ? maxDistanceSquared : distancesSquared[maxNumFound - 1];
+    }
+
+    /**
+     * Finds the square of the distance from the point of the search to the nearest point of the
+     * area.  The parts of a structure that are farther than the bound can be skipped, and the
+     * others can be visited nearest first.
+     *
+     * @return the square of the distance to the area, 0 if the point is inside
+     */
+    public double distanceSquared(double minX, double minY, double maxX, double maxY) {
+        double deltaX = Math.max(0, Math.max(minX - x, x - maxX));
+        double deltaY = Math.max(0, Math.max(minY - y, y - maxY));
+        return deltaX * deltaX + deltaY * deltaY;
+    }
+
+    /**
+     * Checks if none of the types in the type mask can be found by the search, the nodes with
+     * that type mask can be skipped.
+     *
+     * @param entityTypeMask the type mask of the entities in a node and below
+     */
+    public boolean canSkip(long entityTypeMask) {
+        return (typeMask & entityTypeMask) == 0;
+    }
+
+    /**
+     * Keeps the entity if it is nearer than the farthest of the entities found so far and its
+     * type is one that is searched for.
+     *
+     * @param entity an entity that may be one of the nearest
+     */
+    public void test(Entity entity) {
+        if (type != RegionQuery.ALL_TYPES && !world.canCollide(type, entity.getEntityType())) {
+            return;
+        }
+        double deltaX = entity.getX() - x;
+        double deltaY = entity.getY() - y;
+        double distanceSquared = deltaX * deltaX + deltaY * deltaY;
+        if (distanceSquared > getBoundSquared()) {
+            return;
+        }
+        // insertion sort, the farthest entity drops off the end when the arrays are full
+        int index = numFound;
+        if (numFound < maxNumFound) {
+            numFound++;
+        } else {
+            index--;
+        }
+        while (index > 0 && distancesSquared[index - 1] > distanceSquared) {
+            entities[index] = entities[index - 1];
+            distancesSquared[index] = distancesSquared[index - 1];
+            index--;
+        }
+        entities[index] = entity;
+        distancesSquared[index] = distanceSquared;
+    }
+}
@@ -0,0 +1,150 @@
+package gameengine.collisiondetection;
+
+import gameengine.collisiondetection.shapes.Circle;
+import gameengine.collisiondetection.shapes.Rectangle;
+import gameengine.entities.Entity;
+
+import java.util.function.Consumer;
+
+/**
+ * Pushes apart the entities that overlap each other at the end of an update that has used up its
+ * collision budget, see {@link World#setCollisionBudget(int, long)}.  The collisions between
+ * entities with finite mass aren't handled for the rest of such an update so those entities can
+ * move into each other, they are moved apart along the line between their centers if both are
+ * circles and along the axis that their bounding boxes overlap the least on otherwise.  Each
+ * entity is moved by a share of the overlap that depends on the masses, sleeping entities and
+ * entities with infinite mass aren't moved.  Moving an entity can push it into another one, or
+ * into a wall, so the entities are separated a few times in a row.  The speed at which the
+ * entities approach each other is removed as well, like in a collision without any restitution.
+ * <p>
+ * Only circles and rectangles with infinite mass push the other entities out, the bounding box
+ * of other shapes, such as a tile map, says little about how deep an entity is in them.
+ *
+ * @author davidrusu
+ */
+public class OverlapSeparation {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EXPANSION_FACTOR = 2;
+    private static final int MAX_PASSES = 10;
+    /**
+     * Overlaps this small are left over from rounding errors
+     */
+    private static final double MIN_DEPTH = 1e-9;
+    private final World world;
+    private final Consumer<Entity> collector = this::addEntity;
+    private final Consumer<Entity> separator = this::separate;
+    private Entity[] entities = new Entity[INITIAL_CAPACITY];
+    private int numEntities = 0;
+    private Entity current = null;
+    private int numSeparated = 0;
+
+    public OverlapSeparation(World world) {
+        this.world = world;
+    }
+
+    /**
+     * Pushes apart the entities that overlap each other.
+     *
+     * @return the number of times that a pair of entities has been pushed apart
+     */
+    public int separate() {
+        world.queryAABB(-Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, Double
+                .MAX_VALUE, collector);
+        int total = 0;
+        for (int i = 0; i < MAX_PASSES; i++) {
+            numSeparated = 0;
+            for (int j = 0; j < numEntities; j++) {
+                current = entities[j];
+                world.query(current.getShape(), current.getX(), current.getY(), current
+                        .getEntityType(), separator);
+            }
+            total += numSeparated;
+            if (numSeparated == 0) {
+                break;
+            }
+        }
+        for (int i = 0; i < numEntities; i++) {
+            entities[i] = null;
+        }
+        numEntities = 0;
+        current = null;
+        return total;
+    }
+
+    private void addEntity(Entity entity) {
+        if (isFixed(entity)) {
+            return;
+        }
+        if (numEntities == entities.length) {
+            Entity[] temp = new Entity[numEntities * EXPANSION_FACTOR];
+            System.arraycopy(entities, 0, temp, 0, numEntities);
+            entities = temp;
+        }
+        entities[numEntities] = entity;
+        numEntities++;
+    }
+
+    /**
+     * Pushes the entity and the current entity apart, the entity has been found by querying the
+     * shape of the current entity so the shapes overlap.
+     */
+    private void separate(Entity entity) {
+        Entity a = current;
+        Entity b = entity;
+        if (a == b || b.getMass() == Double.POSITIVE_INFINITY && !(b.getShape() instanceof
+                Circle || b.getShape() instanceof Rectangle)) {
+            return;
+        }
+        double deltaX = b.getX() - a.getX();
+        double deltaY = b.getY() - a.getY();
+        double normalX;
+        double normalY;
+        double depth;
+        if (a.getShape() instanceof Circle && b.getShape() instanceof Circle) {
+            double dist = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+            depth = ((Circle) a.getShape()).getRadius() + ((Circle) b.getShape()).getRadius() -
+                    dist;
+            normalX = dist == 0 ? 0 : deltaX / dist;
+            normalY = dist == 0 ? 1 : deltaY / dist;
+        } else {
+            double depthX = a.getHalfWidth() + b.getHalfWidth() - Math.abs(deltaX);
+            double depthY = a.getHalfHeight() + b.getHalfHeight() - Math.abs(deltaY);
+            if (depthX < depthY) {
+                depth = depthX;
+                normalX = deltaX < 0 ? -1 : 1;
+                normalY = 0;
+            } else {
+                depth = depthY;
+                normalX = 0;
+                normalY = deltaY < 0 ? -1 : 1;
+            }
+        }
+        if (depth <= MIN_DEPTH) {
+            return;
+        }
+        double aShare = isFixed(b) ? 1 : b.getMass() / (a.getMass() + b.getMass());
+        double bShare = 1 - aShare;
+        a.setPosition(a.getX() - normalX * depth * aShare, a.getY() - normalY * depth * aShare);
+        if (bShare > 0) {
+            b.setPosition(b.getX() + normalX * depth * bShare, b.getY() + normalY * depth *
+                    bShare);
+        }
+        // without this the entities keep moving into each other, which pumps in energy from
+        // forces such as gravity
+        double approachSpeed = (a.getDX() - b.getDX()) * normalX + (a.getDY() - b.getDY()) *
+                normalY;
+        if (approachSpeed > 0) {
+            a.setVelocity(a.getDX() - normalX * approachSpeed * aShare, a.getDY() - normalY *
+                    approachSpeed * aShare);
+            if (bShare > 0) {
+                b.setVelocity(b.getDX() + normalX * approachSpeed * bShare, b.getDY() + normalY
+                        * approachSpeed * bShare);
+            }
+        }
+        numSeparated++;
+    }
+
+    private static boolean isFixed(Entity entity) {
+        return entity.getMass() == Double.POSITIVE_INFINITY || entity.isSleeping();
+    }
+}
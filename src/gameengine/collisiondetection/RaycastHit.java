@@ -0,0 +1,88 @@
+package gameengine.collisiondetection;
+
+import gameengine.entities.Entity;
+
+/**
+ * Where a ray hits the shape of an entity, see
+ * {@link World#raycast(double, double, double, double, double)}.  The world reuses its hits so
+ * a hit is only valid until the next raycast.
+ *
+ * @author davidrusu
+ */
+public class RaycastHit {
+    private Entity entity;
+    private double distance;
+    private double normalX, normalY;
+    private double pointX, pointY;
+
+    /**
+     * Sets where the ray hits a shape, the shapes set the distance and normal and the world
+     * sets the rest.
+     *
+     * @param distance the distance along the ray to the hit, 0 if the ray starts inside
+     * @param normalX  the x component of the unit normal of the shape at the hit
+     * @param normalY  the y component of the unit normal of the shape at the hit
+     */
+    public void set(double distance, double normalX, double normalY) {
+        this.distance = distance;
+        this.normalX = normalX;
+        this.normalY = normalY;
+    }
+
+    void setEntity(Entity entity, double pointX, double pointY) {
+        this.entity = entity;
+        this.pointX = pointX;
+        this.pointY = pointY;
+    }
+
+    void set(RaycastHit hit) {
+        entity = hit.entity;
+        distance = hit.distance;
+        normalX = hit.normalX;
+        normalY = hit.normalY;
+        pointX = hit.pointX;
+        pointY = hit.pointY;
+    }
+
+    void clear() {
+        entity = null;
+    }
+
+    public Entity getEntity() {
+        return entity;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return the x component of the normal of the shape where the ray enters it, the normal
+     * points against the ray if the ray starts inside the shape
+     */
+    public double getNormalX() {
+        return normalX;
+    }
+
+    /**
+     * @return the y component of the normal of the shape where the ray enters it, the normal
+     * points against the ray if the ray starts inside the shape
+     */
+    public double getNormalY() {
+        return normalY;
+    }
+
+    public double getPointX() {
+        return pointX;
+    }
+
+    public double getPointY() {
+        return pointY;
+    }
+
+    @Override
+    public String toString() {
+        return "RaycastHit(" + entity + " distance: " + distance + " normal: " + normalX + ", " +
+                normalY + ")";
+    }
+}
@@ -0,0 +1,199 @@
+package gameengine.collisiondetection;
+
+import gameengine.entities.Entity;
+
+import java.util.function.Consumer;
+
+/**
+ * A ray cast through the entities of a {@link World}, see
+ * {@link World#raycast(double, double, double, double, double)}.  The world reuses a single
+ * raycast so that casting doesn't allocate anything.  The {@link Broadphase} only visits the
+ * parts of its structure that the ray passes through, nearest first when it can, and passes the
+ * entities there to {@link #test(Entity)}.
+ * <p>
+ * A raycast either keeps the nearest hit, in which case the ray is shortened to the nearest hit
+ * so far and everything beyond it is skipped, or passes every hit to a consumer in the order
+ * that they are found.
+ *
+ * @author davidrusu
+ */
+public class RaycastQuery {
+    private final World world;
+    private final RaycastHit nearestHit = new RaycastHit();
+    private final RaycastHit tempHit = new RaycastHit();
+    private double originX, originY;
+    private double dirX, dirY;
+    /**
+     * The inverse of the direction, infinite along an axis that the ray is parallel to
+     */
+    private double invDirX, invDirY;
+    private double maxDistance;
+    private int type;
+    private long typeMask;
+    private boolean isNearestOnly;
+    private Consumer<RaycastHit> consumer;
+    private int numHits;
+    private boolean isCasting = false;
+
+    RaycastQuery(World world) {
+        this.world = world;
+    }
+
+    /**
+     * @param dirX     the x component of the direction, it doesn't have to be a unit vector
+     * @param dirY     the y component of the direction, it doesn't have to be a unit vector
+     * @param consumer receives every hit, or null to only keep the nearest hit
+     */
+    void begin(double originX, double originY, double dirX, double dirY, double maxDistance,
+               int type, Consumer<RaycastHit> consumer) {
+        assert !isCasting : "the world can't be raycast from inside a raycast";
+        assert type == RegionQuery.ALL_TYPES || type >= 0;
+        assert maxDistance >= 0;
+        double length = Math.sqrt(dirX * dirX + dirY * dirY);
+        assert length > 0 : "the direction of the ray can't be zero";
+        isCasting = true;
+        this.originX = originX;
+        this.originY = originY;
+        this.dirX = dirX / length;
+        this.dirY = dirY / length;
+        invDirX = 1 / this.dirX;
+        invDirY = 1 / this.dirY;
+        this.maxDistance = maxDistance;
+        this.type = type;
+        typeMask = type == RegionQuery.ALL_TYPES ? -1L : world.getCollisionMask(type);
+        this.consumer = consumer;
+        isNearestOnly = consumer == null;
+        nearestHit.clear();
+        numHits = 0;
+    }
+
+    void end() {
+        isCasting = false;
+        consumer = null;
+        tempHit.clear();
+    }
+
+    /**
+     * @return the nearest hit of the last raycast or null if the ray didn't hit anything, only
+     * kept when the raycast wasn't given a consumer
+     */
+    RaycastHit getNearestHit() {
+        return nearestHit.getEntity() == null ? null : nearestHit;
+    }
+
+    /**
+     * @return the number of entities that the last raycast hit, when only the nearest hit is
+     * kept the entities beyond the nearest hit so far aren't counted
+     */
+    public int getNumHits() {
+        return numHits;
+    }
+
+    public double getOriginX() {
+        return originX;
+    }
+
+    public double getOriginY() {
+        return originY;
+    }
+
+    /**
+     * @return the x component of the direction of the ray, the direction is a unit vector
+     */
+    public double getDirX() {
+        return dirX;
+    }
+
+    /**
+     * @return the y component of the direction of the ray, the direction is a unit vector
+     */
+    public double getDirY() {
+        return dirY;
+    }
+
+    /**
+     * @return the length of the ray, it shrinks to the nearest hit so far when only the nearest
+     * hit is kept
+     */
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Finds how far along the ray it enters the area with the slab test, the parts of a
+     * structure that the ray doesn't enter can be skipped and the others can be visited nearest
+     * first.
+     *
+     * @return the distance along the ray where it enters the area, 0 if it starts inside, or
+     * positive infinity if it misses the area or enters it beyond the max distance
+     */
+    public double entryDistance(double minX, double minY, double maxX, double maxY) {
+        double entry = 0;
+        double exit = maxDistance;
+        if (dirX == 0) {
+            if (originX < minX || originX > maxX) {
+                return Double.POSITIVE_INFINITY;
+            }
+        } else {
+            double near = ((invDirX > 0 ? minX : maxX) - originX) * invDirX;
+            double far = ((invDirX > 0 ? maxX : minX) - originX) * invDirX;
+            entry = Math.max(entry, near);
+            exit = Math.min(exit, far);
+        }
+        if (dirY == 0) {
+            if (originY < minY || originY > maxY) {
+                return Double.POSITIVE_INFINITY;
+            }
+        } else {
+            double near = ((invDirY > 0 ? minY : maxY) - originY) * invDirY;
+            double far = ((invDirY > 0 ? maxY : minY) - originY) * invDirY;
+            entry = Math.max(entry, near);
+            exit = Math.min(exit, far);
+        }
+        return entry <= exit ? entry : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Checks if none of the types in the type mask can be hit by the ray, the nodes with that
+     * type mask can be skipped.
+     *
+     * @param entityTypeMask the type mask of the entities in a node and below
+     */
+    public boolean canSkip(long entityTypeMask) {
+        return (typeMask & entityTypeMask) == 0;
+    }
+
+    /**
+     * Checks if the ray hits the shape of the entity and its type is one that is searched for,
+     * the hit is either kept if it is the nearest so far or passed to the consumer.
+     *
+     * @param entity an entity that the ray may hit
+     */
+    public void test(Entity entity) {
+        if (type != RegionQuery.ALL_TYPES && !world.canCollide(type, entity.getEntityType())) {
+            return;
+        }
+        double x = entity.getX();
+        double y = entity.getY();
+        double halfWidth = entity.getHalfWidth();
+        double halfHeight = entity.getHalfHeight();
+        if (entryDistance(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight) ==
+                Double.POSITIVE_INFINITY) {
+            return;
+        }
+        if (!entity.getShape().raycast(entity, originX, originY, dirX, dirY, maxDistance,
+                tempHit)) {
+            return;
+        }
+        double distance = tempHit.getDistance();
+        tempHit.setEntity(entity, originX + dirX * distance, originY + dirY * distance);
+        numHits++;
+        if (isNearestOnly) {
+            // everything beyond this hit can be skipped from now on
+            maxDistance = distance;
+            nearestHit.set(tempHit);
+        } else {
+            consumer.accept(tempHit);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package gameengine.collisiondetection;
+
+import gameengine.collisiondetection.shapes.Shape;
+import gameengine.entities.Entity;
+import gameengine.graphics.Renderer;
+import gameengine.physics.Material;
+
+import java.util.function.Consumer;
+
+/**
+ * A search for the entities of a {@link World} that overlap a region, see
+ * {@link World#query(Shape, double, double, Consumer)}.  The world reuses a single query so that
+ * searching doesn't allocate anything, the {@link Broadphase} only visits the parts of its
+ * structure that overlap the bounds of the query and passes the entities there to
+ * {@link #test(Entity)}.
+ *
+ * @author davidrusu
+ */
+public class RegionQuery {
+    /**
+     * The type of the queries that find entities of every type
+     */
+    public static final int ALL_TYPES = -1;
+    private final World world;
+    /**
+     * Holds the shape of shape queries at the center of the query so that the shape can be
+     * tested against the shapes of the entities
+     */
+    private final Probe probe = new Probe();
+    private double minX, minY, maxX, maxY;
+    private boolean isShapeQuery;
+    private int type;
+    private long typeMask;
+    private Consumer<Entity> consumer;
+    private int numFound;
+    private boolean isQuerying = false;
+
+    RegionQuery(World world) {
+        this.world = world;
+    }
+
+    void begin(double minX, double minY, double maxX, double maxY, int type, Consumer<Entity>
+            consumer) {
+        assert !isQuerying : "the world can't be queried from inside a query";
+        assert type == ALL_TYPES || type >= 0;
+        isQuerying = true;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.type = type;
+        typeMask = type == ALL_TYPES ? -1L : world.getCollisionMask(type);
+        this.consumer = consumer;
+        isShapeQuery = false;
+        numFound = 0;
+    }
+
+    void begin(Shape shape, double x, double y, int type, Consumer<Entity> consumer) {
+        begin(x - shape.getHalfWidth(), y - shape.getHalfHeight(), x + shape.getHalfWidth(), y +
+                shape.getHalfHeight(), type, consumer);
+        probe.set(shape, x, y);
+        isShapeQuery = true;
+    }
+
+    void end() {
+        isQuerying = false;
+        consumer = null;
+        probe.set(null, 0, 0);
+    }
+
+    /**
+     * @return the number of entities that the last query found
+     */
+    public int getNumFound() {
+        return numFound;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Checks if the area overlaps the bounds of the query, the parts of a structure that don't
+     * overlap can be skipped.
+     */
+    public boolean isOverlapping(double minX, double minY, double maxX, double maxY) {
+        return minX <= this.maxX && maxX >= this.minX && minY <= this.maxY && maxY >= this.minY;
+    }
+
+    /**
+     * Checks if none of the types in the type mask can be found by the query, the nodes with
+     * that type mask can be skipped.
+     *
+     * @param entityTypeMask the type mask of the entities in a node and below
+     */
+    public boolean canSkip(long entityTypeMask) {
+        return (typeMask & entityTypeMask) == 0;
+    }
+
+    /**
+     * Passes the entity to the consumer of the query if it overlaps the region of the query and
+     * its type is one that is searched for.
+     *
+     * @param entity an entity that may overlap the region
+     */
+    public void test(Entity entity) {
+        if (type != ALL_TYPES && !world.canCollide(type, entity.getEntityType())) {
+            return;
+        }
+        double x = entity.getX();
+        double y = entity.getY();
+        if (x + entity.getHalfWidth() < minX || x - entity.getHalfWidth() > maxX || y + entity
+                .getHalfHeight() < minY || y - entity.getHalfHeight() > maxY) {
+            return;
+        }
+        if (isShapeQuery && !probe.getShape().isOverlappingShape(probe, entity)) {
+            return;
+        }
+        numFound++;
+        consumer.accept(entity);
+    }
+
+    private static class Probe extends Entity {
+        Probe() {
+            super(0, 0, Double.POSITIVE_INFINITY, Material.getDefaultMaterial(), null);
+        }
+
+        void set(Shape shape, double x, double y) {
+            // the position is set directly since the probe is never in a world and never moves
+            this.x = x;
+            this.y = y;
+            setShape(shape);
+        }
+
+        @Override
+        public void update(double elapsedTime) {
+        }
+
+        @Override
+        public void draw(Renderer renderer) {
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package gameengine.collisiondetection;
+
+import gameengine.collisiondetection.shapes.CollisionData;
+import gameengine.collisiondetection.shapes.Shape;
+import gameengine.entities.Entity;
+import gameengine.geometry.Vector2D;
+
+/**
+ * Keeps the pairs of entities that rest against each other, such as a ball lying on a wall or
+ * bricks that are pushed into their neighbours by their motions.  Resting entities would
+ * otherwise collide over and over with almost no time in between, and every one of those
+ * collisions is handled and followed by a recalculation of the nodes that hold the entities.
+ * Instead the velocity that takes the two entities into each other is taken away once at the
+ * start of each update and the slow collisions between them are ignored by the broadphase.
+ * <p>
+ * A contact is made when a collision between two entities is handled and they were approaching
+ * each other slower than the contact speed.  It is broken once the entities are no longer
+ * touching, once they approach each other faster than the contact speed, or once either of them
+ * leaves the world.  Entities that touch without approaching each other, such as two balls that
+ * are pulled down by the same gravity, keep the normal of the last collision between them.
+ *
+ * @author davidrusu
+ */
+public class RestingContacts {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EXPANSION_FACTOR = 2;
+    private static final int SOLVER_ITERATIONS = 100;
+    private static final double SOLVER_TOLERANCE = 1e-9;
+    /**
+     * The fraction of the contact speed that entities in contact can approach each other at and
+     * still have their collision ignored, entities in contact that overlap are pushed apart at
+     * the same speed so that they can't sink into each other
+     */
+    private static final double IGNORED_SPEED_RATIO = 0.01;
+    private final World world;
+    private double contactSpeed = 0;
+    private Entity[] contactsA = new Entity[INITIAL_CAPACITY];
+    private Entity[] contactsB = new Entity[INITIAL_CAPACITY];
+    private double[] normalsX = new double[INITIAL_CAPACITY];
+    private double[] normalsY = new double[INITIAL_CAPACITY];
+    private double[] separationSpeeds = new double[INITIAL_CAPACITY];
+    private int numContacts = 0;
+
+    public RestingContacts(World world) {
+        this.world = world;
+    }
+
+    /**
+     * Returns the speed that two colliding entities approach each other at along the normal of
+     * the collision.
+     *
+     * @param collision the collision between the entities
+     * @return the approach speed, never negative
+     */
+    public static double getApproachSpeed(Collision collision) {
+        Entity a = collision.getA();
+        Entity b = collision.getB();
+        Vector2D normal = collision.getCollisionNormal();
+        return Math.abs((a.getDX() - b.getDX()) * normal.getX() + (a.getDY() - b.getDY()) *
+                normal.getY());
+    }
+
+    /**
+     * @param contactSpeed the speed below which colliding entities are held in resting contact,
+     *                     0 turns resting contacts off
+     */
+    public void setContactSpeed(double contactSpeed) {
+        assert contactSpeed >= 0;
+        this.contactSpeed = contactSpeed;
+        if (contactSpeed == 0) {
+            clear();
+        }
+    }
+
+    public double getContactSpeed() {
+        return contactSpeed;
+    }
+
+    public int getContactCount() {
+        return numContacts;
+    }
+
+    /**
+     * Called by the broadphase after a collision has been handled, makes or breaks the contact
+     * between the entities depending on how fast they were approaching each other.
+     *
+     * @param collision     the collision that has been handled
+     * @param approachSpeed the approach speed of the entities before the collision was handled
+     */
+    public void collisionHandled(Collision collision, double approachSpeed) {
+        Entity a = collision.getA();
+        Entity b = collision.getB();
+        if (contactSpeed == 0 || !a.isInWorld() || !b.isInWorld()) {
+            return;
+        }
+        boolean isResting = approachSpeed <= contactSpeed;
+        if (isResting == a.isInContactWith(b)) {
+            return;
+        }
+        if (isResting) {
+            Vector2D normal = collision.getCollisionNormal();
+            addContact(a, b, normal.getX(), normal.getY());
+        } else {
+            removeContact(indexOf(a, b));
+        }
+    }
+
+    /**
+     * Checks if the collision is between entities that are in resting contact and slow enough to
+     * be held by the contact, such collisions are handled with {@link #holdContact(Collision)}
+     * instead of being handed to the context.
+     *
+     * @param collision     the collision to check
+     * @param approachSpeed the approach speed of the entities
+     * @return true if the contact holds the entities
+     */
+    public boolean isContactCollision(Collision collision, double approachSpeed) {
+        Entity a = collision.getA();
+        return approachSpeed <= contactSpeed && a.getNumContacts() > 0 && a.isInContactWith(
+                collision.getB());
+    }
+
+    /**
+     * Handles a collision between entities in resting contact, another collision has pushed
+     * them into each other during the update.  The entities are stopped along the normal of the
+     * collision instead of bouncing off each other so they don't keep colliding.
+     *
+     * @param collision the collision between the entities
+     */
+    public void holdContact(Collision collision) {
+        Entity a = collision.getA();
+        Entity b = collision.getB();
+        double normalX = collision.getCollisionNormal().getX();
+        double normalY = collision.getCollisionNormal().getY();
+        if ((a.getDX() - b.getDX()) * normalX + (a.getDY() - b.getDY()) * normalY < 0) {
+            normalX = -normalX;
+            normalY = -normalY;
+        }
+        stopApproach(a, b, normalX, normalY, 0);
+    }
+
+    /**
+     * Checks if the collision is between entities that are in resting contact and is left over
+     * from solving the contacts.  Collisions that entities in contact get into because another
+     * collision has changed their velocities during the update are not ignored so that they
+     * don't move into each other, see {@link #holdContact(Collision)}.
+     *
+     * @param collision the collision to check
+     * @return true if the broadphase should ignore the collision
+     */
+    public boolean isRestingCollision(Collision collision) {
+        Entity a = collision.getA();
+        return a.getNumContacts() > 0 && a.isInContactWith(collision.getB()) &&
+                getApproachSpeed(collision) <= contactSpeed * IGNORED_SPEED_RATIO;
+    }
+
+    /**
+     * Called at the start of every update after the motions of the entities have been updated,
+     * breaks the contacts that no longer hold and takes away the velocity that would take the
+     * entities of the other contacts into each other.  A push along one contact can push the
+     * entity into another one so the contacts are solved a few times in a row.
+     *
+     * @param elapsedTime the amount of time that the update covers
+     */
+    public void update(double elapsedTime) {
+        Collision temp = world.getTempCollision();
+        int index = 0;
+        while (index < numContacts) {
+            Entity a = contactsA[index];
+            Entity b = contactsB[index];
+            if (a.isInWorld() && b.isInWorld() && findNormal(index, elapsedTime, temp)) {
+                index++;
+            } else {
+                removeContact(index);
+            }
+        }
+        temp.setNoCollision();
+        for (int i = 0; i < SOLVER_ITERATIONS; i++) {
+            if (!solveContacts()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Finds the normal of the contact, pointing from entity a towards entity b.  The normal of
+     * the last collision is kept if the entities touch without approaching each other.
+     *
+     * @return false if the contact is broken
+     */
+    private boolean findNormal(int index, double elapsedTime, Collision temp) {
+        Entity a = contactsA[index];
+        Entity b = contactsB[index];
+        separationSpeeds[index] = 0;
+        if (a.isSleeping() && b.isSleeping()) {
+            return true;
+        }
+        a.calculateBoundingBox(elapsedTime);
+        b.calculateBoundingBox(elapsedTime);
+        Shape.collideShapes(a, b, elapsedTime, temp);
+        if (temp.getCollisionTime() == CollisionData.NO_COLLISION) {
+            return isTouching(a, b, contactSpeed * elapsedTime);
+        }
+        if (getApproachSpeed(temp) > contactSpeed) {
+            return false;
+        }
+        double normalX = temp.getCollisionNormal().getX();
+        double normalY = temp.getCollisionNormal().getY();
+        if ((a.getDX() - b.getDX()) * normalX + (a.getDY() - b.getDY()) * normalY < 0) {
+            normalX = -normalX;
+            normalY = -normalY;
+        }
+        normalsX[index] = normalX;
+        normalsY[index] = normalY;
+        if (temp.getCollisionTime() == 0) {
+            // the entities overlap
+            separationSpeeds[index] = contactSpeed * IGNORED_SPEED_RATIO;
+        }
+        return true;
+    }
+
+    /**
+     * Takes away the velocity that the entities of each contact approach each other at.
+     *
+     * @return true if any of the velocities have been changed by more than the tolerance
+     */
+    private boolean solveContacts() {
+        boolean isChanged = false;
+        for (int i = 0; i < numContacts; i++) {
+            isChanged |= stopApproach(contactsA[i], contactsB[i], normalsX[i], normalsY[i],
+                    separationSpeeds[i]) > SOLVER_TOLERANCE;
+        }
+        return isChanged;
+    }
+
+    /**
+     * Takes away the velocity that the entities approach each other at along the normal, without
+     * bouncing them apart.  Sleeping entities and entities with infinite mass aren't moved.
+     * Approach speeds within the solver tolerance are rounding errors left over from earlier
+     * iterations, they are treated as zero so that the entities aren't left with tiny relative
+     * velocities.
+     *
+     * @param separationSpeed the speed that the entities should at least move apart at
+     * @return the approach speed that has been taken away
+     */
+    private double stopApproach(Entity a, Entity b, double normalX, double normalY, double
+            separationSpeed) {
+        double approachSpeed = (a.getDX() - b.getDX()) * normalX + (a.getDY() - b.getDY()) *
+                normalY + separationSpeed;
+        if (approachSpeed <= SOLVER_TOLERANCE) {
+            return 0;
+        }
+        double aMass = a.isSleeping() ? Double.POSITIVE_INFINITY : a.getMass();
+        double bMass = b.isSleeping() ? Double.POSITIVE_INFINITY : b.getMass();
+        boolean isMassAInfinite = aMass == Double.POSITIVE_INFINITY;
+        boolean isMassBInfinite = bMass == Double.POSITIVE_INFINITY;
+        if (isMassAInfinite && isMassBInfinite) {
+            return 0;
+        }
+        double aShare = isMassAInfinite ? 0 : isMassBInfinite ? 1 : bMass / (aMass + bMass);
+        if (aShare > 0) {
+            a.addContactVelocity(-normalX * approachSpeed * aShare, -normalY * approachSpeed *
+                    aShare);
+        }
+        if (aShare < 1) {
+            double bShare = 1 - aShare;
+            b.addContactVelocity(normalX * approachSpeed * bShare, normalY * approachSpeed *
+                    bShare);
+        }
+        return approachSpeed;
+    }
+
+    /**
+     * Checks if the bounding boxes of the entities are closer than the gap.
+     */
+    private static boolean isTouching(Entity a, Entity b, double gap) {
+        return Math.abs(a.getBBCenterX() - b.getBBCenterX()) <= a.getBBHalfWidth() + b
+                .getBBHalfWidth() + gap && Math.abs(a.getBBCenterY() - b.getBBCenterY()) <= a
+                .getBBHalfHeight() + b.getBBHalfHeight() + gap;
+    }
+
+    /**
+     * @param normalX the normal of the collision that made the contact, the direction doesn't
+     *                matter, it is turned to point from entity a towards entity b
+     */
+    private void addContact(Entity a, Entity b, double normalX, double normalY) {
+        if (numContacts == contactsA.length) {
+            Entity[] tempA = new Entity[numContacts * EXPANSION_FACTOR];
+            Entity[] tempB = new Entity[numContacts * EXPANSION_FACTOR];
+            System.arraycopy(contactsA, 0, tempA, 0, numContacts);
+            System.arraycopy(contactsB, 0, tempB, 0, numContacts);
+            contactsA = tempA;
+            contactsB = tempB;
+            double[] tempNormalsX = new double[numContacts * EXPANSION_FACTOR];
+            double[] tempNormalsY = new double[numContacts * EXPANSION_FACTOR];
+            double[] tempSeparationSpeeds = new double[numContacts * EXPANSION_FACTOR];
+            System.arraycopy(normalsX, 0, tempNormalsX, 0, numContacts);
+            System.arraycopy(normalsY, 0, tempNormalsY, 0, numContacts);
+            System.arraycopy(separationSpeeds, 0, tempSeparationSpeeds, 0, numContacts);
+            normalsX = tempNormalsX;
+            normalsY = tempNormalsY;
+            separationSpeeds = tempSeparationSpeeds;
+        }
+        if ((b.getX() - a.getX()) * normalX + (b.getY() - a.getY()) * normalY < 0) {
+            normalX = -normalX;
+            normalY = -normalY;
+        }
+        contactsA[numContacts] = a;
+        contactsB[numContacts] = b;
+        normalsX[numContacts] = normalX;
+        normalsY[numContacts] = normalY;
+        separationSpeeds[numContacts] = 0;
+        numContacts++;
+        a.addContact(b);
+        b.addContact(a);
+    }
+
+    private int indexOf(Entity a, Entity b) {
+        for (int i = 0; i < numContacts; i++) {
+            if (contactsA[i] == a && contactsB[i] == b || contactsA[i] == b && contactsB[i] == a) {
+                return i;
+            }
+        }
+        assert false : "the entities are not in contact";
+        return -1;
+    }
+
+    private void removeContact(int index) {
+        contactsA[index].removeContact(contactsB[index]);
+        contactsB[index].removeContact(contactsA[index]);
+        numContacts--;
+        contactsA[index] = contactsA[numContacts];
+        contactsB[index] = contactsB[numContacts];
+        normalsX[index] = normalsX[numContacts];
+        normalsY[index] = normalsY[numContacts];
+        separationSpeeds[index] = separationSpeeds[numContacts];
+        contactsA[numContacts] = null;
+        contactsB[numContacts] = null;
+    }
+
+    public void clear() {
+        while (numContacts > 0) {
+            removeContact(numContacts - 1);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package gameengine.collisiondetection;
+
+import gameengine.collisiondetection.tree.CollisionList;
+import gameengine.collisiondetection.tree.SpatialTree;
+
+/**
+ * Adjusts the split threshold of the {@link SpatialTree} of a world while it runs.  A low
+ * threshold makes a deep tree with many nearly empty nodes, every one of which has to be
+ * traversed and has its own collision in the {@link CollisionList}, while a high threshold
+ * makes fewer nodes that each test more pairs of shapes.  Which one is cheaper depends on the
+ * scene so the tuner measures it.
+ * <p>
+ * The time that each update spends in the broadphase is summed over a sample of updates along
+ * with the number of narrowphase tests and of nodes.  At the end of each sample the cost per
+ * entity is compared with the cost of the previous sample and the threshold is stepped further
+ * in the same direction if the cost went down, or back the other way if it went up, so the
+ * threshold settles around the cheapest one and follows it as the scene changes.  The merge
+ * threshold is kept at half of the split threshold.
+ *
+ * @author davidrusu
+ */
+public class ThresholdTuner {
+    private static final int SAMPLE_UPDATES = 60;
+    private static final int MIN_SPLIT_THRESHOLD = 2;
+    private static final int MAX_SPLIT_THRESHOLD = 64;
+    private final World world;
+    private int direction = 1;
+    private double lastCost = Double.NaN;
+    private long sampleNanos = 0;
+    private long sampleTests = 0;
+    private long sampleNodes = 0;
+    private long sampleEntities = 0;
+    private int numSampleUpdates = 0;
+    private double costPerEntity = Double.NaN;
+    private double testsPerUpdate = 0;
+    private double nodesPerUpdate = 0;
+
+    public ThresholdTuner(World world) {
+        this.world = world;
+    }
+
+    /**
+     * Called by the world after each update.
+     *
+     * @param nanos            the amount of time that the broadphase took in nanoseconds
+     * @param narrowphaseTests the number of pairs of shapes that were tested
+     * @param numNodes         the number of nodes in the {@link CollisionList}
+     */
+    void updateMeasured(long nanos, long narrowphaseTests, int numNodes) {
+        sampleNanos += nanos;
+        sampleTests += narrowphaseTests;
+        sampleNodes += numNodes;
+        sampleEntities += world.getEntityCount();
+        numSampleUpdates++;
+        if (numSampleUpdates < SAMPLE_UPDATES) {
+            return;
+        }
+        // the cost is compared per entity so that adding or removing entities isn't mistaken
+        // for a change in the cost of the threshold
+        double cost = sampleNanos / (double) Math.max(1, sampleEntities);
+        costPerEntity = cost;
+        testsPerUpdate = sampleTests / (double) numSampleUpdates;
+        nodesPerUpdate = sampleNodes / (double) numSampleUpdates;
+        sampleNanos = 0;
+        sampleTests = 0;
+        sampleNodes = 0;
+        sampleEntities = 0;
+        numSampleUpdates = 0;
+
+        if (!Double.isNaN(lastCost) && cost > lastCost) {
+            direction = -direction;
+        }
+        lastCost = cost;
+        int threshold = world.getSplitThreshold();
+        int step = direction * Math.max(1, threshold / 4);
+        int newThreshold = Math.max(MIN_SPLIT_THRESHOLD, Math.min(MAX_SPLIT_THRESHOLD, threshold
+                + step));
+        if (newThreshold == threshold) {
+            // at one of the limits, the next sample tries the other way
+            direction = -direction;
+            return;
+        }
+        world.setTreeThresholds(newThreshold, newThreshold / 2);
+    }
+
+    /**
+     * @return the time that the broadphase took per entity in the last sample in nanoseconds,
+     * NaN before the first sample is done
+     */
+    public double getCostPerEntity() {
+        return costPerEntity;
+    }
+
+    /**
+     * @return the average number of narrowphase tests per update in the last sample
+     */
+    public double getTestsPerUpdate() {
+        return testsPerUpdate;
+    }
+
+    /**
+     * @return the average number of nodes per update in the last sample
+     */
+    public double getNodesPerUpdate() {
+        return nodesPerUpdate;
+    }
+}
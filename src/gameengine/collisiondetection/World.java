@@ -1,41 +1,537 @@
 package gameengine.collisiondetection;
 
 import Utilities.UnorderedArrayList;
+import gameengine.collisiondetection.shapes.Shape;
+import gameengine.collisiondetection.tree.AABBTree;
 import gameengine.collisiondetection.tree.CollisionList;
+import gameengine.collisiondetection.tree.LinearQuadTree;
+import gameengine.collisiondetection.tree.NodePools;
+import gameengine.collisiondetection.tree.RegionSensors;
+import gameengine.collisiondetection.tree.SpatialHash;
 import gameengine.collisiondetection.tree.SpatialTree;
+import gameengine.collisiondetection.tree.StaticBodies;
+import gameengine.collisiondetection.tree.SweepAndPrune;
+import gameengine.collisiondetection.tree.Tree;
 import gameengine.context.Context;
 import gameengine.entities.Entity;
+import gameengine.entities.RegionSensor;
 import gameengine.graphics.RColor;
 import gameengine.graphics.Renderer;
 import gameengine.motion.environmentmotions.WorldEffect;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+
 public class World {
-    private SpatialTree tree;
-    private int[] collisionGroups = new int[EntityType.values().length];
+    private Broadphase broadphase;
+    /**
+     * The types that each type collides with, each type has a row of words with a bit for
+     * every type
+     */
+    private long[] collisionGroups = new long[EntityType.FIRST_USER_TYPE];
+    private int numTypes = EntityType.FIRST_USER_TYPE;
+    private int wordsPerType = 1;
+    /**
+     * The type mask of the types that each type collides with
+     */
+    private long[] collisionMasks = new long[EntityType.FIRST_USER_TYPE];
     private Collision tempCollision = new Collision();
     private CollisionList collisionList = new CollisionList();
+    private final NodePools nodePools = new NodePools();
     private UnorderedArrayList<WorldEffect> worldEffects = new UnorderedArrayList<>();
+    private StaticBodies staticBodies = new StaticBodies(this);
+    private RegionSensors regionSensors = new RegionSensors(this);
+    private RestingContacts restingContacts = new RestingContacts(this);
+    private final OverlapSeparation overlapSeparation = new OverlapSeparation(this);
+    private boolean isDetectingStaticBodies = false;
+    private double sleepSpeed = 0;
+    private int framesToSleep = 0;
+    private int sleepingEntityCount = 0;
+    private int numFallenAsleep = 0;
+    private int numWokenUp = 0;
+    private double collisionHorizon = 0;
+    private double collisionBatchTolerance = 0;
+    private int maxCollisionsPerUpdate = 0;
+    private long maxCollisionNanosPerUpdate = 0;
+    private int numApproximatedCollisions = 0;
+    private int numDeferredCollisions = 0;
+    private int numUpdatesOverBudget = 0;
+    private boolean isOverCollisionBudget = false;
+    private boolean haveCollisionSettingsChanged = true;
+    private int splitThreshold = Tree.GROW_THRESH;
+    private int mergeThreshold = Tree.MERGE_THRESH;
+    private int maxTreeDepth = Integer.MAX_VALUE;
+    private int initialNodeCapacity = Tree.GROW_THRESH + 2;
+    private ThresholdTuner thresholdTuner = null;
+    private final RegionQuery regionQuery = new RegionQuery(this);
+    private final RaycastQuery raycastQuery = new RaycastQuery(this);
+    private final NearestQuery nearestQuery = new NearestQuery(this);
+    private long numNarrowphaseTests = 0;
 
     public World(double centerX, double centerY, double halfLength) {
-        tree = new SpatialTree(this, centerX, centerY, halfLength);
+        broadphase = new SpatialTree(this, centerX, centerY, halfLength);
+    }
+
+    /**
+     * Creates a world that uses a loose spatial tree.
+     *
+     * @param centerX    the initial x coordinate of the center of the world
+     * @param centerY    the initial y coordinate of the center of the world
+     * @param halfLength the initial half length of the world
+     * @param looseness  the factor that the bounds of the tree nodes are enlarged by
+     * @see SpatialTree#SpatialTree(World, double, double, double, double)
+     */
+    public World(double centerX, double centerY, double halfLength, double looseness) {
+        broadphase = new SpatialTree(this, centerX, centerY, halfLength, looseness);
+    }
+
+    /**
+     * Creates a world that stores its entities in the {@link Broadphase} created by the factory.
+     * eg. {@code new World(world -> new SpatialHash(world, 40))}
+     *
+     * @param broadphaseFactory creates the {@link Broadphase} of this world
+     */
+    public World(Broadphase.Factory broadphaseFactory) {
+        broadphase = broadphaseFactory.create(this);
     }
 
     public void addEnvironmentMotion(WorldEffect worldEffect) {
         worldEffects.add(worldEffect);
     }
 
+    /**
+     * Adds the entity to the broadphase.  {@link RegionSensor}s are kept apart from the other
+     * entities and are only checked for overlaps at the end of each update, see
+     * {@link RegionSensors}.
+     *
+     * @param entity the entity to add
+     */
     public void addEntity(Entity entity) {
-        tree.addEntity(entity);
+        if (entity instanceof RegionSensor) {
+            regionSensors.addEntity((RegionSensor) entity);
+        } else if (isDetectingStaticBodies && StaticBodies.isStatic(entity)) {
+            staticBodies.addEntity(entity);
+        } else {
+            broadphase.addEntity(entity);
+        }
+    }
+
+    /**
+     * Adds all the entities at once, which is much faster than adding a large number of entities
+     * one at a time when the {@link Broadphase} can build its structure for them in one pass.
+     *
+     * @param entities the entities to add
+     * @see SpatialTree#addEntities(Collection)
+     */
+    public void addEntities(Collection<? extends Entity> entities) {
+        ArrayList<Entity> movingEntities = new ArrayList<>(entities.size());
+        for (Entity entity : entities) {
+            if (entity instanceof RegionSensor) {
+                regionSensors.addEntity((RegionSensor) entity);
+            } else if (isDetectingStaticBodies && StaticBodies.isStatic(entity)) {
+                staticBodies.addEntity(entity);
+            } else {
+                movingEntities.add(entity);
+            }
+        }
+        broadphase.addEntities(movingEntities);
+    }
+
+    /**
+     * Adds an entity that never moves, such as a wall.  Static bodies are kept out of the
+     * {@link Broadphase}, they are never updated, never checked against each other and are only
+     * checked against the entities that move.  The entity must have infinite mass, no velocity
+     * and keep its {@link gameengine.motion.motions.NormalMotion}.
+     *
+     * @param entity the static entity to add
+     * @see StaticBodies#isStatic(Entity)
+     */
+    public void addStaticEntity(Entity entity) {
+        staticBodies.addEntity(entity);
+    }
+
+    /**
+     * Sets whether {@link #addEntity(Entity)} should add the entities that can be treated as
+     * static bodies with {@link #addStaticEntity(Entity)}.  Off by default since a static body
+     * can't be given a velocity or a motion later on.
+     *
+     * @param isDetectingStaticBodies true to detect static bodies as they are added
+     */
+    public void setDetectingStaticBodies(boolean isDetectingStaticBodies) {
+        this.isDetectingStaticBodies = isDetectingStaticBodies;
+    }
+
+    /**
+     * Lets entities fall asleep once their speed has stayed below the sleep speed for the given
+     * number of updates in a row.  Sleeping entities are skipped by the motion, bounding box and
+     * collision passes until a collision involves them, their velocity, position or motion is
+     * set or a {@link WorldEffect} affects their type.  Entities whose type is affected by a
+     * world effect never fall asleep.  Sleeping is off by default.
+     *
+     * @param sleepSpeed    the speed that entities have to stay below to fall asleep
+     * @param framesToSleep the number of updates in a row that an entity has to be slower than
+     *                      the sleep speed, 0 turns sleeping off
+     */
+    public void setSleeping(double sleepSpeed, int framesToSleep) {
+        assert sleepSpeed >= 0 && framesToSleep >= 0;
+        this.sleepSpeed = sleepSpeed;
+        this.framesToSleep = framesToSleep;
+    }
+
+    /**
+     * Called by the broadphase after the motion of an awake entity has been updated, puts the
+     * entity to sleep if it has been slow for long enough.
+     *
+     * @param entity the entity that has been updated
+     */
+    public void updateSleep(Entity entity) {
+        if (framesToSleep > 0 && entity.updateSleep(sleepSpeed, framesToSleep)) {
+            numFallenAsleep++;
+            sleepingEntityCount++;
+        }
+    }
+
+    /**
+     * Called by the broadphase for every entity that stays asleep during the motion pass.
+     */
+    public void entityIsAsleep() {
+        sleepingEntityCount++;
+    }
+
+    /**
+     * Called when an entity in this world has been woken up.
+     */
+    public void entityWokeUp() {
+        numWokenUp++;
+    }
+
+    /**
+     * @return the number of entities that were asleep after the motions of the last update were
+     * updated
+     */
+    public int getSleepingEntityCount() {
+        return sleepingEntityCount;
+    }
+
+    /**
+     * @return the number of times that entities have fallen asleep since the sleep counts were
+     * last reset
+     */
+    public int getNumFallenAsleep() {
+        return numFallenAsleep;
+    }
+
+    /**
+     * @return the number of times that entities have been woken up since the sleep counts were
+     * last reset
+     */
+    public int getNumWokenUp() {
+        return numWokenUp;
+    }
+
+    public void resetSleepCounts() {
+        numFallenAsleep = 0;
+        numWokenUp = 0;
+    }
+
+    /**
+     * Makes the {@link SpatialTree} calculate the collisions over the horizon instead of over a
+     * single update and keep the collisions that happen after the update for the next updates.
+     * A node only recalculates its collision once an entity it is responsible for has its
+     * velocity, position, shape or type changed, takes part in a collision or is added or
+     * removed, or once less than half of the horizon is left.  Scenes where most entities coast
+     * at a constant velocity do far fewer narrowphase checks, the bounding boxes are larger
+     * though so more pairs are checked when the collisions are recalculated.  The horizon should
+     * be at least two updates long, 0 turns it off which is the default.
+     *
+     * @param collisionHorizon the amount of time to calculate the collisions over
+     */
+    public void setCollisionHorizon(double collisionHorizon) {
+        assert collisionHorizon >= 0;
+        this.collisionHorizon = collisionHorizon;
+        haveCollisionSettingsChanged = true;
+    }
+
+    public double getCollisionHorizon() {
+        return collisionHorizon;
+    }
+
+    /**
+     * Sets how far apart in time collisions can be and still be handled together.  The
+     * collisions that happen within the tolerance of the next collision are handled as if they
+     * all happened at its time and handed to {@link Context#handleCollisions(Collision[], int)}
+     * together, the nodes they affect are then recalculated once instead of once per collision.
+     * Collisions that share an entity with an earlier collision of the batch are left for the
+     * next batch.  The default is 0 so only collisions at exactly the same time are batched.
+     *
+     * @param collisionBatchTolerance the amount of time that the collisions of a batch can be
+     *                                apart
+     */
+    public void setCollisionBatchTolerance(double collisionBatchTolerance) {
+        assert collisionBatchTolerance >= 0;
+        this.collisionBatchTolerance = collisionBatchTolerance;
+    }
+
+    public double getCollisionBatchTolerance() {
+        return collisionBatchTolerance;
+    }
+
+    /**
+     * Holds entities that collide slower than the contact speed in resting contact, the
+     * collisions between them are then replaced by taking away the velocity that takes them into
+     * each other at the start of each update.  Resting contacts are off by default.
+     *
+     * @param contactSpeed the speed below which colliding entities are held in resting contact,
+     *                     0 turns resting contacts off
+     * @see RestingContacts
+     */
+    public void setRestingContactSpeed(double contactSpeed) {
+        restingContacts.setContactSpeed(contactSpeed);
+    }
+
+    public RestingContacts getRestingContacts() {
+        return restingContacts;
+    }
+
+    /**
+     * Limits the amount of work that the broadphase can spend on handling the collisions of an
+     * update.  Once the budget is used up the collisions that are left are deferred and the rest
+     * of the update only handles the collisions with entities of infinite mass, so entities
+     * still can't pass through walls or static bodies.  The entities with finite mass that end
+     * up overlapping each other are pushed apart once the update is done, see
+     * {@link OverlapSeparation}.  There is no budget by default.
+     *
+     * @param maxCollisions the number of collisions that are handled exactly in each update, 0
+     *                      for no limit
+     * @param maxNanos      the amount of time in nanoseconds that can be spent handling the
+     *                      collisions of each update, 0 for no limit
+     */
+    public void setCollisionBudget(int maxCollisions, long maxNanos) {
+        assert maxCollisions >= 0 && maxNanos >= 0;
+        maxCollisionsPerUpdate = maxCollisions;
+        maxCollisionNanosPerUpdate = maxNanos;
+    }
+
+    public int getMaxCollisionsPerUpdate() {
+        return maxCollisionsPerUpdate;
+    }
+
+    public long getMaxCollisionNanosPerUpdate() {
+        return maxCollisionNanosPerUpdate;
+    }
+
+    /**
+     * Called by the broadphase when the collision budget has been used up during an update,
+     * the collisions that the broadphase finds for the rest of the update leave out the pairs
+     * of entities that both have finite mass.
+     *
+     * @param numDeferred the number of known collisions that were not handled
+     */
+    public void collisionBudgetExceeded(int numDeferred) {
+        numUpdatesOverBudget++;
+        numDeferredCollisions += numDeferred;
+        isOverCollisionBudget = true;
+        haveCollisionSettingsChanged = true;
+    }
+
+    /**
+     * @return true while the rest of an update that has used up its collision budget is
+     * handled, only the collisions with entities of infinite mass are found
+     */
+    public boolean isOverCollisionBudget() {
+        return isOverCollisionBudget;
+    }
+
+    /**
+     * @return the number of updates that used up the collision budget since the budget counts
+     * were last reset
+     */
+    public int getNumUpdatesOverBudget() {
+        return numUpdatesOverBudget;
+    }
+
+    /**
+     * @return the number of overlapping pairs of entities that were pushed apart since the
+     * budget counts were last reset
+     */
+    public int getNumApproximatedCollisions() {
+        return numApproximatedCollisions;
+    }
+
+    /**
+     * @return the number of known collisions that were deferred since the budget counts were
+     * last reset
+     */
+    public int getNumDeferredCollisions() {
+        return numDeferredCollisions;
+    }
+
+    public void resetCollisionBudgetCounts() {
+        numUpdatesOverBudget = 0;
+        numApproximatedCollisions = 0;
+        numDeferredCollisions = 0;
+    }
+
+    /**
+     * Sets how many entities the leafs of the {@link SpatialTree} hold before they split and how
+     * few entities the subtree of a quad has to hold before it is merged back into a leaf.  High
+     * thresholds make shallow trees with few nodes that each test more pairs of shapes, low
+     * thresholds make deep trees with many nearly empty nodes.  The merge threshold has to be
+     * below the split threshold so that a merged leaf doesn't split again straight away.  The
+     * defaults are {@link Tree#GROW_THRESH} and {@link Tree#MERGE_THRESH}, the nodes split and
+     * merge by the new thresholds from the end of the next update.
+     *
+     * @param splitThreshold the number of entities that a leaf splits at, at least 2
+     * @param mergeThreshold the number of entities that a quad is merged at
+     * @see #setThresholdTuning(boolean)
+     */
+    public void setTreeThresholds(int splitThreshold, int mergeThreshold) {
+        assert splitThreshold >= 2 && mergeThreshold >= 0 && mergeThreshold < splitThreshold;
+        this.splitThreshold = splitThreshold;
+        this.mergeThreshold = mergeThreshold;
+    }
+
+    public int getSplitThreshold() {
+        return splitThreshold;
+    }
+
+    public int getMergeThreshold() {
+        return mergeThreshold;
+    }
+
+    /**
+     * Calculates the collisions at the start of each update on several threads.  Only the
+     * {@link SpatialTree} has a parallel pass, the other broadphases ignore this.  It is off by
+     * default.
+     *
+     * @param parallelism      the number of threads to use, 1 or less turns the parallel pass off
+     * @param sequentialCutoff subtrees with at most this many entities are calculated on a single
+     *                         thread
+     * @see SpatialTree#setParallelism(int, int)
+     */
+    public void setParallelism(int parallelism, int sequentialCutoff) {
+        broadphase.setParallelism(parallelism, sequentialCutoff);
+    }
+
+    /**
+     * Limits how deep the {@link SpatialTree} can get, leafs at the maximum depth don't split no
+     * matter how many entities they hold.  The depth is counted from the root that the tree was
+     * created with, so the limit is the same number of levels below its size as the tree grows
+     * and shrinks.  There is no limit by default.
+     *
+     * @param maxTreeDepth the number of levels below the initial root that leafs can split to
+     */
+    public void setMaxTreeDepth(int maxTreeDepth) {
+        assert maxTreeDepth >= 0;
+        this.maxTreeDepth = maxTreeDepth;
+    }
+
+    public int getMaxTreeDepth() {
+        return maxTreeDepth;
+    }
+
+    /**
+     * Sets how many entities the lists of new tree nodes have room for before they have to grow,
+     * scenes with high split thresholds or many entities that straddle the nodes can avoid
+     * growing the lists of the nodes as they fill up.
+     *
+     * @param initialNodeCapacity the initial capacity of the list of each node
+     */
+    public void setInitialNodeCapacity(int initialNodeCapacity) {
+        assert initialNodeCapacity >= 1;
+        this.initialNodeCapacity = initialNodeCapacity;
+    }
+
+    public int getInitialNodeCapacity() {
+        return initialNodeCapacity;
+    }
+
+    /**
+     * Turns the {@link ThresholdTuner} on or off, while it is on it measures the cost of the
+     * updates and adjusts the thresholds of {@link #setTreeThresholds(int, int)} toward the
+     * cheapest ones.  Off by default.
+     *
+     * @param isTuning true to tune the thresholds while the world runs
+     */
+    public void setThresholdTuning(boolean isTuning) {
+        if (!isTuning) {
+            thresholdTuner = null;
+        } else if (thresholdTuner == null) {
+            thresholdTuner = new ThresholdTuner(this);
+        }
+    }
+
+    /**
+     * @return the tuner of the thresholds, null if tuning is off
+     */
+    public ThresholdTuner getThresholdTuner() {
+        return thresholdTuner;
+    }
+
+    /**
+     * Called by the nodes for every pair of shapes that they test for a collision.  The pairs
+     * that are tested by a {@link CollisionWorkerThread} are counted by the worker and added
+     * with {@link #addNarrowphaseTests(long)} once the parallel pass is done.
+     */
+    public void narrowphaseTested() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof CollisionWorkerThread) {
+            ((CollisionWorkerThread) thread).narrowphaseTested();
+        } else {
+            numNarrowphaseTests++;
+        }
+    }
+
+    public void addNarrowphaseTests(long numTests) {
+        numNarrowphaseTests += numTests;
+    }
+
+    /**
+     * @return the number of pairs of shapes that have been tested for a collision since the
+     * count was last reset
+     */
+    public long getNumNarrowphaseTests() {
+        return numNarrowphaseTests;
+    }
+
+    public void resetNarrowphaseTestCount() {
+        numNarrowphaseTests = 0;
+    }
+
+    /**
+     * @return true if the collision groups or the static bodies have changed since the last
+     * update so the collisions that were kept can't be used
+     */
+    public boolean haveCollisionSettingsChanged() {
+        return haveCollisionSettingsChanged;
     }
 
     public void setCollisionGroup(EntityType a, EntityType b) {
-        int x = a.ordinal();
-        int y = b.ordinal();
+        setCollisionGroup(a.ordinal(), b.ordinal());
+    }
 
-        int mask = 1 << y;
-        collisionGroups[x] |= mask;
-        mask = 1 << x;
-        collisionGroups[y] |= mask;
+    /**
+     * Sets the entities of the two types to collide with each other.  The types can be any of
+     * the {@link EntityType}s or user defined types from {@link EntityType#FIRST_USER_TYPE} up.
+     * <p>
+     * Only the {@link AABBTree} keeps the entities of each type in a structure of its own and
+     * walks just the structures of the types that collide.  The {@link SpatialTree},
+     * {@link SpatialHash}, {@link SweepAndPrune} and {@link LinearQuadTree} keep every type in
+     * one structure, the trees skip the nodes whose type masks can't collide and the pair
+     * broadphases never pair types that don't collide.
+     *
+     * @param a the type that will collide with the entities of type 'b'
+     * @param b the type that will collide with the entities of type 'a'
+     */
+    public void setCollisionGroup(int a, int b) {
+        assert a >= 0 && b >= 0;
+        haveCollisionSettingsChanged = true;
+        ensureTypeCapacity(Math.max(a, b) + 1);
+        addToCollisionGroup(a, b);
+        addToCollisionGroup(b, a);
+        broadphase.collisionGroupsChanged();
     }
 
     /**
@@ -52,43 +548,343 @@ public class World {
         }
     }
 
-    public void clear() {
-        for (int i = 0; i < collisionGroups.length; i++) {
-            collisionGroups[i] = 0;
+    /**
+     * Sets entities of type 'a' to collide with entities of the 'others' types.
+     * note: this will not make the entities of the 'others' types collide with each other
+     *
+     * @param a      the type that will be set to collide with the types in 'others'
+     * @param others the types that will be set to collide with the 'a' type
+     */
+    public void setCollisionGroups(int a, int... others) {
+        for (int i = 0; i < others.length; i++) {
+            setCollisionGroup(a, others[i]);
         }
-        tree.clear();
+    }
+
+    /**
+     * Checks if entities of the two types collide with each other.
+     *
+     * @param a the type of the first entity
+     * @param b the type of the second entity
+     * @return true if the types are in a collision group together
+     */
+    public boolean canCollide(int a, int b) {
+        return a < numTypes && b < numTypes && (collisionGroups[a * wordsPerType + (b >>> 6)] &
+                1L << b) != 0;
+    }
+
+    /**
+     * @param type the type of an entity
+     * @return the type mask of the types that the type collides with
+     */
+    public long getCollisionMask(int type) {
+        return type < numTypes ? collisionMasks[type] : 0;
+    }
+
+    private void addToCollisionGroup(int type, int other) {
+        collisionGroups[type * wordsPerType + (other >>> 6)] |= 1L << other;
+        collisionMasks[type] |= EntityType.getBitMask(other);
+    }
+
+    private void ensureTypeCapacity(int capacity) {
+        if (capacity <= numTypes) {
+            return;
+        }
+        int newNumTypes = Math.max(capacity, numTypes * 2);
+        int newWordsPerType = (newNumTypes + Long.SIZE - 1) / Long.SIZE;
+        long[] newGroups = new long[newNumTypes * newWordsPerType];
+        for (int type = 0; type < numTypes; type++) {
+            System.arraycopy(collisionGroups, type * wordsPerType, newGroups, type *
+                    newWordsPerType, wordsPerType);
+        }
+        collisionGroups = newGroups;
+        collisionMasks = Arrays.copyOf(collisionMasks, newNumTypes);
+        numTypes = newNumTypes;
+        wordsPerType = newWordsPerType;
+    }
+
+    public void clear() {
+        Arrays.fill(collisionGroups, 0);
+        Arrays.fill(collisionMasks, 0);
+        haveCollisionSettingsChanged = true;
+        restingContacts.clear();
+        broadphase.clear();
+        staticBodies.clear();
+        regionSensors.clear();
         worldEffects.clear();
+        sleepingEntityCount = 0;
+        resetSleepCounts();
     }
 
     public void update(double elapsedTime, Context context) {
         for (int i = 0; i < worldEffects.size(); i++) {
             worldEffects.get(i).update(elapsedTime);
         }
-        tree.updateMotions(elapsedTime, worldEffects);
-        tree.ensureEntitiesAreContained(elapsedTime);
-        tree.calcCollision(elapsedTime, context);
-        tree.updateEntities(elapsedTime);
+        sleepingEntityCount = 0;
+        broadphase.updateMotions(elapsedTime, worldEffects);
+        if (restingContacts.getContactCount() > 0) {
+            restingContacts.update(elapsedTime);
+        }
+        long startTime = thresholdTuner == null ? 0 : System.nanoTime();
+        long startTests = numNarrowphaseTests;
+        broadphase.ensureEntitiesAreContained(elapsedTime);
+        if (staticBodies.ensureBuilt()) {
+            haveCollisionSettingsChanged = true;
+        }
+        staticBodies.setCalculatingCollisions(true);
+        broadphase.calcCollision(elapsedTime, context);
+        staticBodies.setCalculatingCollisions(false);
+        // the collisions kept over the horizon of an update that was over budget are missing
+        // the pairs of entities with finite mass
+        haveCollisionSettingsChanged = isOverCollisionBudget;
+        if (isOverCollisionBudget) {
+            numApproximatedCollisions += overlapSeparation.separate();
+            isOverCollisionBudget = false;
+        }
+        if (thresholdTuner != null) {
+            thresholdTuner.updateMeasured(System.nanoTime() - startTime, numNarrowphaseTests -
+                    startTests, collisionList.size());
+        }
+        broadphase.updateEntities(elapsedTime);
+        if (regionSensors.getEntityCount() > 0) {
+            regionSensors.update(elapsedTime, worldEffects);
+        }
+        nodePools.updated();
     }
 
     public void draw(Context context, Renderer renderer) {
         Viewport viewPort = context.getViewPort();
 
         viewPort.applyTransformations(renderer);
-        tree.draw(viewPort.getMinX(), viewPort.getMaxX(), viewPort.getMinY(), viewPort.getMaxY(),
-                renderer);
-//        tree.drawTree(g, RColor.RED);
+        broadphase.draw(viewPort.getMinX(), viewPort.getMaxX(), viewPort.getMinY(), viewPort
+                .getMaxY(), renderer);
+        staticBodies.draw(viewPort.getMinX(), viewPort.getMaxX(), viewPort.getMinY(), viewPort
+                .getMaxY(), renderer);
+        regionSensors.draw(viewPort.getMinX(), viewPort.getMaxX(), viewPort.getMinY(), viewPort
+                .getMaxY(), renderer);
         viewPort.reverseTransformations(renderer);
     }
 
     public void drawTree(Renderer renderer, RColor color) {
-        tree.drawTree(renderer, color);
+        broadphase.drawStructure(renderer, color);
+    }
+
+    /**
+     * Finds the entities whose shapes overlap the shape when it is centered at the position.
+     * The broadphase only visits the entities near the shape and nothing is allocated, so the
+     * same consumer can be passed every update.  Queries are made between updates, the
+     * consumer can't add entities to the world, remove them or query the world again.
+     *
+     * @param shape    the shape of the region
+     * @param x        the x coordinate of the center of the shape
+     * @param y        the y coordinate of the center of the shape
+     * @param consumer receives each entity that overlaps the shape
+     * @return the number of entities that were found
+     */
+    public int query(Shape shape, double x, double y, Consumer<Entity> consumer) {
+        return query(shape, x, y, RegionQuery.ALL_TYPES, consumer);
     }
 
-    public int[] getCollisionGroups() {
-        return collisionGroups;
+    /**
+     * Finds the entities that overlap the shape and whose types collide with the type, see
+     * {@link #query(Shape, double, double, Consumer)}.  The parts of the broadphase that have
+     * no entities of those types are skipped.
+     *
+     * @param type the type that the entities have to be in a collision group with
+     * @return the number of entities that were found
+     */
+    public int query(Shape shape, double x, double y, int type, Consumer<Entity> consumer) {
+        regionQuery.begin(shape, x, y, type, consumer);
+        return runQuery();
+    }
+
+    /**
+     * Finds the entities whose shapes overlap the axis aligned bounding box, see
+     * {@link #query(Shape, double, double, Consumer)}.
+     *
+     * @return the number of entities that were found
+     */
+    public int queryAABB(double minX, double minY, double maxX, double maxY, Consumer<Entity>
+            consumer) {
+        return queryAABB(minX, minY, maxX, maxY, RegionQuery.ALL_TYPES, consumer);
+    }
+
+    /**
+     * Finds the entities that overlap the axis aligned bounding box and whose types collide with
+     * the type, see {@link #query(Shape, double, double, int, Consumer)}.
+     *
+     * @return the number of entities that were found
+     */
+    public int queryAABB(double minX, double minY, double maxX, double maxY, int type,
+                         Consumer<Entity> consumer) {
+        assert minX <= maxX && minY <= maxY;
+        regionQuery.begin(minX, minY, maxX, maxY, type, consumer);
+        return runQuery();
+    }
+
+    private int runQuery() {
+        try {
+            broadphase.query(regionQuery);
+            staticBodies.query(regionQuery);
+        } finally {
+            regionQuery.end();
+        }
+        return regionQuery.getNumFound();
+    }
+
+    /**
+     * Finds the nearest entity that the ray hits.  The broadphase is walked nearest first and
+     * the ray is shortened at each hit so only the entities near the ray are tested, and
+     * nothing is allocated.  Raycasts are made between updates.
+     *
+     * @param originX     the x coordinate of the start of the ray
+     * @param originY     the y coordinate of the start of the ray
+     * @param dirX        the x component of the direction of the ray, it doesn't have to be a
+     *                    unit vector
+     * @param dirY        the y component of the direction of the ray, it doesn't have to be a
+     *                    unit vector
+     * @param maxDistance the length of the ray, it can be infinite
+     * @return the nearest hit or null if the ray doesn't hit anything, the hit is reused by the
+     * next raycast
+     */
+    public RaycastHit raycast(double originX, double originY, double dirX, double dirY, double
+            maxDistance) {
+        return raycast(originX, originY, dirX, dirY, maxDistance, RegionQuery.ALL_TYPES);
+    }
+
+    /**
+     * Finds the nearest entity that the ray hits and whose type collides with the type, see
+     * {@link #raycast(double, double, double, double, double)}.
+     *
+     * @param type the type that the entities have to be in a collision group with
+     * @return the nearest hit or null if the ray doesn't hit anything
+     */
+    public RaycastHit raycast(double originX, double originY, double dirX, double dirY, double
+            maxDistance, int type) {
+        raycastQuery.begin(originX, originY, dirX, dirY, maxDistance, type, null);
+        runRaycast();
+        return raycastQuery.getNearestHit();
+    }
+
+    /**
+     * Finds every entity that the ray hits, see
+     * {@link #raycast(double, double, double, double, double)}.  The hits are passed to the
+     * consumer as they are found, which isn't in order of distance.  The hit is reused for
+     * each entity so it has to be copied to be kept, and the consumer can't add entities to the
+     * world, remove them or query the world again.
+     *
+     * @param consumer receives each hit
+     * @return the number of entities that the ray hits
+     */
+    public int raycastAll(double originX, double originY, double dirX, double dirY, double
+            maxDistance, Consumer<RaycastHit> consumer) {
+        return raycastAll(originX, originY, dirX, dirY, maxDistance, RegionQuery.ALL_TYPES,
+                consumer);
+    }
+
+    /**
+     * Finds every entity that the ray hits and whose type collides with the type, see
+     * {@link #raycastAll(double, double, double, double, double, Consumer)}.
+     *
+     * @return the number of entities that the ray hits
+     */
+    public int raycastAll(double originX, double originY, double dirX, double dirY, double
+            maxDistance, int type, Consumer<RaycastHit> consumer) {
+        assert consumer != null;
+        raycastQuery.begin(originX, originY, dirX, dirY, maxDistance, type, consumer);
+        runRaycast();
+        return raycastQuery.getNumHits();
     }
 
+    private void runRaycast() {
+        try {
+            // the static bodies are often the nearest, such as the walls, so the ray is
+            // shortened by them before the broadphase is walked
+            staticBodies.raycast(raycastQuery);
+            broadphase.raycast(raycastQuery);
+        } finally {
+            raycastQuery.end();
+        }
+    }
+
+    /**
+     * Finds the entities whose centers are nearest to the point, as many as the array can
+     * hold.  The broadphase is searched nearest first and the parts of it that are farther
+     * than the farthest entity found so far are skipped, and nothing is allocated.  Searches
+     * are made between updates.
+     * <p>
+     * The entities are written into an {@code Entity[]} rather than a primitive buffer of ids
+     * because entities don't have an id that stays the same, their index in a node changes as
+     * they move.  Only the distances go into a primitive array.
+     *
+     * @param x         the x coordinate of the point
+     * @param y         the y coordinate of the point
+     * @param entities  receives the nearest entities, nearest first
+     * @param distances receives the distances to the entities, or null if they aren't needed
+     * @return the number of entities that were found
+     */
+    public int findNearest(double x, double y, Entity[] entities, double[] distances) {
+        return findNearest(x, y, RegionQuery.ALL_TYPES, entities, distances);
+    }
+
+    /**
+     * Finds the nearest entities whose types collide with the type, see
+     * {@link #findNearest(double, double, Entity[], double[])}.  The parts of the broadphase
+     * that have no entities of those types are skipped.
+     *
+     * @param type the type that the entities have to be in a collision group with
+     * @return the number of entities that were found
+     */
+    public int findNearest(double x, double y, int type, Entity[] entities, double[]
+            distances) {
+        return findWithinRadius(x, y, Double.POSITIVE_INFINITY, type, entities, distances);
+    }
+
+    /**
+     * Finds the entities whose centers are within the radius of the point, see
+     * {@link #findNearest(double, double, Entity[], double[])}.  If there are more of them than
+     * the array can hold then the nearest ones are kept.
+     *
+     * @param radius the distance that the centers of the entities have to be within
+     * @return the number of entities that were found
+     */
+    public int findWithinRadius(double x, double y, double radius, Entity[] entities, double[]
+            distances) {
+        return findWithinRadius(x, y, radius, RegionQuery.ALL_TYPES, entities, distances);
+    }
+
+    /**
+     * Finds the entities within the radius of the point whose types collide with the type, see
+     * {@link #findWithinRadius(double, double, double, Entity[], double[])}.
+     *
+     * @return the number of entities that were found
+     */
+    public int findWithinRadius(double x, double y, double radius, int type, Entity[] entities,
+                                double[] distances) {
+        if (entities.length == 0) {
+            return 0;
+        }
+        nearestQuery.begin(x, y, radius, type, entities);
+        try {
+            staticBodies.findNearest(nearestQuery);
+            broadphase.findNearest(nearestQuery);
+        } finally {
+            nearestQuery.end(distances);
+        }
+        return nearestQuery.getNumFound();
+    }
+
+    /**
+     * Gets the collision that is used as scratch space while calculating collisions.  Each
+     * {@link CollisionWorkerThread} has its own so the collisions can be calculated in parallel.
+     *
+     * @return the temp collision of the current thread
+     */
     public Collision getTempCollision() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof CollisionWorkerThread) {
+            return ((CollisionWorkerThread) thread).getTempCollision();
+        }
         return tempCollision;
     }
 
@@ -96,7 +892,20 @@ public class World {
         return collisionList;
     }
 
+    /**
+     * @return the pools that the nodes of the broadphase of this world are recycled into, see
+     * {@link NodePools#setTrimPolicy(int, int)}
+     */
+    public NodePools getNodePools() {
+        return nodePools;
+    }
+
+    public StaticBodies getStaticBodies() {
+        return staticBodies;
+    }
+
     public int getEntityCount() {
-        return tree.getEntityCount();
+        return broadphase.getEntityCount() + staticBodies.getEntityCount() + regionSensors
+                .getEntityCount();
     }
 }
@@ -5,6 +5,7 @@
 package gameengine.collisiondetection.shapes;
 
 import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.RaycastHit;
 import gameengine.entities.Entity;
 import gameengine.graphics.Renderer;
 
@@ -53,6 +54,18 @@ public class Circle extends Shape {
         Shape.collideCirclePoly(current, this, other, polygonShape, maxTime, result);
     }
 
+    @Override
+    public void collideWithTileMap(Entity current, Entity other, TileMap tileMap, double
+            maxTime, Collision result) {
+        tileMap.collideEntity(other, current, maxTime, result);
+    }
+
+    @Override
+    public void collideWithEdgeChain(Entity current, Entity other, EdgeChain edgeChain, double
+            maxTime, Collision result) {
+        edgeChain.collideWithCircle(other, current, this, maxTime, result);
+    }
+
     @Override
     public boolean isOverlappingShape(Entity current, Entity other) {
         return other.getShape().isOverlappingCircle(other, current, this);
@@ -73,6 +86,23 @@ public class Circle extends Shape {
         return Shape.isOverlappingCircleRectangle(current, this, other, shape);
     }
 
+    @Override
+    public boolean isOverlappingTileMap(Entity current, Entity other, TileMap shape) {
+        return shape.isOverlappingEntity(other, current);
+    }
+
+    @Override
+    public boolean isOverlappingEdgeChain(Entity current, Entity other, EdgeChain shape) {
+        return shape.isOverlappingEntity(other, current);
+    }
+
+    @Override
+    public boolean raycast(Entity current, double originX, double originY, double dirX, double
+            dirY, double maxDistance, RaycastHit result) {
+        return Shape.raycastCircle(current.getX(), current.getY(), radius, originX, originY,
+                dirX, dirY, maxDistance, result);
+    }
+
     @Override
     public void draw(Renderer renderer, double x, double y) {
         renderer.drawCircle(x, y, radius);
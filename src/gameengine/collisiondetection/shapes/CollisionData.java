@@ -12,6 +12,7 @@ public class CollisionData {
     private double entryTime, leaveTime, overlapTime, overlapVelocity, tempOverlapVelocity;
     private double min, max;
     private boolean overlapUpdated = false;
+    private TileMap.Sweep tileSweep = null;
 
     public CollisionData() {
         collisionNormal = new Vector2D();
@@ -20,6 +21,17 @@ public class CollisionData {
         clear();
     }
 
+    /**
+     * @return the state of a collision with a {@link TileMap}, created the first time that a
+     * collision with a tile map is calculated
+     */
+    TileMap.Sweep getTileSweep() {
+        if (tileSweep == null) {
+            tileSweep = new TileMap.Sweep();
+        }
+        return tileSweep;
+    }
+
     public Vector2D getCollisionNormal() {
         return collisionNormal;
     }
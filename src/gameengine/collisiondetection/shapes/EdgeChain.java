@@ -0,0 +1,769 @@
+package gameengine.collisiondetection.shapes;
+
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.RaycastHit;
+import gameengine.entities.Entity;
+import gameengine.geometry.Vector2D;
+import gameengine.graphics.Renderer;
+
+import java.util.Arrays;
+
+/**
+ * A chain of line segments that is a single shape, used for walls and level outlines that would
+ * otherwise take a polygon entity for every segment.  Each segment is rounded by the radius of
+ * the chain, so it is the set of points within the radius of the segment, and the chain can be
+ * closed into a loop.  The points are relative to the center of the entity, the same as the
+ * points of a {@link Polygon}, and the chain is meant for static bodies.
+ * <p>
+ * The segments are kept in a bounding volume hierarchy so that a collision only checks the
+ * segments near the other shape.  The nodes are stored in depth first order with the index of
+ * the node after each subtree, so the hierarchy is walked without a stack by either going into
+ * a node or skipping past it.
+ * <p>
+ * A circle is swept against each segment by finding when it reaches the sides of the segment and
+ * the rounded ends of the segment.  Rectangles and polygons are swept with the separating axis
+ * test against the axes of the shape and the normal of the segment, which treats the rounded
+ * ends as if they were cut off by the axes of the shape.
+ * <p>
+ * A shape that slides along the chain touches both segments where they are joined.  The hits at
+ * a joint whose normals point along the neighbouring segment are ghosts of the joint, the
+ * neighbouring segment is hit there as well, so they are ignored.  Otherwise a shape that slides
+ * across a joint would be stopped by the end of the next segment.
+ *
+ * @author davidrusu
+ */
+public class EdgeChain extends Shape {
+    private static final int MAX_LEAF_SIZE = 4;
+    /**
+     * How far a normal can point past the end of a segment and still be treated as pointing
+     * along the segment
+     */
+    private static final double GHOST_TOLERANCE = 1e-9;
+    private final int numVertices, numSegments;
+    private final boolean isLoop;
+    private final double radius;
+    private final Vector2D[] vertices;
+    private final double[] vertexXs, vertexYs;
+    private final double[] directionXs, directionYs, lengths;
+    /**
+     * The outline of each segment with its radius, used to fill the chain
+     */
+    private final Vector2D[][] outlines;
+    private final int[] orderedSegments;
+    private final double[] nodeMinX, nodeMinY, nodeMaxX, nodeMaxY;
+    private final int[] nodeStarts, nodeEnds;
+    /**
+     * The index of the node after the subtree of each node, the first child of a node is the
+     * node after it
+     */
+    private final int[] nodeSkips;
+    private int numNodes = 0;
+
+    /**
+     * @param xPoints   the x coordinates of the points of the chain relative to the center
+     * @param yPoints   the y coordinates of the points of the chain relative to the center
+     * @param thickness the thickness of the segments, can be 0
+     * @param isLoop    true if the last point is joined back to the first one
+     */
+    public EdgeChain(double[] xPoints, double[] yPoints, double thickness, boolean isLoop) {
+        super(getHalfLength(xPoints) + thickness * 0.5, getHalfLength(yPoints) + thickness * 0.5);
+        assert xPoints.length == yPoints.length;
+        assert xPoints.length >= (isLoop ? 3 : 2);
+        assert thickness >= 0;
+        numVertices = xPoints.length;
+        numSegments = isLoop ? numVertices : numVertices - 1;
+        this.isLoop = isLoop;
+        radius = thickness * 0.5;
+        vertexXs = Arrays.copyOf(xPoints, numVertices);
+        vertexYs = Arrays.copyOf(yPoints, numVertices);
+        vertices = new Vector2D[isLoop ? numVertices + 1 : numVertices];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = new Vector2D(xPoints[i % numVertices], yPoints[i % numVertices]);
+        }
+
+        directionXs = new double[numSegments];
+        directionYs = new double[numSegments];
+        lengths = new double[numSegments];
+        outlines = new Vector2D[numSegments][];
+        for (int i = 0; i < numSegments; i++) {
+            int end = getEndVertex(i);
+            double deltaX = vertexXs[end] - vertexXs[i];
+            double deltaY = vertexYs[end] - vertexYs[i];
+            double length = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+            assert length > 0 : "the points of the chain can't repeat";
+            directionXs[i] = deltaX / length;
+            directionYs[i] = deltaY / length;
+            lengths[i] = length;
+            double offsetX = -directionYs[i] * radius;
+            double offsetY = directionXs[i] * radius;
+            outlines[i] = new Vector2D[]{new Vector2D(vertexXs[i] + offsetX, vertexYs[i] +
+                    offsetY), new Vector2D(vertexXs[end] + offsetX, vertexYs[end] + offsetY), new
+                    Vector2D(vertexXs[end] - offsetX, vertexYs[end] - offsetY), new Vector2D
+                    (vertexXs[i] - offsetX, vertexYs[i] - offsetY)};
+        }
+
+        orderedSegments = new int[numSegments];
+        int maxNumNodes = 2 * numSegments;
+        nodeMinX = new double[maxNumNodes];
+        nodeMinY = new double[maxNumNodes];
+        nodeMaxX = new double[maxNumNodes];
+        nodeMaxY = new double[maxNumNodes];
+        nodeStarts = new int[maxNumNodes];
+        nodeEnds = new int[maxNumNodes];
+        nodeSkips = new int[maxNumNodes];
+        Integer[] segments = new Integer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = i;
+        }
+        buildNode(segments, 0, numSegments);
+        for (int i = 0; i < numSegments; i++) {
+            orderedSegments[i] = segments[i];
+        }
+    }
+
+    private static double getHalfLength(double[] points) {
+        double halfLength = 0;
+        for (int i = 0; i < points.length; i++) {
+            halfLength = Math.max(Math.abs(points[i]), halfLength);
+        }
+        return halfLength;
+    }
+
+    private void buildNode(Integer[] segments, int start, int end) {
+        int index = numNodes;
+        numNodes++;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = start; i < end; i++) {
+            int segment = segments[i];
+            int segmentEnd = getEndVertex(segment);
+            minX = Math.min(minX, Math.min(vertexXs[segment], vertexXs[segmentEnd]));
+            minY = Math.min(minY, Math.min(vertexYs[segment], vertexYs[segmentEnd]));
+            maxX = Math.max(maxX, Math.max(vertexXs[segment], vertexXs[segmentEnd]));
+            maxY = Math.max(maxY, Math.max(vertexYs[segment], vertexYs[segmentEnd]));
+        }
+        nodeMinX[index] = minX - radius;
+        nodeMinY[index] = minY - radius;
+        nodeMaxX[index] = maxX + radius;
+        nodeMaxY[index] = maxY + radius;
+        nodeStarts[index] = start;
+        nodeEnds[index] = end;
+        if (end - start > MAX_LEAF_SIZE) {
+            // the segments are split at the median of their centers along the longer axis
+            boolean isXAxis = maxX - minX > maxY - minY;
+            Arrays.sort(segments, start, end, (a, b) -> Double.compare(getCenter(a, isXAxis),
+                    getCenter(b, isXAxis)));
+            int middle = (start + end) / 2;
+            buildNode(segments, start, middle);
+            buildNode(segments, middle, end);
+        }
+        nodeSkips[index] = numNodes;
+    }
+
+    private double getCenter(int segment, boolean isXAxis) {
+        int end = getEndVertex(segment);
+        return isXAxis ? vertexXs[segment] + vertexXs[end] : vertexYs[segment] + vertexYs[end];
+    }
+
+    private int getEndVertex(int segment) {
+        return segment + 1 == numVertices ? 0 : segment + 1;
+    }
+
+    private boolean isLeaf(int node) {
+        return nodeSkips[node] == node + 1;
+    }
+
+    public int getNumSegments() {
+        return numSegments;
+    }
+
+    public boolean isLoop() {
+        return isLoop;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return the points of the chain relative to the center, the first point is repeated at
+     * the end when the chain is a loop
+     */
+    public Vector2D[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * Checks if a hit on the segment with the normal is a ghost of a joint, which is when the
+     * normal points past the end of the segment at a joint but not past the end of the
+     * neighbouring segment, the neighbouring segment is hit there instead.
+     */
+    private boolean isGhost(int segment, double normalX, double normalY) {
+        double along = normalX * directionXs[segment] + normalY * directionYs[segment];
+        if (along < -GHOST_TOLERANCE && (isLoop || segment > 0)) {
+            int previous = segment == 0 ? numSegments - 1 : segment - 1;
+            return normalX * directionXs[previous] + normalY * directionYs[previous] <=
+                    GHOST_TOLERANCE;
+        }
+        if (along > GHOST_TOLERANCE && (isLoop || segment < numSegments - 1)) {
+            int next = segment + 1 == numSegments ? 0 : segment + 1;
+            return normalX * directionXs[next] + normalY * directionYs[next] >= -GHOST_TOLERANCE;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the earliest collision between a circle and the segments.
+     *
+     * @param current the entity that has this chain
+     * @param other   the entity that has the circle
+     */
+    @Override
+    public void collideWithCircle(Entity current, Entity other, Circle circleShape, double
+            maxTime, Collision result) {
+        result.setNoCollision();
+        // the circle relative to the chain
+        double x = other.getX() - current.getX();
+        double y = other.getY() - current.getY();
+        double velX = other.getDX() - current.getDX();
+        double velY = other.getDY() - current.getDY();
+        double reach = circleShape.getRadius() + radius;
+        double minX = x - reach + Math.min(0, velX * maxTime);
+        double maxX = x + reach + Math.max(0, velX * maxTime);
+        double minY = y - reach + Math.min(0, velY * maxTime);
+        double maxY = y + reach + Math.max(0, velY * maxTime);
+        int node = 0;
+        while (node < numNodes) {
+            if (minX > nodeMaxX[node] || maxX < nodeMinX[node] || minY > nodeMaxY[node] || maxY <
+                    nodeMinY[node]) {
+                node = nodeSkips[node];
+                continue;
+            }
+            if (isLeaf(node)) {
+                for (int i = nodeStarts[node]; i < nodeEnds[node]; i++) {
+                    collideCircleSegment(current, other, orderedSegments[i], x, y, velX, velY,
+                            reach, maxTime, result);
+                }
+            }
+            node++;
+        }
+    }
+
+    private void collideCircleSegment(Entity current, Entity other, int segment, double x,
+                                      double y, double velX, double velY, double reach, double
+                                              maxTime, Collision result) {
+        double maxHitTime = Math.min(maxTime, result.getCollisionTime());
+        double dirX = directionXs[segment], dirY = directionYs[segment];
+        // the normal of the segment
+        double normalX = -dirY, normalY = dirX;
+        double deltaX = x - vertexXs[segment];
+        double deltaY = y - vertexYs[segment];
+        double distance = deltaX * normalX + deltaY * normalY;
+        double along = deltaX * dirX + deltaY * dirY;
+        double normalVel = velX * normalX + velY * normalY;
+        double side = distance > 0 || distance == 0 && normalVel < 0 ? 1 : -1;
+        if (Math.abs(distance) < reach) {
+            if (along >= 0 && along <= lengths[segment] && distance * normalVel <= 0 &&
+                    normalVel != 0) {
+                // overlapping the side and moving towards the segment
+                result.set(0, normalX * side, normalY * side, current, other);
+                return;
+            }
+        } else if (distance * normalVel < 0) {
+            double time = (Math.abs(distance) - reach) / Math.abs(normalVel);
+            double alongHit = along + (velX * dirX + velY * dirY) * time;
+            if (time <= maxHitTime && alongHit >= 0 && alongHit <= lengths[segment]) {
+                result.set(time, normalX * side, normalY * side, current, other);
+                maxHitTime = time;
+            }
+        }
+
+        // the rounded ends, the ends at a joint are only checked by the segment after the joint
+        collideCircleEnd(current, other, segment, segment, true, x, y, velX, velY, reach,
+                maxHitTime, result);
+        if (!isLoop && segment == numSegments - 1) {
+            collideCircleEnd(current, other, segment, numVertices - 1, false, x, y, velX, velY,
+                    reach, Math.min(maxHitTime, result.getCollisionTime()), result);
+        }
+    }
+
+    private void collideCircleEnd(Entity current, Entity other, int segment, int vertex, boolean
+            isStart, double x, double y, double velX, double velY, double reach, double
+                                          maxHitTime, Collision result) {
+        double deltaX = x - vertexXs[vertex];
+        double deltaY = y - vertexYs[vertex];
+        double distSquared = deltaX * deltaX + deltaY * deltaY - reach * reach;
+        double projection = deltaX * velX + deltaY * velY;
+        if (projection >= 0) {
+            // moving away from the end
+            return;
+        }
+        double time = 0;
+        if (distSquared > 0) {
+            double speedSquared = velX * velX + velY * velY;
+            double discriminant = projection * projection - speedSquared * distSquared;
+            if (discriminant < 0) {
+                return;
+            }
+            time = (-projection - Math.sqrt(discriminant)) / speedSquared;
+            if (time > maxHitTime) {
+                return;
+            }
+        }
+        double hitX = deltaX + velX * time;
+        double hitY = deltaY + velY * time;
+        double length = Math.sqrt(hitX * hitX + hitY * hitY);
+        if (length == 0) {
+            return;
+        }
+        double normalX = hitX / length, normalY = hitY / length;
+        double along = normalX * directionXs[segment] + normalY * directionYs[segment];
+        // the side of the segment is hit instead when the normal points along it
+        if (isStart ? along >= -GHOST_TOLERANCE || isGhost(segment, normalX, normalY) : along <=
+                GHOST_TOLERANCE) {
+            return;
+        }
+        result.set(time, normalX, normalY, current, other);
+    }
+
+    /**
+     * Finds the earliest collision between a rectangle and the segments.
+     *
+     * @param current the entity that has this chain
+     * @param other   the entity that has the rectangle
+     */
+    @Override
+    public void collideWithRectangle(Entity current, Entity other, Rectangle aabbShape, double
+            maxTime, Collision result) {
+        collideBox(current, other, null, maxTime, result);
+    }
+
+    /**
+     * Finds the earliest collision between a polygon and the segments.
+     *
+     * @param current the entity that has this chain
+     * @param other   the entity that has the polygon
+     */
+    @Override
+    public void collideWithPolygon(Entity current, Entity other, Polygon polygonShape, double
+            maxTime, Collision result) {
+        collideBox(current, other, polygonShape, maxTime, result);
+    }
+
+    /**
+     * @param polygon the polygon of the other entity or null if it has a rectangle
+     */
+    private void collideBox(Entity current, Entity other, Polygon polygon, double maxTime,
+                            Collision result) {
+        result.setNoCollision();
+        double x = other.getX() - current.getX();
+        double y = other.getY() - current.getY();
+        double velX = other.getDX() - current.getDX();
+        double velY = other.getDY() - current.getDY();
+        double minX = x - other.getHalfWidth() - radius + Math.min(0, velX * maxTime);
+        double maxX = x + other.getHalfWidth() + radius + Math.max(0, velX * maxTime);
+        double minY = y - other.getHalfHeight() - radius + Math.min(0, velY * maxTime);
+        double maxY = y + other.getHalfHeight() + radius + Math.max(0, velY * maxTime);
+        int node = 0;
+        while (node < numNodes) {
+            if (minX > nodeMaxX[node] || maxX < nodeMinX[node] || minY > nodeMaxY[node] || maxY <
+                    nodeMinY[node]) {
+                node = nodeSkips[node];
+                continue;
+            }
+            if (isLeaf(node)) {
+                for (int i = nodeStarts[node]; i < nodeEnds[node]; i++) {
+                    collideBoxSegment(current, other, polygon, orderedSegments[i], x, y, velX,
+                            velY, maxTime, result);
+                }
+            }
+            node++;
+        }
+    }
+
+    /**
+     * Sweeps the shape against the segment with the separating axis test, along the normal of
+     * the segment and the axes of the shape.
+     */
+    private void collideBoxSegment(Entity current, Entity other, Polygon polygon, int segment,
+                                   double x, double y, double velX, double velY, double
+                                           maxTime, Collision result) {
+        double entryTime = Double.NEGATIVE_INFINITY;
+        double leaveTime = Double.POSITIVE_INFINITY;
+        double entryNormalX = 0, entryNormalY = 0;
+        double minDepth = Double.POSITIVE_INFINITY;
+        double depthNormalX = 0, depthNormalY = 0, depthVel = 0;
+        int numAxes = polygon == null ? 3 : polygon.getNumPoints() + 1;
+        for (int axis = 0; axis < numAxes; axis++) {
+            double axisX, axisY;
+            if (axis == 0) {
+                axisX = -directionYs[segment];
+                axisY = directionXs[segment];
+            } else if (polygon == null) {
+                axisX = axis == 1 ? 1 : 0;
+                axisY = axis == 1 ? 0 : 1;
+            } else {
+                Vector2D normal = polygon.getNormals()[axis - 1];
+                axisX = normal.getX();
+                axisY = normal.getY();
+            }
+            // the segment and its radius along the axis
+            int end = getEndVertex(segment);
+            double start = vertexXs[segment] * axisX + vertexYs[segment] * axisY;
+            double finish = vertexXs[end] * axisX + vertexYs[end] * axisY;
+            double segmentMin = Math.min(start, finish) - radius;
+            double segmentMax = Math.max(start, finish) + radius;
+            // the other shape along the axis
+            double center = x * axisX + y * axisY;
+            double shapeMin, shapeMax;
+            if (polygon == null) {
+                double extent = other.getHalfWidth() * Math.abs(axisX) + other.getHalfHeight()
+                        * Math.abs(axisY);
+                shapeMin = center - extent;
+                shapeMax = center + extent;
+            } else {
+                shapeMin = Double.POSITIVE_INFINITY;
+                shapeMax = Double.NEGATIVE_INFINITY;
+                for (Vector2D point : polygon.getPoints()) {
+                    double projection = point.getX() * axisX + point.getY() * axisY;
+                    shapeMin = Math.min(shapeMin, projection);
+                    shapeMax = Math.max(shapeMax, projection);
+                }
+                shapeMin += center;
+                shapeMax += center;
+            }
+            double vel = velX * axisX + velY * axisY;
+            if (shapeMin >= segmentMax) {
+                // the shape is on the positive side
+                if (vel >= 0) {
+                    return;
+                }
+                double time = (segmentMax - shapeMin) / vel;
+                if (time > entryTime) {
+                    entryTime = time;
+                    entryNormalX = axisX;
+                    entryNormalY = axisY;
+                }
+                leaveTime = Math.min(leaveTime, (segmentMin - shapeMax) / vel);
+            } else if (shapeMax <= segmentMin) {
+                if (vel <= 0) {
+                    return;
+                }
+                double time = (segmentMin - shapeMax) / vel;
+                if (time > entryTime) {
+                    entryTime = time;
+                    entryNormalX = -axisX;
+                    entryNormalY = -axisY;
+                }
+                leaveTime = Math.min(leaveTime, (segmentMax - shapeMin) / vel);
+            } else {
+                if (vel > 0) {
+                    leaveTime = Math.min(leaveTime, (segmentMax - shapeMin) / vel);
+                } else if (vel < 0) {
+                    leaveTime = Math.min(leaveTime, (segmentMin - shapeMax) / vel);
+                }
+                // the shape is pushed out the shorter way
+                double positiveDepth = segmentMax - shapeMin;
+                double negativeDepth = shapeMax - segmentMin;
+                if (positiveDepth <= negativeDepth) {
+                    if (positiveDepth < minDepth) {
+                        minDepth = positiveDepth;
+                        depthNormalX = axisX;
+                        depthNormalY = axisY;
+                        depthVel = vel;
+                    }
+                } else if (negativeDepth < minDepth) {
+                    minDepth = negativeDepth;
+                    depthNormalX = -axisX;
+                    depthNormalY = -axisY;
+                    depthVel = -vel;
+                }
+            }
+        }
+        if (entryTime == Double.NEGATIVE_INFINITY) {
+            // overlapping, only a collision if moving further in
+            if (depthVel < 0 && 0 < result.getCollisionTime() && !isGhost(segment,
+                    depthNormalX, depthNormalY)) {
+                result.set(0, depthNormalX, depthNormalY, current, other);
+            }
+            return;
+        }
+        if (entryTime <= leaveTime && entryTime <= maxTime && entryTime < result
+                .getCollisionTime() && !isGhost(segment, entryNormalX, entryNormalY)) {
+            result.set(entryTime, entryNormalX, entryNormalY, current, other);
+        }
+    }
+
+    /**
+     * Checks if any of the segments overlap the entity.
+     *
+     * @param current the entity that has this chain
+     */
+    public boolean isOverlappingEntity(Entity current, Entity other) {
+        double x = other.getX() - current.getX();
+        double y = other.getY() - current.getY();
+        double minX = x - other.getHalfWidth();
+        double maxX = x + other.getHalfWidth();
+        double minY = y - other.getHalfHeight();
+        double maxY = y + other.getHalfHeight();
+        Shape shape = other.getShape();
+        int node = 0;
+        while (node < numNodes) {
+            if (minX > nodeMaxX[node] || maxX < nodeMinX[node] || minY > nodeMaxY[node] || maxY <
+                    nodeMinY[node]) {
+                node = nodeSkips[node];
+                continue;
+            }
+            if (isLeaf(node)) {
+                for (int i = nodeStarts[node]; i < nodeEnds[node]; i++) {
+                    if (isOverlappingSegment(other, shape, orderedSegments[i], x, y)) {
+                        return true;
+                    }
+                }
+            }
+            node++;
+        }
+        return false;
+    }
+
+    private boolean isOverlappingSegment(Entity other, Shape shape, int segment, double x,
+                                         double y) {
+        double deltaX = x - vertexXs[segment];
+        double deltaY = y - vertexYs[segment];
+        if (shape instanceof Circle) {
+            double along = Math.max(0, Math.min(lengths[segment], deltaX * directionXs[segment]
+                    + deltaY * directionYs[segment]));
+            double offsetX = deltaX - directionXs[segment] * along;
+            double offsetY = deltaY - directionYs[segment] * along;
+            double reach = ((Circle) shape).getRadius() + radius;
+            return offsetX * offsetX + offsetY * offsetY <= reach * reach;
+        }
+        Polygon polygon = shape instanceof Polygon ? (Polygon) shape : null;
+        int numAxes = polygon == null ? 3 : polygon.getNumPoints() + 1;
+        int end = getEndVertex(segment);
+        for (int axis = 0; axis < numAxes; axis++) {
+            double axisX, axisY;
+            if (axis == 0) {
+                axisX = -directionYs[segment];
+                axisY = directionXs[segment];
+            } else if (polygon == null) {
+                axisX = axis == 1 ? 1 : 0;
+                axisY = axis == 1 ? 0 : 1;
+            } else {
+                Vector2D normal = polygon.getNormals()[axis - 1];
+                axisX = normal.getX();
+                axisY = normal.getY();
+            }
+            double start = vertexXs[segment] * axisX + vertexYs[segment] * axisY;
+            double finish = vertexXs[end] * axisX + vertexYs[end] * axisY;
+            double center = x * axisX + y * axisY;
+            double shapeMin, shapeMax;
+            if (polygon == null) {
+                double extent = other.getHalfWidth() * Math.abs(axisX) + other.getHalfHeight()
+                        * Math.abs(axisY);
+                shapeMin = center - extent;
+                shapeMax = center + extent;
+            } else {
+                shapeMin = Double.POSITIVE_INFINITY;
+                shapeMax = Double.NEGATIVE_INFINITY;
+                for (Vector2D point : polygon.getPoints()) {
+                    double projection = point.getX() * axisX + point.getY() * axisY;
+                    shapeMin = Math.min(shapeMin, projection);
+                    shapeMax = Math.max(shapeMax, projection);
+                }
+                shapeMin += center;
+                shapeMax += center;
+            }
+            if (shapeMin > Math.max(start, finish) + radius || shapeMax < Math.min(start,
+                    finish) - radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public double getArea() {
+        double area = 0;
+        for (int i = 0; i < numSegments; i++) {
+            area += lengths[i] * radius * 2;
+        }
+        return area + Math.PI * radius * radius;
+    }
+
+    @Override
+    public void collideWithShape(Entity current, Entity other, double maxTime, Collision result) {
+        other.getShape().collideWithEdgeChain(other, current, this, maxTime, result);
+    }
+
+    @Override
+    public void collideWithTileMap(Entity current, Entity other, TileMap tileMap, double
+            maxTime, Collision result) {
+        tileMap.collideEntity(other, current, maxTime, result);
+    }
+
+    @Override
+    public void collideWithEdgeChain(Entity current, Entity other, EdgeChain edgeChain, double
+            maxTime, Collision result) {
+        result.setNoCollision();
+    }
+
+    @Override
+    public boolean isOverlappingShape(Entity current, Entity other) {
+        return other.getShape().isOverlappingEdgeChain(other, current, this);
+    }
+
+    @Override
+    public boolean isOverlappingPolygon(Entity current, Entity other, Polygon shape) {
+        return isOverlappingEntity(current, other);
+    }
+
+    @Override
+    public boolean isOverlappingCircle(Entity current, Entity other, Circle shape) {
+        return isOverlappingEntity(current, other);
+    }
+
+    @Override
+    public boolean isOverlappingRectangle(Entity current, Entity other, Rectangle shape) {
+        return isOverlappingEntity(current, other);
+    }
+
+    @Override
+    public boolean isOverlappingTileMap(Entity current, Entity other, TileMap shape) {
+        return shape.isOverlappingEntity(other, current);
+    }
+
+    @Override
+    public boolean isOverlappingEdgeChain(Entity current, Entity other, EdgeChain shape) {
+        return false;
+    }
+
+    @Override
+    public boolean raycast(Entity current, double originX, double originY, double dirX, double
+            dirY, double maxDistance, RaycastHit result) {
+        double x = originX - current.getX();
+        double y = originY - current.getY();
+        double nearest = maxDistance;
+        double nearestNormalX = 0, nearestNormalY = 0;
+        boolean isHit = false;
+        int node = 0;
+        while (node < numNodes) {
+            if (!isRayOverlappingNode(node, x, y, dirX, dirY, nearest)) {
+                node = nodeSkips[node];
+                continue;
+            }
+            if (isLeaf(node)) {
+                for (int i = nodeStarts[node]; i < nodeEnds[node]; i++) {
+                    int segment = orderedSegments[i];
+                    if (raycastSegment(segment, x, y, dirX, dirY, nearest, result)) {
+                        isHit = true;
+                        nearest = result.getDistance();
+                        nearestNormalX = result.getNormalX();
+                        nearestNormalY = result.getNormalY();
+                    }
+                }
+            }
+            node++;
+        }
+        if (isHit) {
+            result.set(nearest, nearestNormalX, nearestNormalY);
+        }
+        return isHit;
+    }
+
+    private boolean isRayOverlappingNode(int node, double x, double y, double dirX, double dirY,
+                                         double maxDistance) {
+        double entry = 0;
+        double exit = maxDistance;
+        if (dirX == 0) {
+            if (x < nodeMinX[node] || x > nodeMaxX[node]) {
+                return false;
+            }
+        } else {
+            double near = ((dirX > 0 ? nodeMinX[node] : nodeMaxX[node]) - x) / dirX;
+            double far = ((dirX > 0 ? nodeMaxX[node] : nodeMinX[node]) - x) / dirX;
+            entry = Math.max(entry, near);
+            exit = Math.min(exit, far);
+        }
+        if (dirY == 0) {
+            if (y < nodeMinY[node] || y > nodeMaxY[node]) {
+                return false;
+            }
+        } else {
+            double near = ((dirY > 0 ? nodeMinY[node] : nodeMaxY[node]) - y) / dirY;
+            double far = ((dirY > 0 ? nodeMaxY[node] : nodeMinY[node]) - y) / dirY;
+            entry = Math.max(entry, near);
+            exit = Math.min(exit, far);
+        }
+        return entry <= exit;
+    }
+
+    /**
+     * Finds where a ray, relative to the center of the chain, enters the segment.
+     */
+    private boolean raycastSegment(int segment, double x, double y, double dirX, double dirY,
+                                   double maxDistance, RaycastHit result) {
+        double segmentDirX = directionXs[segment], segmentDirY = directionYs[segment];
+        double normalX = -segmentDirY, normalY = segmentDirX;
+        double deltaX = x - vertexXs[segment];
+        double deltaY = y - vertexYs[segment];
+        double distance = deltaX * normalX + deltaY * normalY;
+        double along = deltaX * segmentDirX + deltaY * segmentDirY;
+        double normalSpeed = dirX * normalX + dirY * normalY;
+        double length = lengths[segment];
+        if (Math.abs(distance) <= radius && along >= 0 && along <= length && radius > 0) {
+            // starts inside
+            result.set(0, -dirX, -dirY);
+            return true;
+        }
+        boolean isHit = false;
+        if (distance * normalSpeed < 0) {
+            double hitDistance = (Math.abs(distance) - radius) / Math.abs(normalSpeed);
+            double alongHit = along + (dirX * segmentDirX + dirY * segmentDirY) * hitDistance;
+            if (hitDistance <= maxDistance && alongHit >= 0 && alongHit <= length) {
+                double side = distance > 0 ? 1 : -1;
+                result.set(hitDistance, normalX * side, normalY * side);
+                maxDistance = hitDistance;
+                isHit = true;
+            }
+        }
+        if (radius > 0) {
+            int end = getEndVertex(segment);
+            if (Shape.raycastCircle(vertexXs[segment], vertexYs[segment], radius, x, y, dirX,
+                    dirY, maxDistance, result)) {
+                maxDistance = result.getDistance();
+                isHit = true;
+            }
+            if (Shape.raycastCircle(vertexXs[end], vertexYs[end], radius, x, y, dirX, dirY,
+                    maxDistance, result)) {
+                isHit = true;
+            }
+        }
+        return isHit;
+    }
+
+    @Override
+    public void draw(Renderer renderer, double x, double y) {
+        if (radius == 0) {
+            renderer.drawLineStrip(vertices, x, y);
+        } else {
+            for (Vector2D[] outline : outlines) {
+                renderer.drawPolygon(outline, x, y);
+            }
+        }
+    }
+
+    @Override
+    public void fill(Renderer renderer, double x, double y) {
+        if (radius == 0) {
+            renderer.drawLineStrip(vertices, x, y);
+            return;
+        }
+        for (Vector2D[] outline : outlines) {
+            renderer.fillPolygon(outline, x, y);
+        }
+        for (int i = 0; i < numVertices; i++) {
+            renderer.fillCircle(x + vertexXs[i], y + vertexYs[i], radius);
+        }
+    }
+}
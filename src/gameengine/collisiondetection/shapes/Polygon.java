@@ -1,6 +1,7 @@
 package gameengine.collisiondetection.shapes;
 
 import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.RaycastHit;
 import gameengine.entities.Entity;
 import gameengine.geometry.Vector2D;
 import gameengine.graphics.RColor;
@@ -121,6 +122,18 @@ public class Polygon extends Shape {
         Shape.collidePolyPoly(current, this, other, polygonShape, maxTime, result);
     }
 
+    @Override
+    public void collideWithTileMap(Entity current, Entity other, TileMap tileMap, double
+            maxTime, Collision result) {
+        tileMap.collideEntity(other, current, maxTime, result);
+    }
+
+    @Override
+    public void collideWithEdgeChain(Entity current, Entity other, EdgeChain edgeChain, double
+            maxTime, Collision result) {
+        edgeChain.collideWithPolygon(other, current, this, maxTime, result);
+    }
+
     @Override
     public boolean isOverlappingShape(Entity current, Entity other) {
         return other.getShape().isOverlappingPolygon(other, current, this);
@@ -141,6 +154,23 @@ public class Polygon extends Shape {
         return Shape.isOverlappingPolyRectangle(current, this, other, shape);
     }
 
+    @Override
+    public boolean isOverlappingTileMap(Entity current, Entity other, TileMap shape) {
+        return shape.isOverlappingEntity(other, current);
+    }
+
+    @Override
+    public boolean isOverlappingEdgeChain(Entity current, Entity other, EdgeChain shape) {
+        return shape.isOverlappingEntity(other, current);
+    }
+
+    @Override
+    public boolean raycast(Entity current, double originX, double originY, double dirX, double
+            dirY, double maxDistance, RaycastHit result) {
+        return Shape.raycastPoly(current, this, originX, originY, dirX, dirY, maxDistance,
+                result);
+    }
+
     /**
      * the first normal in the array is for the line points[points.length - 1] and points[0],
      * the second normal is for line points[0] and points[1].
@@ -1,6 +1,7 @@
 package gameengine.collisiondetection.shapes;
 
 import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.RaycastHit;
 import gameengine.entities.Entity;
 import gameengine.graphics.Renderer;
 
@@ -35,7 +36,7 @@ public class Rectangle extends Shape {
     @Override
     public void collideWithRectangle(Entity current, Entity other, Rectangle aabbShape, double
             maxTime, Collision result) {
-        Shape.collideRectangleRectangle(other, this, other, aabbShape, maxTime, result);
+        Shape.collideRectangleRectangle(current, this, other, aabbShape, maxTime, result);
     }
 
     @Override
@@ -44,6 +45,18 @@ public class Rectangle extends Shape {
         Shape.collideRectanglePoly(current, this, other, polygonShape, maxTime, result);
     }
 
+    @Override
+    public void collideWithTileMap(Entity current, Entity other, TileMap tileMap, double
+            maxTime, Collision result) {
+        tileMap.collideEntity(other, current, maxTime, result);
+    }
+
+    @Override
+    public void collideWithEdgeChain(Entity current, Entity other, EdgeChain edgeChain, double
+            maxTime, Collision result) {
+        edgeChain.collideWithRectangle(other, current, this, maxTime, result);
+    }
+
     @Override
     public boolean isOverlappingShape(Entity current, Entity other) {
         return other.getShape().isOverlappingRectangle(other, current, this);
@@ -64,6 +77,25 @@ public class Rectangle extends Shape {
         return Shape.isOverlappingRectangleRectangle(other, shape, current, this);
     }
 
+    @Override
+    public boolean isOverlappingTileMap(Entity current, Entity other, TileMap shape) {
+        return shape.isOverlappingEntity(other, current);
+    }
+
+    @Override
+    public boolean isOverlappingEdgeChain(Entity current, Entity other, EdgeChain shape) {
+        return shape.isOverlappingEntity(other, current);
+    }
+
+    @Override
+    public boolean raycast(Entity current, double originX, double originY, double dirX, double
+            dirY, double maxDistance, RaycastHit result) {
+        double x = current.getX();
+        double y = current.getY();
+        return Shape.raycastBox(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight,
+                originX, originY, dirX, dirY, maxDistance, result);
+    }
+
     public double getWidth() {
         return width;
     }
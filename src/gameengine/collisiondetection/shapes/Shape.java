@@ -1,6 +1,7 @@
 package gameengine.collisiondetection.shapes;
 
 import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.RaycastHit;
 import gameengine.entities.Entity;
 import gameengine.geometry.Vector2D;
 import gameengine.graphics.Renderer;
@@ -266,15 +267,16 @@ public abstract class Shape {
                                            double maxTime, Collision result) {
         double combinedVelX = bParent.getDX() - aParent.getDX();
         double combinedVelY = bParent.getDY() - aParent.getDY();
-        if (combinedVelX == 0 && combinedVelY == 0) {
-            result.setNoCollision();
-            return;
-        }
-
         double aX = aParent.getX();
         double aY = aParent.getY();
         double bX = bParent.getX();
         double bY = bParent.getY();
+        if (bX + combinedVelX == bX && bY + combinedVelY == bY) {
+            // the velocity is too small to move b, the line that b travels along has no
+            // direction and the normal can't be found
+            result.setNoCollision();
+            return;
+        }
         double distToLineSquared = Vector2D.distToLineSquared(aX, aY, bX, bY, bX + combinedVelX,
                 bY + combinedVelY);
         double radiiSum = a.getRadius() + b.getRadius();
@@ -317,6 +319,40 @@ public abstract class Shape {
         result.set(travelTime, velocity, aParent, bParent);
     }
 
+    /**
+     * Finds the collision of a circle that already overlaps a rectangle.  The normal points from
+     * the center of the circle to the closest point of the rectangle, or along the axis that the
+     * rectangle is the least deep along if the center is inside of it.  There is no collision if
+     * the entities are moving apart along the normal.
+     * <p>
+     * The bounds of the rectangle are relative to the center of the circle.
+     */
+    private static void collideOverlappingCircleRectangle(Entity aParent, Entity bParent, double
+            bMinX, double bMinY, double bMaxX, double bMaxY, double relVelX, double relVelY,
+            Collision result) {
+        double normalX = Math.max(bMinX, Math.min(0, bMaxX));
+        double normalY = Math.max(bMinY, Math.min(0, bMaxY));
+        if (normalX == 0 && normalY == 0) {
+            // the center of the circle is inside of the rectangle
+            double depthX = Math.min(bMaxX, -bMinX);
+            double depthY = Math.min(bMaxY, -bMinY);
+            if (depthX < depthY) {
+                normalX = bMaxX < -bMinX ? -1 : 1;
+            } else {
+                normalY = bMaxY < -bMinY ? -1 : 1;
+            }
+        } else {
+            double length = Math.sqrt(normalX * normalX + normalY * normalY);
+            normalX /= length;
+            normalY /= length;
+        }
+        if (relVelX * normalX + relVelY * normalY <= 0) {
+            result.setNoCollision();
+            return;
+        }
+        result.set(0, normalX, normalY, aParent, bParent);
+    }
+
     private static double getEntryTimeAlongAxis(double aMin, double aMax, double bMin, double
             bMax, double relVel) {
         if (aMax <= bMin) {
@@ -583,15 +619,8 @@ public abstract class Shape {
                 .getTempMax(), projVel), leaveTime);
 
         if (entryTime == -Double.MAX_VALUE) { // overlapping if true
-            if (relVelX > 0 && aX < bX || relVelX < 0 && bX < aX) {
-                result.set(0, 1, 0, aParent, bParent);
-                return;
-            }
-            if (relVelY > 0 && aY < bY || relVelY < 0 && bY < aY) {
-                result.set(0, 0, 1, aParent, bParent);
-                return;
-            }
-            result.setNoCollision();
+            collideOverlappingCircleRectangle(aParent, bParent, bMinX, bMinY, bMaxX, bMaxY,
+                    relVelX, relVelY, result);
             return;
         }
         if (entryTime <= maxTime && entryTime <= leaveTime && entryTime != -Double.MAX_VALUE) {
@@ -992,6 +1021,139 @@ public abstract class Shape {
         return Math.abs(deltaX) <= combinedHalfWidth && Math.abs(deltaY) <= combinedHalfHeight;
     }
 
+    /**
+     * Finds where a ray enters a circle.
+     *
+     * @param dirX        the x component of the unit direction of the ray
+     * @param dirY        the y component of the unit direction of the ray
+     * @param maxDistance the length of the ray
+     * @param result      the hit to set if the ray hits the circle
+     * @return true if the ray hits the circle within the max distance
+     */
+    public static boolean raycastCircle(double centerX, double centerY, double radius, double
+            originX, double originY, double dirX, double dirY, double maxDistance, RaycastHit
+                                                result) {
+        double deltaX = originX - centerX;
+        double deltaY = originY - centerY;
+        double projection = Vector2D.unitScalarProject(deltaX, deltaY, dirX, dirY);
+        double distSquared = deltaX * deltaX + deltaY * deltaY - radius * radius;
+        if (distSquared <= 0) {
+            // starts inside
+            result.set(0, -dirX, -dirY);
+            return true;
+        }
+        if (projection > 0) {
+            // starts outside and points away
+            return false;
+        }
+        double discriminant = projection * projection - distSquared;
+        if (discriminant < 0) {
+            return false;
+        }
+        double distance = -projection - Math.sqrt(discriminant);
+        if (distance > maxDistance) {
+            return false;
+        }
+        result.set(distance, (deltaX + dirX * distance) / radius, (deltaY + dirY * distance) /
+                radius);
+        return true;
+    }
+
+    /**
+     * Finds where a ray enters an axis aligned box with the slab test.
+     *
+     * @param dirX        the x component of the unit direction of the ray
+     * @param dirY        the y component of the unit direction of the ray
+     * @param maxDistance the length of the ray
+     * @param result      the hit to set if the ray hits the box
+     * @return true if the ray hits the box within the max distance
+     */
+    public static boolean raycastBox(double minX, double minY, double maxX, double maxY, double
+            originX, double originY, double dirX, double dirY, double maxDistance, RaycastHit
+                                             result) {
+        double entry = 0;
+        double exit = maxDistance;
+        double normalX = -dirX, normalY = -dirY;
+        if (dirX == 0) {
+            if (originX < minX || originX > maxX) {
+                return false;
+            }
+        } else {
+            double near = ((dirX > 0 ? minX : maxX) - originX) / dirX;
+            double far = ((dirX > 0 ? maxX : minX) - originX) / dirX;
+            if (near > entry) {
+                entry = near;
+                normalX = -Math.signum(dirX);
+                normalY = 0;
+            }
+            exit = Math.min(exit, far);
+        }
+        if (dirY == 0) {
+            if (originY < minY || originY > maxY) {
+                return false;
+            }
+        } else {
+            double near = ((dirY > 0 ? minY : maxY) - originY) / dirY;
+            double far = ((dirY > 0 ? maxY : minY) - originY) / dirY;
+            if (near > entry) {
+                entry = near;
+                normalX = 0;
+                normalY = -Math.signum(dirY);
+            }
+            exit = Math.min(exit, far);
+        }
+        if (entry > exit) {
+            return false;
+        }
+        result.set(entry, normalX, normalY);
+        return true;
+    }
+
+    /**
+     * Finds where a ray enters a polygon by clipping the ray against the edges of the polygon.
+     *
+     * @param dirX        the x component of the unit direction of the ray
+     * @param dirY        the y component of the unit direction of the ray
+     * @param maxDistance the length of the ray
+     * @param result      the hit to set if the ray hits the polygon
+     * @return true if the ray hits the polygon within the max distance
+     */
+    public static boolean raycastPoly(Entity parent, Polygon polygon, double originX, double
+            originY, double dirX, double dirY, double maxDistance, RaycastHit result) {
+        double deltaX = originX - parent.getX();
+        double deltaY = originY - parent.getY();
+        Vector2D[] normals = polygon.getNormals();
+        double[] normalMaxs = polygon.getNormalMaxs();
+        double entry = 0;
+        double exit = maxDistance;
+        double normalX = -dirX, normalY = -dirY;
+        for (int i = 0; i < normals.length; i++) {
+            Vector2D normal = normals[i];
+            // the distance of the origin inside the edge along the normal of the edge
+            double inside = normalMaxs[i] - Vector2D.unitScalarProject(deltaX, deltaY, normal);
+            double speed = Vector2D.unitScalarProject(dirX, dirY, normal);
+            if (speed == 0) {
+                if (inside < 0) {
+                    return false;
+                }
+                continue;
+            }
+            double distance = inside / speed;
+            if (speed > 0) {
+                exit = Math.min(exit, distance);
+            } else if (distance > entry) {
+                entry = distance;
+                normalX = normal.getX();
+                normalY = normal.getY();
+            }
+            if (entry > exit) {
+                return false;
+            }
+        }
+        result.set(entry, normalX, normalY);
+        return true;
+    }
+
     public double getWidth() {
         return width;
     }
@@ -1022,6 +1184,12 @@ public abstract class Shape {
     public abstract void collideWithPolygon(Entity current, Entity other, Polygon polygonShape,
                                             double maxTime, Collision result);
 
+    public abstract void collideWithTileMap(Entity current, Entity other, TileMap tileMap,
+                                            double maxTime, Collision result);
+
+    public abstract void collideWithEdgeChain(Entity current, Entity other, EdgeChain edgeChain,
+                                              double maxTime, Collision result);
+
     public abstract boolean isOverlappingShape(Entity current, Entity other);
 
     public abstract boolean isOverlappingPolygon(Entity current, Entity other, Polygon shape);
@@ -1030,6 +1198,25 @@ public abstract class Shape {
 
     public abstract boolean isOverlappingRectangle(Entity current, Entity other, Rectangle shape);
 
+    public abstract boolean isOverlappingTileMap(Entity current, Entity other, TileMap shape);
+
+    public abstract boolean isOverlappingEdgeChain(Entity current, Entity other, EdgeChain shape);
+
+    /**
+     * Finds where a ray enters this shape.
+     *
+     * @param current     the entity that has this shape
+     * @param originX     the x coordinate of the start of the ray
+     * @param originY     the y coordinate of the start of the ray
+     * @param dirX        the x component of the unit direction of the ray
+     * @param dirY        the y component of the unit direction of the ray
+     * @param maxDistance the length of the ray
+     * @param result      the hit to set the distance and normal of if the ray hits this shape
+     * @return true if the ray hits this shape within the max distance
+     */
+    public abstract boolean raycast(Entity current, double originX, double originY, double
+            dirX, double dirY, double maxDistance, RaycastHit result);
+
     /**
      * Draws the outline of the shape.
      *
@@ -0,0 +1,511 @@
+package gameengine.collisiondetection.shapes;
+
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.RaycastHit;
+import gameengine.entities.Entity;
+import gameengine.graphics.Renderer;
+import gameengine.physics.Material;
+
+/**
+ * A regular grid of box tiles that is a single shape, used for things like brick walls and
+ * level geometry that would otherwise take an entity for every tile.  Each cell of the grid
+ * stores a byte, {@link #EMPTY} for no tile and any other value for a tile, so the value can
+ * hold something like the number of hits that the tile has left.  The tiles can be smaller than
+ * the cells, in which case they are centered in their cells.  The entity that has the tile map
+ * is at the center of the grid, the first cell is at the top left and the cells are stored row
+ * by row.
+ * <p>
+ * Setting and clearing a tile only writes the cell, the entity doesn't move and the broadphase
+ * isn't told anything.  A collision that has already been found with a tile is still handled
+ * after the tile is cleared, the same as a static body that is removed during an update.
+ * <p>
+ * A moving shape is collided with the tile map by walking the cells that its center passes
+ * through with a DDA, from the nearest to the farthest.  The tiles around the center that the
+ * shape can reach are checked when the center enters a cell, so every tile that the shape
+ * sweeps over is checked once, and the walk stops once the next cell is entered after the
+ * earliest collision so far.  The tile that is hit is recorded by
+ * {@link Collision#getTileIndex()}.  Tile maps don't collide with each other.
+ *
+ * @author davidrusu
+ */
+public class TileMap extends Shape {
+    public static final byte EMPTY = 0;
+    private final int numColumns, numRows;
+    private final double cellWidth, cellHeight;
+    private final Rectangle tileShape;
+    private final byte[] tiles;
+    private int numTiles = 0;
+    /**
+     * Stands in for the tiles in the overlap tests, which are only done by the world on the
+     * main thread
+     */
+    private final Tile overlapTile = new Tile();
+
+    /**
+     * Creates an empty tile map where the tiles fill their cells.
+     */
+    public TileMap(int numColumns, int numRows, double tileWidth, double tileHeight) {
+        this(numColumns, numRows, tileWidth, tileHeight, tileWidth, tileHeight);
+    }
+
+    /**
+     * Creates an empty tile map where the tiles are centered in their cells with gaps between
+     * them.
+     */
+    public TileMap(int numColumns, int numRows, double cellWidth, double cellHeight, double
+            tileWidth, double tileHeight) {
+        super(numColumns * cellWidth * 0.5, numRows * cellHeight * 0.5);
+        assert numColumns > 0 && numRows > 0;
+        assert tileWidth <= cellWidth && tileHeight <= cellHeight;
+        this.numColumns = numColumns;
+        this.numRows = numRows;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        tileShape = new Rectangle(tileWidth, tileHeight);
+        tiles = new byte[numColumns * numRows];
+        overlapTile.setShape(tileShape);
+    }
+
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public double getCellWidth() {
+        return cellWidth;
+    }
+
+    public double getCellHeight() {
+        return cellHeight;
+    }
+
+    /**
+     * @return the shape of a single tile
+     */
+    public Rectangle getTileShape() {
+        return tileShape;
+    }
+
+    /**
+     * @return the number of cells that have a tile
+     */
+    public int getNumTiles() {
+        return numTiles;
+    }
+
+    public int getIndex(int column, int row) {
+        assert column >= 0 && column < numColumns && row >= 0 && row < numRows;
+        return row * numColumns + column;
+    }
+
+    public int getColumn(int index) {
+        return index % numColumns;
+    }
+
+    public int getRow(int index) {
+        return index / numColumns;
+    }
+
+    /**
+     * @param current the entity that has this tile map
+     * @return the x coordinate of the center of the cell
+     */
+    public double getTileX(Entity current, int index) {
+        return current.getX() - halfWidth + (getColumn(index) + 0.5) * cellWidth;
+    }
+
+    /**
+     * @param current the entity that has this tile map
+     * @return the y coordinate of the center of the cell
+     */
+    public double getTileY(Entity current, int index) {
+        return current.getY() - halfHeight + (getRow(index) + 0.5) * cellHeight;
+    }
+
+    /**
+     * @return the value of the cell, {@link #EMPTY} if it doesn't have a tile
+     */
+    public byte getTile(int index) {
+        return tiles[index];
+    }
+
+    public byte getTile(int column, int row) {
+        return tiles[getIndex(column, row)];
+    }
+
+    public boolean hasTile(int index) {
+        return tiles[index] != EMPTY;
+    }
+
+    public boolean hasTile(int column, int row) {
+        return tiles[getIndex(column, row)] != EMPTY;
+    }
+
+    /**
+     * Sets the value of the cell, a value of {@link #EMPTY} clears the tile.
+     */
+    public void setTile(int index, byte value) {
+        if (tiles[index] == EMPTY) {
+            if (value != EMPTY) {
+                numTiles++;
+            }
+        } else if (value == EMPTY) {
+            numTiles--;
+        }
+        tiles[index] = value;
+    }
+
+    public void setTile(int column, int row, byte value) {
+        setTile(getIndex(column, row), value);
+    }
+
+    public void clearTile(int index) {
+        setTile(index, EMPTY);
+    }
+
+    public void clearTile(int column, int row) {
+        setTile(getIndex(column, row), EMPTY);
+    }
+
+    /**
+     * Sets every cell to the value.
+     */
+    public void setAllTiles(byte value) {
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = value;
+        }
+        numTiles = value == EMPTY ? 0 : tiles.length;
+    }
+
+    /**
+     * Finds the earliest collision between the entity and the tiles.
+     *
+     * @param current the entity that has this tile map
+     * @param other   the entity to collide with the tiles
+     * @param result  set to the collision with the tile map entity instead of the tile
+     */
+    public void collideEntity(Entity current, Entity other, double maxTime, Collision result) {
+        Sweep sweep = result.getCollisionData().getTileSweep();
+        sweep.begin(tileShape);
+        double minX = current.getX() - halfWidth;
+        double minY = current.getY() - halfHeight;
+        // the center of the other entity and its velocity relative to the tile map, in cells
+        double x = (other.getX() - minX) / cellWidth;
+        double y = (other.getY() - minY) / cellHeight;
+        double velX = (other.getDX() - current.getDX()) / cellWidth;
+        double velY = (other.getDY() - current.getDY()) / cellHeight;
+        int column = (int) Math.floor(x);
+        int row = (int) Math.floor(y);
+        // the tiles that the other entity can touch while its center is in a cell are within
+        // these offsets of the cell, the cell before the first one is included since the shape
+        // touches a tile when it is right at the edge of the tile
+        int extentX = (int) Math.ceil(other.getHalfWidth() / cellWidth);
+        int extentY = (int) Math.ceil(other.getHalfHeight() / cellHeight);
+        int stepX = velX > 0 ? 1 : -1;
+        int stepY = velY > 0 ? 1 : -1;
+        double timeDeltaX = velX == 0 ? Double.POSITIVE_INFINITY : 1 / Math.abs(velX);
+        double timeDeltaY = velY == 0 ? Double.POSITIVE_INFINITY : 1 / Math.abs(velY);
+        double nextTimeX = velX == 0 ? Double.POSITIVE_INFINITY : (velX > 0 ? column + 1 - x :
+                column - x) / velX;
+        double nextTimeY = velY == 0 ? Double.POSITIVE_INFINITY : (velY > 0 ? row + 1 - y :
+                row - y) / velY;
+
+        collideTiles(current, other, column - extentX - 1, column + extentX, row - extentY - 1,
+                row + extentY, maxTime, result, sweep);
+        while (true) {
+            double nextTime = Math.min(nextTimeX, nextTimeY);
+            if (nextTime > maxTime || nextTime > sweep.bestTime) {
+                break;
+            }
+            if (nextTimeX < nextTimeY) {
+                column += stepX;
+                nextTimeX += timeDeltaX;
+                if (stepX > 0 ? column - extentX - 1 >= numColumns : column + extentX < 0) {
+                    // the tiles that can be touched have passed the tile map and are moving
+                    // away from it
+                    break;
+                }
+                int bandColumn = stepX > 0 ? column + extentX : column - extentX - 1;
+                collideTiles(current, other, bandColumn, bandColumn, row - extentY - 1, row +
+                        extentY, maxTime, result, sweep);
+            } else {
+                row += stepY;
+                nextTimeY += timeDeltaY;
+                if (stepY > 0 ? row - extentY - 1 >= numRows : row + extentY < 0) {
+                    break;
+                }
+                int bandRow = stepY > 0 ? row + extentY : row - extentY - 1;
+                collideTiles(current, other, column - extentX - 1, column + extentX, bandRow,
+                        bandRow, maxTime, result, sweep);
+            }
+        }
+
+        if (sweep.bestIndex < 0) {
+            result.setNoCollision();
+        } else if (sweep.isTileFirst) {
+            result.set(sweep.bestTime, sweep.bestNormalX, sweep.bestNormalY, current, other);
+            result.setTileIndex(sweep.bestIndex);
+        } else {
+            result.set(sweep.bestTime, sweep.bestNormalX, sweep.bestNormalY, other, current);
+            result.setTileIndex(sweep.bestIndex);
+        }
+    }
+
+    private void collideTiles(Entity current, Entity other, int minColumn, int maxColumn, int
+            minRow, int maxRow, double maxTime, Collision result, Sweep sweep) {
+        minColumn = Math.max(minColumn, 0);
+        maxColumn = Math.min(maxColumn, numColumns - 1);
+        minRow = Math.max(minRow, 0);
+        maxRow = Math.min(maxRow, numRows - 1);
+        Tile tile = sweep.tile;
+        for (int row = minRow; row <= maxRow; row++) {
+            int index = row * numColumns + minColumn;
+            for (int column = minColumn; column <= maxColumn; column++, index++) {
+                if (tiles[index] == EMPTY) {
+                    continue;
+                }
+                tile.set(getTileX(current, index), getTileY(current, index), current.getDX(),
+                        current.getDY());
+                other.getShape().collideWithRectangle(other, tile, tileShape, Math.min(maxTime,
+                        sweep.bestTime), result);
+                double time = result.getCollisionTime();
+                if (time < sweep.bestTime) {
+                    sweep.bestTime = time;
+                    sweep.bestNormalX = result.getCollisionNormal().getX();
+                    sweep.bestNormalY = result.getCollisionNormal().getY();
+                    sweep.bestIndex = index;
+                    sweep.isTileFirst = result.getA() == tile;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the entity overlaps any of the tiles.
+     *
+     * @param current the entity that has this tile map
+     */
+    public boolean isOverlappingEntity(Entity current, Entity other) {
+        double minX = current.getX() - halfWidth;
+        double minY = current.getY() - halfHeight;
+        // the cell before the first one is included for the tiles that are touching the edge
+        int minColumn = Math.max((int) Math.floor((other.getX() - other.getHalfWidth() - minX) /
+                cellWidth) - 1, 0);
+        int maxColumn = Math.min((int) Math.floor((other.getX() + other.getHalfWidth() - minX) /
+                cellWidth), numColumns - 1);
+        int minRow = Math.max((int) Math.floor((other.getY() - other.getHalfHeight() - minY) /
+                cellHeight) - 1, 0);
+        int maxRow = Math.min((int) Math.floor((other.getY() + other.getHalfHeight() - minY) /
+                cellHeight), numRows - 1);
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                int index = row * numColumns + column;
+                if (tiles[index] == EMPTY) {
+                    continue;
+                }
+                overlapTile.set(getTileX(current, index), getTileY(current, index), 0, 0);
+                if (other.getShape().isOverlappingRectangle(other, overlapTile, tileShape)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public double getArea() {
+        return numTiles * tileShape.getArea();
+    }
+
+    @Override
+    public void collideWithShape(Entity current, Entity other, double maxTime, Collision result) {
+        other.getShape().collideWithTileMap(other, current, this, maxTime, result);
+    }
+
+    @Override
+    public void collideWithCircle(Entity current, Entity other, Circle circleShape, double
+            maxTime, Collision result) {
+        collideEntity(current, other, maxTime, result);
+    }
+
+    @Override
+    public void collideWithRectangle(Entity current, Entity other, Rectangle aabbShape, double
+            maxTime, Collision result) {
+        collideEntity(current, other, maxTime, result);
+    }
+
+    @Override
+    public void collideWithPolygon(Entity current, Entity other, Polygon polygonShape, double
+            maxTime, Collision result) {
+        collideEntity(current, other, maxTime, result);
+    }
+
+    @Override
+    public void collideWithTileMap(Entity current, Entity other, TileMap tileMap, double
+            maxTime, Collision result) {
+        result.setNoCollision();
+    }
+
+    @Override
+    public void collideWithEdgeChain(Entity current, Entity other, EdgeChain edgeChain, double
+            maxTime, Collision result) {
+        collideEntity(current, other, maxTime, result);
+    }
+
+    @Override
+    public boolean isOverlappingShape(Entity current, Entity other) {
+        return other.getShape().isOverlappingTileMap(other, current, this);
+    }
+
+    @Override
+    public boolean isOverlappingPolygon(Entity current, Entity other, Polygon shape) {
+        return isOverlappingEntity(current, other);
+    }
+
+    @Override
+    public boolean isOverlappingCircle(Entity current, Entity other, Circle shape) {
+        return isOverlappingEntity(current, other);
+    }
+
+    @Override
+    public boolean isOverlappingRectangle(Entity current, Entity other, Rectangle shape) {
+        return isOverlappingEntity(current, other);
+    }
+
+    @Override
+    public boolean isOverlappingTileMap(Entity current, Entity other, TileMap shape) {
+        return false;
+    }
+
+    @Override
+    public boolean isOverlappingEdgeChain(Entity current, Entity other, EdgeChain shape) {
+        return isOverlappingEntity(current, other);
+    }
+
+    /**
+     * Walks the cells that the ray passes through from the nearest to the farthest, so the
+     * first tile that the ray hits is the nearest.
+     */
+    @Override
+    public boolean raycast(Entity current, double originX, double originY, double dirX, double
+            dirY, double maxDistance, RaycastHit result) {
+        double minX = current.getX() - halfWidth;
+        double minY = current.getY() - halfHeight;
+        if (!Shape.raycastBox(minX, minY, minX + width, minY + height, originX, originY, dirX,
+                dirY, maxDistance, result)) {
+            return false;
+        }
+        // the walk starts where the ray enters the tile map
+        double distance = result.getDistance();
+        double x = (originX + dirX * distance - minX) / cellWidth;
+        double y = (originY + dirY * distance - minY) / cellHeight;
+        int column = Math.min(Math.max((int) Math.floor(x), 0), numColumns - 1);
+        int row = Math.min(Math.max((int) Math.floor(y), 0), numRows - 1);
+        int stepX = dirX > 0 ? 1 : -1;
+        int stepY = dirY > 0 ? 1 : -1;
+        double distanceDeltaX = dirX == 0 ? Double.POSITIVE_INFINITY : cellWidth / Math.abs(dirX);
+        double distanceDeltaY = dirY == 0 ? Double.POSITIVE_INFINITY : cellHeight / Math.abs
+                (dirY);
+        double nextDistanceX = dirX == 0 ? Double.POSITIVE_INFINITY : distance + (dirX > 0 ?
+                column + 1 - x : column - x) * cellWidth / dirX;
+        double nextDistanceY = dirY == 0 ? Double.POSITIVE_INFINITY : distance + (dirY > 0 ?
+                row + 1 - y : row - y) * cellHeight / dirY;
+        double tileHalfWidth = tileShape.getHalfWidth();
+        double tileHalfHeight = tileShape.getHalfHeight();
+        while (true) {
+            int index = row * numColumns + column;
+            if (tiles[index] != EMPTY) {
+                double tileX = getTileX(current, index);
+                double tileY = getTileY(current, index);
+                if (Shape.raycastBox(tileX - tileHalfWidth, tileY - tileHalfHeight, tileX +
+                        tileHalfWidth, tileY + tileHalfHeight, originX, originY, dirX, dirY,
+                        maxDistance, result)) {
+                    return true;
+                }
+            }
+            if (nextDistanceX < nextDistanceY) {
+                column += stepX;
+                if (nextDistanceX > maxDistance || column < 0 || column >= numColumns) {
+                    return false;
+                }
+                nextDistanceX += distanceDeltaX;
+            } else {
+                row += stepY;
+                if (nextDistanceY > maxDistance || row < 0 || row >= numRows) {
+                    return false;
+                }
+                nextDistanceY += distanceDeltaY;
+            }
+        }
+    }
+
+    @Override
+    public void draw(Renderer renderer, double x, double y) {
+        double minX = x - halfWidth;
+        double minY = y - halfHeight;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != EMPTY) {
+                tileShape.draw(renderer, minX + (getColumn(i) + 0.5) * cellWidth, minY + (getRow
+                        (i) + 0.5) * cellHeight);
+            }
+        }
+    }
+
+    @Override
+    public void fill(Renderer renderer, double x, double y) {
+        double minX = x - halfWidth;
+        double minY = y - halfHeight;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != EMPTY) {
+                tileShape.fill(renderer, minX + (getColumn(i) + 0.5) * cellWidth, minY + (getRow
+                        (i) + 0.5) * cellHeight);
+            }
+        }
+    }
+
+    /**
+     * The state of a collision with a tile map, every {@link Collision} has its own so that
+     * collisions can be calculated in parallel.
+     */
+    static class Sweep {
+        private final Tile tile = new Tile();
+        private double bestTime;
+        private double bestNormalX, bestNormalY;
+        private int bestIndex;
+        private boolean isTileFirst;
+
+        private void begin(Rectangle tileShape) {
+            tile.setShape(tileShape);
+            bestTime = CollisionData.NO_COLLISION;
+            bestIndex = -1;
+        }
+    }
+
+    /**
+     * Stands in for a tile in the collision and overlap tests of the other shapes.
+     */
+    private static class Tile extends Entity {
+        Tile() {
+            super(0, 0, Double.POSITIVE_INFINITY, Material.getDefaultMaterial(), null);
+        }
+
+        void set(double x, double y, double dx, double dy) {
+            // set directly since the tile is never in a world
+            this.x = x;
+            this.y = y;
+            this.dx = dx;
+            this.dy = dy;
+        }
+
+        @Override
+        public void update(double elapsedTime) {
+        }
+
+        @Override
+        public void draw(Renderer renderer) {
+        }
+    }
+}
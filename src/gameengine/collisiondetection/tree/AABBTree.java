@@ -0,0 +1,726 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.EntityType;
+import gameengine.collisiondetection.NearestQuery;
+import gameengine.collisiondetection.RaycastQuery;
+import gameengine.collisiondetection.RegionQuery;
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+
+import java.util.Arrays;
+
+/**
+ * A dynamic bounding volume hierarchy of the bounding boxes of the entities.  Each leaf holds
+ * the bounding box of an entity enlarged by a margin, the fat bounding box, and the entity only
+ * has to be reinserted when its bounding box leaves its fat bounding box.  The proxies whose fat
+ * bounding boxes overlap are partners and the partners of a proxy are only looked up again when
+ * it is reinserted.
+ * <p>
+ * Leaves are inserted next to the node that increases the total perimeter of the tree the least,
+ * the 2D version of the surface area heuristic, and the nodes on the way back up are rotated to
+ * keep the tree balanced.  This works well for scenes where the entities have very different
+ * sizes, such as long thin walls next to small balls, where the square cells of the
+ * {@link SpatialTree} are a poor fit.
+ * <p>
+ * The entities of each type are kept in a hierarchy of their own, one per collision layer, and
+ * the partners of a proxy are only looked up in the hierarchies of the types that its type
+ * collides with.  Types that never collide, such as walls with other walls, are never even
+ * walked against each other.  The layers are indexed by the type so any number of user defined
+ * types can be used, only the layers that have entities are visited.
+ *
+ * @author davidrusu
+ */
+public class AABBTree extends PairBroadphase {
+    public static final double DEFAULT_MARGIN = 4;
+    static final int NULL_NODE = -1;
+    private final double margin;
+    private double[] nodeMinX = new double[INITIAL_CAPACITY];
+    private double[] nodeMinY = new double[INITIAL_CAPACITY];
+    private double[] nodeMaxX = new double[INITIAL_CAPACITY];
+    private double[] nodeMaxY = new double[INITIAL_CAPACITY];
+    /**
+     * The parent of each node, the parent of a free node is the next free node
+     */
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int[] child1s = new int[INITIAL_CAPACITY];
+    private int[] child2s = new int[INITIAL_CAPACITY];
+    /**
+     * The height of each node, leaves have a height of 0 and free nodes have a height of -1
+     */
+    private int[] heights = new int[INITIAL_CAPACITY];
+    private AABBTreeProxy[] leafProxies = new AABBTreeProxy[INITIAL_CAPACITY];
+    /**
+     * The root of the hierarchy of each layer, indexed by the type of the entities of the layer
+     */
+    private int[] roots = new int[EntityType.FIRST_USER_TYPE];
+    /**
+     * The layers that have entities, each layer's index in here is kept in layerIndices
+     */
+    private int[] activeLayers = new int[EntityType.FIRST_USER_TYPE];
+    private int[] layerIndices = new int[EntityType.FIRST_USER_TYPE];
+    private int numActiveLayers = 0;
+    private int freeList = NULL_NODE;
+    private int nodeCount = 0;
+    private int[] stack = new int[INITIAL_CAPACITY];
+    private AABBTreeProxy[] movedProxies = new AABBTreeProxy[INITIAL_CAPACITY];
+    private int numMovedProxies = 0;
+
+    public AABBTree(World world) {
+        this(world, DEFAULT_MARGIN);
+    }
+
+    /**
+     * Creates an AABB tree broadphase, eg. {@code new World(world -> new AABBTree(world, 8))}.
+     *
+     * @param world  the {@link World} that the tree belongs to
+     * @param margin the amount that the bounding boxes of the entities are enlarged by on each
+     *               side, larger margins mean fewer reinsertions but more partners
+     */
+    public AABBTree(World world, double margin) {
+        super(world);
+        assert margin >= 0;
+        this.margin = margin;
+        Arrays.fill(roots, NULL_NODE);
+        initFreeList(0);
+    }
+
+    public double getMargin() {
+        return margin;
+    }
+
+    /**
+     * @return the height of the tallest hierarchy of the layers
+     */
+    public int getHeight() {
+        int height = 0;
+        for (int i = 0; i < numActiveLayers; i++) {
+            height = Math.max(height, heights[roots[activeLayers[i]]]);
+        }
+        return height;
+    }
+
+    @Override
+    protected PairProxy createProxy(int id) {
+        return AABBTreeProxy.createInstance(world, this, id);
+    }
+
+    @Override
+    protected void proxyAdded(PairProxy pairProxy) {
+        AABBTreeProxy proxy = (AABBTreeProxy) pairProxy;
+        int leaf = allocateNode();
+        leafProxies[leaf] = proxy;
+        proxy.leaf = leaf;
+        proxy.layer = proxy.entityType;
+        setFatBounds(leaf, proxy.getEntity());
+        insertLeaf(leaf, proxy.layer);
+        findPartners(proxy);
+    }
+
+    @Override
+    protected void proxyMoved(PairProxy pairProxy) {
+        AABBTreeProxy proxy = (AABBTreeProxy) pairProxy;
+        if (reinsertIfOutside(proxy)) {
+            updatePartners(proxy);
+        }
+    }
+
+    @Override
+    protected void proxyRemoved(PairProxy pairProxy) {
+        AABBTreeProxy proxy = (AABBTreeProxy) pairProxy;
+        removeLeaf(proxy.leaf, proxy.layer);
+        freeNode(proxy.leaf);
+        proxy.leaf = NULL_NODE;
+    }
+
+    @Override
+    protected void clearPairs() {
+        for (int i = 0; i < leafProxies.length; i++) {
+            leafProxies[i] = null;
+        }
+        for (int i = 0; i < numMovedProxies; i++) {
+            movedProxies[i] = null;
+        }
+        numMovedProxies = 0;
+        for (int i = 0; i < numActiveLayers; i++) {
+            roots[activeLayers[i]] = NULL_NODE;
+        }
+        numActiveLayers = 0;
+        nodeCount = 0;
+        initFreeList(0);
+    }
+
+    @Override
+    protected void findAllPairs() {
+        for (int i = 0; i < numProxies; i++) {
+            findPartners((AABBTreeProxy) proxies[i]);
+        }
+    }
+
+    @Override
+    public void ensureEntitiesAreContained(double time) {
+        // every proxy is moved before the partners are updated so that the partners are only
+        // looked up in the final tree
+        for (int i = 0; i < numProxies; i++) {
+            AABBTreeProxy proxy = (AABBTreeProxy) proxies[i];
+            proxy.ensureEntitiesAreContained(time);
+            if (reinsertIfOutside(proxy)) {
+                addMovedProxy(proxy);
+            }
+        }
+        for (int i = 0; i < numMovedProxies; i++) {
+            updatePartners(movedProxies[i]);
+            movedProxies[i] = null;
+        }
+        numMovedProxies = 0;
+        findPairsIfStale();
+        assert isTreeValid();
+        assert arePartnersCorrect();
+    }
+
+    @Override
+    public void drawStructure(Renderer renderer, RColor color) {
+        renderer.setForegroundColor(color);
+        for (int i = 0; i < heights.length; i++) {
+            if (heights[i] != -1) {
+                double halfWidth = (nodeMaxX[i] - nodeMinX[i]) * 0.5;
+                double halfHeight = (nodeMaxY[i] - nodeMinY[i]) * 0.5;
+                renderer.drawRect(nodeMinX[i] + halfWidth, nodeMinY[i] + halfHeight, halfWidth,
+                        halfHeight);
+            }
+        }
+    }
+
+    /**
+     * Moves the leaf of the proxy if the bounding box of the entity is no longer inside of its
+     * fat bounding box, or into the hierarchy of its new layer if the type of the entity has
+     * changed.
+     *
+     * @return true if the leaf was moved
+     */
+    private boolean reinsertIfOutside(AABBTreeProxy proxy) {
+        Entity entity = proxy.getEntity();
+        int leaf = proxy.leaf;
+        if (proxy.layer == proxy.entityType && entity.getBBMinX() >= nodeMinX[leaf] && entity
+                .getBBMaxX() <= nodeMaxX[leaf] && entity.getBBMinY() >= nodeMinY[leaf] && entity
+                .getBBMaxY() <= nodeMaxY[leaf]) {
+            return false;
+        }
+        removeLeaf(leaf, proxy.layer);
+        setFatBounds(leaf, entity);
+        proxy.layer = proxy.entityType;
+        insertLeaf(leaf, proxy.layer);
+        return true;
+    }
+
+    /**
+     * Removes the partners that the proxy no longer overlaps and adds the ones that it does.
+     */
+    private void updatePartners(AABBTreeProxy proxy) {
+        int leaf = proxy.leaf;
+        // removing a partner moves the last partner into its place so the partners are checked
+        // from the end
+        for (int i = proxy.getNumPartners() - 1; i >= 0; i--) {
+            AABBTreeProxy partner = (AABBTreeProxy) proxy.getPartner(i);
+            if (!isOverlapping(leaf, partner.leaf)) {
+                removePair(proxy, partner);
+            }
+        }
+        findPartners(proxy);
+    }
+
+    /**
+     * Adds all of the proxies whose fat bounding boxes overlap the proxy as partners, only the
+     * layers of the types that the proxy collides with are walked.
+     */
+    private void findPartners(AABBTreeProxy proxy) {
+        int leaf = proxy.leaf;
+        int stackSize = 0;
+        for (int i = 0; i < numActiveLayers; i++) {
+            int layer = activeLayers[i];
+            if (world.canCollide(proxy.entityType, layer)) {
+                stack[stackSize] = roots[layer];
+                stackSize++;
+            }
+        }
+        while (stackSize > 0) {
+            stackSize--;
+            int index = stack[stackSize];
+            if (index == NULL_NODE || !isOverlapping(index, leaf)) {
+                continue;
+            }
+            if (isLeaf(index)) {
+                AABBTreeProxy other = leafProxies[index];
+                if (other != proxy && !proxy.isPartner(other)) {
+                    addPair(proxy, other);
+                }
+            } else {
+                if (stackSize + 2 > stack.length) {
+                    int[] temp = stack;
+                    stack = new int[temp.length * EXPANSION_FACTOR];
+                    System.arraycopy(temp, 0, stack, 0, stackSize);
+                }
+                stack[stackSize] = child1s[index];
+                stack[stackSize + 1] = child2s[index];
+                stackSize += 2;
+            }
+        }
+    }
+
+    @Override
+    public void query(RegionQuery query) {
+        int stackSize = pushRoots();
+        while (stackSize > 0) {
+            stackSize--;
+            int index = stack[stackSize];
+            if (index == NULL_NODE || !query.isOverlapping(nodeMinX[index], nodeMinY[index],
+                    nodeMaxX[index], nodeMaxY[index])) {
+                continue;
+            }
+            if (isLeaf(index)) {
+                leafProxies[index].query(query);
+            } else {
+                if (stackSize + 2 > stack.length) {
+                    int[] temp = stack;
+                    stack = new int[temp.length * EXPANSION_FACTOR];
+                    System.arraycopy(temp, 0, stack, 0, stackSize);
+                }
+                stack[stackSize] = child1s[index];
+                stack[stackSize + 1] = child2s[index];
+                stackSize += 2;
+            }
+        }
+    }
+
+    @Override
+    public void raycast(RaycastQuery raycast) {
+        int stackSize = pushRoots();
+        while (stackSize > 0) {
+            stackSize--;
+            int index = stack[stackSize];
+            // the ray shrinks as it hits entities so the entry is checked when the node is
+            // popped rather than when it is pushed
+            if (index == NULL_NODE || raycast.entryDistance(nodeMinX[index], nodeMinY[index],
+                    nodeMaxX[index], nodeMaxY[index]) == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            if (isLeaf(index)) {
+                leafProxies[index].raycast(raycast);
+            } else {
+                if (stackSize + 2 > stack.length) {
+                    int[] temp = stack;
+                    stack = new int[temp.length * EXPANSION_FACTOR];
+                    System.arraycopy(temp, 0, stack, 0, stackSize);
+                }
+                int child1 = child1s[index];
+                int child2 = child2s[index];
+                // the nearer child is pushed last so that it is visited first
+                if (raycast.entryDistance(nodeMinX[child1], nodeMinY[child1], nodeMaxX[child1],
+                        nodeMaxY[child1]) <= raycast.entryDistance(nodeMinX[child2],
+                        nodeMinY[child2], nodeMaxX[child2], nodeMaxY[child2])) {
+                    stack[stackSize] = child2;
+                    stack[stackSize + 1] = child1;
+                } else {
+                    stack[stackSize] = child1;
+                    stack[stackSize + 1] = child2;
+                }
+                stackSize += 2;
+            }
+        }
+    }
+
+    @Override
+    public void findNearest(NearestQuery search) {
+        int stackSize = pushRoots();
+        while (stackSize > 0) {
+            stackSize--;
+            int index = stack[stackSize];
+            // the bound shrinks as entities are found so it is checked when the node is popped
+            if (index == NULL_NODE || search.distanceSquared(nodeMinX[index], nodeMinY[index],
+                    nodeMaxX[index], nodeMaxY[index]) > search.getBoundSquared()) {
+                continue;
+            }
+            if (isLeaf(index)) {
+                leafProxies[index].findNearest(search);
+            } else {
+                if (stackSize + 2 > stack.length) {
+                    int[] temp = stack;
+                    stack = new int[temp.length * EXPANSION_FACTOR];
+                    System.arraycopy(temp, 0, stack, 0, stackSize);
+                }
+                int child1 = child1s[index];
+                int child2 = child2s[index];
+                // the nearer child is pushed last so that it is visited first
+                if (search.distanceSquared(nodeMinX[child1], nodeMinY[child1], nodeMaxX[child1],
+                        nodeMaxY[child1]) <= search.distanceSquared(nodeMinX[child2],
+                        nodeMinY[child2], nodeMaxX[child2], nodeMaxY[child2])) {
+                    stack[stackSize] = child2;
+                    stack[stackSize + 1] = child1;
+                } else {
+                    stack[stackSize] = child1;
+                    stack[stackSize + 1] = child2;
+                }
+                stackSize += 2;
+            }
+        }
+    }
+
+    /**
+     * Puts the root of every layer on the stack.
+     *
+     * @return the size of the stack
+     */
+    private int pushRoots() {
+        for (int i = 0; i < numActiveLayers; i++) {
+            stack[i] = roots[activeLayers[i]];
+        }
+        return numActiveLayers;
+    }
+
+    private void addMovedProxy(AABBTreeProxy proxy) {
+        if (numMovedProxies == movedProxies.length) {
+            AABBTreeProxy[] temp = movedProxies;
+            movedProxies = new AABBTreeProxy[temp.length * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, movedProxies, 0, numMovedProxies);
+        }
+        movedProxies[numMovedProxies] = proxy;
+        numMovedProxies++;
+    }
+
+    private void setFatBounds(int leaf, Entity entity) {
+        nodeMinX[leaf] = entity.getBBMinX() - margin;
+        nodeMinY[leaf] = entity.getBBMinY() - margin;
+        nodeMaxX[leaf] = entity.getBBMaxX() + margin;
+        nodeMaxY[leaf] = entity.getBBMaxY() + margin;
+    }
+
+    /**
+     * Inserts the leaf next to the node of the hierarchy of the layer that increases its
+     * perimeter the least.
+     */
+    private void insertLeaf(int leaf, int layer) {
+        ensureLayerCapacity(layer + 1);
+        if (roots[layer] == NULL_NODE) {
+            roots[layer] = leaf;
+            parents[leaf] = NULL_NODE;
+            addActiveLayer(layer);
+            return;
+        }
+
+        int index = roots[layer];
+        while (!isLeaf(index)) {
+            int child1 = child1s[index];
+            int child2 = child2s[index];
+            double combinedPerimeter = getCombinedPerimeter(index, leaf);
+            // the cost of making a new parent for this node and the leaf
+            double cost = 2 * combinedPerimeter;
+            // the cost of pushing the leaf further down the tree, every ancestor grows
+            double inheritanceCost = 2 * (combinedPerimeter - getPerimeter(index));
+            double cost1 = getDescendCost(child1, leaf) + inheritanceCost;
+            double cost2 = getDescendCost(child2, leaf) + inheritanceCost;
+            if (cost < cost1 && cost < cost2) {
+                break;
+            }
+            index = cost1 < cost2 ? child1 : child2;
+        }
+        int sibling = index;
+
+        int oldParent = parents[sibling];
+        int newParent = allocateNode();
+        parents[newParent] = oldParent;
+        setUnion(newParent, sibling, leaf);
+        heights[newParent] = heights[sibling] + 1;
+        if (oldParent == NULL_NODE) {
+            roots[layer] = newParent;
+        } else if (child1s[oldParent] == sibling) {
+            child1s[oldParent] = newParent;
+        } else {
+            child2s[oldParent] = newParent;
+        }
+        child1s[newParent] = sibling;
+        child2s[newParent] = leaf;
+        parents[sibling] = newParent;
+        parents[leaf] = newParent;
+
+        fixUpwards(parents[leaf], layer);
+    }
+
+    private void removeLeaf(int leaf, int layer) {
+        if (leaf == roots[layer]) {
+            roots[layer] = NULL_NODE;
+            removeActiveLayer(layer);
+            return;
+        }
+        int parent = parents[leaf];
+        int grandParent = parents[parent];
+        int sibling = child1s[parent] == leaf ? child2s[parent] : child1s[parent];
+        if (grandParent == NULL_NODE) {
+            roots[layer] = sibling;
+            parents[sibling] = NULL_NODE;
+            freeNode(parent);
+        } else {
+            if (child1s[grandParent] == parent) {
+                child1s[grandParent] = sibling;
+            } else {
+                child2s[grandParent] = sibling;
+            }
+            parents[sibling] = grandParent;
+            freeNode(parent);
+            fixUpwards(grandParent, layer);
+        }
+    }
+
+    private void addActiveLayer(int layer) {
+        if (numActiveLayers == activeLayers.length) {
+            activeLayers = Arrays.copyOf(activeLayers, numActiveLayers * EXPANSION_FACTOR);
+        }
+        activeLayers[numActiveLayers] = layer;
+        layerIndices[layer] = numActiveLayers;
+        numActiveLayers++;
+        if (stack.length < numActiveLayers) {
+            stack = new int[stack.length * EXPANSION_FACTOR];
+        }
+    }
+
+    private void removeActiveLayer(int layer) {
+        numActiveLayers--;
+        int last = activeLayers[numActiveLayers];
+        activeLayers[layerIndices[layer]] = last;
+        layerIndices[last] = layerIndices[layer];
+        layerIndices[layer] = -1;
+    }
+
+    private void ensureLayerCapacity(int capacity) {
+        if (capacity <= roots.length) {
+            return;
+        }
+        int oldCapacity = roots.length;
+        int newCapacity = Math.max(capacity, oldCapacity * EXPANSION_FACTOR);
+        roots = Arrays.copyOf(roots, newCapacity);
+        Arrays.fill(roots, oldCapacity, newCapacity, NULL_NODE);
+        layerIndices = Arrays.copyOf(layerIndices, newCapacity);
+    }
+
+    /**
+     * Balances the nodes from the index up to the root of the layer and refits their bounds and
+     * heights.
+     */
+    private void fixUpwards(int index, int layer) {
+        while (index != NULL_NODE) {
+            index = balance(index, layer);
+            int child1 = child1s[index];
+            int child2 = child2s[index];
+            heights[index] = 1 + Math.max(heights[child1], heights[child2]);
+            setUnion(index, child1, child2);
+            index = parents[index];
+        }
+    }
+
+    /**
+     * Rotates the taller grandchild of the node up if the children of the node differ in height
+     * by more than 1.
+     *
+     * @return the node that took the place of the node
+     */
+    private int balance(int a, int layer) {
+        if (isLeaf(a) || heights[a] < 2) {
+            return a;
+        }
+        int b = child1s[a];
+        int c = child2s[a];
+        int balance = heights[c] - heights[b];
+        if (balance > 1) {
+            rotateUp(a, c, b, false, layer);
+            return c;
+        }
+        if (balance < -1) {
+            rotateUp(a, b, c, true, layer);
+            return b;
+        }
+        return a;
+    }
+
+    /**
+     * Rotates the child up into the place of the node, the taller grandchild stays under the
+     * child and the shorter one is moved under the node.
+     *
+     * @param a          the node that is moved down
+     * @param child      the taller child of the node that is moved up
+     * @param other      the other child of the node
+     * @param isChildOne true if the child is the first child of the node
+     * @param layer      the layer whose hierarchy the node is in
+     */
+    private void rotateUp(int a, int child, int other, boolean isChildOne, int layer) {
+        int f = child1s[child];
+        int g = child2s[child];
+
+        child1s[child] = a;
+        int parent = parents[a];
+        parents[child] = parent;
+        parents[a] = child;
+        if (parent == NULL_NODE) {
+            roots[layer] = child;
+        } else if (child1s[parent] == a) {
+            child1s[parent] = child;
+        } else {
+            child2s[parent] = child;
+        }
+
+        int taller = heights[f] > heights[g] ? f : g;
+        int shorter = taller == f ? g : f;
+        child2s[child] = taller;
+        if (isChildOne) {
+            child1s[a] = shorter;
+        } else {
+            child2s[a] = shorter;
+        }
+        parents[shorter] = a;
+        setUnion(a, other, shorter);
+        setUnion(child, a, taller);
+        heights[a] = 1 + Math.max(heights[other], heights[shorter]);
+        heights[child] = 1 + Math.max(heights[a], heights[taller]);
+    }
+
+    private double getDescendCost(int child, int leaf) {
+        double combinedPerimeter = getCombinedPerimeter(child, leaf);
+        if (isLeaf(child)) {
+            return combinedPerimeter;
+        }
+        return combinedPerimeter - getPerimeter(child);
+    }
+
+    private double getPerimeter(int index) {
+        return 2 * (nodeMaxX[index] - nodeMinX[index] + nodeMaxY[index] - nodeMinY[index]);
+    }
+
+    private double getCombinedPerimeter(int a, int b) {
+        double width = Math.max(nodeMaxX[a], nodeMaxX[b]) - Math.min(nodeMinX[a], nodeMinX[b]);
+        double height = Math.max(nodeMaxY[a], nodeMaxY[b]) - Math.min(nodeMinY[a], nodeMinY[b]);
+        return 2 * (width + height);
+    }
+
+    private void setUnion(int index, int a, int b) {
+        nodeMinX[index] = Math.min(nodeMinX[a], nodeMinX[b]);
+        nodeMinY[index] = Math.min(nodeMinY[a], nodeMinY[b]);
+        nodeMaxX[index] = Math.max(nodeMaxX[a], nodeMaxX[b]);
+        nodeMaxY[index] = Math.max(nodeMaxY[a], nodeMaxY[b]);
+    }
+
+    private boolean isOverlapping(int a, int b) {
+        return nodeMinX[a] < nodeMaxX[b] && nodeMinX[b] < nodeMaxX[a] && nodeMinY[a] <
+                nodeMaxY[b] && nodeMinY[b] < nodeMaxY[a];
+    }
+
+    private boolean isLeaf(int index) {
+        return child1s[index] == NULL_NODE;
+    }
+
+    private int allocateNode() {
+        if (freeList == NULL_NODE) {
+            expandNodes();
+        }
+        int index = freeList;
+        freeList = parents[index];
+        parents[index] = NULL_NODE;
+        child1s[index] = NULL_NODE;
+        child2s[index] = NULL_NODE;
+        heights[index] = 0;
+        nodeCount++;
+        return index;
+    }
+
+    private void freeNode(int index) {
+        leafProxies[index] = null;
+        heights[index] = -1;
+        parents[index] = freeList;
+        freeList = index;
+        nodeCount--;
+    }
+
+    private void expandNodes() {
+        int oldCapacity = parents.length;
+        int capacity = oldCapacity * EXPANSION_FACTOR;
+        nodeMinX = expand(nodeMinX, capacity);
+        nodeMinY = expand(nodeMinY, capacity);
+        nodeMaxX = expand(nodeMaxX, capacity);
+        nodeMaxY = expand(nodeMaxY, capacity);
+        parents = expand(parents, capacity);
+        child1s = expand(child1s, capacity);
+        child2s = expand(child2s, capacity);
+        heights = expand(heights, capacity);
+        AABBTreeProxy[] tempProxies = new AABBTreeProxy[capacity];
+        System.arraycopy(leafProxies, 0, tempProxies, 0, oldCapacity);
+        leafProxies = tempProxies;
+        initFreeList(oldCapacity);
+    }
+
+    /**
+     * Makes the nodes from the index to the end of the arrays the free list.
+     */
+    private void initFreeList(int index) {
+        for (int i = index; i < parents.length; i++) {
+            parents[i] = i + 1 < parents.length ? i + 1 : NULL_NODE;
+            heights[i] = -1;
+        }
+        freeList = index;
+    }
+
+    private static double[] expand(double[] array, int capacity) {
+        double[] temp = new double[capacity];
+        System.arraycopy(array, 0, temp, 0, array.length);
+        return temp;
+    }
+
+    private static int[] expand(int[] array, int capacity) {
+        int[] temp = new int[capacity];
+        System.arraycopy(array, 0, temp, 0, array.length);
+        return temp;
+    }
+
+    //------------------------------ testing methods --------------------------------
+
+    private boolean isTreeValid() {
+        int count = 0;
+        for (int i = 0; i < numActiveLayers; i++) {
+            int layer = activeLayers[i];
+            int root = roots[layer];
+            assert layerIndices[layer] == i;
+            assert root != NULL_NODE && parents[root] == NULL_NODE;
+            count += countNodes(root, layer);
+        }
+        assert count == nodeCount : "nodes are missing from the tree";
+        return true;
+    }
+
+    private int countNodes(int index, int layer) {
+        if (isLeaf(index)) {
+            assert heights[index] == 0;
+            assert leafProxies[index].leaf == index;
+            assert leafProxies[index].layer == layer : "the leaf is in the wrong layer";
+            return 1;
+        }
+        int child1 = child1s[index];
+        int child2 = child2s[index];
+        assert parents[child1] == index && parents[child2] == index;
+        assert heights[index] == 1 + Math.max(heights[child1], heights[child2]);
+        assert nodeMinX[index] == Math.min(nodeMinX[child1], nodeMinX[child2]);
+        assert nodeMinY[index] == Math.min(nodeMinY[child1], nodeMinY[child2]);
+        assert nodeMaxX[index] == Math.max(nodeMaxX[child1], nodeMaxX[child2]);
+        assert nodeMaxY[index] == Math.max(nodeMaxY[child1], nodeMaxY[child2]);
+        return 1 + countNodes(child1, layer) + countNodes(child2, layer);
+    }
+
+    private boolean arePartnersCorrect() {
+        for (int i = 0; i < numProxies; i++) {
+            AABBTreeProxy a = (AABBTreeProxy) proxies[i];
+            for (int j = i + 1; j < numProxies; j++) {
+                AABBTreeProxy b = (AABBTreeProxy) proxies[j];
+                boolean isPair = isOverlapping(a.leaf, b.leaf) && canPair(a, b);
+                assert isPair == a.isPartner(b) : "partners don't match the fat bounding boxes";
+                assert a.isPartner(b) == b.isPartner(a);
+            }
+        }
+        return true;
+    }
+}
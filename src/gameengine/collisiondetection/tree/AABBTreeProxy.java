@@ -0,0 +1,42 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.World;
+
+/**
+ * Holds a single entity of the {@link AABBTree} broadphase.  The proxy knows which leaf of the
+ * tree holds the fat bounding box of the entity, its partners are the proxies whose fat
+ * bounding boxes overlap it.
+ *
+ * @author davidrusu
+ */
+public class AABBTreeProxy extends PairProxy {
+    /**
+     * The index of the leaf node that holds the fat bounding box of the entity
+     */
+    int leaf;
+    /**
+     * The layer whose hierarchy holds the leaf, the type that the entity had when the leaf was
+     * inserted
+     */
+    int layer;
+
+    private AABBTreeProxy() {
+        super();
+    }
+
+    public static AABBTreeProxy createInstance(World world, AABBTree tree, int id) {
+        AABBTreeProxy proxy = world.getNodePools().aabbTreeProxies.take();
+        if (proxy == null) {
+            proxy = new AABBTreeProxy();
+        }
+        proxy.init(world, tree, id);
+        proxy.leaf = AABBTree.NULL_NODE;
+        return proxy;
+    }
+
+    @Override
+    public void recycle() {
+        super.recycle();
+        pools.aabbTreeProxies.recycle(this);
+    }
+}
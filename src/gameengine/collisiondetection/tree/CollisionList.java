@@ -4,46 +4,64 @@ import gameengine.collisiondetection.Collision;
 import gameengine.collisiondetection.shapes.CollisionData;
 
 /**
- * A linked list that stores all of the active trees sorted by the time of the
- * next collision in the tree
+ * An indexed d-ary min heap that stores all of the active trees ordered by the time of the next
+ * collision in the tree.
+ * <p>
+ * Each {@link CollisionNode} knows its slot in the heap so updating the collision time of a node
+ * costs O(log n) and the next collision is always at the root.  The collision times are copied
+ * into a parallel array so that sifting doesn't have to follow a pointer for every comparison.
  *
  * User: davidrusu
  * Date: 19/02/13
  * Time: 2:56 PM
  */
 public class CollisionList {
-    private CollisionNode sentinel = new CollisionNode();
+    private static final int ARITY = 4;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int EXPANSION_FACTOR = 2;
+    private final Collision noCollision = new Collision();
+    private CollisionNode[] nodes = new CollisionNode[INITIAL_CAPACITY];
+    private double[] times = new double[INITIAL_CAPACITY];
+    private int size = 0;
+    private CollisionNode[] foundNodes = new CollisionNode[INITIAL_CAPACITY];
+    private int numFoundNodes = 0;
 
     public CollisionList() {
-        sentinel.setCollisionTime(-1);
     }
 
     /**
      * Called if a {@link Tree} updated its {@link CollisionNode} with a new collision time.
-     * The method inserts the tree's node to it's proper location in the list
+     * The method moves the tree's node to it's proper location in the heap
      *
      * @param node the {@link CollisionNode} that has been updated
      */
     public void collisionUpdated(CollisionNode node) {
+        int index = node.getHeapIndex();
+        assert index != CollisionNode.NOT_IN_LIST : "node is not in the list";
+        assert nodes[index] == node;
+
         double collisionTime = node.getCollisionTime();
+        if (index > 0 && collisionTime < times[(index - 1) / ARITY]) {
+            siftUp(index, node, collisionTime);
+        } else {
+            siftDown(index, node, collisionTime);
+        }
+
+        assert areNodesSorted() : "nodes are not sorted after sort";
+    }
 
-        if (collisionTime < node.getPrev().getCollisionTime()) {
-            CollisionNode before = node.getPrev();
-            do {
-                before = before.getPrev();
-            } while (collisionTime < before.getCollisionTime());
-
-            remove(node);
-            insertNodeAfter(node, before);
-        } else if (node.getNext() != null && collisionTime > node.getNext().getCollisionTime()) {
-            CollisionNode after = node.getNext();
-            CollisionNode before;
-            do {
-                before = after;
-                after = after.getNext();
-            } while (after != null && collisionTime > after.getCollisionTime());
-            remove(node);
-            insertNodeAfter(node, before);
+    /**
+     * Restores the heap after the collision times of many nodes have changed at once, this is
+     * cheaper than calling {@link #collisionUpdated(CollisionNode)} for every node.
+     */
+    public void allCollisionsUpdated() {
+        for (int i = 0; i < size; i++) {
+            times[i] = nodes[i].getCollisionTime();
+        }
+        if (size > 1) {
+            for (int i = (size - 2) / ARITY; i >= 0; i--) {
+                siftDown(i, nodes[i], times[i]);
+            }
         }
 
         assert areNodesSorted() : "nodes are not sorted after sort";
@@ -55,12 +73,14 @@ public class CollisionList {
      * @param node the {@link CollisionNode} to add
      */
     public void add(CollisionNode node) {
-        assert node.getPrev() == null;
-        assert node.getNext() == null;
+        assert node.getHeapIndex() == CollisionNode.NOT_IN_LIST;
         assert node.getCollisionTime() == CollisionData.NO_COLLISION;
 
-        insertNodeAfter(node, sentinel);
-        collisionUpdated(node);
+        if (size == nodes.length) {
+            expand();
+        }
+        size++;
+        siftUp(size - 1, node, node.getCollisionTime());
     }
 
     /**
@@ -69,21 +89,34 @@ public class CollisionList {
      * @param node the {@link CollisionNode} to remove
      */
     public void remove(CollisionNode node) {
-        CollisionNode next = node.getNext();
-        if (next != null) {
-            next.setPrev(node.getPrev());
-        }
+        int index = node.getHeapIndex();
+        assert index != CollisionNode.NOT_IN_LIST : "node is not in the list";
+        assert nodes[index] == node;
 
-        assert node.getPrev() != null;
-        node.getPrev().setNext(next);
+        size--;
+        CollisionNode last = nodes[size];
+        double lastTime = times[size];
+        nodes[size] = null;
+        node.setHeapIndex(CollisionNode.NOT_IN_LIST);
+        if (index == size) {
+            return;
+        }
+        if (index > 0 && lastTime < times[(index - 1) / ARITY]) {
+            siftUp(index, last, lastTime);
+        } else {
+            siftDown(index, last, lastTime);
+        }
     }
 
     /**
      * Clears the list
      */
     public void clear() {
-        sentinel.disintegrateList();
-        sentinel.setCollisionTime(-1);
+        for (int i = 0; i < size; i++) {
+            nodes[i].clear();
+            nodes[i] = null;
+        }
+        size = 0;
     }
 
     /**
@@ -92,53 +125,163 @@ public class CollisionList {
      * @return the next {@link Collision} in the list
      */
     public Collision getNextCollision() {
-        return sentinel.getNext().getCollision();
+        if (size == 0) {
+            return noCollision;
+        }
+        return nodes[0].getCollision();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the nodes whose collisions happen at or before the time without taking them out of
+     * the list.  Only the found nodes and their children are visited since the children of a
+     * node never collide before it.  The found nodes are ordered by their collision times.
+     *
+     * @param time the time to find the collisions until
+     * @return the number of nodes that were found, see {@link #getFoundNode(int)}
+     */
+    public int findCollisionsUntil(double time) {
+        for (int i = 0; i < numFoundNodes; i++) {
+            foundNodes[i] = null;
+        }
+        numFoundNodes = 0;
+        if (size > 0 && times[0] <= time) {
+            findCollisionsUntil(0, time);
+        }
+        // there are usually only a few collisions at the same time so insertion sort is enough
+        for (int i = 1; i < numFoundNodes; i++) {
+            CollisionNode node = foundNodes[i];
+            double collisionTime = node.getCollisionTime();
+            int j = i - 1;
+            while (j >= 0 && foundNodes[j].getCollisionTime() > collisionTime) {
+                foundNodes[j + 1] = foundNodes[j];
+                j--;
+            }
+            foundNodes[j + 1] = node;
+        }
+        return numFoundNodes;
+    }
+
+    /**
+     * @param index the index of the node, less than the count returned by the last call to
+     *              {@link #findCollisionsUntil(double)}
+     * @return the found node at the index
+     */
+    public CollisionNode getFoundNode(int index) {
+        assert index < numFoundNodes;
+        return foundNodes[index];
     }
 
-    private void insertNodeAfter(CollisionNode node, CollisionNode before) {
-        assert before != null;
+    private void findCollisionsUntil(int index, double time) {
+        if (numFoundNodes == foundNodes.length) {
+            CollisionNode[] temp = new CollisionNode[numFoundNodes * EXPANSION_FACTOR];
+            System.arraycopy(foundNodes, 0, temp, 0, numFoundNodes);
+            foundNodes = temp;
+        }
+        foundNodes[numFoundNodes] = nodes[index];
+        numFoundNodes++;
+        int firstChild = index * ARITY + 1;
+        int lastChild = Math.min(firstChild + ARITY, size);
+        for (int child = firstChild; child < lastChild; child++) {
+            if (times[child] <= time) {
+                findCollisionsUntil(child, time);
+            }
+        }
+    }
 
-        node.setPrev(before);
-        node.setNext(before.getNext());
+    private void siftUp(int index, CollisionNode node, double collisionTime) {
+        while (index > 0) {
+            int parent = (index - 1) / ARITY;
+            if (collisionTime >= times[parent]) {
+                break;
+            }
+            place(index, nodes[parent], times[parent]);
+            index = parent;
+        }
+        place(index, node, collisionTime);
+    }
 
-        node.getPrev().setNext(node);
-        if (node.getNext() != null) {
-            node.getNext().setPrev(node);
+    private void siftDown(int index, CollisionNode node, double collisionTime) {
+        while (true) {
+            int firstChild = index * ARITY + 1;
+            if (firstChild >= size) {
+                break;
+            }
+            int lastChild = Math.min(firstChild + ARITY, size);
+            int minChild = firstChild;
+            double minTime = times[firstChild];
+            for (int child = firstChild + 1; child < lastChild; child++) {
+                if (times[child] < minTime) {
+                    minChild = child;
+                    minTime = times[child];
+                }
+            }
+            if (minTime >= collisionTime) {
+                break;
+            }
+            place(index, nodes[minChild], minTime);
+            index = minChild;
         }
+        place(index, node, collisionTime);
+    }
+
+    private void place(int index, CollisionNode node, double collisionTime) {
+        nodes[index] = node;
+        times[index] = collisionTime;
+        node.setHeapIndex(index);
+    }
+
+    private void expand() {
+        CollisionNode[] tempNodes = new CollisionNode[nodes.length * EXPANSION_FACTOR];
+        System.arraycopy(nodes, 0, tempNodes, 0, size);
+        nodes = tempNodes;
+        double[] tempTimes = new double[times.length * EXPANSION_FACTOR];
+        System.arraycopy(times, 0, tempTimes, 0, size);
+        times = tempTimes;
     }
 
     //------------------------ testing methods ----------------------------
     public boolean areNodesSorted() {
-        CollisionNode prev = sentinel, current = sentinel.getNext();
-        while (current != null) {
-            assert current.getPrev() == prev : "nodes prev is not what it should be";
-            assert prev.getCollisionTime() <= current.getCollisionTime() : "prev: " + prev
-                    .getCollisionTime() + " next: " + current.getCollisionTime();
-            prev = current;
-            current = current.getNext();
+        for (int i = 0; i < size; i++) {
+            CollisionNode current = nodes[i];
+            assert current.getHeapIndex() == i : "nodes heap index is not what it should be";
+            assert times[i] == current.getCollisionTime() : "stored time: " + times[i] + " " +
+                    "node time: " + current.getCollisionTime();
+            if (i > 0) {
+                int parent = (i - 1) / ARITY;
+                assert times[parent] <= times[i] : "parent: " + times[parent] + " child: " +
+                        times[i];
+            }
+        }
+        for (int i = size; i < nodes.length; i++) {
+            assert nodes[i] == null;
         }
         return true;
     }
 
     public boolean checkNodeCollision() {
-        CollisionNode current = sentinel.getNext();
-        while (current != null) {
-            assert current.getCollision().assertCollision();
-            current = current.getNext();
+        for (int i = 0; i < size; i++) {
+            assert nodes[i].getCollision().assertCollision();
         }
         return true;
     }
 
-    public boolean doAllNodesHaveNoCollision(double elapsedTime) {
-        CollisionNode current = sentinel.getNext();
-        while (current != null) {
-            Collision collision = current.getCollision();
-            assert collision.getCollisionTime() == CollisionData.NO_COLLISION : "nodes are not " +
-                    "all set to" + " NoCollision: " + collision.getCollisionTime() + " " +
-                    elapsedTime;
-            assert collision.getA() == null : "nodes are not all set to NoCollision";
-            assert collision.getB() == null : "nodes are not all set to NoCollision";
-            current = current.getNext();
+    /**
+     * Checks that no node has a collision before the time, the collisions that are kept across
+     * updates when the world has a collision horizon happen after the start of the update.
+     */
+    public boolean doAllNodesHaveNoCollisionBefore(double time) {
+        for (int i = 0; i < size; i++) {
+            Collision collision = nodes[i].getCollision();
+            assert collision.getCollisionTime() >= time : "node has a collision before " + time +
+                    ": " + collision.getCollisionTime();
+            if (collision.getCollisionTime() == CollisionData.NO_COLLISION) {
+                assert collision.getA() == null : "nodes are not all set to NoCollision";
+                assert collision.getB() == null : "nodes are not all set to NoCollision";
+            }
         }
         return true;
     }
@@ -3,28 +3,22 @@ package gameengine.collisiondetection.tree;
 import gameengine.collisiondetection.Collision;
 
 /**
- * Node for {@link CollisionList} linked list
+ * Node for the {@link CollisionList} heap, it knows its own slot in the heap so that it can be
+ * re-sorted without searching for it
  *
  * @author davidrusu
  */
 public class CollisionNode {
-    private CollisionNode prev = null, next = null;
+    public static final int NOT_IN_LIST = -1;
+    private int heapIndex = NOT_IN_LIST;
     private Collision collision = new Collision();
 
-    public CollisionNode getPrev() {
-        return prev;
+    public int getHeapIndex() {
+        return heapIndex;
     }
 
-    public CollisionNode getNext() {
-        return next;
-    }
-
-    public void setPrev(CollisionNode prev) {
-        this.prev = prev;
-    }
-
-    public void setNext(CollisionNode next) {
-        this.next = next;
+    public void setHeapIndex(int heapIndex) {
+        this.heapIndex = heapIndex;
     }
 
     public double getCollisionTime() {
@@ -41,14 +35,6 @@ public class CollisionNode {
 
     public void clear() {
         collision.setNoCollision();
-        prev = null;
-        next = null;
-    }
-
-    public void disintegrateList() {
-        if (next != null) {
-            next.disintegrateList();
-        }
-        clear();
+        heapIndex = NOT_IN_LIST;
     }
 }
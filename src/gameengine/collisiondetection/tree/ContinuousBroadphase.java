@@ -0,0 +1,323 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.Broadphase;
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.RestingContacts;
+import gameengine.collisiondetection.World;
+import gameengine.context.Context;
+import gameengine.entities.Entity;
+
+/**
+ * Base class of the broadphases that store their entities in {@link Tree} nodes.  Every node
+ * keeps the earliest collision between the pairs of entities that it is responsible for in the
+ * {@link CollisionList} and the collisions are handled in the order that they happen, only the
+ * nodes affected by a collision are recalculated.  Collisions that happen at the same time are
+ * handled as one batch, see {@link World#setCollisionBatchTolerance(double)}.
+ *
+ * @author davidrusu
+ */
+public abstract class ContinuousBroadphase implements Broadphase, Parent {
+    private static final int INITIAL_BATCH_SIZE = 8;
+    private static final int EXPANSION_FACTOR = 2;
+    protected World world;
+    /**
+     * The collisions that are handled together, see {@link World#setCollisionBatchTolerance}
+     */
+    private Collision[] batch = new Collision[INITIAL_BATCH_SIZE];
+    private Collision[] handledCollisions = new Collision[INITIAL_BATCH_SIZE];
+    /**
+     * The speed that the entities of each collision of the batch were approaching each other at
+     * before it was handled
+     */
+    private double[] approachSpeeds = new double[INITIAL_BATCH_SIZE];
+    /**
+     * The trees that held entity a and entity b of each collision of the batch when it was
+     * filled, needed for the entities that are removed from the world while it is handled
+     */
+    private Tree[] batchTrees = new Tree[INITIAL_BATCH_SIZE * 2];
+    private boolean isCalculatingCollisions = false;
+
+    protected ContinuousBroadphase(World world) {
+        this.world = world;
+        for (int i = 0; i < INITIAL_BATCH_SIZE; i++) {
+            batch[i] = new Collision();
+        }
+    }
+
+    /**
+     * Calculates the collisions of every node at the start of the update.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     */
+    protected abstract void initCalcCollision(double timeToCheck);
+
+    /**
+     * Brings all the entities up to the end of the update after the collisions are handled.
+     *
+     * @param elapsedTime the amount of time that the entities have been updated by
+     */
+    protected abstract void finishCalcCollision(double elapsedTime);
+
+    protected abstract boolean isEntityCountCorrect();
+
+    /**
+     * @return true while the collisions of an update are being calculated and handled, entities
+     * that are added by the {@link Context} at that point must not rearrange the nodes
+     */
+    protected boolean isCalculatingCollisions() {
+        return isCalculatingCollisions;
+    }
+
+    @Override
+    public void addToTypeMask(long typeBitMask) {
+    }
+
+    @Override
+    public void childCollisionInvalidated(Entity entity) {
+    }
+
+    @Override
+    public void calcCollision(double elapsedTime, Context context) {
+        CollisionList list = world.getCollisionList();
+        assert list.doAllNodesHaveNoCollisionBefore(0);
+        assert list.areNodesSorted();
+        assert isEntityCountCorrect();
+
+        isCalculatingCollisions = true;
+        initCalcCollision(elapsedTime);
+
+        assert isEntityCountCorrect();
+        assert list.areNodesSorted();
+
+        double budgetTime = handleCollisions(list, elapsedTime, context);
+        if (budgetTime < elapsedTime) {
+            calcRemainingCollisions(list, budgetTime, elapsedTime, context);
+        } else {
+            finishCalcCollision(elapsedTime);
+        }
+        isCalculatingCollisions = false;
+        assert list.checkNodeCollision();
+        assert list.doAllNodesHaveNoCollisionBefore(0);
+        assert isEntityCountCorrect();
+    }
+
+    /**
+     * Handles the collisions in the order that they happen until the end of the update, or
+     * until the collision budget of the world is used up.
+     *
+     * @param elapsedTime the amount of time that the collisions are handled for
+     * @return the time that the collisions have been handled up to, less than the elapsed time
+     * if the budget has been used up
+     */
+    private double handleCollisions(CollisionList list, double elapsedTime, Context context) {
+        double currentTime = 0;
+        double timeLeft = elapsedTime;
+        double batchTolerance = world.getCollisionBatchTolerance();
+        // the rest of an update that is over budget is always handled in full
+        boolean hasBudget = !world.isOverCollisionBudget();
+        int maxCollisions = hasBudget ? world.getMaxCollisionsPerUpdate() : 0;
+        long maxNanos = hasBudget ? world.getMaxCollisionNanosPerUpdate() : 0;
+        long startNanos = maxNanos > 0 ? System.nanoTime() : 0;
+        int numCollisions = 0;
+        Collision collision = list.getNextCollision();
+        double timeToUpdate = collision.getCollisionTime();
+        while (timeToUpdate <= timeLeft) {
+            if (maxCollisions > 0 && numCollisions >= maxCollisions || maxNanos > 0 && System
+                    .nanoTime() - startNanos >= maxNanos) {
+                return currentTime;
+            }
+            currentTime = collision.getCollisionTime();
+            int batchSize = fillBatch(list, list.findCollisionsUntil(currentTime + Math.min(
+                    batchTolerance, timeLeft - timeToUpdate)));
+            handleBatch(batchSize, currentTime, context);
+            numCollisions += batchSize;
+
+            assert isEntityCountCorrect();
+
+            timeLeft -= timeToUpdate;
+            updateBatch(batchSize, timeLeft, currentTime);
+
+            assert isEntityCountCorrect();
+            assert list.checkNodeCollision();
+            collision = list.getNextCollision();
+            timeToUpdate = collision.getCollisionTime() - currentTime;
+        }
+        return elapsedTime;
+    }
+
+    /**
+     * Copies the collisions that have been found by the list into the batch, a collision is left
+     * in its node if it shares an entity with an earlier collision of the batch since the earlier
+     * collision changes the entity.  Static bodies can be in many collisions of the batch since
+     * they are never changed.
+     *
+     * @param numFound the number of collisions that have been found
+     * @return the number of collisions in the batch
+     */
+    private int fillBatch(CollisionList list, int numFound) {
+        if (numFound > batch.length) {
+            expandBatch(numFound);
+        }
+        int batchSize = 0;
+        for (int i = 0; i < numFound; i++) {
+            Collision collision = list.getFoundNode(i).getCollision();
+            Entity a = collision.getA();
+            Entity b = collision.getB();
+            assert a != null;
+            assert b != null;
+            assert a.getContainingTree() != null || a.isStaticBody();
+            assert b.getContainingTree() != null || b.isStaticBody();
+            if (isInBatch(a, batchSize) || isInBatch(b, batchSize)) {
+                continue;
+            }
+            batch[batchSize].set(collision);
+            approachSpeeds[batchSize] = RestingContacts.getApproachSpeed(collision);
+            batchTrees[batchSize * 2] = a.getContainingTree();
+            batchTrees[batchSize * 2 + 1] = b.getContainingTree();
+            batchSize++;
+        }
+        assert batchSize > 0 : "the next collision is always in the batch";
+        return batchSize;
+    }
+
+    private boolean isInBatch(Entity entity, int batchSize) {
+        if (entity.isStaticBody()) {
+            return false;
+        }
+        for (int i = 0; i < batchSize; i++) {
+            if (batch[i].getA() == entity || batch[i].getB() == entity) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Brings the entities of the batch up to the time of the batch and hands the collisions to
+     * the context.
+     */
+    private void handleBatch(int batchSize, double currentTime, Context context) {
+        for (int i = 0; i < batchSize * 2; i++) {
+            // static bodies aren't in a tree and never move
+            if (batchTrees[i] != null) {
+                batchTrees[i].updateEntityPositions(currentTime);
+            }
+        }
+        RestingContacts restingContacts = world.getRestingContacts();
+        int numHandled = 0;
+        for (int i = 0; i < batchSize; i++) {
+            if (restingContacts.isContactCollision(batch[i], approachSpeeds[i])) {
+                restingContacts.holdContact(batch[i]);
+            } else {
+                handledCollisions[numHandled] = batch[i];
+                numHandled++;
+            }
+        }
+        if (numHandled > 0) {
+            context.handleCollisions(handledCollisions, numHandled);
+        }
+        for (int i = 0; i < batchSize; i++) {
+            restingContacts.collisionHandled(batch[i], approachSpeeds[i]);
+            batch[i].getA().wakeUp();
+            batch[i].getB().wakeUp();
+        }
+    }
+
+    /**
+     * Called once the collision budget of the world has been used up.  The collisions that are
+     * left are taken away and the rest of the update is handled as a pass of its own that only
+     * finds the collisions with entities of infinite mass, so that nothing passes through walls
+     * and static bodies.  The entities that end up overlapping each other are pushed apart by
+     * the world once the update is done, see {@link OverlapSeparation}.
+     *
+     * @param budgetTime  the time that the collisions have been handled up to
+     * @param elapsedTime the amount of time that the update covers
+     */
+    private void calcRemainingCollisions(CollisionList list, double budgetTime, double
+            elapsedTime, Context context) {
+        world.collisionBudgetExceeded(clearCollisionsUntil(list, elapsedTime));
+        finishCalcCollision(budgetTime);
+        double timeLeft = elapsedTime - budgetTime;
+        ensureEntitiesAreContained(timeLeft);
+        initCalcCollision(timeLeft);
+        handleCollisions(list, timeLeft, context);
+        finishCalcCollision(timeLeft);
+    }
+
+    /**
+     * Takes away the collisions that happen before the time from their nodes, the nodes are
+     * invalidated so that they aren't kept over a collision horizon.
+     *
+     * @return the number of collisions that were taken away, a pair can be the collision of
+     * more than one node
+     */
+    private int clearCollisionsUntil(CollisionList list, double time) {
+        int numFound = list.findCollisionsUntil(time);
+        for (int i = 0; i < numFound; i++) {
+            Collision collision = list.getFoundNode(i).getCollision();
+            invalidateCollision(collision.getA());
+            invalidateCollision(collision.getB());
+            collision.setNoCollision();
+        }
+        if (numFound > 0) {
+            list.allCollisionsUpdated();
+        }
+        return numFound;
+    }
+
+    private void invalidateCollision(Entity entity) {
+        if (entity.getContainingTree() != null) {
+            entity.getContainingTree().invalidateCollision(entity);
+        }
+    }
+
+    /**
+     * Updates the trees of the entities of the batch.  All of the entities are taken out of
+     * their trees before any of them are checked again so a node that has to be recalculated
+     * is only recalculated once, the entities that haven't been put back yet are checked when
+     * they are added.  Static bodies are never moved so only the other entity is updated.
+     */
+    private void updateBatch(int batchSize, double timeLeft, double currentTime) {
+        for (int i = 0; i < batchSize * 2; i++) {
+            Entity entity = getBatchEntity(i);
+            Tree tree = entity.getContainingTree();
+            if (tree != null) {
+                tree.removeEntityFromList(entity.getIndexInTree());
+                entity.calculateBoundingBox(timeLeft);
+            }
+        }
+        // in reverse so that a single collision updates b before a like it always has
+        for (int i = batchSize * 2 - 1; i >= 0; i--) {
+            Entity entity = getBatchEntity(i);
+            Tree tree = entity.getContainingTree();
+            if (tree != null) {
+                tree.entityUpdated(timeLeft, entity);
+            } else if (batchTrees[i] != null) {
+                batchTrees[i].entityRemovedDuringCollision(timeLeft, entity, currentTime);
+            }
+            batchTrees[i] = null;
+        }
+        for (int i = 0; i < batchSize; i++) {
+            batch[i].setNoCollision();
+            handledCollisions[i] = null;
+        }
+    }
+
+    private Entity getBatchEntity(int index) {
+        Collision collision = batch[index / 2];
+        return index % 2 == 0 ? collision.getA() : collision.getB();
+    }
+
+    private void expandBatch(int minSize) {
+        int size = Math.max(minSize, batch.length * EXPANSION_FACTOR);
+        Collision[] temp = new Collision[size];
+        System.arraycopy(batch, 0, temp, 0, batch.length);
+        for (int i = batch.length; i < size; i++) {
+            temp[i] = new Collision();
+        }
+        batch = temp;
+        handledCollisions = new Collision[size];
+        approachSpeeds = new double[size];
+        batchTrees = new Tree[size * 2];
+    }
+}
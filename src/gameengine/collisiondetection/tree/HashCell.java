@@ -0,0 +1,346 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.World;
+import gameengine.collisiondetection.shapes.CollisionData;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+
+/**
+ * A cell of the {@link SpatialHash}.
+ * <p>
+ * An entity is stored in the cell that its bounding box center is in and it can stay there as
+ * long as its bounding box is within half a cell of the cell, so entities can only collide with
+ * entities in the same cell or in the 8 surrounding cells.  Each cell is responsible for the
+ * pairs within the cell and the pairs with the cells after it (right, bottom left, bottom and
+ * bottom right).  Entities that are too big for a cell are stored in the overflow cell which is
+ * responsible for all the pairs that involve one of its entities.
+ *
+ * @author davidrusu
+ */
+public class HashCell extends Tree {
+    private static final double LOOSENESS = 2;
+
+    private SpatialHash hash;
+    private int cellX, cellY;
+    private boolean isOverflow;
+
+    private HashCell() {
+        super();
+    }
+
+    public static HashCell createInstance(World world, SpatialHash hash, int cellX, int cellY) {
+        HashCell cell = takeInstance(world);
+        double cellSize = hash.getCellSize();
+        cell.init(world, hash, (cellX + 0.5) * cellSize, (cellY + 0.5) * cellSize, cellSize *
+                0.5, LOOSENESS);
+        cell.hash = hash;
+        cell.cellX = cellX;
+        cell.cellY = cellY;
+        cell.isOverflow = false;
+        return cell;
+    }
+
+    /**
+     * Creates the cell that stores the entities that are too big for the cells of the hash.
+     *
+     * @param world the {@link World} that the hash belongs to
+     * @param hash  the {@link SpatialHash} that the cell belongs to
+     * @return the overflow cell
+     */
+    public static HashCell createOverflowInstance(World world, SpatialHash hash) {
+        HashCell cell = takeInstance(world);
+        cell.init(world, STRICT_LOOSENESS);
+        cell.parent = hash;
+        cell.hash = hash;
+        cell.isOverflow = true;
+        return cell;
+    }
+
+    private static HashCell takeInstance(World world) {
+        HashCell cell = world.getNodePools().hashCells.take();
+        return cell == null ? new HashCell() : cell;
+    }
+
+    public int getCellX() {
+        return cellX;
+    }
+
+    public int getCellY() {
+        return cellY;
+    }
+
+    public boolean isOverflow() {
+        return isOverflow;
+    }
+
+    /**
+     * Checks if the entity can stay in this cell.  Entities stay in the overflow cell for as
+     * long as they are too big for the cells.
+     */
+    boolean canContain(Entity entity) {
+        if (isOverflow) {
+            return !hash.fitsInCell(entity);
+        }
+        return isContainedInTree(entity);
+    }
+
+    @Override
+    public void recycle() {
+        assert isClean();
+
+        hash = null;
+        pools.hashCells.recycle(this);
+    }
+
+    @Override
+    public void addEntity(Entity entity) {
+        addEntityToList(entity);
+        entityCount++;
+    }
+
+    @Override
+    public void ensureEntitiesAreContained(double time) {
+        int index = 0;
+        while (index < entityListPos) {
+            Entity entity = entities[index];
+            if (entity.isSleeping()) {
+                // sleeping entities don't move so they are still contained
+                index++;
+                continue;
+            }
+            entity.calculateBoundingBox(time);
+
+            if (!canContain(entity)) {
+                preRelocateRemove(index);
+                parent.relocate(entity);
+            } else {
+                index++;
+            }
+        }
+    }
+
+    @Override
+    public Tree updateAllEntityPositionsAndResize(double currentTime) {
+        updateEntityPositions(currentTime);
+        return this;
+    }
+
+    @Override
+    public void updateEntityPositions(double currentTime) {
+        if (currentTime == timeInTree) {
+            return;
+        }
+        double elapsedTime = currentTime - timeInTree;
+        for (int i = 0; i < entityListPos; i++) {
+            entities[i].updatePosition(elapsedTime);
+        }
+        timeInTree = currentTime;
+    }
+
+    @Override
+    public Tree tryResize() {
+        return this;
+    }
+
+    @Override
+    public void initCalcCollision(double timeToCheck) {
+        assert node.getCollisionTime() == CollisionData.NO_COLLISION;
+        timeInTree = 0;
+        Collision collision = node.getCollision();
+        for (int i = 0; i < entityListPos; i++) {
+            Entity a = entities[i];
+            for (int j = i + 1; j < entityListPos; j++) {
+                collideShapes(collision, timeToCheck, a, entities[j]);
+            }
+            if (isOverflow) {
+                hash.initCheckCollisionWithCells(collision, timeToCheck, a);
+            } else {
+                initCheckNextCells(collision, timeToCheck, a);
+            }
+            collideWithStaticBodies(collision, timeToCheck, a);
+        }
+        world.getCollisionList().collisionUpdated(node);
+    }
+
+    /**
+     * Recalculates the collision of this cell, the entities of this cell have to be up to date.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     */
+    void calcCollision(double timeToCheck) {
+        Collision collision = node.getCollision();
+        collision.setNoCollision();
+        for (int i = 0; i < entityListPos; i++) {
+            Entity a = entities[i];
+            for (int j = i + 1; j < entityListPos; j++) {
+                collideShapes(collision, timeToCheck, a, entities[j]);
+            }
+            if (isOverflow) {
+                hash.checkCollisionWithCells(collision, timeToCheck, a);
+            } else {
+                checkNextCells(collision, timeToCheck, a);
+            }
+            collideWithStaticBodies(collision, timeToCheck, a);
+        }
+        world.getCollisionList().collisionUpdated(node);
+    }
+
+    /**
+     * Checks the entity that was just added to this cell against the pairs that this cell is
+     * responsible for.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     * @param entity      the entity that was added to this cell
+     */
+    void checkAddedEntity(double timeToCheck, Entity entity) {
+        assert entity.getContainingTree() == this;
+        Collision collision = node.getCollision();
+        for (int i = 0; i < entityListPos; i++) {
+            if (entities[i] != entity) {
+                collideShapes(collision, timeToCheck, entity, entities[i]);
+            }
+        }
+        if (isOverflow) {
+            hash.checkCollisionWithCells(collision, timeToCheck, entity);
+        } else {
+            checkNextCells(collision, timeToCheck, entity);
+        }
+        collideWithStaticBodies(collision, timeToCheck, entity);
+        world.getCollisionList().collisionUpdated(node);
+    }
+
+    /**
+     * Called when an entity that this cell shares pairs with has been updated or removed.  If
+     * the collision of this cell involves the entity it is recalculated, otherwise the entity is
+     * checked against the entities of this cell if it is still in the world.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     * @param entity      the entity that has been updated
+     * @param currentTime the time that the entity is at
+     */
+    void neighbourEntityUpdated(double timeToCheck, Entity entity, double currentTime) {
+        Collision collision = node.getCollision();
+        updateEntityPositions(currentTime);
+        if (collision.getA() == entity || collision.getB() == entity) {
+            calcCollision(timeToCheck);
+        } else if (entity.getContainingTree() != null) {
+            for (int i = 0; i < entityListPos; i++) {
+                collideShapes(collision, timeToCheck, entity, entities[i]);
+            }
+            world.getCollisionList().collisionUpdated(node);
+        }
+    }
+
+    /**
+     * Recalculates the collision of this cell if it involves the entity.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     * @param entity      the entity that has been moved or removed
+     * @param currentTime the time that the entity is at
+     */
+    void entityLeft(double timeToCheck, Entity entity, double currentTime) {
+        Collision collision = node.getCollision();
+        if (collision.getA() == entity || collision.getB() == entity) {
+            updateEntityPositions(currentTime);
+            calcCollision(timeToCheck);
+        }
+    }
+
+    private void checkNextCells(Collision result, double timeToCheck, Entity entity) {
+        checkCell(result, timeToCheck, entity, hash.getCell(cellX + 1, cellY));
+        checkCell(result, timeToCheck, entity, hash.getCell(cellX - 1, cellY + 1));
+        checkCell(result, timeToCheck, entity, hash.getCell(cellX, cellY + 1));
+        checkCell(result, timeToCheck, entity, hash.getCell(cellX + 1, cellY + 1));
+    }
+
+    private void initCheckNextCells(Collision result, double timeToCheck, Entity entity) {
+        initCheckCell(result, timeToCheck, entity, hash.getCell(cellX + 1, cellY));
+        initCheckCell(result, timeToCheck, entity, hash.getCell(cellX - 1, cellY + 1));
+        initCheckCell(result, timeToCheck, entity, hash.getCell(cellX, cellY + 1));
+        initCheckCell(result, timeToCheck, entity, hash.getCell(cellX + 1, cellY + 1));
+    }
+
+    private void checkCell(Collision result, double timeToCheck, Entity entity, HashCell cell) {
+        if (cell != null && cell.isOverlapping(entity)) {
+            cell.checkCollisionWithEntity(result, timeToCheck, entity);
+        }
+    }
+
+    private void initCheckCell(Collision result, double timeToCheck, Entity entity, HashCell
+            cell) {
+        if (cell != null && cell.isOverlapping(entity)) {
+            cell.initCheckCollisionWithEntity(result, timeToCheck, entity);
+        }
+    }
+
+    @Override
+    public void relocateAndCheck(double timeToCheck, Entity entity) {
+        assert !isEntityInTree(entity) : "Entity should not be in the this cell";
+        entityCount--;
+        parent.relocateAndCheck(timeToCheck, entity);
+    }
+
+    @Override
+    public void entityRemovedDuringCollision(double timeToCheck, Entity entity, double
+            currentTime) {
+        assert entity.getContainingTree() == null;
+        assert checkEntities();
+        assert !isEntityInTree(entity);
+
+        hash.entityRemovedDuringCollision(timeToCheck, entity, currentTime, this);
+    }
+
+    @Override
+    public void addAndCheck(double timeToCheck, Entity entity) {
+        addEntity(entity);
+        checkAddedEntity(timeToCheck, entity);
+    }
+
+    @Override
+    public void initCheckCollisionWithEntity(Collision result, double timeToCheck, Entity entity) {
+        timeInTree = 0;
+        for (int i = 0; i < entityListPos; i++) {
+            collideShapes(result, timeToCheck, entity, entities[i]);
+        }
+    }
+
+    @Override
+    public void checkCollisionWithEntity(Collision result, double timeToCheck, Entity entity) {
+        updateEntityPositions(entity.getContainingTree().timeInTree);
+        for (int i = 0; i < entityListPos; i++) {
+            collideShapes(result, timeToCheck, entity, entities[i]);
+        }
+    }
+
+    @Override
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        for (int i = 0; i < entityListPos; i++) {
+            entities[i].draw(renderer);
+        }
+    }
+
+    @Override
+    public void drawTree(Renderer renderer, RColor color) {
+        if (!isOverflow) {
+            renderer.setForegroundColor(color);
+            renderer.drawRect(centerX, centerY, halfLength, halfLength);
+        }
+    }
+
+    @Override
+    public int getRealEntityCount() {
+        int count = 0;
+        for (int i = 0; i < entities.length; i++) {
+            Entity entity = entities[i];
+            if (i >= entityListPos) {
+                assert entity == null;
+            } else {
+                assert entity != null;
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,72 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.CollisionWorkerThread;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Calculates the collisions of every node of a subtree at the start of the update.  Quads with
+ * more entities than the sequential cutoff calculate their own collision and then calculate
+ * their four children in parallel, smaller subtrees are calculated on the current thread.  The
+ * nodes are not added to the {@link CollisionList}, that has to be done once all of the tasks
+ * are done.
+ * <p>
+ * The narrowphase tests of each task are taken from its worker as soon as the task's own
+ * calculations are done, before a worker can run any other task, and are added up through the
+ * tasks so the total can be added to the world once the pass is done.
+ *
+ * @author davidrusu
+ */
+class InitCollisionTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Tree tree;
+    private final double timeToCheck;
+    private final int sequentialCutoff;
+    private long numNarrowphaseTests = 0;
+
+    InitCollisionTask(Tree tree, double timeToCheck, int sequentialCutoff) {
+        this.tree = tree;
+        this.timeToCheck = timeToCheck;
+        this.sequentialCutoff = sequentialCutoff;
+    }
+
+    @Override
+    protected void compute() {
+        if (!(tree instanceof Quad) || tree.getEntityCount() <= sequentialCutoff) {
+            initCalcSubTree(tree);
+            numNarrowphaseTests = CollisionWorkerThread.takeNarrowphaseTests();
+            return;
+        }
+        Quad quad = (Quad) tree;
+        quad.initCalcCollisionAtLevel(timeToCheck);
+        numNarrowphaseTests = CollisionWorkerThread.takeNarrowphaseTests();
+        InitCollisionTask topLeft = createTask(quad.getTopLeft());
+        InitCollisionTask topRight = createTask(quad.getTopRight());
+        InitCollisionTask bottomLeft = createTask(quad.getBottomLeft());
+        InitCollisionTask bottomRight = createTask(quad.getBottomRight());
+        invokeAll(topLeft, topRight, bottomLeft, bottomRight);
+        numNarrowphaseTests += topLeft.numNarrowphaseTests + topRight.numNarrowphaseTests +
+                bottomLeft.numNarrowphaseTests + bottomRight.numNarrowphaseTests;
+    }
+
+    long getNumNarrowphaseTests() {
+        return numNarrowphaseTests;
+    }
+
+    private InitCollisionTask createTask(Tree child) {
+        return new InitCollisionTask(child, timeToCheck, sequentialCutoff);
+    }
+
+    private void initCalcSubTree(Tree subTree) {
+        if (subTree instanceof Quad) {
+            Quad quad = (Quad) subTree;
+            quad.initCalcCollisionAtLevel(timeToCheck);
+            initCalcSubTree(quad.getTopLeft());
+            initCalcSubTree(quad.getTopRight());
+            initCalcSubTree(quad.getBottomLeft());
+            initCalcSubTree(quad.getBottomRight());
+        } else {
+            ((Leaf) subTree).initCalcCollisionAtLevel(timeToCheck);
+        }
+    }
+}
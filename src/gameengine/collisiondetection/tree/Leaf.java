@@ -14,49 +14,31 @@ import gameengine.graphics.Renderer;
  */
 public class Leaf extends Tree {
 
-    public static final int INITIAL_NUM_LEAFS = 32;
-    private static final int EXPANSION_FACTOR = 2;
-    private static Leaf[] recycledLeafs = new Leaf[INITIAL_NUM_LEAFS];
-    private static int numRecycledLeafs = INITIAL_NUM_LEAFS;
-
-    static {
-        for (int i = 0; i < INITIAL_NUM_LEAFS; i++) {
-            recycledLeafs[i] = new Leaf();
-        }
-    }
-
-    private Leaf(World world, Parent parent, double centerX, double centerY, double halfLength) {
-        super(world, parent, centerX, centerY, halfLength);
+    private Leaf(World world, Parent parent, double centerX, double centerY, double halfLength,
+                 double looseness) {
+        super(world, parent, centerX, centerY, halfLength, looseness);
     }
 
-    private Leaf(World world) {
-        super(world);
-    }
-
-    private Leaf() {
-        super();
+    private Leaf(World world, double looseness) {
+        super(world, looseness);
     }
 
     public static Leaf createInstance(World world, Parent parent, double centerX, double centerY,
-                                      double halfLength) {
-        if (numRecycledLeafs == 0) {
-            return new Leaf(world, parent, centerX, centerY, halfLength);
+                                      double halfLength, double looseness) {
+        Leaf leafInstance = world.getNodePools().leafs.take();
+        if (leafInstance == null) {
+            return new Leaf(world, parent, centerX, centerY, halfLength, looseness);
         }
-        numRecycledLeafs--;
-        Leaf leafInstance = recycledLeafs[numRecycledLeafs];
-        recycledLeafs[numRecycledLeafs] = null;
-        leafInstance.init(world, parent, centerX, centerY, halfLength);
+        leafInstance.init(world, parent, centerX, centerY, halfLength, looseness);
         return leafInstance;
     }
 
-    public static Leaf createInstance(World world) {
-        if (numRecycledLeafs == 0) {
-            return new Leaf(world);
+    public static Leaf createInstance(World world, double looseness) {
+        Leaf leafInstance = world.getNodePools().leafs.take();
+        if (leafInstance == null) {
+            return new Leaf(world, looseness);
         }
-        numRecycledLeafs--;
-        Leaf leafInstance = recycledLeafs[numRecycledLeafs];
-        recycledLeafs[numRecycledLeafs] = null;
-        leafInstance.init(world);
+        leafInstance.init(world, looseness);
         return leafInstance;
     }
 
@@ -64,13 +46,7 @@ public class Leaf extends Tree {
     public void recycle() {
         assert isClean();
 
-        if (numRecycledLeafs == recycledLeafs.length) {
-            Leaf[] temp = new Leaf[numRecycledLeafs * EXPANSION_FACTOR];
-            System.arraycopy(recycledLeafs, 0, temp, 0, numRecycledLeafs);
-            recycledLeafs = temp;
-        }
-        recycledLeafs[numRecycledLeafs] = this;
-        numRecycledLeafs++;
+        pools.leafs.recycle(this);
     }
 
     @Override
@@ -84,6 +60,11 @@ public class Leaf extends Tree {
         int index = 0;
         while (index < entityListPos) {
             Entity entity = entities[index];
+            if (entity.isSleeping()) {
+                // sleeping entities don't move so they are still contained
+                index++;
+                continue;
+            }
             entity.calculateBoundingBox(time);
 
             if (!isContainedInTree(entity)) {
@@ -99,14 +80,23 @@ public class Leaf extends Tree {
         }
     }
 
+    /**
+     * @return true if this leaf holds enough entities to be split and isn't at the maximum depth
+     * of the world's tree
+     */
+    private boolean isSplitting() {
+        return entityCount >= world.getSplitThreshold() && depth < world.getMaxTreeDepth();
+    }
+
     @Override
     public Tree tryResize() {
         assert entityCount == entityListPos : "count: " + entityCount + " pos: " + entityListPos;
 
-        if (entityCount >= GROW_THRESH) {
+        if (isSplitting()) {
             assert checkEntities();
             assert world != null;
-            Quad quad = Quad.createInstance(world, parent, centerX, centerY, halfLength);
+            Quad quad = Quad.createInstance(world, parent, centerX, centerY, halfLength,
+                    looseness, depth);
 
             assert checkEntities();
 
@@ -128,10 +118,11 @@ public class Leaf extends Tree {
         assert entityCount == entityListPos : "count: " + entityCount + " pos: " + entityListPos;
         updateEntityPositions(currentTime);
 
-        if (entityCount >= GROW_THRESH) {
+        if (isSplitting()) {
             assert checkEntities();
             assert world != null;
-            Quad quad = Quad.createInstance(world, parent, centerX, centerY, halfLength);
+            Quad quad = Quad.createInstance(world, parent, centerX, centerY, halfLength,
+                    looseness, depth);
 
             assert checkEntities();
 
@@ -145,6 +136,9 @@ public class Leaf extends Tree {
             assert getRealEntityCount() == entityCount : getRealEntityCount() + " " + entityCount;
             return quad;
         }
+        // removes the types of the entities that have left since the last update
+        entityTypeMask = calcListTypeMask();
+        carryCollisionOver(currentTime);
         return this;
     }
 
@@ -162,8 +156,8 @@ public class Leaf extends Tree {
 
     @Override
     public void initCalcCollision(double timeToCheck) {
-        timeInTree = 0;
-        calcCollision(timeToCheck);
+        initCalcCollisionAtLevel(timeToCheck);
+        world.getCollisionList().collisionUpdated(node);
     }
 
     @Override
@@ -195,7 +189,7 @@ public class Leaf extends Tree {
 
         if (isContainedInTree(entity)) {
             addAndCheck(timeToCheck, entity);
-            parent.childEntityUpdated(timeToCheck, entity);
+            parent.childEntityUpdated(timeToCheck, entity, this);
         } else {
             parent.relocateAndCheck(timeToCheck, entity);
         }
@@ -220,6 +214,7 @@ public class Leaf extends Tree {
     @Override
     public void addAndCheck(double timeToCheck, Entity entity) {
         checkCollisionWithEntity(node.getCollision(), timeToCheck, entity);
+        collideWithStaticBodies(node.getCollision(), timeToCheck, entity);
         addEntityToList(entity);
         entityCount++;
         world.getCollisionList().collisionUpdated(node);
@@ -254,6 +249,28 @@ public class Leaf extends Tree {
     }
 
     private void calcCollision(double timeToCheck) {
+        calcCollisionAtLevel(timeToCheck);
+        world.getCollisionList().collisionUpdated(node);
+    }
+
+    /**
+     * Calculates the collision of this leaf at the start of the update without updating the
+     * {@link CollisionList}, used by the parallel initial pass.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     */
+    void initCalcCollisionAtLevel(double timeToCheck) {
+        timeInTree = 0;
+        if (isCollisionCurrent) {
+            // kept from the last update
+            return;
+        }
+        node.getCollision().setNoCollision();
+        calcCollisionAtLevel(timeToCheck);
+        collisionCalculated(timeToCheck);
+    }
+
+    private void calcCollisionAtLevel(double timeToCheck) {
         assert node.getCollisionTime() == CollisionData.NO_COLLISION;
         Collision collision = node.getCollision();
         for (int i = 0; i < entityListPos; i++) {
@@ -261,7 +278,7 @@ public class Leaf extends Tree {
             for (int j = i + 1; j < entityListPos; j++) {
                 collideShapes(collision, timeToCheck, a, entities[j]);
             }
+            collideWithStaticBodies(collision, timeToCheck, a);
         }
-        world.getCollisionList().collisionUpdated(node);
     }
 }
@@ -0,0 +1,574 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+
+/**
+ * A quadtree without nodes.  The fat bounding box of every entity, its bounding box enlarged by
+ * a margin, is stored in flat arrays that are sorted by a morton key: the morton code of the
+ * smallest quadtree cell that contains the fat bounding box followed by the level of the cell.
+ * The keys of a cell and of everything below it share a prefix so the entities of every subtree
+ * are next to each other in the arrays, with the entities of the cell itself first, and the
+ * range of a subtree is found with a binary search instead of following pointers.
+ * <p>
+ * The proxies whose fat bounding boxes overlap are partners, like in the {@link AABBTree}, and a
+ * proxy only looks for new partners when its bounding box leaves its fat bounding box.  Proxies
+ * that move while the collisions are handled are appended to an unsorted tail that is searched
+ * linearly, the arrays are radix sorted again at the start of the next update.
+ *
+ * @author davidrusu
+ */
+public class LinearQuadTree extends PairBroadphase {
+    public static final double DEFAULT_MARGIN = 4;
+    static final int NO_SLOT = -1;
+    /**
+     * The level of the smallest cells, the root is level 0
+     */
+    private static final int MAX_LEVEL = 16;
+    private static final int NUM_CELLS = 1 << MAX_LEVEL;
+    private static final int LEVEL_BITS = 5;
+    private static final long LEVEL_MASK = (1L << LEVEL_BITS) - 1;
+    private static final int KEY_BITS = 2 * MAX_LEVEL + LEVEL_BITS;
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    /**
+     * The root is made this many times bigger than the fat bounding boxes of all the entities so
+     * it doesn't have to be resized every time an entity moves past the edge
+     */
+    private static final double ROOT_SLACK = 2;
+    private final double margin;
+    private double rootMinX, rootMinY, rootLength = 0;
+    private double cellScale = 0;
+    /**
+     * The slots that hold the fat bounding boxes, the first numSorted slots are sorted by key
+     * and the slots of removed proxies are null until the next sort
+     */
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private double[] slotMinX = new double[INITIAL_CAPACITY];
+    private double[] slotMinY = new double[INITIAL_CAPACITY];
+    private double[] slotMaxX = new double[INITIAL_CAPACITY];
+    private double[] slotMaxY = new double[INITIAL_CAPACITY];
+    private LinearQuadTreeProxy[] slotProxies = new LinearQuadTreeProxy[INITIAL_CAPACITY];
+    private int numSlots = 0;
+    private int numSorted = 0;
+    private int numDeadSlots = 0;
+    /**
+     * The arrays that the slots are sorted into, they are swapped with the slots after each
+     * sort
+     */
+    private long[] backKeys = new long[INITIAL_CAPACITY];
+    private double[] backMinX = new double[INITIAL_CAPACITY];
+    private double[] backMinY = new double[INITIAL_CAPACITY];
+    private double[] backMaxX = new double[INITIAL_CAPACITY];
+    private double[] backMaxY = new double[INITIAL_CAPACITY];
+    private LinearQuadTreeProxy[] backProxies = new LinearQuadTreeProxy[INITIAL_CAPACITY];
+    private long[] sortKeys = new long[INITIAL_CAPACITY];
+    private long[] tempSortKeys = new long[INITIAL_CAPACITY];
+    private int[] order = new int[INITIAL_CAPACITY];
+    private int[] tempOrder = new int[INITIAL_CAPACITY];
+    private final int[] counts = new int[RADIX];
+    private LinearQuadTreeProxy[] movedProxies = new LinearQuadTreeProxy[INITIAL_CAPACITY];
+    private int numMovedProxies = 0;
+    private boolean areKeysChanged = false;
+
+    public LinearQuadTree(World world) {
+        this(world, DEFAULT_MARGIN);
+    }
+
+    /**
+     * Creates a linear quadtree broadphase, eg. {@code new World(world -> new LinearQuadTree
+     * (world, 8))}.
+     *
+     * @param world  the {@link World} that the tree belongs to
+     * @param margin the amount that the bounding boxes of the entities are enlarged by on each
+     *               side, larger margins mean fewer moves but more partners
+     */
+    public LinearQuadTree(World world, double margin) {
+        super(world);
+        assert margin >= 0;
+        this.margin = margin;
+    }
+
+    public double getMargin() {
+        return margin;
+    }
+
+    @Override
+    protected PairProxy createProxy(int id) {
+        return LinearQuadTreeProxy.createInstance(world, this, id);
+    }
+
+    @Override
+    protected void proxyAdded(PairProxy pairProxy) {
+        LinearQuadTreeProxy proxy = (LinearQuadTreeProxy) pairProxy;
+        appendSlot(proxy);
+        findPartners(proxy);
+    }
+
+    @Override
+    protected void proxyMoved(PairProxy pairProxy) {
+        LinearQuadTreeProxy proxy = (LinearQuadTreeProxy) pairProxy;
+        if (isInsideFatBounds(proxy)) {
+            return;
+        }
+        if (proxy.slot < numSorted) {
+            // the sorted slots can't be rearranged while the collisions are handled
+            killSlot(proxy.slot);
+            appendSlot(proxy);
+        } else {
+            setFatBounds(proxy.slot, proxy.getEntity());
+            keys[proxy.slot] = calcKey(proxy.slot);
+        }
+        updatePartners(proxy);
+    }
+
+    @Override
+    protected void proxyRemoved(PairProxy pairProxy) {
+        LinearQuadTreeProxy proxy = (LinearQuadTreeProxy) pairProxy;
+        killSlot(proxy.slot);
+        proxy.slot = NO_SLOT;
+    }
+
+    @Override
+    protected void clearPairs() {
+        for (int i = 0; i < numSlots; i++) {
+            slotProxies[i] = null;
+        }
+        for (int i = 0; i < numMovedProxies; i++) {
+            movedProxies[i] = null;
+        }
+        numSlots = 0;
+        numSorted = 0;
+        numDeadSlots = 0;
+        numMovedProxies = 0;
+        rootLength = 0;
+        cellScale = 0;
+        areKeysChanged = false;
+    }
+
+    @Override
+    protected void findAllPairs() {
+        for (int i = 0; i < numProxies; i++) {
+            findPartners((LinearQuadTreeProxy) proxies[i]);
+        }
+    }
+
+    @Override
+    public void ensureEntitiesAreContained(double time) {
+        // every proxy is moved before the partners are updated so that the partners are only
+        // looked up in the sorted slots
+        for (int i = 0; i < numProxies; i++) {
+            LinearQuadTreeProxy proxy = (LinearQuadTreeProxy) proxies[i];
+            proxy.ensureEntitiesAreContained(time);
+            if (!isInsideFatBounds(proxy)) {
+                setFatBounds(proxy.slot, proxy.getEntity());
+                areKeysChanged = true;
+                addMovedProxy(proxy);
+            }
+        }
+        if (fitRoot()) {
+            areKeysChanged = true;
+            for (int i = 0; i < numSlots; i++) {
+                if (slotProxies[i] != null) {
+                    keys[i] = calcKey(i);
+                }
+            }
+        } else if (areKeysChanged) {
+            for (int i = 0; i < numMovedProxies; i++) {
+                int slot = movedProxies[i].slot;
+                keys[slot] = calcKey(slot);
+            }
+        }
+        if (areKeysChanged || numSorted != numSlots || numDeadSlots > 0) {
+            sortSlots();
+        }
+        for (int i = 0; i < numMovedProxies; i++) {
+            updatePartners(movedProxies[i]);
+            movedProxies[i] = null;
+        }
+        numMovedProxies = 0;
+        findPairsIfStale();
+        assert areSlotsSorted();
+        assert arePartnersCorrect();
+    }
+
+    @Override
+    public void drawStructure(Renderer renderer, RColor color) {
+        renderer.setForegroundColor(color);
+        double halfRoot = rootLength * 0.5;
+        renderer.drawRect(rootMinX + halfRoot, rootMinY + halfRoot, halfRoot, halfRoot);
+        for (int i = 0; i < numSlots; i++) {
+            if (slotProxies[i] != null) {
+                double halfWidth = (slotMaxX[i] - slotMinX[i]) * 0.5;
+                double halfHeight = (slotMaxY[i] - slotMinY[i]) * 0.5;
+                renderer.drawRect(slotMinX[i] + halfWidth, slotMinY[i] + halfHeight, halfWidth,
+                        halfHeight);
+            }
+        }
+    }
+
+    /**
+     * Resizes the root if the fat bounding boxes have moved past its edges or only cover a
+     * small part of it.
+     *
+     * @return true if the root was resized, the keys of every slot have to be recalculated
+     */
+    private boolean fitRoot() {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numSlots; i++) {
+            if (slotProxies[i] != null) {
+                minX = Math.min(minX, slotMinX[i]);
+                minY = Math.min(minY, slotMinY[i]);
+                maxX = Math.max(maxX, slotMaxX[i]);
+                maxY = Math.max(maxY, slotMaxY[i]);
+            }
+        }
+        if (minX > maxX) {
+            return false;
+        }
+        double length = Math.max(maxX - minX, maxY - minY);
+        boolean isContained = minX >= rootMinX && minY >= rootMinY && maxX <= rootMinX +
+                rootLength && maxY <= rootMinY + rootLength;
+        // the root is only shrunk once it is much bigger than it would be made so that it
+        // doesn't keep switching between two sizes
+        if (isContained && length * ROOT_SLACK * ROOT_SLACK >= rootLength) {
+            return false;
+        }
+        rootLength = Math.max(length * ROOT_SLACK, margin * 2 + 1);
+        rootMinX = (minX + maxX - rootLength) * 0.5;
+        rootMinY = (minY + maxY - rootLength) * 0.5;
+        cellScale = NUM_CELLS / rootLength;
+        return true;
+    }
+
+    /**
+     * Compacts the live slots and radix sorts them by key, the keys are sorted along with the
+     * index of their slot and the slots are then moved into their sorted order in one pass.
+     */
+    private void sortSlots() {
+        int count = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (slotProxies[i] != null) {
+                sortKeys[count] = keys[i];
+                order[count] = i;
+                count++;
+            }
+        }
+        for (int shift = 0; shift < KEY_BITS; shift += RADIX_BITS) {
+            if (radixPass(count, shift)) {
+                long[] tempKeys = sortKeys;
+                sortKeys = tempSortKeys;
+                tempSortKeys = tempKeys;
+                int[] temp = order;
+                order = tempOrder;
+                tempOrder = temp;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int slot = order[i];
+            backKeys[i] = keys[slot];
+            backMinX[i] = slotMinX[slot];
+            backMinY[i] = slotMinY[slot];
+            backMaxX[i] = slotMaxX[slot];
+            backMaxY[i] = slotMaxY[slot];
+            backProxies[i] = slotProxies[slot];
+            backProxies[i].slot = i;
+        }
+        for (int i = 0; i < numSlots; i++) {
+            slotProxies[i] = null;
+        }
+        swapSlots();
+        numSlots = count;
+        numSorted = count;
+        numDeadSlots = 0;
+        areKeysChanged = false;
+    }
+
+    /**
+     * Distributes the keys by the digit at the shift into the temp arrays, counting sort keeps
+     * the order of the keys with the same digit.
+     *
+     * @return false if every key has the same digit so nothing was moved
+     */
+    private boolean radixPass(int count, int shift) {
+        for (int i = 0; i < RADIX; i++) {
+            counts[i] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            counts[(int) (sortKeys[i] >>> shift) & (RADIX - 1)]++;
+        }
+        int position = 0;
+        for (int i = 0; i < RADIX; i++) {
+            if (counts[i] == count) {
+                return false;
+            }
+            int digitCount = counts[i];
+            counts[i] = position;
+            position += digitCount;
+        }
+        for (int i = 0; i < count; i++) {
+            int digit = (int) (sortKeys[i] >>> shift) & (RADIX - 1);
+            tempSortKeys[counts[digit]] = sortKeys[i];
+            tempOrder[counts[digit]] = order[i];
+            counts[digit]++;
+        }
+        return true;
+    }
+
+    private void swapSlots() {
+        long[] tempKeys = keys;
+        keys = backKeys;
+        backKeys = tempKeys;
+        double[] temp = slotMinX;
+        slotMinX = backMinX;
+        backMinX = temp;
+        temp = slotMinY;
+        slotMinY = backMinY;
+        backMinY = temp;
+        temp = slotMaxX;
+        slotMaxX = backMaxX;
+        backMaxX = temp;
+        temp = slotMaxY;
+        slotMaxY = backMaxY;
+        backMaxY = temp;
+        LinearQuadTreeProxy[] tempProxies = slotProxies;
+        slotProxies = backProxies;
+        backProxies = tempProxies;
+    }
+
+    /**
+     * Removes the partners that the proxy no longer overlaps and adds the ones that it does.
+     */
+    private void updatePartners(LinearQuadTreeProxy proxy) {
+        int slot = proxy.slot;
+        // removing a partner moves the last partner into its place so the partners are checked
+        // from the end
+        for (int i = proxy.getNumPartners() - 1; i >= 0; i--) {
+            LinearQuadTreeProxy partner = (LinearQuadTreeProxy) proxy.getPartner(i);
+            if (!isOverlapping(slot, partner.slot)) {
+                removePair(proxy, partner);
+            }
+        }
+        findPartners(proxy);
+    }
+
+    /**
+     * Adds all of the proxies whose fat bounding boxes overlap the proxy as partners.  The
+     * sorted slots are searched from the root down, only going into the cells that the fat
+     * bounding box overlaps, and the unsorted tail is searched linearly.
+     */
+    private void findPartners(LinearQuadTreeProxy proxy) {
+        int slot = proxy.slot;
+        if (numSorted > 0) {
+            findPartners(proxy, 0, 0, 0, 0, 0, numSorted, toCell(slotMinX[slot] - rootMinX),
+                    toCell(slotMinY[slot] - rootMinY), toCell(slotMaxX[slot] - rootMinX), toCell
+                            (slotMaxY[slot] - rootMinY));
+        }
+        for (int i = numSorted; i < numSlots; i++) {
+            checkSlot(proxy, i);
+        }
+    }
+
+    /**
+     * Checks the proxy against the slots of the cell and of the cells below it that the range of
+     * smallest cells overlaps.
+     *
+     * @param code  the morton code of the cell at its level
+     * @param start the first slot of the cell
+     * @param end   the slot after the last slot of the cell and of the cells below it
+     */
+    private void findPartners(LinearQuadTreeProxy proxy, int level, int cellX, int cellY, long
+            code, int start, int end, int minCellX, int minCellY, int maxCellX, int maxCellY) {
+        int index = start;
+        while (index < end && getLevel(keys[index]) == level) {
+            checkSlot(proxy, index);
+            index++;
+        }
+        if (index == end) {
+            return;
+        }
+        assert level < MAX_LEVEL;
+        int childLevel = level + 1;
+        int shift = MAX_LEVEL - childLevel;
+        for (int child = 0; child < 4; child++) {
+            long childCode = code << 2 | child;
+            int childEnd = child == 3 ? end : findFirstKey(index, end, (childCode + 1) << 2 *
+                    shift << LEVEL_BITS);
+            if (childEnd > index) {
+                int childX = cellX << 1 | (child & 1);
+                int childY = cellY << 1 | child >> 1;
+                if (childX << shift <= maxCellX && (childX + 1 << shift) - 1 >= minCellX &&
+                        childY << shift <= maxCellY && (childY + 1 << shift) - 1 >= minCellY) {
+                    findPartners(proxy, childLevel, childX, childY, childCode, index, childEnd,
+                            minCellX, minCellY, maxCellX, maxCellY);
+                }
+            }
+            index = childEnd;
+        }
+    }
+
+    private void checkSlot(LinearQuadTreeProxy proxy, int slot) {
+        LinearQuadTreeProxy other = slotProxies[slot];
+        if (other != null && other != proxy && isOverlapping(proxy.slot, slot) && !proxy
+                .isPartner(other)) {
+            addPair(proxy, other);
+        }
+    }
+
+    /**
+     * @return the first sorted slot in the range whose key is at least the key, or the end
+     */
+    private int findFirstKey(int start, int end, long key) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Calculates the key of the slot, the cell that holds the fat bounding box is the deepest
+     * one that both of its corners fall into.
+     */
+    private long calcKey(int slot) {
+        int minCellX = toCell(slotMinX[slot] - rootMinX);
+        int minCellY = toCell(slotMinY[slot] - rootMinY);
+        int maxCellX = toCell(slotMaxX[slot] - rootMinX);
+        int maxCellY = toCell(slotMaxY[slot] - rootMinY);
+        int difference = (minCellX ^ maxCellX) | (minCellY ^ maxCellY);
+        int shift = 32 - Integer.numberOfLeadingZeros(difference);
+        int level = MAX_LEVEL - shift;
+        long code = SpatialTree.spreadBits(minCellX >>> shift) | SpatialTree.spreadBits
+                (minCellY >>> shift) << 1;
+        return code << 2 * shift << LEVEL_BITS | level;
+    }
+
+    /**
+     * Returns the smallest cell that the position falls into, positions outside of the root are
+     * clamped to the cells on its edge which keeps the order of the positions.
+     *
+     * @param position the position relative to the top left corner of the root
+     */
+    private int toCell(double position) {
+        long cell = (long) (position * cellScale);
+        return (int) Math.max(0, Math.min(NUM_CELLS - 1, cell));
+    }
+
+    private static int getLevel(long key) {
+        return (int) (key & LEVEL_MASK);
+    }
+
+    private void appendSlot(LinearQuadTreeProxy proxy) {
+        if (numSlots == keys.length) {
+            expandSlots();
+        }
+        int slot = numSlots;
+        numSlots++;
+        slotProxies[slot] = proxy;
+        proxy.slot = slot;
+        setFatBounds(slot, proxy.getEntity());
+        keys[slot] = calcKey(slot);
+    }
+
+    private void killSlot(int slot) {
+        slotProxies[slot] = null;
+        numDeadSlots++;
+    }
+
+    private boolean isInsideFatBounds(LinearQuadTreeProxy proxy) {
+        Entity entity = proxy.getEntity();
+        int slot = proxy.slot;
+        return entity.getBBMinX() >= slotMinX[slot] && entity.getBBMaxX() <= slotMaxX[slot] &&
+                entity.getBBMinY() >= slotMinY[slot] && entity.getBBMaxY() <= slotMaxY[slot];
+    }
+
+    private void setFatBounds(int slot, Entity entity) {
+        slotMinX[slot] = entity.getBBMinX() - margin;
+        slotMinY[slot] = entity.getBBMinY() - margin;
+        slotMaxX[slot] = entity.getBBMaxX() + margin;
+        slotMaxY[slot] = entity.getBBMaxY() + margin;
+    }
+
+    private boolean isOverlapping(int a, int b) {
+        return slotMinX[a] < slotMaxX[b] && slotMinX[b] < slotMaxX[a] && slotMinY[a] <
+                slotMaxY[b] && slotMinY[b] < slotMaxY[a];
+    }
+
+    private void addMovedProxy(LinearQuadTreeProxy proxy) {
+        if (numMovedProxies == movedProxies.length) {
+            LinearQuadTreeProxy[] temp = movedProxies;
+            movedProxies = new LinearQuadTreeProxy[temp.length * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, movedProxies, 0, numMovedProxies);
+        }
+        movedProxies[numMovedProxies] = proxy;
+        numMovedProxies++;
+    }
+
+    private void expandSlots() {
+        int capacity = keys.length * EXPANSION_FACTOR;
+        keys = expand(keys, capacity);
+        slotMinX = expand(slotMinX, capacity);
+        slotMinY = expand(slotMinY, capacity);
+        slotMaxX = expand(slotMaxX, capacity);
+        slotMaxY = expand(slotMaxY, capacity);
+        LinearQuadTreeProxy[] tempProxies = new LinearQuadTreeProxy[capacity];
+        System.arraycopy(slotProxies, 0, tempProxies, 0, numSlots);
+        slotProxies = tempProxies;
+        backKeys = new long[capacity];
+        backMinX = new double[capacity];
+        backMinY = new double[capacity];
+        backMaxX = new double[capacity];
+        backMaxY = new double[capacity];
+        backProxies = new LinearQuadTreeProxy[capacity];
+        sortKeys = new long[capacity];
+        tempSortKeys = new long[capacity];
+        order = new int[capacity];
+        tempOrder = new int[capacity];
+    }
+
+    private static double[] expand(double[] array, int capacity) {
+        double[] temp = new double[capacity];
+        System.arraycopy(array, 0, temp, 0, array.length);
+        return temp;
+    }
+
+    private static long[] expand(long[] array, int capacity) {
+        long[] temp = new long[capacity];
+        System.arraycopy(array, 0, temp, 0, array.length);
+        return temp;
+    }
+
+    //------------------------------ testing methods --------------------------------
+
+    private boolean areSlotsSorted() {
+        assert numSorted == numSlots && numDeadSlots == 0;
+        for (int i = 0; i < numSlots; i++) {
+            assert slotProxies[i].slot == i : "slot index doesn't match";
+            assert keys[i] == calcKey(i) : "key doesn't match the fat bounding box";
+            assert i == 0 || keys[i - 1] <= keys[i] : "slots are not sorted";
+        }
+        return true;
+    }
+
+    private boolean arePartnersCorrect() {
+        for (int i = 0; i < numProxies; i++) {
+            LinearQuadTreeProxy a = (LinearQuadTreeProxy) proxies[i];
+            for (int j = i + 1; j < numProxies; j++) {
+                LinearQuadTreeProxy b = (LinearQuadTreeProxy) proxies[j];
+                boolean isPair = isOverlapping(a.slot, b.slot) && canPair(a, b);
+                assert isPair == a.isPartner(b) : "partners don't match the fat bounding boxes";
+                assert a.isPartner(b) == b.isPartner(a);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,37 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.World;
+
+/**
+ * Holds a single entity of the {@link LinearQuadTree} broadphase.  The proxy knows which slot of
+ * the sorted arrays holds its fat bounding box and morton key, its partners are the proxies whose
+ * fat bounding boxes overlap it.
+ *
+ * @author davidrusu
+ */
+public class LinearQuadTreeProxy extends PairProxy {
+    /**
+     * The index of the slot that holds the fat bounding box of the entity
+     */
+    int slot;
+
+    private LinearQuadTreeProxy() {
+        super();
+    }
+
+    public static LinearQuadTreeProxy createInstance(World world, LinearQuadTree tree, int id) {
+        LinearQuadTreeProxy proxy = world.getNodePools().linearQuadTreeProxies.take();
+        if (proxy == null) {
+            proxy = new LinearQuadTreeProxy();
+        }
+        proxy.init(world, tree, id);
+        proxy.slot = LinearQuadTree.NO_SLOT;
+        return proxy;
+    }
+
+    @Override
+    public void recycle() {
+        super.recycle();
+        pools.linearQuadTreeProxies.recycle(this);
+    }
+}
@@ -0,0 +1,142 @@
+package gameengine.collisiondetection.tree;
+
+/**
+ * Holds the recycled nodes of one kind for a {@link NodePools}.  The pool keeps track of how
+ * many nodes are in use so that the idle nodes that are unlikely to be needed again can be
+ * released, see {@link NodePools#setTrimPolicy(int, int)}.
+ *
+ * @author davidrusu
+ */
+public class NodePool<T extends Tree> {
+    private static final int INITIAL_CAPACITY = 32;
+    private static final int EXPANSION_FACTOR = 2;
+    private final NodePools pools;
+    private Tree[] idleNodes = new Tree[INITIAL_CAPACITY];
+    private int numIdle = 0;
+    private int numInUse = 0;
+    private int peakInUse = 0;
+    /**
+     * The most nodes that have been in use since the pool was last trimmed
+     */
+    private int recentPeakInUse = 0;
+    private long numHits = 0;
+    private long numMisses = 0;
+    private long numReleased = 0;
+
+    NodePool(NodePools pools) {
+        this.pools = pools;
+    }
+
+    /**
+     * Takes an idle node out of the pool, the caller creates a new node if there isn't one.
+     * Either way the node is counted as in use until it is recycled.
+     *
+     * @return an idle node or null if the pool is empty
+     */
+    @SuppressWarnings("unchecked")
+    T take() {
+        numInUse++;
+        if (numInUse > recentPeakInUse) {
+            recentPeakInUse = numInUse;
+            if (numInUse > peakInUse) {
+                peakInUse = numInUse;
+            }
+        }
+        if (numIdle == 0) {
+            numMisses++;
+            return null;
+        }
+        numHits++;
+        numIdle--;
+        T node = (T) idleNodes[numIdle];
+        idleNodes[numIdle] = null;
+        return node;
+    }
+
+    /**
+     * Puts the node back into the pool, or lets it go if the pool already holds the maximum
+     * number of idle nodes.
+     *
+     * @param node the node that is no longer used, it has to be cleared
+     */
+    void recycle(T node) {
+        assert numInUse > 0;
+        numInUse--;
+        if (numIdle >= pools.getMaxNumIdle()) {
+            numReleased++;
+            return;
+        }
+        if (numIdle == idleNodes.length) {
+            Tree[] temp = new Tree[numIdle * EXPANSION_FACTOR];
+            System.arraycopy(idleNodes, 0, temp, 0, numIdle);
+            idleNodes = temp;
+        }
+        idleNodes[numIdle] = node;
+        numIdle++;
+    }
+
+    /**
+     * Releases the idle nodes beyond the ones that are needed to get back to the most nodes
+     * that have been in use since the last trim, and beyond the maximum.
+     */
+    void trim() {
+        int keep = Math.min(pools.getMaxNumIdle(), recentPeakInUse - numInUse);
+        recentPeakInUse = numInUse;
+        if (numIdle <= keep) {
+            return;
+        }
+        for (int i = keep; i < numIdle; i++) {
+            idleNodes[i] = null;
+        }
+        numReleased += numIdle - keep;
+        numIdle = keep;
+        if (idleNodes.length > INITIAL_CAPACITY && numIdle < idleNodes.length / (
+                EXPANSION_FACTOR * EXPANSION_FACTOR)) {
+            Tree[] temp = new Tree[Math.max(INITIAL_CAPACITY, numIdle * EXPANSION_FACTOR)];
+            System.arraycopy(idleNodes, 0, temp, 0, numIdle);
+            idleNodes = temp;
+        }
+    }
+
+    /**
+     * @return the number of times that a node was taken from the pool instead of being created
+     */
+    public long getNumHits() {
+        return numHits;
+    }
+
+    /**
+     * @return the number of times that the pool was empty so a new node had to be created
+     */
+    public long getNumMisses() {
+        return numMisses;
+    }
+
+    /**
+     * @return the number of idle nodes that were let go by the pool
+     */
+    public long getNumReleased() {
+        return numReleased;
+    }
+
+    /**
+     * @return the most nodes of this kind that have been in use at once
+     */
+    public int getPeakInUse() {
+        return peakInUse;
+    }
+
+    public int getNumInUse() {
+        return numInUse;
+    }
+
+    public int getNumIdle() {
+        return numIdle;
+    }
+
+    @Override
+    public String toString() {
+        return "in use: " + numInUse + " idle: " + numIdle + " peak: " + peakInUse + " hits: " +
+                numHits + " misses: " + numMisses + " released: " + numReleased;
+    }
+}
@@ -0,0 +1,132 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+
+/**
+ * The recycled nodes of a {@link World}.  Each world has its own pools so worlds can be updated
+ * on separate threads without sharing any nodes or scratch space, and the nodes of a world
+ * that is no longer used can be garbage collected along with it.
+ * <p>
+ * Big scenes leave a lot of idle nodes behind once they have been cleared or have calmed down,
+ * so the pools are trimmed every few updates.  A pool keeps enough idle nodes to get back to
+ * the most nodes that were in use since the last trim, the high water mark, and releases the
+ * rest.  A pool never keeps more than the maximum number of idle nodes.
+ *
+ * @author davidrusu
+ */
+public class NodePools {
+    public static final int DEFAULT_TRIM_PERIOD = 600;
+    private static final int INITIAL_MERGE_CAPACITY = Tree.MERGE_THRESH;
+    final NodePool<Leaf> leafs = new NodePool<>(this);
+    final NodePool<Quad> quads = new NodePool<>(this);
+    final NodePool<HashCell> hashCells = new NodePool<>(this);
+    final NodePool<SweepAndPruneProxy> sweepAndPruneProxies = new NodePool<>(this);
+    final NodePool<AABBTreeProxy> aabbTreeProxies = new NodePool<>(this);
+    final NodePool<LinearQuadTreeProxy> linearQuadTreeProxies = new NodePool<>(this);
+    /**
+     * Scratch space that the entities of a quad are moved through when it is merged
+     */
+    private Entity[] mergedEntities = new Entity[INITIAL_MERGE_CAPACITY];
+    private int trimPeriod = DEFAULT_TRIM_PERIOD;
+    private int maxNumIdle = Integer.MAX_VALUE;
+    private int numUpdatesSinceTrim = 0;
+
+    /**
+     * Sets how the pools let go of the idle nodes.  The pools are trimmed down to their high
+     * water mark every 'trimPeriod' updates and never hold more than 'maxNumIdle' idle nodes
+     * each.  By default the pools are trimmed every {@link #DEFAULT_TRIM_PERIOD} updates and
+     * there is no maximum.
+     *
+     * @param trimPeriod the number of updates between trims, 0 to never trim
+     * @param maxNumIdle the most idle nodes that each pool can hold
+     */
+    public void setTrimPolicy(int trimPeriod, int maxNumIdle) {
+        assert trimPeriod >= 0;
+        assert maxNumIdle >= 0;
+        this.trimPeriod = trimPeriod;
+        this.maxNumIdle = maxNumIdle;
+        numUpdatesSinceTrim = 0;
+    }
+
+    public int getTrimPeriod() {
+        return trimPeriod;
+    }
+
+    public int getMaxNumIdle() {
+        return maxNumIdle;
+    }
+
+    /**
+     * Called by the world at the end of each update, trims the pools when the trim period is
+     * over.
+     */
+    public void updated() {
+        if (trimPeriod == 0) {
+            return;
+        }
+        numUpdatesSinceTrim++;
+        if (numUpdatesSinceTrim >= trimPeriod) {
+            trim();
+        }
+    }
+
+    /**
+     * Trims all of the pools down to their high water marks right away.
+     */
+    public void trim() {
+        numUpdatesSinceTrim = 0;
+        leafs.trim();
+        quads.trim();
+        hashCells.trim();
+        sweepAndPruneProxies.trim();
+        aabbTreeProxies.trim();
+        linearQuadTreeProxies.trim();
+        if (mergedEntities.length > INITIAL_MERGE_CAPACITY) {
+            // grows again the next time that a big quad is merged
+            mergedEntities = new Entity[INITIAL_MERGE_CAPACITY];
+        }
+    }
+
+    /**
+     * @param capacity the number of entities that will be merged
+     * @return the scratch space for merging quads, it is empty and has room for the entities
+     */
+    Entity[] getMergedEntities(int capacity) {
+        if (mergedEntities.length < capacity) {
+            mergedEntities = new Entity[capacity];
+        }
+        return mergedEntities;
+    }
+
+    public NodePool<Leaf> getLeafPool() {
+        return leafs;
+    }
+
+    public NodePool<Quad> getQuadPool() {
+        return quads;
+    }
+
+    public NodePool<HashCell> getHashCellPool() {
+        return hashCells;
+    }
+
+    public NodePool<SweepAndPruneProxy> getSweepAndPruneProxyPool() {
+        return sweepAndPruneProxies;
+    }
+
+    public NodePool<AABBTreeProxy> getAABBTreeProxyPool() {
+        return aabbTreeProxies;
+    }
+
+    public NodePool<LinearQuadTreeProxy> getLinearQuadTreeProxyPool() {
+        return linearQuadTreeProxies;
+    }
+
+    @Override
+    public String toString() {
+        return "leafs: " + leafs + "\nquads: " + quads + "\nhash cells: " + hashCells +
+                "\nsweep and prune proxies: " + sweepAndPruneProxies + "\naabb tree proxies: " +
+                aabbTreeProxies + "\nlinear quad tree proxies: " + linearQuadTreeProxies;
+    }
+}
@@ -0,0 +1,389 @@
+package gameengine.collisiondetection.tree;
+
+import Utilities.UnorderedArrayList;
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.NearestQuery;
+import gameengine.collisiondetection.RaycastQuery;
+import gameengine.collisiondetection.RegionQuery;
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+import gameengine.motion.environmentmotions.WorldEffect;
+
+/**
+ * Base class of the broadphases that keep a list of the pairs of entities that could collide.
+ * Every entity is held by its own {@link PairProxy} and the proxy's collision is the earliest
+ * collision of the entity with one of its partners, the subclasses decide which proxies are
+ * partners.  Proxies whose entities have types that don't collide are never made partners, so
+ * the entities of types that never collide with each other are never paired.
+ *
+ * @author davidrusu
+ */
+public abstract class PairBroadphase extends ContinuousBroadphase {
+    protected static final int INITIAL_CAPACITY = 64;
+    protected static final int EXPANSION_FACTOR = 2;
+    protected PairProxy[] proxies = new PairProxy[INITIAL_CAPACITY];
+    protected int numProxies = 0;
+    private PairProxy[] staleProxies = new PairProxy[INITIAL_CAPACITY];
+    private int numStaleProxies = 0;
+    private PairProxy updatingProxy = null;
+    private final Collision pairCollision = new Collision();
+    private boolean isCalculatingCollisions = false;
+    private boolean arePairsStale = false;
+    private int nextId = 0;
+    private int entityCount = 0;
+
+    protected PairBroadphase(World world) {
+        super(world);
+    }
+
+    /**
+     * Creates the proxy that will hold a new entity.
+     *
+     * @param id the id of the proxy, proxies with lower ids are created first
+     * @return the new proxy
+     */
+    protected abstract PairProxy createProxy(int id);
+
+    /**
+     * Called after a proxy has been created and holds its entity, the proxy has to be given all
+     * of its partners.
+     */
+    protected abstract void proxyAdded(PairProxy proxy);
+
+    /**
+     * Called after the bounding box of the entity of the proxy has been changed by a collision,
+     * the partners of the proxy have to be brought up to date.
+     */
+    protected abstract void proxyMoved(PairProxy proxy);
+
+    /**
+     * Called when the entity of the proxy has been removed from the world, before the proxy is
+     * taken out of its partners.
+     */
+    protected abstract void proxyRemoved(PairProxy proxy);
+
+    /**
+     * Removes everything from the structure that finds the partners.
+     */
+    protected abstract void clearPairs();
+
+    /**
+     * Adds all of the pairs again after the partners of every proxy have been removed because
+     * the types that collide have changed.
+     */
+    protected abstract void findAllPairs();
+
+    Collision getPairCollision() {
+        return pairCollision;
+    }
+
+    @Override
+    public void addEntity(Entity entity) {
+        entity.calculateBoundingBox(0);
+        PairProxy proxy = createProxy(nextId);
+        nextId++;
+        proxy.addEntity(entity);
+        if (numProxies == proxies.length) {
+            PairProxy[] temp = proxies;
+            proxies = new PairProxy[temp.length * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, proxies, 0, numProxies);
+        }
+        proxies[numProxies] = proxy;
+        proxy.indexInList = numProxies;
+        numProxies++;
+        entityCount++;
+        proxyAdded(proxy);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < numProxies; i++) {
+            PairProxy proxy = proxies[i];
+            proxy.clear();
+            proxy.recycle();
+            proxies[i] = null;
+        }
+        numProxies = 0;
+        clearPairs();
+        clearStaleProxies();
+        entityCount = 0;
+        arePairsStale = false;
+        world.getCollisionList().clear();
+    }
+
+    /**
+     * Marks the pairs to be found again before the next update since proxies that were kept
+     * apart because of their types may collide now, or the other way around.
+     */
+    @Override
+    public void collisionGroupsChanged() {
+        if (numProxies > 0) {
+            arePairsStale = true;
+        }
+    }
+
+    /**
+     * Finds all of the pairs again if the collision groups or the type of an entity have changed
+     * since the pairs were last found.  Called by the subclasses once the proxies are in place
+     * for the next update.
+     */
+    protected void findPairsIfStale() {
+        if (!arePairsStale) {
+            return;
+        }
+        arePairsStale = false;
+        for (int i = 0; i < numProxies; i++) {
+            proxies[i].clearPartners();
+        }
+        findAllPairs();
+    }
+
+    @Override
+    public void updateMotions(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects) {
+        for (int i = 0; i < numProxies; i++) {
+            proxies[i].updateMotions(elapsedTime, worldEffects);
+        }
+    }
+
+    @Override
+    public void updateEntities(double elapsedTime) {
+        for (int i = 0; i < numProxies; i++) {
+            proxies[i].updateEntities(elapsedTime);
+        }
+    }
+
+    @Override
+    protected void initCalcCollision(double timeToCheck) {
+        isCalculatingCollisions = true;
+        for (int i = 0; i < numProxies; i++) {
+            proxies[i].initCalcCollision(timeToCheck);
+        }
+        for (int i = 0; i < numProxies; i++) {
+            proxies[i].initCalcPairs(timeToCheck);
+        }
+        world.getCollisionList().allCollisionsUpdated();
+    }
+
+    @Override
+    protected void finishCalcCollision(double elapsedTime) {
+        for (int i = 0; i < numProxies; i++) {
+            proxies[i].updateAllEntityPositionsAndResize(elapsedTime);
+        }
+        isCalculatingCollisions = false;
+    }
+
+    @Override
+    protected boolean isEntityCountCorrect() {
+        int count = 0;
+        for (int i = 0; i < numProxies; i++) {
+            count += proxies[i].getRealEntityCount();
+        }
+        assert count == entityCount : count + " " + entityCount;
+        return true;
+    }
+
+    @Override
+    public void childEntityUpdated(double timeToCheck, Entity entity, Tree child) {
+    }
+
+    /**
+     * Called by a proxy after its entity has been updated by a collision.  The partners of the
+     * proxy are brought up to date and then the collisions of the entity and of its partners
+     * are recalculated.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     * @param entity      the entity that has been updated
+     */
+    @Override
+    public void relocateAndCheck(double timeToCheck, Entity entity) {
+        PairProxy proxy = (PairProxy) entity.getContainingTree();
+        double currentTime = proxy.timeInTree;
+        proxy.addEntity(entity);
+        updatingProxy = proxy;
+        proxyMoved(proxy);
+        proxy.entityUpdated(timeToCheck);
+        updatingProxy = null;
+        recalculateStaleProxies(timeToCheck, currentTime);
+    }
+
+    @Override
+    public void relocate(Entity entity) {
+    }
+
+    @Override
+    public void decrementEntityCount() {
+        entityCount--;
+    }
+
+    @Override
+    public void entityRemovedDuringCollision(double timeToCheck, Entity entity, double
+            currentTime) {
+    }
+
+    /**
+     * Called by a proxy after its entity has been removed from the world while a collision was
+     * handled, the proxy has already been taken out of its partners.
+     */
+    void entityRemovedDuringCollision(double timeToCheck, PairProxy proxy, double currentTime) {
+        recalculateStaleProxies(timeToCheck, currentTime);
+        proxy.clear();
+        proxy.recycle();
+    }
+
+    /**
+     * Takes the proxy out of its partners after its entity has been removed from the world.
+     * When the collisions are being calculated the proxy is recycled once the collisions that
+     * involved the entity have been recalculated.
+     *
+     * @param proxy  the proxy of the entity
+     * @param entity the entity that has been removed
+     */
+    void removeProxy(PairProxy proxy, Entity entity) {
+        proxyRemoved(proxy);
+        proxy.removeFromPartners(entity);
+
+        numProxies--;
+        PairProxy last = proxies[numProxies];
+        proxies[proxy.indexInList] = last;
+        last.indexInList = proxy.indexInList;
+        proxies[numProxies] = null;
+
+        if (!isCalculatingCollisions) {
+            clearStaleProxies();
+            proxy.clear();
+            proxy.recycle();
+        }
+    }
+
+    /**
+     * Makes the two proxies partners unless the types of their entities don't collide.
+     */
+    protected void addPair(PairProxy a, PairProxy b) {
+        if (!canPair(a, b)) {
+            return;
+        }
+        a.addPartner(b);
+        b.addPartner(a);
+    }
+
+    /**
+     * Stops the two proxies from being partners, a proxy whose collision was with the entity of
+     * the other proxy is marked as stale.
+     *
+     * @return true if the proxies were partners
+     */
+    protected boolean removePair(PairProxy a, PairProxy b) {
+        if (!a.removePartner(b)) {
+            return false;
+        }
+        b.removePartner(a);
+        if (a.isCollisionWith(b.getEntity())) {
+            markStale(a);
+        }
+        if (b.isCollisionWith(a.getEntity())) {
+            markStale(b);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the types of the entities of the proxies collide so they can be partners
+     */
+    protected boolean canPair(PairProxy a, PairProxy b) {
+        return world.canCollide(a.entityType, b.entityType);
+    }
+
+    void markStale(PairProxy proxy) {
+        if (proxy.isStale || proxy == updatingProxy) {
+            return;
+        }
+        if (numStaleProxies == staleProxies.length) {
+            PairProxy[] temp = staleProxies;
+            staleProxies = new PairProxy[temp.length * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, staleProxies, 0, numStaleProxies);
+        }
+        proxy.isStale = true;
+        staleProxies[numStaleProxies] = proxy;
+        numStaleProxies++;
+    }
+
+    /**
+     * Passes every proxy to the query, subclasses that can find the proxies that overlap the
+     * query faster override this.
+     */
+    @Override
+    public void query(RegionQuery query) {
+        for (int i = 0; i < numProxies; i++) {
+            proxies[i].query(query);
+        }
+    }
+
+    /**
+     * Passes every proxy to the raycast, subclasses that can find the proxies along the ray
+     * faster override this.
+     */
+    @Override
+    public void raycast(RaycastQuery raycast) {
+        for (int i = 0; i < numProxies; i++) {
+            proxies[i].raycast(raycast);
+        }
+    }
+
+    /**
+     * Passes every proxy to the search, subclasses that can find the nearest proxies faster
+     * override this.
+     */
+    @Override
+    public void findNearest(NearestQuery search) {
+        for (int i = 0; i < numProxies; i++) {
+            proxies[i].findNearest(search);
+        }
+    }
+
+    @Override
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        for (int i = 0; i < numProxies; i++) {
+            Entity entity = proxies[i].getEntity();
+            if (entity.getBBMinX() < maxX && entity.getBBMaxX() > minX && entity.getBBMinY() <
+                    maxY && entity.getBBMaxY() > minY) {
+                entity.draw(renderer);
+            }
+        }
+    }
+
+    @Override
+    public void drawStructure(Renderer renderer, RColor color) {
+        for (int i = 0; i < numProxies; i++) {
+            proxies[i].drawTree(renderer, color);
+        }
+    }
+
+    @Override
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    private void recalculateStaleProxies(double timeToCheck, double currentTime) {
+        for (int i = 0; i < numStaleProxies; i++) {
+            PairProxy proxy = staleProxies[i];
+            staleProxies[i] = null;
+            proxy.isStale = false;
+            // a proxy whose entity is out of it is about to be updated and recalculated anyway
+            if (proxy.getEntity() != null) {
+                proxy.updateEntityPositions(currentTime);
+                proxy.calcCollision(timeToCheck);
+            }
+        }
+        numStaleProxies = 0;
+    }
+
+    private void clearStaleProxies() {
+        for (int i = 0; i < numStaleProxies; i++) {
+            staleProxies[i].isStale = false;
+            staleProxies[i] = null;
+        }
+        numStaleProxies = 0;
+    }
+}
@@ -0,0 +1,355 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.World;
+import gameengine.collisiondetection.shapes.CollisionData;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+
+/**
+ * Holds a single entity of a {@link PairBroadphase}.  The proxy knows which proxies the entity
+ * could collide with, its partners, and its collision is the earliest collision of the entity
+ * with one of them.
+ *
+ * @author davidrusu
+ */
+public abstract class PairProxy extends Tree {
+    private static final int EXPANSION_FACTOR = 2;
+    private static final int INITIAL_NUM_PARTNERS = 4;
+
+    protected PairBroadphase broadphase;
+    private PairProxy[] partners = new PairProxy[INITIAL_NUM_PARTNERS];
+    private int numPartners = 0;
+    int indexInList;
+    boolean isStale = false;
+    /**
+     * The type of the entity, kept here since the entity is taken out while it is updated
+     */
+    int entityType;
+    private int id;
+
+    protected PairProxy() {
+        super();
+    }
+
+    protected void init(World world, PairBroadphase broadphase, int id) {
+        init(world, STRICT_LOOSENESS);
+        parent = broadphase;
+        this.broadphase = broadphase;
+        this.id = id;
+    }
+
+    @Override
+    protected void ensureInitialCapacity() {
+        // a proxy only ever holds one entity
+    }
+
+    public Entity getEntity() {
+        return entities[0];
+    }
+
+    public int getNumPartners() {
+        return numPartners;
+    }
+
+    PairProxy getPartner(int index) {
+        return partners[index];
+    }
+
+    void addPartner(PairProxy partner) {
+        assert !isPartner(partner);
+        if (numPartners == partners.length) {
+            PairProxy[] temp = partners;
+            partners = new PairProxy[temp.length * EXPANSION_FACTOR];
+            System.arraycopy(temp, 0, partners, 0, numPartners);
+        }
+        partners[numPartners] = partner;
+        numPartners++;
+    }
+
+    boolean removePartner(PairProxy partner) {
+        for (int i = 0; i < numPartners; i++) {
+            if (partners[i] == partner) {
+                numPartners--;
+                partners[i] = partners[numPartners];
+                partners[numPartners] = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isPartner(PairProxy proxy) {
+        for (int i = 0; i < numPartners; i++) {
+            if (partners[i] == proxy) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the collision of this proxy is with the entity, if it is then the collision has
+     * to be recalculated when the entity changes.
+     */
+    boolean isCollisionWith(Entity entity) {
+        Collision collision = node.getCollision();
+        return collision.getA() == entity || collision.getB() == entity;
+    }
+
+    /**
+     * Calculates the collisions of every pair once at the start of the update, each pair is
+     * checked by the proxy with the lower id and the collision is given to both proxies.
+     */
+    void initCalcPairs(double timeToCheck) {
+        Collision pairCollision = broadphase.getPairCollision();
+        Entity entity = entities[0];
+        for (int i = 0; i < numPartners; i++) {
+            PairProxy partner = partners[i];
+            if (partner.id > id) {
+                pairCollision.setNoCollision();
+                collideShapes(pairCollision, timeToCheck, entity, partner.entities[0]);
+                setIfEarlier(pairCollision);
+                partner.setIfEarlier(pairCollision);
+            }
+        }
+    }
+
+    /**
+     * Recalculates the collision of this proxy with all of its partners, the entity of this
+     * proxy has to be up to date.
+     */
+    void calcCollision(double timeToCheck) {
+        Collision pairCollision = broadphase.getPairCollision();
+        Entity entity = entities[0];
+        Collision collision = node.getCollision();
+        collision.setNoCollision();
+        for (int i = 0; i < numPartners; i++) {
+            PairProxy partner = partners[i];
+            // the entity of a partner that is being updated is checked once it is put back
+            if (partner.entityListPos == 0) {
+                continue;
+            }
+            partner.updateEntityPositions(timeInTree);
+            pairCollision.setNoCollision();
+            collideShapes(pairCollision, timeToCheck, entity, partner.entities[0]);
+            setIfEarlier(pairCollision);
+        }
+        collideWithStaticBodies(collision, timeToCheck, entity);
+        world.getCollisionList().collisionUpdated(node);
+    }
+
+    /**
+     * Recalculates the collision of this proxy after its entity has been updated and gives the
+     * new collision of each pair to the partner.  Partners whose collision was with the entity
+     * are marked as stale so they can be recalculated.
+     */
+    void entityUpdated(double timeToCheck) {
+        Collision pairCollision = broadphase.getPairCollision();
+        CollisionList list = world.getCollisionList();
+        Entity entity = entities[0];
+        node.getCollision().setNoCollision();
+        collideWithStaticBodies(node.getCollision(), timeToCheck, entity);
+        list.collisionUpdated(node);
+        for (int i = 0; i < numPartners; i++) {
+            PairProxy partner = partners[i];
+            if (partner.entityListPos == 0) {
+                continue;
+            }
+            partner.updateEntityPositions(timeInTree);
+            pairCollision.setNoCollision();
+            collideShapes(pairCollision, timeToCheck, entity, partner.entities[0]);
+            if (setIfEarlier(pairCollision)) {
+                list.collisionUpdated(node);
+            }
+            if (partner.isCollisionWith(entity)) {
+                broadphase.markStale(partner);
+            } else if (partner.setIfEarlier(pairCollision)) {
+                list.collisionUpdated(partner.node);
+            }
+        }
+    }
+
+    private boolean setIfEarlier(Collision pairCollision) {
+        Collision collision = node.getCollision();
+        if (pairCollision.getCollisionTime() < collision.getCollisionTime()) {
+            collision.set(pairCollision);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void removeEntityFromWorld(Entity entity) {
+        super.removeEntityFromWorld(entity);
+        broadphase.removeProxy(this, entity);
+    }
+
+    /**
+     * Removes this proxy from all of its partners after its entity has been removed.
+     *
+     * @param entity the entity that this proxy held
+     */
+    void removeFromPartners(Entity entity) {
+        for (int i = 0; i < numPartners; i++) {
+            PairProxy partner = partners[i];
+            partner.removePartner(this);
+            if (partner.isCollisionWith(entity)) {
+                broadphase.markStale(partner);
+            }
+            partners[i] = null;
+        }
+        numPartners = 0;
+    }
+
+    /**
+     * Forgets all of the partners of this proxy without taking it out of them, used when every
+     * pair is found again.
+     */
+    void clearPartners() {
+        for (int i = 0; i < numPartners; i++) {
+            partners[i] = null;
+        }
+        numPartners = 0;
+    }
+
+    @Override
+    public void clear() {
+        clearPartners();
+        isStale = false;
+        super.clear();
+    }
+
+    @Override
+    public void recycle() {
+        assert isClean();
+        assert numPartners == 0;
+
+        broadphase = null;
+    }
+
+    @Override
+    public void addEntity(Entity entity) {
+        assert entityListPos == 0 : "a proxy holds a single entity";
+        addEntityToList(entity);
+        entityCount++;
+        entityType = entity.getEntityType();
+    }
+
+    @Override
+    public void entityTypeChanged(Entity entity) {
+        super.entityTypeChanged(entity);
+        entityType = entity.getEntityType();
+        broadphase.collisionGroupsChanged();
+    }
+
+    @Override
+    public void ensureEntitiesAreContained(double time) {
+        for (int i = 0; i < entityListPos; i++) {
+            if (!entities[i].isSleeping()) {
+                entities[i].calculateBoundingBox(time);
+            }
+        }
+    }
+
+    @Override
+    public Tree updateAllEntityPositionsAndResize(double currentTime) {
+        updateEntityPositions(currentTime);
+        return this;
+    }
+
+    @Override
+    public void updateEntityPositions(double currentTime) {
+        if (currentTime == timeInTree) {
+            return;
+        }
+        double elapsedTime = currentTime - timeInTree;
+        for (int i = 0; i < entityListPos; i++) {
+            entities[i].updatePosition(elapsedTime);
+        }
+        timeInTree = currentTime;
+    }
+
+    @Override
+    public Tree tryResize() {
+        return this;
+    }
+
+    @Override
+    public void initCalcCollision(double timeToCheck) {
+        assert node.getCollisionTime() == CollisionData.NO_COLLISION;
+        timeInTree = 0;
+        collideWithStaticBodies(node.getCollision(), timeToCheck, entities[0]);
+    }
+
+    @Override
+    public void relocateAndCheck(double timeToCheck, Entity entity) {
+        assert !isEntityInTree(entity) : "Entity should not be in the this proxy";
+        entityCount--;
+        parent.relocateAndCheck(timeToCheck, entity);
+    }
+
+    @Override
+    public void entityRemovedDuringCollision(double timeToCheck, Entity entity, double
+            currentTime) {
+        assert entity.getContainingTree() == null;
+        assert !isEntityInTree(entity);
+
+        broadphase.entityRemovedDuringCollision(timeToCheck, this, currentTime);
+    }
+
+    @Override
+    public void addAndCheck(double timeToCheck, Entity entity) {
+        addEntity(entity);
+        calcCollision(timeToCheck);
+    }
+
+    @Override
+    public void initCheckCollisionWithEntity(Collision result, double timeToCheck, Entity entity) {
+        timeInTree = 0;
+        for (int i = 0; i < entityListPos; i++) {
+            collideShapes(result, timeToCheck, entity, entities[i]);
+        }
+    }
+
+    @Override
+    public void checkCollisionWithEntity(Collision result, double timeToCheck, Entity entity) {
+        updateEntityPositions(entity.getContainingTree().timeInTree);
+        for (int i = 0; i < entityListPos; i++) {
+            collideShapes(result, timeToCheck, entity, entities[i]);
+        }
+    }
+
+    @Override
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        for (int i = 0; i < entityListPos; i++) {
+            entities[i].draw(renderer);
+        }
+    }
+
+    @Override
+    public void drawTree(Renderer renderer, RColor color) {
+        for (int i = 0; i < entityListPos; i++) {
+            Entity entity = entities[i];
+            renderer.setForegroundColor(color);
+            renderer.drawRect(entity.getBBCenterX(), entity.getBBCenterY(), entity
+                    .getBBHalfWidth(), entity.getBBHalfHeight());
+        }
+    }
+
+    @Override
+    public int getRealEntityCount() {
+        int count = 0;
+        for (int i = 0; i < entities.length; i++) {
+            Entity entity = entities[i];
+            if (i >= entityListPos) {
+                assert entity == null;
+            } else {
+                assert entity != null;
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -9,7 +9,15 @@ import gameengine.entities.Entity;
  */
 public interface Parent {
 
-    void childEntityUpdated(double timeToCheck, Entity entity);
+    /**
+     * Called after an entity has been added to one of the subtrees so that the parent can check
+     * the entity against the entities that it is responsible for.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     * @param entity      the entity that has been updated
+     * @param child       the direct child of this parent that the entity was added to
+     */
+    void childEntityUpdated(double timeToCheck, Entity entity, Tree child);
 
     void relocateAndCheck(double timeToCheck, Entity entity);
 
@@ -17,5 +25,22 @@ public interface Parent {
 
     void decrementEntityCount();
 
+    /**
+     * Called when entities of the types have been added below this parent.
+     *
+     * @param typeBitMask the bit mask of the types that have been added
+     */
+    void addToTypeMask(long typeBitMask);
+
+    /**
+     * Called when an entity below this parent has been changed, added or removed.  The
+     * collision of the parent only has to be recalculated if it is with the entity, the pairs of
+     * the entity that the parent is responsible for are checked again at the start of the next
+     * update otherwise.
+     *
+     * @param entity the entity that has been changed, added or removed
+     */
+    void childCollisionInvalidated(Entity entity);
+
     void entityRemovedDuringCollision(double timeToCheck, Entity entity, double currentTime);
 }
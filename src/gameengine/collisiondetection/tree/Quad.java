@@ -2,8 +2,10 @@ package gameengine.collisiondetection.tree;
 
 import Utilities.UnorderedArrayList;
 import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.NearestQuery;
+import gameengine.collisiondetection.RaycastQuery;
+import gameengine.collisiondetection.RegionQuery;
 import gameengine.collisiondetection.World;
-import gameengine.collisiondetection.shapes.CollisionData;
 import gameengine.entities.Entity;
 import gameengine.graphics.RColor;
 import gameengine.graphics.Renderer;
@@ -18,65 +20,62 @@ import java.awt.geom.Rectangle2D;
  * @author davidrusu
  */
 public class Quad extends Tree implements Parent {
-    private static final int INITIAL_NUM_QUADS = Leaf.INITIAL_NUM_LEAFS / 4 + 1;
-    private static final int EXPANSION_FACTOR = 2;
-    private static Quad[] recycledQuads = new Quad[INITIAL_NUM_QUADS];
-    private static int numRecycledQuads = INITIAL_NUM_QUADS;
-
-    static {
-        for (int i = 0; i < INITIAL_NUM_QUADS; i++) {
-            recycledQuads[i] = new Quad();
-        }
-    }
-
     private Tree topLeft = null;
     private Tree topRight = null;
     private Tree bottomLeft = null;
     private Tree bottomRight = null;
+    /**
+     * The number of updates in a row that this subtree has held at most the merge threshold
+     * number of entities
+     */
+    private int numUnderflowUpdates = 0;
 
-    private Quad() {
-        super();
-    }
-
-    private Quad(World world, Parent parent, double centerX, double centerY, double halfLength) {
-        super(world, parent, centerX, centerY, halfLength);
+    private Quad(World world, Parent parent, double centerX, double centerY, double halfLength,
+                 double looseness, int depth) {
+        super(world, parent, centerX, centerY, halfLength, looseness);
+        this.depth = depth;
         initQuads(world);
     }
 
     private Quad(World world, Parent parent, double centerX, double centerY, double halfLength,
-                 Tree topLeft, Tree topRight, Tree bottomLeft, Tree bottomRight) {
-        super(world, parent, centerX, centerY, halfLength);
+                 double looseness, Tree topLeft, Tree topRight, Tree bottomLeft, Tree
+                         bottomRight) {
+        super(world, parent, centerX, centerY, halfLength, looseness);
         initQuads(topLeft, topRight, bottomLeft, bottomRight);
     }
 
+    /**
+     * Creates a quad with four empty leafs as its children.
+     *
+     * @param depth the depth of the quad, see {@link Tree#depth}
+     */
     public static Quad createInstance(World world, Parent parent, double centerX, double centerY,
-                                      double halfLength) {
-        if (numRecycledQuads == 0) {
-            return new Quad(world, parent, centerX, centerY, halfLength);
+                                      double halfLength, double looseness, int depth) {
+        Quad quad = world.getNodePools().quads.take();
+        if (quad == null) {
+            return new Quad(world, parent, centerX, centerY, halfLength, looseness, depth);
         }
-        numRecycledQuads--;
-        Quad quad = recycledQuads[numRecycledQuads];
-
-        quad.init(world, parent, centerX, centerY, halfLength);
+        quad.init(world, parent, centerX, centerY, halfLength, looseness);
+        quad.depth = depth;
         quad.initQuads(world);
         return quad;
     }
 
     public static Quad createInstance(World world, Parent parent, double centerX, double centerY,
-                                      double halfLength, Tree topLeft, Tree topRight, Tree
-                                              bottomLeft, Tree bottomRight) {
-        if (numRecycledQuads == 0) {
-            return new Quad(world, parent, centerX, centerY, halfLength, topLeft, topRight,
-                    bottomLeft, bottomRight);
-        }
-        numRecycledQuads--;
-        Quad quad = recycledQuads[numRecycledQuads];
-        quad.init(world, parent, centerX, centerY, halfLength);
+                                      double halfLength, double looseness, Tree topLeft, Tree
+                                              topRight, Tree bottomLeft, Tree bottomRight) {
+        Quad quad = world.getNodePools().quads.take();
+        if (quad == null) {
+            return new Quad(world, parent, centerX, centerY, halfLength, looseness, topLeft,
+                    topRight, bottomLeft, bottomRight);
+        }
+        quad.init(world, parent, centerX, centerY, halfLength, looseness);
         quad.initQuads(topLeft, topRight, bottomLeft, bottomRight);
         return quad;
     }
 
     private void initQuads(Tree topLeft, Tree topRight, Tree bottomLeft, Tree bottomRight) {
+        numUnderflowUpdates = 0;
         this.topLeft = topLeft;
         topLeft.parent = this;
         this.topRight = topRight;
@@ -85,21 +84,31 @@ public class Quad extends Tree implements Parent {
         bottomLeft.parent = this;
         this.bottomRight = bottomRight;
         bottomRight.parent = this;
+        assert topLeft.depth == topRight.depth && topLeft.depth == bottomLeft.depth && topLeft
+                .depth == bottomRight.depth;
+        depth = topLeft.depth - 1;
         entityCount = topLeft.entityCount + topRight.entityCount + bottomLeft.entityCount +
                 bottomRight.entityCount;
+        entityTypeMask = topLeft.entityTypeMask | topRight.entityTypeMask | bottomLeft
+                .entityTypeMask | bottomRight.entityTypeMask;
     }
 
     private void initQuads(World world) {
+        numUnderflowUpdates = 0;
         double quadLength = getHalfLength() * 0.5;
         double left = getCenterX() - quadLength;
         double right = getCenterX() + quadLength;
         double top = getCenterY() - quadLength;
         double bottom = getCenterY() + quadLength;
 
-        topLeft = Leaf.createInstance(world, this, left, top, quadLength);
-        topRight = Leaf.createInstance(world, this, right, top, quadLength);
-        bottomLeft = Leaf.createInstance(world, this, left, bottom, quadLength);
-        bottomRight = Leaf.createInstance(world, this, right, bottom, quadLength);
+        topLeft = Leaf.createInstance(world, this, left, top, quadLength, looseness);
+        topRight = Leaf.createInstance(world, this, right, top, quadLength, looseness);
+        bottomLeft = Leaf.createInstance(world, this, left, bottom, quadLength, looseness);
+        bottomRight = Leaf.createInstance(world, this, right, bottom, quadLength, looseness);
+        topLeft.depth = depth + 1;
+        topRight.depth = depth + 1;
+        bottomLeft.depth = depth + 1;
+        bottomRight.depth = depth + 1;
     }
 
     @Override
@@ -117,11 +126,104 @@ public class Quad extends Tree implements Parent {
         bottomRight.updateEntities(elapsedTime);
     }
 
+    @Override
+    public void query(RegionQuery query) {
+        if (query.canSkip(entityTypeMask)) {
+            return;
+        }
+        super.query(query);
+        if (topLeft.isOverlapping(query)) {
+            topLeft.query(query);
+        }
+        if (topRight.isOverlapping(query)) {
+            topRight.query(query);
+        }
+        if (bottomLeft.isOverlapping(query)) {
+            bottomLeft.query(query);
+        }
+        if (bottomRight.isOverlapping(query)) {
+            bottomRight.query(query);
+        }
+    }
+
+    @Override
+    public void raycast(RaycastQuery raycast) {
+        if (raycast.canSkip(entityTypeMask)) {
+            return;
+        }
+        super.raycast(raycast);
+        double topLeftEntry = topLeft.entryDistance(raycast);
+        double topRightEntry = topRight.entryDistance(raycast);
+        double bottomLeftEntry = bottomLeft.entryDistance(raycast);
+        double bottomRightEntry = bottomRight.entryDistance(raycast);
+        // visits the children nearest first, the ray shrinks as it hits entities so the later
+        // children are often beyond the nearest hit by the time they come up
+        while (true) {
+            double entry = Math.min(Math.min(topLeftEntry, topRightEntry), Math.min
+                    (bottomLeftEntry, bottomRightEntry));
+            if (entry == Double.POSITIVE_INFINITY || entry > raycast.getMaxDistance()) {
+                // the rest are missed, or entered beyond the nearest hit
+                return;
+            }
+            if (entry == topLeftEntry) {
+                topLeftEntry = Double.POSITIVE_INFINITY;
+                topLeft.raycast(raycast);
+            } else if (entry == topRightEntry) {
+                topRightEntry = Double.POSITIVE_INFINITY;
+                topRight.raycast(raycast);
+            } else if (entry == bottomLeftEntry) {
+                bottomLeftEntry = Double.POSITIVE_INFINITY;
+                bottomLeft.raycast(raycast);
+            } else {
+                bottomRightEntry = Double.POSITIVE_INFINITY;
+                bottomRight.raycast(raycast);
+            }
+        }
+    }
+
+    @Override
+    public void findNearest(NearestQuery search) {
+        if (search.canSkip(entityTypeMask)) {
+            return;
+        }
+        super.findNearest(search);
+        double topLeftDist = topLeft.distanceSquared(search);
+        double topRightDist = topRight.distanceSquared(search);
+        double bottomLeftDist = bottomLeft.distanceSquared(search);
+        double bottomRightDist = bottomRight.distanceSquared(search);
+        // nearest first so the bound of the search shrinks before the farther children come up
+        while (true) {
+            double dist = Math.min(Math.min(topLeftDist, topRightDist), Math.min
+                    (bottomLeftDist, bottomRightDist));
+            if (dist == Double.POSITIVE_INFINITY || dist > search.getBoundSquared()) {
+                return;
+            }
+            if (dist == topLeftDist) {
+                topLeftDist = Double.POSITIVE_INFINITY;
+                topLeft.findNearest(search);
+            } else if (dist == topRightDist) {
+                topRightDist = Double.POSITIVE_INFINITY;
+                topRight.findNearest(search);
+            } else if (dist == bottomLeftDist) {
+                bottomLeftDist = Double.POSITIVE_INFINITY;
+                bottomLeft.findNearest(search);
+            } else {
+                bottomRightDist = Double.POSITIVE_INFINITY;
+                bottomRight.findNearest(search);
+            }
+        }
+    }
+
     @Override
     public void ensureEntitiesAreContained(double time) {
         int index = 0;
         while (index < entityListPos) {
             Entity entity = entities[index];
+            if (entity.isSleeping()) {
+                // sleeping entities don't move so they are still contained
+                index++;
+                continue;
+            }
             entity.calculateBoundingBox(time);
 
             if (!isContainedInTree(entity)) {
@@ -131,18 +233,15 @@ public class Quad extends Tree implements Parent {
                 parent.relocate(entity);
 
                 assert isEntityCountCorrect();
-            } else if (entity.getBBMinX() > getCenterX()) {
-                assert isEntityCountCorrect();
-                index = ensureVerticallyContained(index, entity, entity.getBBMinY(), entity
-                        .getBBMaxY(), bottomRight, topRight);
-                assert isEntityCountCorrect();
-            } else if (entity.getBBMaxX() < getCenterX()) {
-                assert isEntityCountCorrect();
-                index = ensureVerticallyContained(index, entity, entity.getBBMinY(), entity
-                        .getBBMaxY(), bottomLeft, topLeft);
-                assert isEntityCountCorrect();
             } else {
-                index++;
+                Tree child = getContainingChild(entity);
+                if (child != null) {
+                    removeEntityFromList(index);
+                    child.addEntity(entity);
+                    assert isEntityCountCorrect();
+                } else {
+                    index++;
+                }
             }
         }
 
@@ -162,7 +261,8 @@ public class Quad extends Tree implements Parent {
         if (entityCount == 0) {
             assert world != null;
             Leaf leaf = Leaf.createInstance(world, parent, getCenterX(), getCenterY(),
-                    getHalfLength());
+                    getHalfLength(), looseness);
+            leaf.depth = depth;
             clear();
             recycle();
             return leaf;
@@ -181,7 +281,8 @@ public class Quad extends Tree implements Parent {
         if (entityCount == 0) {
             assert world != null;
             Leaf leaf = Leaf.createInstance(world, parent, getCenterX(), getCenterY(),
-                    getHalfLength());
+                    getHalfLength(), looseness);
+            leaf.depth = depth;
             clear();
             recycle();
             return leaf;
@@ -191,9 +292,91 @@ public class Quad extends Tree implements Parent {
         topRight = topRight.updateAllEntityPositionsAndResize(currentTime);
         bottomLeft = bottomLeft.updateAllEntityPositionsAndResize(currentTime);
         bottomRight = bottomRight.updateAllEntityPositionsAndResize(currentTime);
+        // removes the types of the entities that have left since the last update
+        entityTypeMask = calcListTypeMask() | topLeft.entityTypeMask | topRight.entityTypeMask |
+                bottomLeft.entityTypeMask | bottomRight.entityTypeMask;
+        if (entityCount > world.getMergeThreshold()) {
+            numUnderflowUpdates = 0;
+        } else {
+            numUnderflowUpdates++;
+            if (numUnderflowUpdates >= RESIZE_DELAY) {
+                return merge();
+            }
+        }
+        carryCollisionOver(currentTime);
         return this;
     }
 
+    /**
+     * Replaces this quad with a leaf that holds all of the entities of this subtree, the
+     * entities have to be at the same time.
+     *
+     * @return the leaf that replaces this quad
+     */
+    private Leaf merge() {
+        assert entityCount <= world.getMergeThreshold();
+        Entity[] mergedEntities = pools.getMergedEntities(entityCount);
+        int count = collectEntities(mergedEntities, 0);
+        assert count == entityCount : count + " " + entityCount;
+        Leaf leaf = Leaf.createInstance(world, parent, getCenterX(), getCenterY(),
+                getHalfLength(), looseness);
+        leaf.depth = depth;
+        clear();
+        recycle();
+        for (int i = 0; i < count; i++) {
+            leaf.addEntity(mergedEntities[i]);
+            mergedEntities[i] = null;
+        }
+        return leaf;
+    }
+
+    @Override
+    Tree getOnlyOccupiedChild() {
+        if (entityListPos > 0 || entityCount == 0) {
+            return null;
+        }
+        // the entities are all below the children so a child that has all of them is the only
+        // one that has any
+        if (topLeft.entityCount == entityCount) {
+            return topLeft;
+        } else if (topRight.entityCount == entityCount) {
+            return topRight;
+        } else if (bottomLeft.entityCount == entityCount) {
+            return bottomLeft;
+        } else if (bottomRight.entityCount == entityCount) {
+            return bottomRight;
+        }
+        return null;
+    }
+
+    /**
+     * Takes the child out of this quad so that it can become the root when the root shrinks,
+     * this quad and its other children are recycled.
+     *
+     * @param child the child to take out
+     * @param root  the new parent of the child
+     * @return the child
+     */
+    Tree releaseChild(Tree child, Parent root) {
+        Leaf empty = Leaf.createInstance(world, this, child.getCenterX(), child.getCenterY(),
+                child.getHalfLength(), looseness);
+        empty.depth = child.depth;
+        if (child == topLeft) {
+            topLeft = empty;
+        } else if (child == topRight) {
+            topRight = empty;
+        } else if (child == bottomLeft) {
+            bottomLeft = empty;
+        } else {
+            assert child == bottomRight;
+            bottomRight = empty;
+        }
+        child.parent = root;
+        clear();
+        recycle();
+        return child;
+    }
+
     @Override
     public void updateEntityPositions(double currentTime) {
         if (currentTime == timeInTree) {
@@ -217,9 +400,33 @@ public class Quad extends Tree implements Parent {
 
     @Override
     public void initCalcCollision(double timeToCheck) {
-        assert node.getCollision().getCollisionTime() == CollisionData.NO_COLLISION;
+        initCalcCollisionAtLevel(timeToCheck);
+        world.getCollisionList().collisionUpdated(node);
+
+        topLeft.initCalcCollision(timeToCheck);
+        topRight.initCalcCollision(timeToCheck);
+        bottomLeft.initCalcCollision(timeToCheck);
+        bottomRight.initCalcCollision(timeToCheck);
+
+        assert getRealEntityCount() == entityCount : getRealEntityCount() + " " + entityCount;
+    }
+
+    /**
+     * Calculates the collision of this quad at the start of the update without updating the
+     * {@link CollisionList} and without going into the children, used by the parallel initial
+     * pass.  The children are only read, apart from setting their time to 0 which they do
+     * themselves as well, so they can be calculated at the same time.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     */
+    void initCalcCollisionAtLevel(double timeToCheck) {
         assert getRealEntityCount() == entityCount : getRealEntityCount() + " " + entityCount;
         timeInTree = 0;
+        if (isCollisionCurrent) {
+            // kept from the last update
+            return;
+        }
+        node.getCollision().setNoCollision();
 
         for (int i = 0; i < entityListPos; i++) {
             Entity a = entities[i];
@@ -227,15 +434,28 @@ public class Quad extends Tree implements Parent {
                 collideShapes(node.getCollision(), timeToCheck, a, entities[j]);
             }
             initCheckCollisionInSubTrees(node.getCollision(), timeToCheck, a);
+            collideWithStaticBodies(node.getCollision(), timeToCheck, a);
         }
-        world.getCollisionList().collisionUpdated(node);
+        if (looseness > STRICT_LOOSENESS) {
+            initCheckCollisionsBetweenSubTrees(node.getCollision(), timeToCheck);
+        }
+        collisionCalculated(timeToCheck);
+    }
 
-        topLeft.initCalcCollision(timeToCheck);
-        topRight.initCalcCollision(timeToCheck);
-        bottomLeft.initCalcCollision(timeToCheck);
-        bottomRight.initCalcCollision(timeToCheck);
+    Tree getTopLeft() {
+        return topLeft;
+    }
 
-        assert getRealEntityCount() == entityCount : getRealEntityCount() + " " + entityCount;
+    Tree getTopRight() {
+        return topRight;
+    }
+
+    Tree getBottomLeft() {
+        return bottomLeft;
+    }
+
+    Tree getBottomRight() {
+        return bottomRight;
     }
 
     @Override
@@ -257,14 +477,59 @@ public class Quad extends Tree implements Parent {
     }
 
     @Override
-    public void childEntityUpdated(double timeToCheck, Entity entity) {
+    public void childEntityUpdated(double timeToCheck, Entity entity, Tree child) {
         Collision collision = node.getCollision();
         updateEntityPositions(entity.getContainingTree().timeInTree);
+        if (entity == collision.getA() || entity == collision.getB()) {
+            // the collision is no longer valid, the entity is already in the subtree so it is
+            // checked again along with the rest of the entities at this level
+            collision.setNoCollision();
+            calcCollisionsAtLevel(timeToCheck);
+        } else {
+            for (int i = 0; i < entityListPos; i++) {
+                collideShapes(collision, timeToCheck, entity, entities[i]);
+            }
+            if (looseness > STRICT_LOOSENESS) {
+                checkCollisionInOtherSubTrees(collision, timeToCheck, entity, child);
+            }
+            world.getCollisionList().collisionUpdated(node);
+        }
+        parent.childEntityUpdated(timeToCheck, entity, this);
+    }
+
+    @Override
+    public void childCollisionInvalidated(Entity entity) {
+        Collision collision = node.getCollision();
+        if (entity == collision.getA() || entity == collision.getB()) {
+            isCollisionCurrent = false;
+        }
+        parent.childCollisionInvalidated(entity);
+    }
+
+    /**
+     * Checks the entity against the entities that this quad is responsible for if the
+     * collision of this quad has been kept from the last update, the kept collision was
+     * calculated before the entity was changed.  Called at the start of the update before the
+     * collisions of the nodes are calculated, quads that recalculate their collision check the
+     * entity along with the rest.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     * @param entity      the entity below this quad that has been changed
+     * @param child       the direct child of this quad that the entity is in
+     */
+    void checkKeptCollision(double timeToCheck, Entity entity, Tree child) {
+        if (!isCollisionCurrent) {
+            return;
+        }
+        timeInTree = 0;
+        Collision collision = node.getCollision();
         for (int i = 0; i < entityListPos; i++) {
             collideShapes(collision, timeToCheck, entity, entities[i]);
         }
+        if (looseness > STRICT_LOOSENESS) {
+            initCheckCollisionInOtherSubTrees(collision, timeToCheck, entity, child);
+        }
         world.getCollisionList().collisionUpdated(node);
-        parent.childEntityUpdated(timeToCheck, entity);
     }
 
     @Override
@@ -279,7 +544,7 @@ public class Quad extends Tree implements Parent {
         }
         if (isContainedInTree(entity)) {
             addAndCheck(timeToCheck, entity);
-            parent.childEntityUpdated(timeToCheck, entity);
+            parent.childEntityUpdated(timeToCheck, entity, this);
         } else {
             parent.relocateAndCheck(timeToCheck, entity);
         }
@@ -288,6 +553,7 @@ public class Quad extends Tree implements Parent {
     @Override
     public void addAndCheck(double timeToCheck, Entity entity) {
         checkCollisionWithEntity(node.getCollision(), timeToCheck, entity);
+        collideWithStaticBodies(node.getCollision(), timeToCheck, entity);
         addEntityToList(entity);
         entityCount++;
         world.getCollisionList().collisionUpdated(node);
@@ -325,13 +591,11 @@ public class Quad extends Tree implements Parent {
         topRight.recycle();
         bottomLeft.recycle();
         bottomRight.recycle();
-        if (numRecycledQuads == recycledQuads.length) {
-            Quad[] temp = new Quad[numRecycledQuads * EXPANSION_FACTOR];
-            System.arraycopy(recycledQuads, 0, temp, 0, numRecycledQuads);
-            recycledQuads = temp;
-        }
-        recycledQuads[numRecycledQuads] = this;
-        numRecycledQuads++;
+        topLeft = null;
+        topRight = null;
+        bottomLeft = null;
+        bottomRight = null;
+        pools.quads.recycle(this);
     }
 
     @Override
@@ -364,8 +628,8 @@ public class Quad extends Tree implements Parent {
         bottomLeft.drawTree(renderer, color);
         bottomRight.drawTree(renderer, color);
         renderer.setForegroundColor(color);
-        renderer.drawLine(getMinX(), getCenterY(), getMaxX(), getCenterY());
-        renderer.drawLine(getCenterX(), getMinY(), getCenterX(), getMaxY());
+        renderer.drawLine(centerX - halfLength, centerY, centerX + halfLength, centerY);
+        renderer.drawLine(centerX, centerY - halfLength, centerX, centerY + halfLength);
 //        drawNumEntities(g, RColor.BLACK);
     }
 
@@ -388,6 +652,24 @@ public class Quad extends Tree implements Parent {
         return count;
     }
 
+    @Override
+    int collectEntities(Entity[] dest, int index) {
+        index = super.collectEntities(dest, index);
+        index = topLeft.collectEntities(dest, index);
+        index = topRight.collectEntities(dest, index);
+        index = bottomLeft.collectEntities(dest, index);
+        return bottomRight.collectEntities(dest, index);
+    }
+
+    @Override
+    void invalidateSubTree() {
+        super.invalidateSubTree();
+        topLeft.invalidateSubTree();
+        topRight.invalidateSubTree();
+        bottomLeft.invalidateSubTree();
+        bottomRight.invalidateSubTree();
+    }
+
     @Override
     public void clear() {
         super.clear();
@@ -427,20 +709,140 @@ public class Quad extends Tree implements Parent {
                 collideShapes(node.getCollision(), timeToCheck, a, entities[j]);
             }
             checkCollisionInSubTrees(node.getCollision(), timeToCheck, a);
+            collideWithStaticBodies(node.getCollision(), timeToCheck, a);
+        }
+        if (looseness > STRICT_LOOSENESS) {
+            checkCollisionsBetweenSubTrees(node.getCollision(), timeToCheck);
         }
         world.getCollisionList().collisionUpdated(node);
     }
 
+    /**
+     * Checks the pairs of entities that are contained in different children of this tree, the
+     * loose bounds of the children overlap so these pairs can collide.  The quadrants of the
+     * children don't overlap though, so one of the entities of a pair that can collide has to
+     * reach out of the quadrant of its child.  Only the entities that reach out of their
+     * quadrant are checked against the other children, the same way that the entities at this
+     * level are checked against the children.
+     */
+    private void checkCollisionsBetweenSubTrees(Collision result, double timeToCheck) {
+        checkStraddlingEntities(result, timeToCheck, topLeft, topLeft);
+        checkStraddlingEntities(result, timeToCheck, topRight, topRight);
+        checkStraddlingEntities(result, timeToCheck, bottomLeft, bottomLeft);
+        checkStraddlingEntities(result, timeToCheck, bottomRight, bottomRight);
+    }
+
+    private void initCheckCollisionsBetweenSubTrees(Collision result, double timeToCheck) {
+        initCheckStraddlingEntities(result, timeToCheck, topLeft, topLeft);
+        initCheckStraddlingEntities(result, timeToCheck, topRight, topRight);
+        initCheckStraddlingEntities(result, timeToCheck, bottomLeft, bottomLeft);
+        initCheckStraddlingEntities(result, timeToCheck, bottomRight, bottomRight);
+    }
+
+    /**
+     * Checks the entities of the subtree that reach out of the quadrant of the child against
+     * the other children, the nodes that are inside of the quadrant are skipped.
+     *
+     * @param child   the child of this tree that contains the subtree
+     * @param subTree the subtree to check
+     */
+    private void checkStraddlingEntities(Collision result, double timeToCheck, Tree child, Tree
+            subTree) {
+        if (!isOutOfQuadrant(child, subTree.minX, subTree.minY, subTree.maxX, subTree.maxY)) {
+            return;
+        }
+        subTree.updateEntityPositions(timeInTree);
+        for (int i = 0; i < subTree.entityListPos; i++) {
+            Entity entity = subTree.entities[i];
+            if (isOutOfQuadrant(child, entity.getBBMinX(), entity.getBBMinY(), entity
+                    .getBBMaxX(), entity.getBBMaxY())) {
+                checkCollisionInOtherSubTrees(result, timeToCheck, entity, child);
+            }
+        }
+        if (subTree instanceof Quad) {
+            Quad quad = (Quad) subTree;
+            checkStraddlingEntities(result, timeToCheck, child, quad.topLeft);
+            checkStraddlingEntities(result, timeToCheck, child, quad.topRight);
+            checkStraddlingEntities(result, timeToCheck, child, quad.bottomLeft);
+            checkStraddlingEntities(result, timeToCheck, child, quad.bottomRight);
+        }
+    }
+
+    private void initCheckStraddlingEntities(Collision result, double timeToCheck, Tree child,
+                                             Tree subTree) {
+        if (!isOutOfQuadrant(child, subTree.minX, subTree.minY, subTree.maxX, subTree.maxY)) {
+            return;
+        }
+        for (int i = 0; i < subTree.entityListPos; i++) {
+            Entity entity = subTree.entities[i];
+            if (isOutOfQuadrant(child, entity.getBBMinX(), entity.getBBMinY(), entity
+                    .getBBMaxX(), entity.getBBMaxY())) {
+                initCheckCollisionInOtherSubTrees(result, timeToCheck, entity, child);
+            }
+        }
+        if (subTree instanceof Quad) {
+            Quad quad = (Quad) subTree;
+            initCheckStraddlingEntities(result, timeToCheck, child, quad.topLeft);
+            initCheckStraddlingEntities(result, timeToCheck, child, quad.topRight);
+            initCheckStraddlingEntities(result, timeToCheck, child, quad.bottomLeft);
+            initCheckStraddlingEntities(result, timeToCheck, child, quad.bottomRight);
+        }
+    }
+
+    /**
+     * Checks if the bounds reach out of the quadrant of the child.  The quadrants are split by
+     * the center lines of this tree the same way that the entities are given to the children,
+     * see {@link #getContainingChild(Entity)}.
+     */
+    private boolean isOutOfQuadrant(Tree child, double minX, double minY, double maxX, double
+            maxY) {
+        boolean isOutOfX = child.getCenterX() < centerX ? maxX >= centerX : minX < centerX;
+        boolean isOutOfY = child.getCenterY() < centerY ? maxY >= centerY : minY < centerY;
+        return isOutOfX || isOutOfY;
+    }
+
+    private void checkCollisionInOtherSubTrees(Collision result, double timeToCheck, Entity
+            entity, Tree excluded) {
+        checkSubTree(result, timeToCheck, entity, topLeft, excluded);
+        checkSubTree(result, timeToCheck, entity, topRight, excluded);
+        checkSubTree(result, timeToCheck, entity, bottomLeft, excluded);
+        checkSubTree(result, timeToCheck, entity, bottomRight, excluded);
+    }
+
+    private void checkSubTree(Collision result, double timeToCheck, Entity entity, Tree subTree,
+                              Tree excluded) {
+        if (subTree != excluded && subTree.canCollideWith(entity) && subTree.isOverlapping(
+                entity)) {
+            subTree.checkCollisionWithEntity(result, timeToCheck, entity);
+        }
+    }
+
+    private void initCheckCollisionInOtherSubTrees(Collision result, double timeToCheck, Entity
+            entity, Tree excluded) {
+        initCheckSubTree(result, timeToCheck, entity, topLeft, excluded);
+        initCheckSubTree(result, timeToCheck, entity, topRight, excluded);
+        initCheckSubTree(result, timeToCheck, entity, bottomLeft, excluded);
+        initCheckSubTree(result, timeToCheck, entity, bottomRight, excluded);
+    }
+
+    private void initCheckSubTree(Collision result, double timeToCheck, Entity entity, Tree
+            subTree, Tree excluded) {
+        if (subTree != excluded && subTree.canCollideWith(entity) && subTree.isOverlapping(
+                entity)) {
+            subTree.initCheckCollisionWithEntity(result, timeToCheck, entity);
+        }
+    }
+
     private void checkHalfTree(Collision result, double timeToCheck, Entity entity, Tree top,
                                Tree bottom) {
         if (Math.abs(top.getCenterX() - entity.getBBCenterX()) < entity.getBBHalfWidth() + top
-                .getHalfLength()) {
+                .getLooseHalfLength()) {
             if (Math.abs(top.getCenterY() - entity.getBBCenterY()) < entity.getBBHalfHeight() +
-                    top.getHalfLength()) {
+                    top.getLooseHalfLength() && top.canCollideWith(entity)) {
                 top.checkCollisionWithEntity(result, timeToCheck, entity);
             }
             if (Math.abs(bottom.getCenterY() - entity.getBBCenterY()) < entity.getBBHalfHeight()
-                    + bottom.getHalfLength()) {
+                    + bottom.getLooseHalfLength() && bottom.canCollideWith(entity)) {
                 bottom.checkCollisionWithEntity(result, timeToCheck, entity);
             }
         }
@@ -459,56 +861,48 @@ public class Quad extends Tree implements Parent {
     private void initCheckHalfTree(Collision result, double timeToCheck, Entity entity, Tree top,
                                    Tree bottom) {
         if (Math.abs(top.getCenterX() - entity.getBBCenterX()) < entity.getBBHalfWidth() + top
-                .getHalfLength()) {
+                .getLooseHalfLength()) {
             if (Math.abs(top.getCenterY() - entity.getBBCenterY()) < entity.getBBHalfHeight() +
-                    top.getHalfLength()) {
+                    top.getLooseHalfLength() && top.canCollideWith(entity)) {
                 top.initCheckCollisionWithEntity(result, timeToCheck, entity);
             }
             if (Math.abs(bottom.getCenterY() - entity.getBBCenterY()) < entity.getBBHalfHeight()
-                    + bottom.getHalfLength()) {
+                    + bottom.getLooseHalfLength() && bottom.canCollideWith(entity)) {
                 bottom.initCheckCollisionWithEntity(result, timeToCheck, entity);
             }
         }
     }
 
-    private int ensureVerticallyContained(int index, Entity entity, double minY, double maxY,
-                                          Tree bottom, Tree top) {
-        if (minY > getCenterY()) {
-            removeEntityFromList(index);
-            bottom.addEntity(entity);
-        } else if (maxY < getCenterY()) {
-            removeEntityFromList(index);
-            top.addEntity(entity);
+    /**
+     * Finds the child whose bounds fully contain the entity's bounding box.  The child is picked
+     * by the quadrant of the bounding box center, when the tree is loose this lets entities that
+     * straddle the center lines sink into a child instead of staying at this level.
+     *
+     * @param entity the entity to find the child for
+     * @return the child that contains the entity or null if the entity must stay at this level
+     */
+    private Tree getContainingChild(Entity entity) {
+        Tree child;
+        if (entity.getBBCenterX() < centerX) {
+            child = entity.getBBCenterY() < centerY ? topLeft : bottomLeft;
         } else {
-            return index + 1;
+            child = entity.getBBCenterY() < centerY ? topRight : bottomRight;
         }
-        return index;
-    }
-
-    private void addToThis(Entity entity) {
-        addEntityToList(entity);
-    }
-
-    private void insertVertically(Entity entity, Tree top, Tree bottom) {
-        if (entity.getBBMaxY() < getCenterY()) {
-            top.addEntity(entity);
-        } else if (entity.getBBMinY() > getCenterY()) {
-            bottom.addEntity(entity);
-        } else {
-            addToThis(entity);
+        if (child.isContainedInTree(entity)) {
+            return child;
         }
+        return null;
     }
 
     private void insertEntity(Entity entity) {
         assert checkEntities();
         assert entity != null;
 
-        if (entity.getBBMaxX() < getCenterX()) {
-            insertVertically(entity, topLeft, bottomLeft);
-        } else if (entity.getBBMinX() > getCenterX()) {
-            insertVertically(entity, topRight, bottomRight);
+        Tree child = getContainingChild(entity);
+        if (child != null) {
+            child.addEntity(entity);
         } else {
-            addToThis(entity);
+            addEntityToList(entity);
         }
         assert checkEntities();
     }
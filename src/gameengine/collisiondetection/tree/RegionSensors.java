@@ -0,0 +1,199 @@
+package gameengine.collisiondetection.tree;
+
+import Utilities.UnorderedArrayList;
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+import gameengine.entities.RegionSensor;
+import gameengine.graphics.Renderer;
+import gameengine.motion.environmentmotions.WorldEffect;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Holds the {@link RegionSensor}s of a {@link World}.  Sensors are kept out of the broadphase
+ * so they never add collisions to the collision list or pairs to check, they are only checked
+ * once at the end of each update.
+ * <p>
+ * Each sensor is checked with a region query for its shape, which finds the entities of the
+ * broadphase and the static bodies that overlap it, and against the other sensors.  The
+ * entities that were found are compared with the ones that the sensor already contains to find
+ * the ones that have entered or exited.  The comparison marks the entities with stamps instead
+ * of looking them up in a set, the entities that the sensor contains are stamped first and then
+ * the ones that are found are stamped again, so the ones that only have the first stamp have
+ * exited.  Every sensor is checked before any of the transitions are handed to the sensors, so
+ * the handlers can change the world without affecting the checks.
+ * <p>
+ * The sensors aren't part of any {@link Tree}, each sensor is linked to this index instead, see
+ * {@link RegionSensor#getRegionSensors()}.
+ *
+ * @author davidrusu
+ */
+public class RegionSensors {
+    private static final int INITIAL_NUM_SENSORS = 16;
+    private static final int INITIAL_NUM_TRANSITIONS = 16;
+    private static final int EXPANSION_FACTOR = 2;
+    private final World world;
+    private RegionSensor[] sensors = new RegionSensor[INITIAL_NUM_SENSORS];
+    private int numSensors = 0;
+    private final Consumer<Entity> foundHandler = this::entityFound;
+    private final Consumer<Entity> stampHandler = this::stampContained;
+    private final Consumer<Entity> exitedHandler = this::checkExited;
+    private RegionSensor[] transitionSensors = new RegionSensor[INITIAL_NUM_TRANSITIONS];
+    private Entity[] transitionEntities = new Entity[INITIAL_NUM_TRANSITIONS];
+    private boolean[] transitionEntered = new boolean[INITIAL_NUM_TRANSITIONS];
+    private int numTransitions = 0;
+    private RegionSensor currentSensor = null;
+    /**
+     * The stamp of the entities that the current sensor contained, the entities that are found
+     * again are given the next stamp
+     */
+    private long containedStamp = 0;
+
+    public RegionSensors(World world) {
+        this.world = world;
+    }
+
+    /**
+     * Applies the world effects to the sensors and moves them, the same way that
+     * {@link Tree#updateMotions(double, UnorderedArrayList)} does for the entities of the
+     * broadphase, then finds the entities that have entered or exited each sensor and hands the
+     * transitions to the sensors.  Called by the world at the end of the update, after the
+     * entities of the broadphase have been updated.
+     *
+     * @param elapsedTime  the amount of time that the update covered
+     * @param worldEffects the effects of the world
+     */
+    public void update(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects) {
+        for (int i = 0; i < numSensors; i++) {
+            RegionSensor sensor = sensors[i];
+            int type = sensor.getEntityType();
+            for (int j = 0; j < worldEffects.size(); j++) {
+                WorldEffect worldEffect = worldEffects.get(j);
+                if (worldEffect.isCollisionTypeOrdinalAffected(type)) {
+                    worldEffect.applyEffect(sensor);
+                }
+            }
+            sensor.updateMotion(elapsedTime);
+            sensor.updatePosition(elapsedTime);
+            sensor.calculateBoundingBox(0);
+        }
+        for (int i = 0; i < numSensors; i++) {
+            checkSensor(sensors[i]);
+        }
+        for (int i = 0; i < numTransitions; i++) {
+            if (transitionEntered[i]) {
+                transitionSensors[i].addEntity(transitionEntities[i]);
+            } else {
+                transitionSensors[i].removeEntity(transitionEntities[i]);
+            }
+            transitionSensors[i] = null;
+            transitionEntities[i] = null;
+        }
+        numTransitions = 0;
+        for (int i = 0; i < numSensors; i++) {
+            sensors[i].update(elapsedTime);
+        }
+    }
+
+    private void checkSensor(RegionSensor sensor) {
+        currentSensor = sensor;
+        containedStamp += 2;
+        sensor.forEach(stampHandler);
+        world.query(sensor.getShape(), sensor.getX(), sensor.getY(), sensor.getEntityType(),
+                foundHandler);
+        for (int i = 0; i < numSensors; i++) {
+            Entity other = sensors[i];
+            if (other != sensor && world.canCollide(sensor.getEntityType(), other
+                    .getEntityType()) && isBoundingBoxOverlapping(sensor, other) && sensor
+                    .getShape().isOverlappingShape(sensor, other)) {
+                entityFound(other);
+            }
+        }
+        sensor.forEach(exitedHandler);
+        currentSensor = null;
+    }
+
+    private void stampContained(Entity entity) {
+        entity.setSensorStamp(containedStamp);
+    }
+
+    private void checkExited(Entity entity) {
+        if (entity.getSensorStamp() == containedStamp) {
+            // not found again, either it has left the region or the world
+            addTransition(currentSensor, entity, false);
+        }
+    }
+
+    private void entityFound(Entity entity) {
+        if (entity.getSensorStamp() != containedStamp) {
+            addTransition(currentSensor, entity, true);
+        }
+        entity.setSensorStamp(containedStamp + 1);
+    }
+
+    private static boolean isBoundingBoxOverlapping(Entity a, Entity b) {
+        return a.getBBMinX() <= b.getBBMaxX() && a.getBBMaxX() >= b.getBBMinX() && a.getBBMinY()
+                <= b.getBBMaxY() && a.getBBMaxY() >= b.getBBMinY();
+    }
+
+    private void addTransition(RegionSensor sensor, Entity entity, boolean entered) {
+        if (numTransitions == transitionSensors.length) {
+            int capacity = numTransitions * EXPANSION_FACTOR;
+            transitionSensors = Arrays.copyOf(transitionSensors, capacity);
+            transitionEntities = Arrays.copyOf(transitionEntities, capacity);
+            transitionEntered = Arrays.copyOf(transitionEntered, capacity);
+        }
+        transitionSensors[numTransitions] = sensor;
+        transitionEntities[numTransitions] = entity;
+        transitionEntered[numTransitions] = entered;
+        numTransitions++;
+    }
+
+    public void addEntity(RegionSensor sensor) {
+        sensor.calculateBoundingBox(0);
+        if (numSensors == sensors.length) {
+            sensors = Arrays.copyOf(sensors, numSensors * EXPANSION_FACTOR);
+        }
+        sensors[numSensors] = sensor;
+        sensor.setRegionSensors(this, numSensors);
+        numSensors++;
+    }
+
+    public void removeSensor(RegionSensor sensor) {
+        if (sensor.getRegionSensors() != this) {
+            return;
+        }
+        int index = sensor.getIndexInTree();
+        numSensors--;
+        RegionSensor relocated = sensors[numSensors];
+        sensors[index] = relocated;
+        relocated.setIndexInTree(index);
+        sensors[numSensors] = null;
+        sensor.setRegionSensors(null, -1);
+        sensor.clearContainedEntities();
+    }
+
+    public void clear() {
+        for (int i = 0; i < numSensors; i++) {
+            sensors[i].setRegionSensors(null, -1);
+            sensors[i].clearContainedEntities();
+            sensors[i] = null;
+        }
+        numSensors = 0;
+    }
+
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        for (int i = 0; i < numSensors; i++) {
+            Entity sensor = sensors[i];
+            if (sensor.getBBMinX() < maxX && sensor.getBBMaxX() > minX && sensor.getBBMinY() <
+                    maxY && sensor.getBBMaxY() > minY) {
+                sensor.draw(renderer);
+            }
+        }
+    }
+
+    public int getEntityCount() {
+        return numSensors;
+    }
+}
@@ -0,0 +1,623 @@
+package gameengine.collisiondetection.tree;
+
+import Utilities.UnorderedArrayList;
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.NearestQuery;
+import gameengine.collisiondetection.RaycastQuery;
+import gameengine.collisiondetection.RegionQuery;
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+import gameengine.motion.environmentmotions.WorldEffect;
+
+/**
+ * A uniform grid of {@link HashCell}s that are stored in a hash table so the world doesn't need
+ * bounds.  It is cheaper than the {@link SpatialTree} when the entities are roughly the same size
+ * and the cell size is close to the size of the entities, entities that don't fit in a cell are
+ * checked against everything that they overlap.
+ *
+ * @author davidrusu
+ */
+public class SpatialHash extends ContinuousBroadphase {
+    private static final int INITIAL_TABLE_SIZE = 64;
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+    private final double cellSize;
+    private final UnorderedArrayList<HashCell> cells = new UnorderedArrayList<>();
+    private long[] keys;
+    private HashCell[] table;
+    private HashCell overflow;
+    private int entityCount = 0;
+    /**
+     * The range of the cell coordinates of the cells that exist, it may be larger than needed
+     * until the table is rebuilt
+     */
+    private int minCellX, minCellY, maxCellX, maxCellY;
+
+    /**
+     * Creates a spatial hash with the specified cell size, entities whose bounding box is wider
+     * or taller than the cell size are stored in the overflow cell.  The bounding boxes include
+     * the distance that the entities travel in an update so the cell size should be a bit bigger
+     * than the entities.
+     *
+     * @param world    the {@link World} that this hash belongs to
+     * @param cellSize the side length of the cells
+     */
+    public SpatialHash(World world, double cellSize) {
+        super(world);
+        assert cellSize > 0 : "cellSize: " + cellSize;
+        this.cellSize = cellSize;
+        initTable(INITIAL_TABLE_SIZE);
+        resetCellRange();
+        overflow = HashCell.createOverflowInstance(world, this);
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    @Override
+    public void addEntity(Entity entity) {
+        entity.calculateBoundingBox(0);
+        getContainingCell(entity).addEntity(entity);
+        entityCount++;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < cells.size(); i++) {
+            HashCell cell = cells.get(i);
+            cell.clear();
+            cell.recycle();
+        }
+        cells.clear();
+        overflow.clear();
+        overflow.recycle();
+        world.getCollisionList().clear();
+        initTable(INITIAL_TABLE_SIZE);
+        resetCellRange();
+        overflow = HashCell.createOverflowInstance(world, this);
+        entityCount = 0;
+    }
+
+    @Override
+    public void updateMotions(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects) {
+        for (int i = 0; i < cells.size(); i++) {
+            cells.get(i).updateMotions(elapsedTime, worldEffects);
+        }
+        overflow.updateMotions(elapsedTime, worldEffects);
+    }
+
+    @Override
+    public void ensureEntitiesAreContained(double time) {
+        assert isEntityCountCorrect();
+
+        // cells that are created while relocating are checked as well, their entities are
+        // already contained
+        for (int i = 0; i < cells.size(); i++) {
+            cells.get(i).ensureEntitiesAreContained(time);
+        }
+        overflow.ensureEntitiesAreContained(time);
+
+        assert isEntityCountCorrect();
+    }
+
+    @Override
+    public void updateEntities(double elapsedTime) {
+        for (int i = 0; i < cells.size(); i++) {
+            cells.get(i).updateEntities(elapsedTime);
+        }
+        overflow.updateEntities(elapsedTime);
+    }
+
+    @Override
+    protected void initCalcCollision(double timeToCheck) {
+        for (int i = 0; i < cells.size(); i++) {
+            cells.get(i).initCalcCollision(timeToCheck);
+        }
+        overflow.initCalcCollision(timeToCheck);
+    }
+
+    @Override
+    protected void finishCalcCollision(double elapsedTime) {
+        boolean isCellRemoved = false;
+        int i = 0;
+        while (i < cells.size()) {
+            HashCell cell = cells.get(i);
+            if (cell.getEntityCount() == 0) {
+                cells.remove(i);
+                cell.clear();
+                cell.recycle();
+                isCellRemoved = true;
+            } else {
+                cell.updateAllEntityPositionsAndResize(elapsedTime);
+                i++;
+            }
+        }
+        overflow.updateAllEntityPositionsAndResize(elapsedTime);
+        if (isCellRemoved) {
+            rebuildTable();
+        }
+    }
+
+    @Override
+    protected boolean isEntityCountCorrect() {
+        int count = overflow.getRealEntityCount();
+        for (int i = 0; i < cells.size(); i++) {
+            count += cells.get(i).getRealEntityCount();
+        }
+        assert count == entityCount : count + " " + entityCount;
+        return true;
+    }
+
+    @Override
+    public void childEntityUpdated(double timeToCheck, Entity entity, Tree child) {
+    }
+
+    @Override
+    public void relocate(Entity entity) {
+        getContainingCell(entity).addEntity(entity);
+    }
+
+    /**
+     * Called by a cell after one of its entities has been updated by a collision.  The entity is
+     * moved to the cell that contains it and every cell that is responsible for a pair with the
+     * entity, before or after the move, is updated.
+     *
+     * @param timeToCheck the amount of time to check for collisions
+     * @param entity      the entity that has been updated
+     */
+    @Override
+    public void relocateAndCheck(double timeToCheck, Entity entity) {
+        HashCell oldCell = (HashCell) entity.getContainingTree();
+        double currentTime = oldCell.timeInTree;
+        HashCell cell = oldCell.canContain(entity) ? oldCell : getContainingCell(entity);
+        if (cell != oldCell) {
+            oldCell.entityLeft(timeToCheck, entity, currentTime);
+            entityLeftPreviousCells(timeToCheck, entity, currentTime, oldCell);
+        }
+        cell.updateEntityPositions(currentTime);
+        cell.addEntity(entity);
+        Collision collision = cell.node.getCollision();
+        if (collision.getA() == entity || collision.getB() == entity) {
+            cell.calcCollision(timeToCheck);
+        } else {
+            cell.checkAddedEntity(timeToCheck, entity);
+        }
+        if (!cell.isOverflow()) {
+            updatePreviousCells(timeToCheck, entity, currentTime, cell);
+            overflow.neighbourEntityUpdated(timeToCheck, entity, currentTime);
+        }
+    }
+
+    /**
+     * Called by a cell after one of its entities was removed from the world while a collision
+     * was handled.
+     */
+    void entityRemovedDuringCollision(double timeToCheck, Entity entity, double currentTime,
+                                      HashCell oldCell) {
+        oldCell.entityLeft(timeToCheck, entity, currentTime);
+        entityLeftPreviousCells(timeToCheck, entity, currentTime, oldCell);
+    }
+
+    @Override
+    public void entityRemovedDuringCollision(double timeToCheck, Entity entity, double
+            currentTime) {
+    }
+
+    @Override
+    public void decrementEntityCount() {
+        entityCount--;
+    }
+
+    /**
+     * Checks if an entity with the same bounding box size can be stored in one of the cells.
+     *
+     * @param entity the entity to check
+     * @return true if the entity fits in a cell, false if it has to go in the overflow cell
+     */
+    boolean fitsInCell(Entity entity) {
+        double halfCellSize = cellSize * 0.5;
+        return entity.getBBHalfWidth() <= halfCellSize && entity.getBBHalfHeight() <=
+                halfCellSize;
+    }
+
+    /**
+     * Returns the cell at the specified cell coordinates.
+     *
+     * @return the cell or null if there is no cell at the coordinates
+     */
+    HashCell getCell(int cellX, int cellY) {
+        long key = getKey(cellX, cellY);
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != EMPTY_KEY) {
+            if (keys[index] == key) {
+                return table[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Checks the entity against the entities of every cell that its bounding box overlaps, used
+     * for the entities in the overflow cell.
+     */
+    void checkCollisionWithCells(Collision result, double timeToCheck, Entity entity) {
+        int minCellX = toCell(entity.getBBMinX() - cellSize * 0.5);
+        int maxCellX = toCell(entity.getBBMaxX() + cellSize * 0.5);
+        int minCellY = toCell(entity.getBBMinY() - cellSize * 0.5);
+        int maxCellY = toCell(entity.getBBMaxY() + cellSize * 0.5);
+        // in doubles since the cell counts of huge bounds overflow even a long
+        double numCells = ((double) maxCellX - minCellX + 1) * ((double) maxCellY - minCellY + 1);
+        if (numCells > cells.size()) {
+            for (int i = 0; i < cells.size(); i++) {
+                HashCell cell = cells.get(i);
+                if (cell.isOverlapping(entity)) {
+                    cell.checkCollisionWithEntity(result, timeToCheck, entity);
+                }
+            }
+            return;
+        }
+        for (int y = minCellY; y <= maxCellY; y++) {
+            for (int x = minCellX; x <= maxCellX; x++) {
+                HashCell cell = getCell(x, y);
+                if (cell != null && cell.isOverlapping(entity)) {
+                    cell.checkCollisionWithEntity(result, timeToCheck, entity);
+                }
+            }
+        }
+    }
+
+    void initCheckCollisionWithCells(Collision result, double timeToCheck, Entity entity) {
+        int minCellX = toCell(entity.getBBMinX() - cellSize * 0.5);
+        int maxCellX = toCell(entity.getBBMaxX() + cellSize * 0.5);
+        int minCellY = toCell(entity.getBBMinY() - cellSize * 0.5);
+        int maxCellY = toCell(entity.getBBMaxY() + cellSize * 0.5);
+        // in doubles since the cell counts of huge bounds overflow even a long
+        double numCells = ((double) maxCellX - minCellX + 1) * ((double) maxCellY - minCellY + 1);
+        if (numCells > cells.size()) {
+            for (int i = 0; i < cells.size(); i++) {
+                HashCell cell = cells.get(i);
+                if (cell.isOverlapping(entity)) {
+                    cell.initCheckCollisionWithEntity(result, timeToCheck, entity);
+                }
+            }
+            return;
+        }
+        for (int y = minCellY; y <= maxCellY; y++) {
+            for (int x = minCellX; x <= maxCellX; x++) {
+                HashCell cell = getCell(x, y);
+                if (cell != null && cell.isOverlapping(entity)) {
+                    cell.initCheckCollisionWithEntity(result, timeToCheck, entity);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void query(RegionQuery query) {
+        // entities stay within half a cell of their cell
+        int minCellX = toCell(query.getMinX() - cellSize * 0.5);
+        int maxCellX = toCell(query.getMaxX() + cellSize * 0.5);
+        int minCellY = toCell(query.getMinY() - cellSize * 0.5);
+        int maxCellY = toCell(query.getMaxY() + cellSize * 0.5);
+        // in doubles since the cell counts of huge bounds overflow even a long
+        double numCells = ((double) maxCellX - minCellX + 1) * ((double) maxCellY - minCellY + 1);
+        if (numCells > cells.size()) {
+            for (int i = 0; i < cells.size(); i++) {
+                HashCell cell = cells.get(i);
+                if (cell.isOverlapping(query)) {
+                    cell.query(query);
+                }
+            }
+        } else {
+            for (int y = minCellY; y <= maxCellY; y++) {
+                for (int x = minCellX; x <= maxCellX; x++) {
+                    HashCell cell = getCell(x, y);
+                    if (cell != null) {
+                        cell.query(query);
+                    }
+                }
+            }
+        }
+        overflow.query(query);
+    }
+
+    /**
+     * Passes the entities of the cells that the ray passes through to the raycast.  The grid is
+     * walked along the ray one column at a time, or one row at a time when the ray is closer to
+     * vertical, and the walk stops at the first column that starts beyond the nearest hit so
+     * far.  Entities reach up to half a cell out of their cell so each column is widened by half
+     * a cell on both sides.  If the walk would visit more cells than there are, such as for a
+     * long ray through a sparse grid, every cell is checked against the ray instead.
+     */
+    @Override
+    public void raycast(RaycastQuery raycast) {
+        // the big entities can shorten the ray before the cells are walked
+        overflow.raycast(raycast);
+        if (cells.size() == 0) {
+            return;
+        }
+        double halfCellSize = cellSize * 0.5;
+        double minX = minCellX * cellSize - halfCellSize;
+        double minY = minCellY * cellSize - halfCellSize;
+        double maxX = (maxCellX + 1) * cellSize + halfCellSize;
+        double maxY = (maxCellY + 1) * cellSize + halfCellSize;
+        double start = raycast.entryDistance(minX, minY, maxX, maxY);
+        if (start == Double.POSITIVE_INFINITY) {
+            return;
+        }
+        boolean isAlongX = Math.abs(raycast.getDirX()) >= Math.abs(raycast.getDirY());
+        double origin = isAlongX ? raycast.getOriginX() : raycast.getOriginY();
+        double dir = isAlongX ? raycast.getDirX() : raycast.getDirY();
+        double crossOrigin = isAlongX ? raycast.getOriginY() : raycast.getOriginX();
+        double crossDir = isAlongX ? raycast.getDirY() : raycast.getDirX();
+        // the ray leaves the range of the cells on the axis that it is walked along, or earlier
+        double end = ((dir > 0 ? (isAlongX ? maxX : maxY) : (isAlongX ? minX : minY)) - origin) /
+                dir;
+        if (crossDir != 0) {
+            double crossEnd = ((crossDir > 0 ? (isAlongX ? maxY : maxX) : (isAlongX ? minY :
+                    minX)) - crossOrigin) / crossDir;
+            end = Math.min(end, crossEnd);
+        }
+        int step = dir > 0 ? 1 : -1;
+        int first = toCell(origin + dir * start - halfCellSize * step);
+        int last = toCell(origin + dir * Math.min(end, raycast.getMaxDistance()) + halfCellSize
+                * step);
+        // the ray crosses at most four cells of a column since it is at most as steep as the
+        // diagonal and the column is two cells wide with the entities that reach into it
+        if (4.0 * (Math.abs((double) last - first) + 1) > cells.size()) {
+            for (int i = 0; i < cells.size(); i++) {
+                HashCell cell = cells.get(i);
+                if (cell.entryDistance(raycast) != Double.POSITIVE_INFINITY) {
+                    cell.raycast(raycast);
+                }
+            }
+            return;
+        }
+        for (int column = first; column * step <= last * step; column += step) {
+            double columnStart = (column + 0.5) * cellSize - cellSize * step;
+            double columnEnd = (column + 0.5) * cellSize + cellSize * step;
+            double enter = Math.max(start, (columnStart - origin) / dir);
+            if (enter > raycast.getMaxDistance()) {
+                // the nearest hit is before this column
+                return;
+            }
+            double exit = Math.max(enter, Math.min(end, Math.min(raycast.getMaxDistance(),
+                    (columnEnd - origin) / dir)));
+            double crossEnter = crossOrigin + crossDir * enter;
+            double crossExit = crossOrigin + crossDir * exit;
+            int crossStep = crossDir >= 0 ? 1 : -1;
+            int crossFirst = toCell(crossEnter - halfCellSize * crossStep);
+            int crossLast = toCell(crossExit + halfCellSize * crossStep);
+            for (int row = crossFirst; row * crossStep <= crossLast * crossStep; row +=
+                    crossStep) {
+                HashCell cell = isAlongX ? getCell(column, row) : getCell(row, column);
+                if (cell != null && cell.entryDistance(raycast) != Double.POSITIVE_INFINITY) {
+                    cell.raycast(raycast);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the entities of the cells within the bound of the search to the search.  The cells
+     * are searched in square rings around the cell of the point, nearest ring first, and the
+     * search stops at the first ring that is farther than the bound.  Once the rings would cover
+     * more cells than there are, such as for a point far from a sparse grid, the cells outside
+     * of the rings searched so far are checked against the bound instead.
+     */
+    @Override
+    public void findNearest(NearestQuery search) {
+        overflow.findNearest(search);
+        if (cells.size() == 0) {
+            return;
+        }
+        double x = search.getX();
+        double y = search.getY();
+        int centerX = toCell(x);
+        int centerY = toCell(y);
+        // the rings beyond this one don't have any cells
+        long maxRing = Math.max(Math.max((long) centerX - minCellX, (long) maxCellX - centerX),
+                Math.max((long) centerY - minCellY, (long) maxCellY - centerY));
+        double halfCellSize = cellSize * 0.5;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // the entities of a ring reach half a cell into the ring inside of it
+            double innerMinX = ((double) centerX - ring + 1) * cellSize + halfCellSize;
+            double innerMinY = ((double) centerY - ring + 1) * cellSize + halfCellSize;
+            double innerMaxX = ((double) centerX + ring) * cellSize - halfCellSize;
+            double innerMaxY = ((double) centerY + ring) * cellSize - halfCellSize;
+            double ringDist = Math.min(Math.min(x - innerMinX, innerMaxX - x), Math.min(y -
+                    innerMinY, innerMaxY - y));
+            if (ringDist > 0 && ringDist * ringDist > search.getBoundSquared()) {
+                return;
+            }
+            if ((2.0 * ring + 1) * (2.0 * ring + 1) > cells.size()) {
+                findNearestOutsideRings(search, centerX, centerY, ring);
+                return;
+            }
+            if (ring == 0) {
+                searchCell(search, centerX, centerY);
+                continue;
+            }
+            for (int cellX = centerX - ring; cellX <= centerX + ring; cellX++) {
+                searchCell(search, cellX, centerY - ring);
+                searchCell(search, cellX, centerY + ring);
+            }
+            for (int cellY = centerY - ring + 1; cellY < centerY + ring; cellY++) {
+                searchCell(search, centerX - ring, cellY);
+                searchCell(search, centerX + ring, cellY);
+            }
+        }
+    }
+
+    private void searchCell(NearestQuery search, int cellX, int cellY) {
+        HashCell cell = getCell(cellX, cellY);
+        if (cell != null && cell.distanceSquared(search) <= search.getBoundSquared()) {
+            cell.findNearest(search);
+        }
+    }
+
+    /**
+     * Passes the entities of the cells that are in the ring or farther out to the search.
+     */
+    private void findNearestOutsideRings(NearestQuery search, int centerX, int centerY, int
+            ring) {
+        for (int i = 0; i < cells.size(); i++) {
+            HashCell cell = cells.get(i);
+            long ringX = Math.abs((long) cell.getCellX() - centerX);
+            long ringY = Math.abs((long) cell.getCellY() - centerY);
+            if (Math.max(ringX, ringY) >= ring && cell.distanceSquared(search) <= search
+                    .getBoundSquared()) {
+                cell.findNearest(search);
+            }
+        }
+    }
+
+    @Override
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        for (int i = 0; i < cells.size(); i++) {
+            HashCell cell = cells.get(i);
+            if (cell.getMinX() < maxX && cell.getMaxX() > minX && cell.getMinY() < maxY && cell
+                    .getMaxY() > minY) {
+                cell.draw(minX, maxX, minY, maxY, renderer);
+            }
+        }
+        overflow.draw(minX, maxX, minY, maxY, renderer);
+    }
+
+    @Override
+    public void drawStructure(Renderer renderer, RColor color) {
+        for (int i = 0; i < cells.size(); i++) {
+            cells.get(i).drawTree(renderer, color);
+        }
+    }
+
+    @Override
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * The cells before a cell are responsible for the pairs between their entities and the
+     * entities of the cell.
+     */
+    private void updatePreviousCells(double timeToCheck, Entity entity, double currentTime,
+                                     HashCell cell) {
+        int x = cell.getCellX();
+        int y = cell.getCellY();
+        updateCell(timeToCheck, entity, currentTime, getCell(x - 1, y));
+        updateCell(timeToCheck, entity, currentTime, getCell(x + 1, y - 1));
+        updateCell(timeToCheck, entity, currentTime, getCell(x, y - 1));
+        updateCell(timeToCheck, entity, currentTime, getCell(x - 1, y - 1));
+    }
+
+    private void updateCell(double timeToCheck, Entity entity, double currentTime, HashCell
+            cell) {
+        if (cell != null) {
+            cell.neighbourEntityUpdated(timeToCheck, entity, currentTime);
+        }
+    }
+
+    private void entityLeftPreviousCells(double timeToCheck, Entity entity, double currentTime,
+                                         HashCell oldCell) {
+        if (oldCell.isOverflow()) {
+            return;
+        }
+        int x = oldCell.getCellX();
+        int y = oldCell.getCellY();
+        leaveCell(timeToCheck, entity, currentTime, getCell(x - 1, y));
+        leaveCell(timeToCheck, entity, currentTime, getCell(x + 1, y - 1));
+        leaveCell(timeToCheck, entity, currentTime, getCell(x, y - 1));
+        leaveCell(timeToCheck, entity, currentTime, getCell(x - 1, y - 1));
+        overflow.entityLeft(timeToCheck, entity, currentTime);
+    }
+
+    private void leaveCell(double timeToCheck, Entity entity, double currentTime, HashCell cell) {
+        if (cell != null) {
+            cell.entityLeft(timeToCheck, entity, currentTime);
+        }
+    }
+
+    /**
+     * Returns the cell that the entity should be stored in, the cell is created if it doesn't
+     * exist yet.
+     */
+    private HashCell getContainingCell(Entity entity) {
+        if (!fitsInCell(entity)) {
+            return overflow;
+        }
+        int cellX = toCell(entity.getBBCenterX());
+        int cellY = toCell(entity.getBBCenterY());
+        HashCell cell = getCell(cellX, cellY);
+        if (cell == null) {
+            cell = HashCell.createInstance(world, this, cellX, cellY);
+            cells.add(cell);
+            if (cells.size() * 2 > keys.length) {
+                initTable(keys.length * 2);
+                rebuildTable();
+            } else {
+                put(cell);
+            }
+        }
+        assert cell.canContain(entity);
+        return cell;
+    }
+
+    private int toCell(double position) {
+        return (int) Math.floor(position / cellSize);
+    }
+
+    private void initTable(int size) {
+        keys = new long[size];
+        table = new HashCell[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = EMPTY_KEY;
+        }
+    }
+
+    private void rebuildTable() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = EMPTY_KEY;
+            table[i] = null;
+        }
+        resetCellRange();
+        for (int i = 0; i < cells.size(); i++) {
+            put(cells.get(i));
+        }
+    }
+
+    private void resetCellRange() {
+        minCellX = Integer.MAX_VALUE;
+        minCellY = Integer.MAX_VALUE;
+        maxCellX = Integer.MIN_VALUE;
+        maxCellY = Integer.MIN_VALUE;
+    }
+
+    private void put(HashCell cell) {
+        long key = getKey(cell.getCellX(), cell.getCellY());
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != EMPTY_KEY) {
+            assert keys[index] != key : "cell is already in the table";
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        table[index] = cell;
+        minCellX = Math.min(minCellX, cell.getCellX());
+        minCellY = Math.min(minCellY, cell.getCellY());
+        maxCellX = Math.max(maxCellX, cell.getCellX());
+        maxCellY = Math.max(maxCellY, cell.getCellY());
+    }
+
+    private static long getKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
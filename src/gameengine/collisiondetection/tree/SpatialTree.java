@@ -1,35 +1,112 @@
 package gameengine.collisiondetection.tree;
 
 import Utilities.UnorderedArrayList;
-import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.CollisionWorkerThread;
+import gameengine.collisiondetection.NearestQuery;
+import gameengine.collisiondetection.RaycastQuery;
+import gameengine.collisiondetection.RegionQuery;
 import gameengine.collisiondetection.World;
-import gameengine.collisiondetection.shapes.CollisionData;
-import gameengine.collisiondetection.shapes.Shape;
-import gameengine.context.Context;
 import gameengine.entities.Entity;
-import gameengine.entities.RegionSensor;
 import gameengine.graphics.RColor;
 import gameengine.graphics.Renderer;
 import gameengine.motion.environmentmotions.WorldEffect;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * The root of the spatial tree, used to access the spatial tree.
  *
  * @author davidrusu
  */
-public class SpatialTree implements Parent {
+public class SpatialTree extends ContinuousBroadphase {
+    /**
+     * The number of levels below a node that the morton codes of {@link #addEntities(Collection)}
+     * can tell apart, each level takes two bits of the code
+     */
+    private static final int CODE_DEPTH = 16;
+    private static final int INDEX_BITS = 31;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    private static final int TOP_LEFT = 0;
+    private static final int TOP_RIGHT = 1;
+    private static final int BOTTOM_LEFT = 2;
+    private static final int BOTTOM_RIGHT = 3;
     private Tree tree;
     private double initCenterX, initCenterY, initHalfLength;
-    private World world;
+    private double looseness;
+    private ForkJoinPool pool = null;
+    private int sequentialCutoff;
+    /**
+     * Scratch space of {@link #addEntities(Collection)}.  Each key holds the morton code of an
+     * entity in the high bits and the index of the entity in bulkSource in the low bits, the
+     * entities that can't sink into the child they are sorted into wait in bulkPending until
+     * their node is created.
+     */
+    private Entity[] bulkEntities = new Entity[0];
+    private Entity[] bulkSource = new Entity[0];
+    private Entity[] bulkPending = new Entity[0];
+    private long[] bulkKeys = new long[0];
+    private int numPending = 0;
+    /**
+     * The entities that have been changed, added or removed since the collisions were last
+     * calculated, only recorded when the world has a collision horizon.  The quads above them
+     * that keep their collisions check them again at the start of the next update.
+     */
+    private Entity[] changedEntities = new Entity[16];
+    private int numChanged = 0;
+    /**
+     * The number of updates in a row that all of the entities have fit in one child of the root
+     */
+    private int numShrinkableUpdates = 0;
 
     public SpatialTree(World world, double centerX, double centerY, double halfLength) {
-        this.world = world;
-        tree = Leaf.createInstance(world, this, centerX, centerY, halfLength);
+        this(world, centerX, centerY, halfLength, Tree.STRICT_LOOSENESS);
+    }
+
+    /**
+     * Creates a loose spatial tree.  The bounds of every node are enlarged by the looseness
+     * factor so entities that straddle the center lines of a node can still sink into one of
+     * its children, a looseness of 2 lets every entity that is at most as big as a node sink
+     * into it.
+     *
+     * @param world      the {@link World} that this tree belongs to
+     * @param centerX    the initial x coordinate of the center of the tree
+     * @param centerY    the initial y coordinate of the center of the tree
+     * @param halfLength the initial half length of the tree
+     * @param looseness  the factor that node bounds are enlarged by, must be at least
+     *                   {@link Tree#STRICT_LOOSENESS}
+     */
+    public SpatialTree(World world, double centerX, double centerY, double halfLength, double
+            looseness) {
+        super(world);
+        assert looseness >= Tree.STRICT_LOOSENESS : "looseness: " + looseness;
+        this.looseness = looseness;
+        tree = Leaf.createInstance(world, this, centerX, centerY, halfLength, looseness);
         initCenterX = centerX;
         initCenterY = centerY;
         initHalfLength = halfLength;
     }
 
+    /**
+     * Calculates the collisions of the nodes at the start of each update in parallel.  The
+     * children of a quad only read each other at that point so each quad with more than the
+     * cutoff number of entities calculates its children in parallel.
+     *
+     * @param parallelism      the number of threads to use, 1 or less turns the parallel pass off
+     * @param sequentialCutoff subtrees with at most this many entities are calculated on a single
+     *                         thread
+     */
+    @Override
+    public void setParallelism(int parallelism, int sequentialCutoff) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        pool = parallelism > 1 ? CollisionWorkerThread.createPool(parallelism) : null;
+        this.sequentialCutoff = sequentialCutoff;
+    }
+
+    @Override
     public void addEntity(Entity entity) {
         // TODO enforce adding an entity only once
         entity.calculateBoundingBox(0);
@@ -40,120 +117,207 @@ public class SpatialTree implements Parent {
         }
     }
 
+    /**
+     * Adds all the entities at once.  The root is grown to cover all of them before any of them
+     * are added so it is only resized once.  If there are at least as many new entities as there
+     * are entities in the tree the whole tree is rebuilt: the entities are sorted by the morton
+     * code of the center of their bounding box, which puts the entities of every node next to
+     * each other, and the nodes are built from the bottom up so each node is created once with
+     * its final children instead of leafs being split over the next updates.  The rebuilt tree
+     * is in the state that adding the entities one at a time settles into, leafs hold fewer than
+     * the split threshold of the world, unless they are at the maximum depth, and every entity
+     * is in the deepest node that contains it.
+     * Entities that are added while the collisions are being handled are added one at a time.
+     *
+     * @param newEntities the entities to add
+     */
+    @Override
+    public void addEntities(Collection<? extends Entity> newEntities) {
+        if (newEntities.isEmpty()) {
+            return;
+        }
+        int numExisting = tree.getEntityCount();
+        boolean isRebuilding = !isCalculatingCollisions() && newEntities.size() >= numExisting;
+        int count = newEntities.size() + (isRebuilding ? numExisting : 0);
+        ensureBulkCapacity(count);
+        int index = isRebuilding ? tree.collectEntities(bulkEntities, 0) : 0;
+        for (Entity entity : newEntities) {
+            bulkEntities[index] = entity;
+            index++;
+        }
+        assert index == count;
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            Entity entity = bulkEntities[i];
+            if (!entity.isSleeping()) {
+                entity.calculateBoundingBox(0);
+            }
+            minX = Math.min(minX, entity.getBBCenterX() - entity.getBBHalfWidth());
+            minY = Math.min(minY, entity.getBBCenterY() - entity.getBBHalfHeight());
+            maxX = Math.max(maxX, entity.getBBCenterX() + entity.getBBHalfWidth());
+            maxY = Math.max(maxY, entity.getBBCenterY() + entity.getBBHalfHeight());
+        }
+
+        if (!isRebuilding) {
+            while (!isBoxContained(minX, minY, maxX, maxY, tree.getCenterX(), tree.getCenterY(),
+                    tree.getLooseHalfLength())) {
+                growTowards(minX < tree.getMinX() ? minX : maxX, minY < tree.getMinY() ? minY :
+                        maxY);
+            }
+            for (int i = 0; i < count; i++) {
+                tree.addEntity(bulkEntities[i]);
+                bulkEntities[i] = null;
+            }
+            return;
+        }
+
+        double centerX = tree.getCenterX(), centerY = tree.getCenterY();
+        double halfLength = tree.getHalfLength();
+        int depth = tree.depth;
+        while (!isBoxContained(minX, minY, maxX, maxY, centerX, centerY, halfLength *
+                looseness)) {
+            // grows the same way as relocate so the nodes line up with the incremental path
+            double looseHalfLength = halfLength * looseness;
+            centerX = getGrownCenter(centerX, halfLength, minX < centerX - looseHalfLength ?
+                    minX : maxX);
+            centerY = getGrownCenter(centerY, halfLength, minY < centerY - looseHalfLength ?
+                    minY : maxY);
+            halfLength *= 2;
+            depth--;
+        }
+        tree.clear();
+        tree.recycle();
+
+        sortByMortonCode(0, count, centerX - halfLength, centerY - halfLength, halfLength * 2);
+        tree = build(this, centerX, centerY, halfLength, 0, count, 0, depth);
+        assert numPending == 0;
+        Arrays.fill(bulkEntities, 0, count, null);
+
+        assert tree.getEntityCount() == count;
+        assert tree.isEntityCountCorrect();
+    }
+
+    @Override
     public void clear() {
         tree.clear();
         tree.recycle();
         // TODO tree already removes all the nodes from the list, may not have to do this
         world.getCollisionList().clear();
-        tree = Leaf.createInstance(world, this, initCenterX, initCenterY, initHalfLength);
+        tree = Leaf.createInstance(world, this, initCenterX, initCenterY, initHalfLength,
+                looseness);
+        numShrinkableUpdates = 0;
     }
 
+    @Override
     public void ensureEntitiesAreContained(double time) {
         assert tree.isEntityCountCorrect();
 
-        tree.ensureEntitiesAreContained(time);
+        // collisions are calculated over the whole horizon so the bounding boxes have to cover it
+        tree.ensureEntitiesAreContained(Math.max(time, world.getCollisionHorizon()));
 
         assert tree.isEntityCountCorrect();
     }
 
+    @Override
     public void updateMotions(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects) {
         tree.updateMotions(elapsedTime, worldEffects);
     }
 
+    @Override
     public void updateEntities(double elapsedTime) {
         tree.updateEntities(elapsedTime);
     }
 
-    public void calcCollision(double elapsedTime, Context context) {
-        CollisionList list = world.getCollisionList();
-        assert list.doAllNodesHaveNoCollision(-1);
-        assert list.areNodesSorted();
-        assert tree.isEntityCountCorrect();
+    @Override
+    public void query(RegionQuery query) {
+        // the root contains every entity so its own bounds aren't checked against the query,
+        // its entities are all tested and then its children that overlap the query are visited
+        tree.query(query);
+    }
 
-        double currentTime;
-        double timeLeft = elapsedTime;
-        tree.initCalcCollision(timeLeft);
+    @Override
+    public void raycast(RaycastQuery raycast) {
+        tree.raycast(raycast);
+    }
 
-        assert tree.isEntityCountCorrect();
-        assert list.areNodesSorted();
-
-        Collision collision = list.getNextCollision();
-        double timeToUpdate = collision.getCollisionTime();
-        while (timeToUpdate <= timeLeft) {
-            currentTime = collision.getCollisionTime();
-
-            Entity a = collision.getA();
-            Entity b = collision.getB();
-            assert a != null;
-            assert b != null;
-            assert a.getContainingTree() != null;
-            assert b.getContainingTree() != null;
-            a.getContainingTree().updateEntityPositions(currentTime);
-            b.getContainingTree().updateEntityPositions(currentTime);
-
-            Tree aTree = a.getContainingTree();
-            Tree bTree = b.getContainingTree();
-            boolean isRegion = false;
-            //region sensors could be configured to be aware of other region sensors so they need
-            //to be checked independently and possibly add each other to both
-            if (a instanceof RegionSensor) {
-                ((RegionSensor) a).addEntity(b);
-                isRegion = true;
-            }
-            if (b instanceof RegionSensor) {
-                ((RegionSensor) b).addEntity(a);
-                isRegion = true;
-            }
-            if (!isRegion) {
-                context.handleCollision(collision);
+    @Override
+    public void findNearest(NearestQuery search) {
+        tree.findNearest(search);
+    }
+
+    @Override
+    protected void initCalcCollision(double timeToCheck) {
+        double horizon = world.getCollisionHorizon();
+        if (horizon > 0) {
+            // the kept collisions only cover half of the horizon
+            if (timeToCheck > horizon * 0.5 || world.haveCollisionSettingsChanged()) {
+                tree.invalidateSubTree();
             }
+            timeToCheck = Math.max(timeToCheck, horizon);
+            checkChangedEntities(timeToCheck);
+        }
+        Arrays.fill(changedEntities, 0, numChanged, null);
+        numChanged = 0;
+        if (pool == null || tree.getEntityCount() <= sequentialCutoff) {
+            tree.initCalcCollision(timeToCheck);
+        } else {
+            InitCollisionTask task = new InitCollisionTask(tree, timeToCheck, sequentialCutoff);
+            pool.invoke(task);
+            world.addNarrowphaseTests(task.getNumNarrowphaseTests());
+            // the nodes are added to the list after the parallel pass since the list isn't
+            // thread safe
+            world.getCollisionList().allCollisionsUpdated();
+        }
+    }
 
-//            assert ensureNoCollisionAfterHandleCollision(collision);
-            assert tree.isEntityCountCorrect();
-
-            timeLeft -= timeToUpdate;
-            if (a.getContainingTree() != null) {
-                aTree.removeEntityFromList(a.getIndexInTree());
-                a.calculateBoundingBox(timeLeft);
-                if (b.getContainingTree() != null) {
-                    bTree.removeEntityFromList(b.getIndexInTree());
-                    b.calculateBoundingBox(timeLeft);
-                    bTree.entityUpdated(timeLeft, b);
-                } else {
-                    bTree.entityRemovedDuringCollision(timeLeft, b, currentTime);
-                }
-                aTree.entityUpdated(timeLeft, a);
-            } else if (b.getContainingTree() != null) {
-                bTree.removeEntityFromList(b.getIndexInTree());
-                aTree.entityRemovedDuringCollision(timeLeft, a, currentTime);
-                b.calculateBoundingBox(timeLeft);
-                bTree.entityUpdated(timeLeft, b);
-            } else {
-                aTree.entityRemovedDuringCollision(timeLeft, a, currentTime);
-                bTree.entityRemovedDuringCollision(timeLeft, b, currentTime);
+    /**
+     * Checks the changed entities that are still in the tree against the quads above them, the
+     * quads whose collisions are recalculated skip the check.
+     */
+    private void checkChangedEntities(double timeToCheck) {
+        for (int i = 0; i < numChanged; i++) {
+            Entity entity = changedEntities[i];
+            Tree child = entity.getContainingTree();
+            if (child == null) {
+                // removed from the world
+                continue;
             }
+            while (child.parent instanceof Quad) {
+                Quad quad = (Quad) child.parent;
+                quad.checkKeptCollision(timeToCheck, entity, child);
+                child = quad;
+            }
+        }
+    }
 
-            assert tree.isEntityCountCorrect();
-            assert list.checkNodeCollision();
-            collision = list.getNextCollision();
-            timeToUpdate = collision.getCollisionTime() - currentTime;
+    @Override
+    public void childCollisionInvalidated(Entity entity) {
+        if (numChanged > 0 && changedEntities[numChanged - 1] == entity) {
+            // the same entity is often changed a few times in a row
+            return;
         }
-        tree = tree.updateAllEntityPositionsAndResize(elapsedTime);
-        assert list.checkNodeCollision();
-        assert list.doAllNodesHaveNoCollision(elapsedTime);
-        assert tree.isEntityCountCorrect();
+        if (numChanged == changedEntities.length) {
+            changedEntities = Arrays.copyOf(changedEntities, numChanged * 2);
+        }
+        changedEntities[numChanged] = entity;
+        numChanged++;
     }
 
-    private boolean ensureNoCollisionAfterHandleCollision(Collision collision) {
-        Collision tempCollision = world.getTempCollision();
-        tempCollision.set(collision);
-        Entity a = tempCollision.getA();
-        Entity b = tempCollision.getB();
-        Shape.collideShapes(a, b, Double.MAX_VALUE, tempCollision);
-        if (tempCollision.getCollisionTime() != CollisionData.NO_COLLISION) {
-            throw new AssertionError(tempCollision.getCollisionTime());
+    @Override
+    protected void finishCalcCollision(double elapsedTime) {
+        tree = tree.updateAllEntityPositionsAndResize(elapsedTime);
+        tryShrink();
+        if (world.getCollisionHorizon() > 0) {
+            // the kept collisions have been moved to the time of the next update
+            world.getCollisionList().allCollisionsUpdated();
         }
-        return true;
+    }
+
+    @Override
+    protected boolean isEntityCountCorrect() {
+        return tree.isEntityCountCorrect();
     }
 
     @Override
@@ -174,62 +338,105 @@ public class SpatialTree implements Parent {
     }
 
     @Override
-    public void childEntityUpdated(double timeToCheck, Entity entity) {
+    public void childEntityUpdated(double timeToCheck, Entity entity, Tree child) {
     }
 
     @Override
     public void relocateAndCheck(double timeToCheck, Entity entity) {
         relocate(entity);
         // TODO adding the entity in the relocate method and then removing it here
-        assert tree == entity.getContainingTree();
-        entity.getContainingTree().removeEntityFromList(entity.getIndexInTree());
-        entity.getContainingTree().relocateAndCheck(timeToCheck, entity);
+        // the entity may have sunk into one of the children of the grown root
+        Tree containingTree = entity.getContainingTree();
+        containingTree.removeEntityFromList(entity.getIndexInTree());
+        containingTree.relocateAndCheck(timeToCheck, entity);
     }
 
     @Override
     public void relocate(Entity entity) {
-        Shape shape = entity.getShape();
-        double centerX = tree.getCenterX(), centerY = tree.getCenterY();
+        growTowards(entity.getX(), entity.getY());
+        tree.addEntity(entity);
+    }
+
+    @Override
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        tree.draw(minX, maxX, minY, maxY, renderer);
+    }
+
+    @Override
+    public void drawStructure(Renderer renderer, RColor color) {
+        tree.drawTree(renderer, color);
+    }
+
+    /**
+     * Shrinks the root once all of the entities have fit in one of its children for
+     * {@link Tree#RESIZE_DELAY} updates in a row, the child becomes the root.  The root keeps
+     * shrinking as long as the entities fit in one child so an entity that flew far away and was
+     * removed doesn't leave a root that is many times bigger than it has to be.  The root never
+     * shrinks below the size that the tree was created with.
+     */
+    private void tryShrink() {
+        Tree child = getShrinkableChild();
+        if (child == null) {
+            numShrinkableUpdates = 0;
+            return;
+        }
+        numShrinkableUpdates++;
+        if (numShrinkableUpdates < Tree.RESIZE_DELAY) {
+            return;
+        }
+        numShrinkableUpdates = 0;
+        while (child != null) {
+            tree = ((Quad) tree).releaseChild(child, this);
+            child = getShrinkableChild();
+        }
+        assert tree.isEntityCountCorrect();
+    }
+
+    private Tree getShrinkableChild() {
+        return tree.getHalfLength() > initHalfLength ? tree.getOnlyOccupiedChild() : null;
+    }
+
+    /**
+     * Doubles the size of the root, the old root becomes the child of the new root that is
+     * furthest from the position.
+     */
+    private void growTowards(double x, double y) {
+        double centerX = getGrownCenter(tree.getCenterX(), tree.getHalfLength(), x);
+        double centerY = getGrownCenter(tree.getCenterY(), tree.getHalfLength(), y);
         Tree topLeft, topRight, bottomLeft, bottomRight;
 
-        if (entity.getX() < tree.getCenterX()) {
-            centerX -= tree.getHalfLength();
-            topLeft = Leaf.createInstance(world);
-            bottomLeft = Leaf.createInstance(world);
-            if (entity.getY() < tree.getCenterY()) {
-                centerY -= tree.getHalfLength();
-                topRight = Leaf.createInstance(world);
+        if (x < tree.getCenterX()) {
+            topLeft = Leaf.createInstance(world, looseness);
+            bottomLeft = Leaf.createInstance(world, looseness);
+            if (y < tree.getCenterY()) {
+                topRight = Leaf.createInstance(world, looseness);
                 bottomRight = tree;
             } else {
-                centerY += tree.getHalfLength();
                 topRight = tree;
-                bottomRight = Leaf.createInstance(world);
+                bottomRight = Leaf.createInstance(world, looseness);
             }
         } else {
-            centerX += tree.getHalfLength();
-            topRight = Leaf.createInstance(world);
-            bottomRight = Leaf.createInstance(world);
-            if (entity.getY() < tree.getCenterY()) {
-                centerY -= tree.getHalfLength();
-                topLeft = Leaf.createInstance(world);
+            topRight = Leaf.createInstance(world, looseness);
+            bottomRight = Leaf.createInstance(world, looseness);
+            if (y < tree.getCenterY()) {
+                topLeft = Leaf.createInstance(world, looseness);
                 bottomLeft = tree;
             } else {
-                centerY += tree.getHalfLength();
                 topLeft = tree;
-                bottomLeft = Leaf.createInstance(world);
+                bottomLeft = Leaf.createInstance(world, looseness);
             }
         }
+        // the new root is a level above the old root so the new leafs are at its depth
+        topLeft.depth = tree.depth;
+        topRight.depth = tree.depth;
+        bottomLeft.depth = tree.depth;
+        bottomRight.depth = tree.depth;
         grow(centerX, centerY, tree.getHalfLength() * 2, topLeft, topRight, bottomLeft,
                 bottomRight);
-        tree.addEntity(entity);
     }
 
-    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
-        tree.draw(minX, maxX, minY, maxY, renderer);
-    }
-
-    public void drawTree(Renderer renderer, RColor color) {
-        tree.drawTree(renderer, color);
+    private static double getGrownCenter(double center, double halfLength, double position) {
+        return position < center ? center - halfLength : center + halfLength;
     }
 
     private void grow(double centerX, double centerY, double halfLength, Tree topLeft, Tree
@@ -243,8 +450,159 @@ public class SpatialTree implements Parent {
         topRight.resize(right, top, quartLength);
         bottomLeft.resize(left, bottom, quartLength);
         bottomRight.resize(right, bottom, quartLength);
-        tree = Quad.createInstance(world, this, centerX, centerY, halfLength, topLeft, topRight,
-                bottomLeft, bottomRight);
+        tree = Quad.createInstance(world, this, centerX, centerY, halfLength, looseness, topLeft,
+                topRight, bottomLeft, bottomRight);
+    }
+
+    /**
+     * Builds the subtree of the sorted entities in the range, the children are built before
+     * their parent so every node is created with its final children and entities.
+     *
+     * @param parent the parent of the subtree, null if the parent is built afterwards
+     * @param level  the level below the node that the codes were calculated for
+     * @param depth  the depth of the node, see {@link Tree#depth}
+     * @return the root of the subtree
+     */
+    private Tree build(Parent parent, double centerX, double centerY, double halfLength, int
+            start, int end, int level, int depth) {
+        if (end - start < world.getSplitThreshold() || depth >= world.getMaxTreeDepth()) {
+            Leaf leaf = Leaf.createInstance(world, parent, centerX, centerY, halfLength,
+                    looseness);
+            leaf.depth = depth;
+            for (int i = start; i < end; i++) {
+                leaf.addBulkEntity(bulkEntities[i]);
+            }
+            return leaf;
+        }
+        if (level == CODE_DEPTH) {
+            // the codes can't tell the entities apart any more
+            sortByMortonCode(start, end, centerX - halfLength, centerY - halfLength, halfLength *
+                    2);
+            level = 0;
+        }
+        int shift = INDEX_BITS + 2 * (CODE_DEPTH - 1 - level);
+        int pendingStart = numPending;
+        double quartLength = halfLength / 2;
+        double left = centerX - quartLength;
+        double right = centerX + quartLength;
+        double top = centerY - quartLength;
+        double bottom = centerY + quartLength;
+
+        // the codes are sorted so the entities of each quadrant are next to each other
+        int runEnd = findRunEnd(start, end, shift, TOP_LEFT);
+        Tree topLeft = buildChild(centerX, centerY, left, top, quartLength, start, runEnd,
+                level, depth);
+        int runStart = runEnd;
+        runEnd = findRunEnd(runStart, end, shift, TOP_RIGHT);
+        Tree topRight = buildChild(centerX, centerY, right, top, quartLength, runStart, runEnd,
+                level, depth);
+        runStart = runEnd;
+        runEnd = findRunEnd(runStart, end, shift, BOTTOM_LEFT);
+        Tree bottomLeft = buildChild(centerX, centerY, left, bottom, quartLength, runStart,
+                runEnd, level, depth);
+        assert findRunEnd(runEnd, end, shift, BOTTOM_RIGHT) == end;
+        Tree bottomRight = buildChild(centerX, centerY, right, bottom, quartLength, runEnd, end,
+                level, depth);
+
+        Quad quad = Quad.createInstance(world, parent, centerX, centerY, halfLength, looseness,
+                topLeft, topRight, bottomLeft, bottomRight);
+        while (numPending > pendingStart) {
+            numPending--;
+            quad.addBulkEntity(bulkPending[numPending]);
+            bulkPending[numPending] = null;
+        }
+        return quad;
+    }
+
+    /**
+     * Builds a child from the entities of its quadrant, the entities that the child doesn't
+     * contain are moved to bulkPending so they stay in the parent.
+     */
+    private Tree buildChild(double parentX, double parentY, double centerX, double centerY,
+                            double halfLength, int start, int end, int level, int depth) {
+        double looseHalfLength = halfLength * looseness;
+        int childEnd = start;
+        for (int i = start; i < end; i++) {
+            Entity entity = bulkEntities[i];
+            // the quadrant is checked the same way as Quad.getContainingChild in case the code
+            // was rounded into the neighbouring quadrant
+            if ((entity.getBBCenterX() < parentX) == (centerX < parentX) && (entity
+                    .getBBCenterY() < parentY) == (centerY < parentY) && Math.abs(centerX -
+                    entity.getBBCenterX()) <= looseHalfLength - entity.getBBHalfWidth() && Math
+                    .abs(centerY - entity.getBBCenterY()) <= looseHalfLength - entity
+                    .getBBHalfHeight()) {
+                bulkEntities[childEnd] = entity;
+                bulkKeys[childEnd] = bulkKeys[i];
+                childEnd++;
+            } else {
+                bulkPending[numPending] = entity;
+                numPending++;
+            }
+        }
+        return build(null, centerX, centerY, halfLength, start, childEnd, level + 1, depth +
+                1);
+    }
+
+    private int findRunEnd(int start, int end, int shift, int quadrant) {
+        int i = start;
+        while (i < end && (int) (bulkKeys[i] >>> shift & 3) == quadrant) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Sorts the entities in the range by the morton code of the center of their bounding box
+     * within the square.
+     */
+    private void sortByMortonCode(int start, int end, double minX, double minY, double length) {
+        long numCells = 1L << CODE_DEPTH;
+        for (int i = start; i < end; i++) {
+            Entity entity = bulkEntities[i];
+            bulkSource[i] = entity;
+            long cellX = getCell(entity.getBBCenterX() - minX, length, numCells);
+            long cellY = getCell(entity.getBBCenterY() - minY, length, numCells);
+            long code = spreadBits(cellX) | spreadBits(cellY) << 1;
+            bulkKeys[i] = code << INDEX_BITS | i;
+        }
+        Arrays.sort(bulkKeys, start, end);
+        for (int i = start; i < end; i++) {
+            bulkEntities[i] = bulkSource[(int) (bulkKeys[i] & INDEX_MASK)];
+        }
+        Arrays.fill(bulkSource, start, end, null);
+    }
+
+    private static long getCell(double position, double length, long numCells) {
+        long cell = (long) (position / length * numCells);
+        return Math.max(0, Math.min(numCells - 1, cell));
+    }
+
+    /**
+     * Spreads the lowest 16 bits out so that there is a 0 bit between each of them.
+     */
+    static long spreadBits(long value) {
+        value = (value | value << 8) & 0x00FF00FFL;
+        value = (value | value << 4) & 0x0F0F0F0FL;
+        value = (value | value << 2) & 0x33333333L;
+        return (value | value << 1) & 0x55555555L;
+    }
+
+    private void ensureBulkCapacity(int count) {
+        assert count <= INDEX_MASK;
+        if (bulkEntities.length >= count) {
+            return;
+        }
+        bulkEntities = new Entity[count];
+        bulkSource = new Entity[count];
+        bulkPending = new Entity[count];
+        bulkKeys = new long[count];
+    }
+
+    private static boolean isBoxContained(double minX, double minY, double maxX, double maxY,
+                                          double centerX, double centerY, double
+                                                  looseHalfLength) {
+        return minX > centerX - looseHalfLength && maxX < centerX + looseHalfLength && minY >
+                centerY - looseHalfLength && maxY < centerY + looseHalfLength;
     }
 
     private boolean isNotContainedInTree(Entity entity) {
@@ -253,9 +611,11 @@ public class SpatialTree implements Parent {
     }
 
     private boolean isContained(double shapePosition, double treePosition, double shapeHalfLength) {
-        return Math.abs(treePosition - shapePosition) < tree.getHalfLength() - shapeHalfLength;
+        return Math.abs(treePosition - shapePosition) < tree.getLooseHalfLength() -
+                shapeHalfLength;
     }
 
+    @Override
     public int getEntityCount() {
         return tree.getEntityCount();
     }
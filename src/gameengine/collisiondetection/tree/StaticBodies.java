@@ -0,0 +1,406 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.NearestQuery;
+import gameengine.collisiondetection.RaycastQuery;
+import gameengine.collisiondetection.RegionQuery;
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+import gameengine.graphics.RColor;
+import gameengine.graphics.Renderer;
+import gameengine.motion.motions.NormalMotion;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Holds the static bodies of a {@link World}, entities with infinite mass that never move, such
+ * as walls.  Static bodies are never updated, relocated or checked against each other, they are
+ * only checked by the nodes of the broadphase against the entities that the nodes hold.
+ * <p>
+ * The static bodies are put into a bounding volume hierarchy that is built once, it is only
+ * rebuilt at the start of the next update after static bodies have been added or removed.  The
+ * static bodies aren't part of any {@link Tree}, each node calls
+ * {@link Tree#collideWithStaticBodies(Collision, double, Entity)} for its entities and the
+ * broadphase recognizes them with {@link Entity#isStaticBody()}.
+ *
+ * @author davidrusu
+ */
+public class StaticBodies {
+    private static final int MAX_LEAF_SIZE = 4;
+    private static final int INITIAL_NUM_NODES = 16;
+    private static final int EXPANSION_FACTOR = 2;
+    private static final Comparator<Entity> X_ORDER = (a, b) -> Double.compare(a.getBBCenterX(),
+            b.getBBCenterX());
+    private static final Comparator<Entity> Y_ORDER = (a, b) -> Double.compare(a.getBBCenterY(),
+            b.getBBCenterY());
+    private final World world;
+    /**
+     * The static bodies in the order that they were added, each body knows its index
+     */
+    private Entity[] bodies = new Entity[INITIAL_NUM_NODES];
+    private int numBodies = 0;
+    /**
+     * The bit mask of the {@link gameengine.collisiondetection.EntityType}s of the static
+     * bodies, types are only removed from it when the static bodies are cleared
+     */
+    private long entityTypeMask = 0;
+
+    /**
+     * The static bodies in the order of the hierarchy, each node holds a range of them
+     */
+    private Entity[] orderedBodies = new Entity[0];
+    private double[] nodeMinX = new double[INITIAL_NUM_NODES];
+    private double[] nodeMinY = new double[INITIAL_NUM_NODES];
+    private double[] nodeMaxX = new double[INITIAL_NUM_NODES];
+    private double[] nodeMaxY = new double[INITIAL_NUM_NODES];
+    private int[] nodeStarts = new int[INITIAL_NUM_NODES];
+    private int[] nodeEnds = new int[INITIAL_NUM_NODES];
+    /**
+     * The index of the second child of each node, the first child is right after the node and
+     * leaves have no second child
+     */
+    private int[] secondChildren = new int[INITIAL_NUM_NODES];
+    private int numNodes = 0;
+    private boolean isBuilt = true;
+    private boolean isCalculatingCollisions = false;
+    private Entity[] removedBodies = new Entity[INITIAL_NUM_NODES];
+    private int numRemovedBodies = 0;
+
+    public StaticBodies(World world) {
+        this.world = world;
+    }
+
+    /**
+     * Checks if the entity can be treated as a static body, it has to have infinite mass, no
+     * velocity and a {@link NormalMotion} so that nothing changes its velocity.
+     */
+    public static boolean isStatic(Entity entity) {
+        return entity.getMass() == Double.POSITIVE_INFINITY && entity.getDX() == 0 && entity
+                .getDY() == 0 && entity.getMotion() instanceof NormalMotion;
+    }
+
+    /**
+     * Rebuilds the hierarchy if static bodies have been added or removed since it was built.
+     *
+     * @return true if the hierarchy has been rebuilt
+     */
+    public boolean ensureBuilt() {
+        if (isBuilt) {
+            return false;
+        }
+        if (orderedBodies.length < numBodies) {
+            orderedBodies = new Entity[bodies.length];
+        }
+        for (int i = 0; i < orderedBodies.length; i++) {
+            orderedBodies[i] = i < numBodies ? bodies[i] : null;
+        }
+        numNodes = 0;
+        if (numBodies > 0) {
+            buildNode(0, numBodies);
+        }
+        isBuilt = true;
+        return true;
+    }
+
+    /**
+     * Called before and after the collisions of an update are handled.  Static bodies that are
+     * removed while the collisions are handled stay in the world until the end of the update
+     * since the collisions that the broadphase has found with them can't be taken back.
+     *
+     * @param isCalculatingCollisions true if the collisions are about to be handled
+     */
+    public void setCalculatingCollisions(boolean isCalculatingCollisions) {
+        this.isCalculatingCollisions = isCalculatingCollisions;
+        if (!isCalculatingCollisions) {
+            for (int i = 0; i < numRemovedBodies; i++) {
+                removeEntityFromWorld(removedBodies[i]);
+                removedBodies[i] = null;
+            }
+            numRemovedBodies = 0;
+        }
+    }
+
+    /**
+     * Checks the entity against the static bodies that its bounding box overlaps, the shapes
+     * are collided by the tree so that the collision time is relative to the tree.
+     *
+     * @param tree        the tree that holds the entity
+     * @param result      the collision to store the earliest collision in
+     * @param timeToCheck the amount of time to check for collisions
+     * @param entity      the entity to check
+     */
+    void checkCollisionWithEntity(Tree tree, Collision result, double timeToCheck, Entity
+            entity) {
+        if (numNodes > 0 && (world.getCollisionMask(entity.getEntityType()) & entityTypeMask) !=
+                0) {
+            assert isBuilt : "static bodies have changed during the update";
+            checkNode(0, tree, result, timeToCheck, entity);
+        }
+    }
+
+    private void checkNode(int index, Tree tree, Collision result, double timeToCheck, Entity
+            entity) {
+        if (entity.getBBMinX() > nodeMaxX[index] || entity.getBBMaxX() < nodeMinX[index] ||
+                entity.getBBMinY() > nodeMaxY[index] || entity.getBBMaxY() < nodeMinY[index]) {
+            return;
+        }
+        int secondChild = secondChildren[index];
+        if (secondChild == -1) {
+            for (int i = nodeStarts[index]; i < nodeEnds[index]; i++) {
+                // a leaf can be as large as the whole level, such as the four walls around it,
+                // so each body is checked against the bounding box before the narrowphase
+                Entity body = orderedBodies[i];
+                if (entity.getBBMinX() <= body.getBBMaxX() && entity.getBBMaxX() >= body
+                        .getBBMinX() && entity.getBBMinY() <= body.getBBMaxY() && entity
+                        .getBBMaxY() >= body.getBBMinY()) {
+                    tree.collideShapes(result, timeToCheck, entity, body);
+                }
+            }
+        } else {
+            checkNode(index + 1, tree, result, timeToCheck, entity);
+            checkNode(secondChild, tree, result, timeToCheck, entity);
+        }
+    }
+
+    public void query(RegionQuery query) {
+        if (!isBuilt) {
+            // the hierarchy is only rebuilt by the world at the start of the update
+            if (!query.canSkip(entityTypeMask)) {
+                for (int i = 0; i < numBodies; i++) {
+                    query.test(bodies[i]);
+                }
+            }
+        } else if (numNodes > 0 && !query.canSkip(entityTypeMask)) {
+            queryNode(0, query);
+        }
+    }
+
+    private void queryNode(int index, RegionQuery query) {
+        if (!query.isOverlapping(nodeMinX[index], nodeMinY[index], nodeMaxX[index],
+                nodeMaxY[index])) {
+            return;
+        }
+        int secondChild = secondChildren[index];
+        if (secondChild == -1) {
+            for (int i = nodeStarts[index]; i < nodeEnds[index]; i++) {
+                query.test(orderedBodies[i]);
+            }
+        } else {
+            queryNode(index + 1, query);
+            queryNode(secondChild, query);
+        }
+    }
+
+    public void raycast(RaycastQuery raycast) {
+        if (!isBuilt) {
+            if (!raycast.canSkip(entityTypeMask)) {
+                for (int i = 0; i < numBodies; i++) {
+                    raycast.test(bodies[i]);
+                }
+            }
+        } else if (numNodes > 0 && !raycast.canSkip(entityTypeMask)) {
+            raycastNode(0, raycast);
+        }
+    }
+
+    private void raycastNode(int index, RaycastQuery raycast) {
+        if (nodeEntryDistance(index, raycast) == Double.POSITIVE_INFINITY) {
+            return;
+        }
+        int secondChild = secondChildren[index];
+        if (secondChild == -1) {
+            for (int i = nodeStarts[index]; i < nodeEnds[index]; i++) {
+                raycast.test(orderedBodies[i]);
+            }
+        } else if (nodeEntryDistance(index + 1, raycast) <= nodeEntryDistance(secondChild,
+                raycast)) {
+            // nearest first so the ray is shortened before the farther child is visited
+            raycastNode(index + 1, raycast);
+            raycastNode(secondChild, raycast);
+        } else {
+            raycastNode(secondChild, raycast);
+            raycastNode(index + 1, raycast);
+        }
+    }
+
+    private double nodeEntryDistance(int index, RaycastQuery raycast) {
+        return raycast.entryDistance(nodeMinX[index], nodeMinY[index], nodeMaxX[index],
+                nodeMaxY[index]);
+    }
+
+    public void findNearest(NearestQuery search) {
+        if (!isBuilt) {
+            if (!search.canSkip(entityTypeMask)) {
+                for (int i = 0; i < numBodies; i++) {
+                    search.test(bodies[i]);
+                }
+            }
+        } else if (numNodes > 0 && !search.canSkip(entityTypeMask)) {
+            findNearestInNode(0, search);
+        }
+    }
+
+    private void findNearestInNode(int index, NearestQuery search) {
+        if (nodeDistanceSquared(index, search) > search.getBoundSquared()) {
+            return;
+        }
+        int secondChild = secondChildren[index];
+        if (secondChild == -1) {
+            for (int i = nodeStarts[index]; i < nodeEnds[index]; i++) {
+                search.test(orderedBodies[i]);
+            }
+        } else if (nodeDistanceSquared(index + 1, search) <= nodeDistanceSquared(secondChild,
+                search)) {
+            findNearestInNode(index + 1, search);
+            findNearestInNode(secondChild, search);
+        } else {
+            findNearestInNode(secondChild, search);
+            findNearestInNode(index + 1, search);
+        }
+    }
+
+    private double nodeDistanceSquared(int index, NearestQuery search) {
+        return search.distanceSquared(nodeMinX[index], nodeMinY[index], nodeMaxX[index],
+                nodeMaxY[index]);
+    }
+
+    /**
+     * Builds the node for the static bodies in the range, the bodies are split in half along
+     * the longer side of the node.
+     *
+     * @return the index of the node
+     */
+    private int buildNode(int start, int end) {
+        if (numNodes == nodeStarts.length) {
+            expandNodes();
+        }
+        int index = numNodes;
+        numNodes++;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = start; i < end; i++) {
+            Entity body = orderedBodies[i];
+            minX = Math.min(minX, body.getBBMinX());
+            minY = Math.min(minY, body.getBBMinY());
+            maxX = Math.max(maxX, body.getBBMaxX());
+            maxY = Math.max(maxY, body.getBBMaxY());
+        }
+        nodeMinX[index] = minX;
+        nodeMinY[index] = minY;
+        nodeMaxX[index] = maxX;
+        nodeMaxY[index] = maxY;
+        nodeStarts[index] = start;
+        nodeEnds[index] = end;
+        if (end - start <= MAX_LEAF_SIZE) {
+            secondChildren[index] = -1;
+            return index;
+        }
+        Arrays.sort(orderedBodies, start, end, maxX - minX > maxY - minY ? X_ORDER : Y_ORDER);
+        int middle = (start + end) / 2;
+        buildNode(start, middle);
+        // the arrays may be expanded while the child is built so the array has to be read after
+        int secondChild = buildNode(middle, end);
+        secondChildren[index] = secondChild;
+        return index;
+    }
+
+    private void expandNodes() {
+        int capacity = nodeStarts.length * EXPANSION_FACTOR;
+        nodeMinX = Arrays.copyOf(nodeMinX, capacity);
+        nodeMinY = Arrays.copyOf(nodeMinY, capacity);
+        nodeMaxX = Arrays.copyOf(nodeMaxX, capacity);
+        nodeMaxY = Arrays.copyOf(nodeMaxY, capacity);
+        nodeStarts = Arrays.copyOf(nodeStarts, capacity);
+        nodeEnds = Arrays.copyOf(nodeEnds, capacity);
+        secondChildren = Arrays.copyOf(secondChildren, capacity);
+    }
+
+    public void addEntity(Entity entity) {
+        assert !isCalculatingCollisions : "static bodies can't be added while handling collisions";
+        assert isStatic(entity) : "static bodies must have infinite mass and no velocity";
+        entity.calculateBoundingBox(0);
+        if (numBodies == bodies.length) {
+            bodies = Arrays.copyOf(bodies, numBodies * EXPANSION_FACTOR);
+        }
+        bodies[numBodies] = entity;
+        entity.setStaticBodies(this, numBodies);
+        numBodies++;
+        entityTypeMask |= entity.getEntityTypeBitMask();
+        isBuilt = false;
+    }
+
+    public void removeEntityFromWorld(Entity entity) {
+        if (isCalculatingCollisions) {
+            if (numRemovedBodies == removedBodies.length) {
+                removedBodies = Arrays.copyOf(removedBodies, numRemovedBodies * EXPANSION_FACTOR);
+            }
+            removedBodies[numRemovedBodies] = entity;
+            numRemovedBodies++;
+            return;
+        }
+        if (entity.getStaticBodies() != this) {
+            // removed more than once during the same update
+            return;
+        }
+        int index = entity.getIndexInTree();
+        numBodies--;
+        Entity relocated = bodies[numBodies];
+        bodies[index] = relocated;
+        relocated.setIndexInTree(index);
+        bodies[numBodies] = null;
+        entity.setStaticBodies(null, -1);
+        isBuilt = false;
+    }
+
+    /**
+     * Called after the type of a static body has been changed.
+     *
+     * @param entity the static body whose type has been changed
+     */
+    public void entityTypeChanged(Entity entity) {
+        entityTypeMask |= entity.getEntityTypeBitMask();
+    }
+
+    public void clear() {
+        for (int i = 0; i < numBodies; i++) {
+            bodies[i].setStaticBodies(null, -1);
+            bodies[i] = null;
+        }
+        for (int i = 0; i < orderedBodies.length; i++) {
+            orderedBodies[i] = null;
+        }
+        for (int i = 0; i < numRemovedBodies; i++) {
+            removedBodies[i] = null;
+        }
+        numRemovedBodies = 0;
+        numBodies = 0;
+        entityTypeMask = 0;
+        numNodes = 0;
+        isBuilt = true;
+    }
+
+    public void draw(double minX, double maxX, double minY, double maxY, Renderer renderer) {
+        for (int i = 0; i < numBodies; i++) {
+            Entity entity = bodies[i];
+            if (entity.getBBMinX() < maxX && entity.getBBMaxX() > minX && entity.getBBMinY() <
+                    maxY && entity.getBBMaxY() > minY) {
+                entity.draw(renderer);
+            }
+        }
+    }
+
+    public void drawTree(Renderer renderer, RColor color) {
+        renderer.setForegroundColor(color);
+        for (int i = 0; i < numNodes; i++) {
+            double halfWidth = (nodeMaxX[i] - nodeMinX[i]) * 0.5;
+            double halfHeight = (nodeMaxY[i] - nodeMinY[i]) * 0.5;
+            renderer.drawRect(nodeMinX[i] + halfWidth, nodeMinY[i] + halfHeight, halfWidth,
+                    halfHeight);
+        }
+    }
+
+    public int getEntityCount() {
+        return numBodies;
+    }
+}
@@ -0,0 +1,283 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.World;
+import gameengine.entities.Entity;
+
+/**
+ * A sweep and prune broadphase that keeps the end points of every bounding box sorted on the x
+ * and y axes between updates.  Entities only move a little each update so the end points are
+ * nearly sorted and insertion sort only has to do a few swaps, each swap between the end points
+ * of two different entities is where their bounding boxes start or stop overlapping so the set
+ * of overlapping pairs is kept up to date with the swaps.  Only the overlapping pairs are
+ * checked for collisions.
+ *
+ * @author davidrusu
+ */
+public class SweepAndPrune extends PairBroadphase {
+    static final int NUM_AXES = 2;
+    private static final int X_AXIS = 0;
+    private static final int Y_AXIS = 1;
+    /**
+     * The sorted end points of each axis, each proxy has a min and a max end point in each axis
+     */
+    private double[][] values = new double[NUM_AXES][INITIAL_CAPACITY * 2];
+    private SweepAndPruneProxy[][] owners = new SweepAndPruneProxy[NUM_AXES][INITIAL_CAPACITY *
+            2];
+    private boolean[][] isMax = new boolean[NUM_AXES][INITIAL_CAPACITY * 2];
+    private int numEndPoints = 0;
+
+    public SweepAndPrune(World world) {
+        super(world);
+    }
+
+    @Override
+    protected PairProxy createProxy(int id) {
+        return SweepAndPruneProxy.createInstance(world, this, id);
+    }
+
+    @Override
+    protected void proxyAdded(PairProxy pairProxy) {
+        SweepAndPruneProxy proxy = (SweepAndPruneProxy) pairProxy;
+        Entity entity = proxy.getEntity();
+        if (numEndPoints + 2 > values[X_AXIS].length) {
+            expandEndPoints();
+        }
+        for (int axis = 0; axis < NUM_AXES; axis++) {
+            setEndPoint(axis, numEndPoints, getMin(entity, axis), proxy, false);
+            setEndPoint(axis, numEndPoints + 1, getMax(entity, axis), proxy, true);
+        }
+        numEndPoints += 2;
+        // the new end points are at the end of both axes, the pairs in the first axis are added
+        // once the end points of the second axis are in place
+        for (int axis = 0; axis < NUM_AXES; axis++) {
+            moveLeft(axis, proxy.minIndexes[axis]);
+            moveLeft(axis, proxy.maxIndexes[axis]);
+        }
+    }
+
+    @Override
+    protected void proxyRemoved(PairProxy pairProxy) {
+        SweepAndPruneProxy proxy = (SweepAndPruneProxy) pairProxy;
+        for (int axis = 0; axis < NUM_AXES; axis++) {
+            // the max end point is after the min end point so it is removed first
+            removeEndPoint(axis, proxy.maxIndexes[axis], numEndPoints);
+            removeEndPoint(axis, proxy.minIndexes[axis], numEndPoints - 1);
+        }
+        numEndPoints -= 2;
+    }
+
+    @Override
+    protected void clearPairs() {
+        for (int axis = 0; axis < NUM_AXES; axis++) {
+            for (int i = 0; i < numEndPoints; i++) {
+                owners[axis][i] = null;
+            }
+        }
+        numEndPoints = 0;
+    }
+
+    /**
+     * Sweeps the x axis, two proxies overlap on the x axis when the min end point of one is
+     * between the end points of the other so each pair is found from the proxy whose min end
+     * point comes first.
+     */
+    @Override
+    protected void findAllPairs() {
+        SweepAndPruneProxy[] xOwners = owners[X_AXIS];
+        boolean[] xIsMax = isMax[X_AXIS];
+        for (int i = 0; i < numEndPoints; i++) {
+            if (xIsMax[i]) {
+                continue;
+            }
+            SweepAndPruneProxy proxy = xOwners[i];
+            int maxIndex = proxy.maxIndexes[X_AXIS];
+            for (int j = i + 1; j < maxIndex; j++) {
+                SweepAndPruneProxy other = xOwners[j];
+                if (!xIsMax[j] && isOverlapping(proxy, other, Y_AXIS)) {
+                    addPair(proxy, other);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void ensureEntitiesAreContained(double time) {
+        for (int i = 0; i < numProxies; i++) {
+            SweepAndPruneProxy proxy = (SweepAndPruneProxy) proxies[i];
+            proxy.ensureEntitiesAreContained(time);
+            Entity entity = proxy.getEntity();
+            for (int axis = 0; axis < NUM_AXES; axis++) {
+                values[axis][proxy.minIndexes[axis]] = getMin(entity, axis);
+                values[axis][proxy.maxIndexes[axis]] = getMax(entity, axis);
+            }
+        }
+        for (int axis = 0; axis < NUM_AXES; axis++) {
+            sortAxis(axis);
+        }
+        findPairsIfStale();
+        assert areAxesSorted();
+    }
+
+    /**
+     * Moves the end points of the proxy to their new place after the bounding box of its entity
+     * has changed.  The end point that moves away from the other end point is moved first so
+     * that the two end points never pass each other.
+     */
+    @Override
+    protected void proxyMoved(PairProxy pairProxy) {
+        SweepAndPruneProxy proxy = (SweepAndPruneProxy) pairProxy;
+        Entity entity = proxy.getEntity();
+        for (int axis = 0; axis < NUM_AXES; axis++) {
+            int minIndex = proxy.minIndexes[axis];
+            int maxIndex = proxy.maxIndexes[axis];
+            double max = getMax(entity, axis);
+            boolean isMaxIncreasing = max > values[axis][maxIndex];
+            values[axis][minIndex] = getMin(entity, axis);
+            values[axis][maxIndex] = max;
+            if (isMaxIncreasing) {
+                moveEndPoint(axis, maxIndex);
+                moveEndPoint(axis, proxy.minIndexes[axis]);
+            } else {
+                moveEndPoint(axis, minIndex);
+                moveEndPoint(axis, proxy.maxIndexes[axis]);
+            }
+        }
+    }
+
+    private void moveEndPoint(int axis, int index) {
+        index = moveLeft(axis, index);
+        double[] axisValues = values[axis];
+        while (index + 1 < numEndPoints && axisValues[index + 1] < axisValues[index]) {
+            swap(axis, index);
+            index++;
+        }
+    }
+
+    private int moveLeft(int axis, int index) {
+        double[] axisValues = values[axis];
+        while (index > 0 && axisValues[index - 1] > axisValues[index]) {
+            swap(axis, index - 1);
+            index--;
+        }
+        return index;
+    }
+
+    private void sortAxis(int axis) {
+        for (int i = 1; i < numEndPoints; i++) {
+            moveLeft(axis, i);
+        }
+    }
+
+    /**
+     * Swaps the end point at the index with the one after it.  If the end points belong to
+     * different proxies then the proxies either start or stop overlapping on this axis.
+     */
+    private void swap(int axis, int index) {
+        double[] axisValues = values[axis];
+        SweepAndPruneProxy[] axisOwners = owners[axis];
+        boolean[] axisIsMax = isMax[axis];
+        SweepAndPruneProxy left = axisOwners[index];
+        SweepAndPruneProxy right = axisOwners[index + 1];
+        boolean isLeftMax = axisIsMax[index];
+        boolean isRightMax = axisIsMax[index + 1];
+        double leftValue = axisValues[index];
+        setEndPoint(axis, index, axisValues[index + 1], right, isRightMax);
+        setEndPoint(axis, index + 1, leftValue, left, isLeftMax);
+
+        if (left == right || isLeftMax == isRightMax) {
+            return;
+        }
+        if (isLeftMax) {
+            // the min of the right proxy moved before the max of the left proxy
+            if (isOverlapping(left, right, otherAxis(axis))) {
+                addPair(left, right);
+            }
+        } else {
+            // the max of the right proxy moved before the min of the left proxy
+            removePair(left, right);
+        }
+    }
+
+    private void setEndPoint(int axis, int index, double value, SweepAndPruneProxy owner,
+                             boolean isMaxEndPoint) {
+        values[axis][index] = value;
+        owners[axis][index] = owner;
+        isMax[axis][index] = isMaxEndPoint;
+        if (isMaxEndPoint) {
+            owner.maxIndexes[axis] = index;
+        } else {
+            owner.minIndexes[axis] = index;
+        }
+    }
+
+    private void removeEndPoint(int axis, int index, int end) {
+        double[] axisValues = values[axis];
+        SweepAndPruneProxy[] axisOwners = owners[axis];
+        boolean[] axisIsMax = isMax[axis];
+        for (int i = index + 1; i < end; i++) {
+            setEndPoint(axis, i - 1, axisValues[i], axisOwners[i], axisIsMax[i]);
+        }
+        axisOwners[end - 1] = null;
+    }
+
+    private void expandEndPoints() {
+        int capacity = values[X_AXIS].length * EXPANSION_FACTOR;
+        for (int axis = 0; axis < NUM_AXES; axis++) {
+            double[] tempValues = new double[capacity];
+            System.arraycopy(values[axis], 0, tempValues, 0, numEndPoints);
+            values[axis] = tempValues;
+            SweepAndPruneProxy[] tempOwners = new SweepAndPruneProxy[capacity];
+            System.arraycopy(owners[axis], 0, tempOwners, 0, numEndPoints);
+            owners[axis] = tempOwners;
+            boolean[] tempIsMax = new boolean[capacity];
+            System.arraycopy(isMax[axis], 0, tempIsMax, 0, numEndPoints);
+            isMax[axis] = tempIsMax;
+        }
+    }
+
+    /**
+     * Checks if the proxies overlap on the axis using the order of their end points
+     */
+    private static boolean isOverlapping(SweepAndPruneProxy a, SweepAndPruneProxy b, int axis) {
+        return a.minIndexes[axis] < b.maxIndexes[axis] && b.minIndexes[axis] < a
+                .maxIndexes[axis];
+    }
+
+    private static int otherAxis(int axis) {
+        return axis == X_AXIS ? Y_AXIS : X_AXIS;
+    }
+
+    private static double getMin(Entity entity, int axis) {
+        return axis == X_AXIS ? entity.getBBMinX() : entity.getBBMinY();
+    }
+
+    private static double getMax(Entity entity, int axis) {
+        return axis == X_AXIS ? entity.getBBMaxX() : entity.getBBMaxY();
+    }
+
+    //------------------------------ testing methods --------------------------------
+
+    private boolean areAxesSorted() {
+        for (int axis = 0; axis < NUM_AXES; axis++) {
+            for (int i = 1; i < numEndPoints; i++) {
+                assert values[axis][i - 1] <= values[axis][i] : "axis " + axis + " is not sorted";
+            }
+            for (int i = 0; i < numEndPoints; i++) {
+                SweepAndPruneProxy owner = owners[axis][i];
+                int index = isMax[axis][i] ? owner.maxIndexes[axis] : owner.minIndexes[axis];
+                assert index == i : "end point index doesn't match";
+            }
+        }
+        for (int i = 0; i < numProxies; i++) {
+            SweepAndPruneProxy a = (SweepAndPruneProxy) proxies[i];
+            for (int j = i + 1; j < numProxies; j++) {
+                SweepAndPruneProxy b = (SweepAndPruneProxy) proxies[j];
+                boolean isPair = isOverlapping(a, b, X_AXIS) && isOverlapping(a, b, Y_AXIS) &&
+                        canPair(a, b);
+                assert isPair == a.isPartner(b) : "pair doesn't match the end points";
+                assert a.isPartner(b) == b.isPartner(a);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,38 @@
+package gameengine.collisiondetection.tree;
+
+import gameengine.collisiondetection.World;
+
+/**
+ * Holds a single entity of the {@link SweepAndPrune} broadphase.  The proxy knows where the end
+ * points of the entity's bounding box are in the sorted axes, its partners are the proxies that
+ * the bounding box overlaps.
+ *
+ * @author davidrusu
+ */
+public class SweepAndPruneProxy extends PairProxy {
+    /**
+     * The index of the min and max end points in each axis
+     */
+    final int[] minIndexes = new int[SweepAndPrune.NUM_AXES];
+    final int[] maxIndexes = new int[SweepAndPrune.NUM_AXES];
+
+    private SweepAndPruneProxy() {
+        super();
+    }
+
+    public static SweepAndPruneProxy createInstance(World world, SweepAndPrune sweepAndPrune,
+                                                    int id) {
+        SweepAndPruneProxy proxy = world.getNodePools().sweepAndPruneProxies.take();
+        if (proxy == null) {
+            proxy = new SweepAndPruneProxy();
+        }
+        proxy.init(world, sweepAndPrune, id);
+        return proxy;
+    }
+
+    @Override
+    public void recycle() {
+        super.recycle();
+        pools.sweepAndPruneProxies.recycle(this);
+    }
+}
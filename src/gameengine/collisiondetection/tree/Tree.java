@@ -2,10 +2,13 @@ package gameengine.collisiondetection.tree;
 
 import Utilities.UnorderedArrayList;
 import gameengine.collisiondetection.Collision;
+import gameengine.collisiondetection.NearestQuery;
+import gameengine.collisiondetection.RaycastQuery;
+import gameengine.collisiondetection.RegionQuery;
 import gameengine.collisiondetection.World;
+import gameengine.collisiondetection.shapes.CollisionData;
 import gameengine.collisiondetection.shapes.Shape;
 import gameengine.entities.Entity;
-import gameengine.entities.RegionSensor;
 import gameengine.graphics.RColor;
 import gameengine.graphics.Renderer;
 import gameengine.motion.environmentmotions.WorldEffect;
@@ -16,46 +19,115 @@ import gameengine.motion.environmentmotions.WorldEffect;
  * @author davidrusu
  */
 public abstract class Tree {
+    /**
+     * The default number of entities that a leaf splits at, see
+     * {@link World#setTreeThresholds(int, int)}
+     */
     public static final int GROW_THRESH = 2;
+    /**
+     * By default a quad whose subtree holds at most this many entities is merged back into a
+     * leaf, it is below {@link #GROW_THRESH} so the merged leaf doesn't split again until an
+     * entity is added
+     */
+    public static final int MERGE_THRESH = GROW_THRESH - 1;
+    /**
+     * The number of updates in a row that a quad has to be at or below the merge threshold
+     * before it is merged, and that the entities of the root have to fit in one of its
+     * children before the root is shrunk, so that the tree doesn't thrash between splitting and
+     * merging when entities move back and forth
+     */
+    public static final int RESIZE_DELAY = 30;
+    /**
+     * The looseness of a regular quadtree, the bounds of each node are exactly its area
+     */
+    public static final double STRICT_LOOSENESS = 1;
     private static final double EXPAND_RATE = 1.5;
     protected World world = null;
+    /**
+     * The pools of the world that this node belongs to, kept after the node is cleared so that
+     * it can be recycled into them
+     */
+    NodePools pools = null;
     protected double centerX, centerY, halfLength, minX, minY, maxX, maxY;
+    protected double looseness = STRICT_LOOSENESS, looseHalfLength;
     protected double timeInTree = 0;
     protected Entity[] entities = new Entity[GROW_THRESH + 2];
     protected int entityListPos, entityCount;
+    /**
+     * The bit mask of the {@link gameengine.collisiondetection.EntityType}s of the entities in
+     * this node and below.  Types are added as entities are added and only removed when the
+     * mask is recalculated at the end of the update, so it may contain types that have left.
+     */
+    protected long entityTypeMask = 0;
+    /**
+     * True if the collision of this node has been calculated at the start of an update and none
+     * of the entities in this node or below have been changed, added or removed since.  Only
+     * used when the world has a collision horizon, see {@link World#setCollisionHorizon(double)}.
+     */
+    protected boolean isCollisionCurrent = false;
+    /**
+     * The amount of time from the start of the update that the collision of this node covers
+     */
+    protected double collisionHorizon = 0;
     protected Parent parent;
     protected CollisionNode node = new CollisionNode();
+    /**
+     * The number of levels that this node is below the root that the tree was created with, the
+     * roots that the tree grows into have negative depths
+     */
+    protected int depth = 0;
 
     public Tree() {
     }
 
-    public Tree(World world) {
+    public Tree(World world, double looseness) {
         assert world != null;
         this.world = world;
-        init(world);
+        init(world, looseness);
     }
 
-    public Tree(World world, Parent parent, double centerX, double centerY, double halfLength) {
+    public Tree(World world, Parent parent, double centerX, double centerY, double halfLength,
+                double looseness) {
         assert world != null;
         this.world = world;
-        init(world, parent, centerX, centerY, halfLength);
+        init(world, parent, centerX, centerY, halfLength, looseness);
     }
 
-    protected void init(World world) {
+    protected void init(World world, double looseness) {
         assert world != null;
+        assert looseness >= STRICT_LOOSENESS : "looseness: " + looseness;
         this.world = world;
+        pools = world.getNodePools();
+        this.looseness = looseness;
         world.getCollisionList().add(node);
+        ensureInitialCapacity();
     }
 
     protected void init(World world, Parent parent, double centerX, double centerY, double
-            halfLength) {
+            halfLength, double looseness) {
         assert world != null;
+        assert looseness >= STRICT_LOOSENESS : "looseness: " + looseness;
         this.world = world;
+        pools = world.getNodePools();
         this.parent = parent;
+        this.looseness = looseness;
         world.getCollisionList().add(node);
+        ensureInitialCapacity();
         resize(centerX, centerY, halfLength);
     }
 
+    /**
+     * Makes the list of this node big enough to hold the initial number of entities of the
+     * world's nodes without growing, see {@link World#setInitialNodeCapacity(int)}.
+     */
+    protected void ensureInitialCapacity() {
+        assert entityListPos == 0;
+        int capacity = world.getInitialNodeCapacity();
+        if (entities.length < capacity) {
+            entities = new Entity[capacity];
+        }
+    }
+
     public double getCenterX() {
         return centerX;
     }
@@ -68,6 +140,20 @@ public abstract class Tree {
         return halfLength;
     }
 
+    /**
+     * Returns half the side length of the loose bounds of this tree, entities that are
+     * contained in this tree are within this distance of the center.
+     *
+     * @return half the side length of the loose bounds
+     */
+    public double getLooseHalfLength() {
+        return looseHalfLength;
+    }
+
+    public double getLooseness() {
+        return looseness;
+    }
+
     public double getMinX() {
         return minX;
     }
@@ -95,7 +181,11 @@ public abstract class Tree {
         parent = null;
         entityCount = 0;
         entityListPos = 0;
+        entityTypeMask = 0;
+        isCollisionCurrent = false;
+        collisionHorizon = 0;
         timeInTree = 0;
+        depth = 0;
         world.getCollisionList().remove(node);
         world = null;
         node.clear();
@@ -107,11 +197,12 @@ public abstract class Tree {
     }
 
     private boolean isContained(double shapePosition, double treePosition, double shapeHalfLength) {
-        return Math.abs(treePosition - shapePosition) <= getHalfLength() - shapeHalfLength;
+        return Math.abs(treePosition - shapePosition) <= looseHalfLength - shapeHalfLength;
     }
 
     public void removeEntityFromList(int index) {
         assert entityListPos > 0;
+        invalidateCollision(entities[index]);
         entityListPos--;
         Entity relocated = entities[entityListPos];
         entities[index] = relocated;
@@ -134,15 +225,26 @@ public abstract class Tree {
     }
 
     protected void collideShapes(Collision result, double timeToCheck, Entity a, Entity b) {
-        if ((world.getCollisionGroups()[a.getEntityType()] & b.getEntityTypeBitMask()) == 0 || a
-                instanceof RegionSensor && ((RegionSensor) a).containsEntity(b) || b instanceof
-                RegionSensor && ((RegionSensor) b).containsEntity(a)) {
+        // sleeping entities don't move so they can't start colliding with each other
+        if (!world.canCollide(a.getEntityType(), b.getEntityType()) || a.isSleeping() && b
+                .isSleeping()) {
+            return;
+        }
+        if (world.isOverCollisionBudget() && a.getMass() != Double.POSITIVE_INFINITY && b
+                .getMass() != Double.POSITIVE_INFINITY) {
+            // left to the overlap separation of the world
             return;
         }
+        world.narrowphaseTested();
         Collision temp = world.getTempCollision();
         temp.setNoCollision(); // TODO might not need to do this because collideShapes
         // overwrites temp anyway
         Shape.collideShapes(a, b, timeToCheck, temp);
+        if (a.getNumContacts() > 0 && temp.getCollisionTime() != CollisionData.NO_COLLISION &&
+                world.getRestingContacts().isRestingCollision(temp)) {
+            // the contact keeps the entities apart
+            return;
+        }
         if (temp.getCollisionTime() < result.getCollisionTime() - timeInTree) {
             assert temp.getCollisionTime() <= timeToCheck : "too long" + temp.getCollisionTime()
                     + ", " + timeToCheck;
@@ -151,6 +253,14 @@ public abstract class Tree {
         }
     }
 
+    /**
+     * Checks the entity against the static bodies of the world, the entity has to be in this
+     * node.
+     */
+    protected void collideWithStaticBodies(Collision result, double timeToCheck, Entity entity) {
+        world.getStaticBodies().checkCollisionWithEntity(this, result, timeToCheck, entity);
+    }
+
     protected void preRelocateRemove(int i) {
         removeEntityFromList(i);
         entityCount--;
@@ -172,38 +282,272 @@ public abstract class Tree {
         entities[entityListPos] = entity;
         entity.setContainingTree(this, entityListPos);
         entityListPos++;
+        addToTypeMask(entity.getEntityTypeBitMask());
+        invalidateCollision(entity);
+    }
+
+    /**
+     * Adds the entity to the list of this node while the tree is built by
+     * {@link SpatialTree#addEntities(java.util.Collection)}.  The node doesn't have a parent yet
+     * so only the count and the type mask of this node are updated, the parent picks them up
+     * from its children once it is created.
+     *
+     * @param entity the entity to add
+     */
+    void addBulkEntity(Entity entity) {
+        if (entityListPos == entities.length) {
+            Entity[] temp = entities;
+            entities = new Entity[(int) (temp.length * EXPAND_RATE) + 1];
+            System.arraycopy(temp, 0, entities, 0, entityListPos);
+        }
+        entities[entityListPos] = entity;
+        entity.setContainingTree(this, entityListPos);
+        entityListPos++;
+        entityCount++;
+        entityTypeMask |= entity.getEntityTypeBitMask();
+    }
+
+    /**
+     * @return the only child of this node that has any entities if none of the entities are in
+     * the list of this node, null otherwise
+     */
+    Tree getOnlyOccupiedChild() {
+        return null;
+    }
+
+    /**
+     * Copies the entities of this node and below into the array.
+     *
+     * @param dest  the array to copy the entities into, must have room for all of them
+     * @param index the index of dest to copy the first entity to
+     * @return the index after the last entity that was copied
+     */
+    int collectEntities(Entity[] dest, int index) {
+        System.arraycopy(entities, 0, dest, index, entityListPos);
+        return index + entityListPos;
+    }
+
+    /**
+     * Called after the type of an entity in this node has been changed.
+     *
+     * @param entity the entity whose type has been changed
+     */
+    public void entityTypeChanged(Entity entity) {
+        addToTypeMask(entity.getEntityTypeBitMask());
+        invalidateCollision(entity);
+    }
+
+    /**
+     * Called when an entity in this node has been changed, added or removed so the collision of
+     * this node has to be recalculated in the next update.  The ancestors only recalculate
+     * their collisions if they are with the entity, the rest of them keep their collisions and
+     * the entity is checked against them at the start of the next update, see
+     * {@link Parent#childCollisionInvalidated(Entity)}.  Nothing is done when the world doesn't
+     * have a collision horizon since the collisions aren't kept then.
+     *
+     * @param entity the entity that has been changed, added or removed
+     */
+    public void invalidateCollision(Entity entity) {
+        if (world.getCollisionHorizon() == 0) {
+            return;
+        }
+        isCollisionCurrent = false;
+        parent.childCollisionInvalidated(entity);
+    }
+
+    /**
+     * Makes every node of this subtree recalculate its collision in the next update.
+     */
+    void invalidateSubTree() {
+        isCollisionCurrent = false;
+    }
+
+    /**
+     * Called once the collision of this node has been calculated at the start of an update.
+     *
+     * @param timeToCheck the amount of time that the collision was calculated for
+     */
+    protected void collisionCalculated(double timeToCheck) {
+        isCollisionCurrent = true;
+        collisionHorizon = timeToCheck;
+    }
+
+    /**
+     * Called at the end of the update, the collision of this node is kept for the next update if
+     * the world has a collision horizon, nothing that the collision depends on has changed and
+     * it still covers at least half of the horizon.  Kept collisions are moved to the time of the
+     * next update, the {@link CollisionList} has to be restored afterwards.
+     *
+     * @param elapsedTime the amount of time that the update covered
+     */
+    protected void carryCollisionOver(double elapsedTime) {
+        double horizon = world.getCollisionHorizon();
+        collisionHorizon -= elapsedTime;
+        Collision collision = node.getCollision();
+        if (horizon == 0 || !isCollisionCurrent || collisionHorizon < horizon * 0.5) {
+            isCollisionCurrent = false;
+            collision.setNoCollision();
+        } else if (collision.getCollisionTime() != CollisionData.NO_COLLISION) {
+            collision.setCollisionTime(collision.getCollisionTime() - elapsedTime);
+        }
+    }
+
+    /**
+     * Adds the types to the type mask of this node and of its ancestors.
+     *
+     * @param typeBitMask the bit mask of the types to add
+     */
+    public void addToTypeMask(long typeBitMask) {
+        if ((entityTypeMask & typeBitMask) == typeBitMask) {
+            return;
+        }
+        entityTypeMask |= typeBitMask;
+        parent.addToTypeMask(typeBitMask);
+    }
+
+    /**
+     * Calculates the type mask of the entities in the list of this node, the entities below
+     * this node are not included.
+     */
+    protected long calcListTypeMask() {
+        long mask = 0;
+        for (int i = 0; i < entityListPos; i++) {
+            mask |= entities[i].getEntityTypeBitMask();
+        }
+        return mask;
+    }
+
+    /**
+     * Checks if any of the entities in this node or below are allowed to collide with the
+     * entity.
+     */
+    public boolean canCollideWith(Entity entity) {
+        return (world.getCollisionMask(entity.getEntityType()) & entityTypeMask) != 0;
     }
 
     protected void resize(double centerX, double centerY, double halfLength) {
         this.centerX = centerX;
         this.centerY = centerY;
         this.halfLength = halfLength;
-        minX = centerX - halfLength;
-        minY = centerY - halfLength;
-        maxX = centerX + halfLength;
-        maxY = centerY + halfLength;
+        looseHalfLength = halfLength * looseness;
+        minX = centerX - looseHalfLength;
+        minY = centerY - looseHalfLength;
+        maxX = centerX + looseHalfLength;
+        maxY = centerY + looseHalfLength;
+    }
+
+    boolean isOverlapping(Entity entity) {
+        return Math.abs(centerX - entity.getBBCenterX()) < entity.getBBHalfWidth() +
+                looseHalfLength && Math.abs(centerY - entity.getBBCenterY()) < entity
+                .getBBHalfHeight() + looseHalfLength;
     }
 
     public void updateMotions(double elapsedTime, UnorderedArrayList<WorldEffect> worldEffects) {
         for (int i = 0; i < entityListPos; i++) {
             Entity entity = entities[i];
-            int collisionTypeBitMask = entity.getEntityTypeBitMask();
+            int type = entity.getEntityType();
+            boolean isAffected = false;
             for (int j = 0; j < worldEffects.size(); j++) {
                 WorldEffect worldEffect = worldEffects.get(j);
-                if (worldEffect.isCollisionTypeAffected(collisionTypeBitMask)) {
+                if (worldEffect.isCollisionTypeOrdinalAffected(type)) {
+                    entity.wakeUp();
                     worldEffect.applyEffect(entity);
+                    isAffected = true;
                 }
             }
+            if (entity.isSleeping()) {
+                world.entityIsAsleep();
+                continue;
+            }
             entity.updateMotion(elapsedTime);
+            if (!isAffected) {
+                // entities affected by world effects would be woken up again in the next update
+                world.updateSleep(entity);
+            }
         }
     }
 
+    /**
+     * Called by an entity of this node when it has been woken up.
+     */
+    public void entityWokeUp() {
+        world.entityWokeUp();
+    }
+
     public void updateEntities(double elapsedTime) {
         for (int i = 0; i < entityListPos; i++) {
             entities[i].update(elapsedTime);
         }
     }
 
+    /**
+     * Passes the entities of this node and below to the query, the nodes below that don't
+     * overlap the bounds of the query are skipped.
+     *
+     * @param query the query to pass the entities to
+     */
+    public void query(RegionQuery query) {
+        if (query.canSkip(entityTypeMask)) {
+            return;
+        }
+        for (int i = 0; i < entityListPos; i++) {
+            query.test(entities[i]);
+        }
+    }
+
+    /**
+     * Checks if the loose bounds of this node overlap the bounds of the query.
+     */
+    boolean isOverlapping(RegionQuery query) {
+        return query.isOverlapping(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Passes the entities of this node and below to the raycast, the nodes below are visited
+     * nearest first and the ones that the ray doesn't reach are skipped.
+     *
+     * @param raycast the raycast to pass the entities to
+     */
+    public void raycast(RaycastQuery raycast) {
+        if (raycast.canSkip(entityTypeMask)) {
+            return;
+        }
+        for (int i = 0; i < entityListPos; i++) {
+            raycast.test(entities[i]);
+        }
+    }
+
+    /**
+     * @return the distance along the ray where it enters the loose bounds of this node, or
+     * positive infinity if the ray doesn't reach them
+     */
+    double entryDistance(RaycastQuery raycast) {
+        return raycast.entryDistance(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Passes the entities of this node and below to the search, the nodes below are visited
+     * nearest first and the ones that are farther than the bound of the search are skipped.
+     *
+     * @param search the search to pass the entities to
+     */
+    public void findNearest(NearestQuery search) {
+        if (search.canSkip(entityTypeMask)) {
+            return;
+        }
+        for (int i = 0; i < entityListPos; i++) {
+            search.test(entities[i]);
+        }
+    }
+
+    /**
+     * @return the square of the distance from the point of the search to the loose bounds of
+     * this node, which hold the centers of all of the entities in this node and below
+     */
+    double distanceSquared(NearestQuery search) {
+        return search.distanceSquared(minX, minY, maxX, maxY);
+    }
+
     //------------------------------ testing methods --------------------------------
 
     public boolean areEntityIndexesNull() {
@@ -220,8 +564,8 @@ public abstract class Tree {
         assert entityCount == 0 : "entityCount: " + entityCount;
         assert entityListPos == 0 : "entityListPos: " + entityListPos;
         assert parent == null : "parent: " + parent;
-        assert node.getPrev() == null && node.getNext() == null : "node.prev: " + node.getPrev()
-                + " node.next: " + node.getNext();
+        assert node.getHeapIndex() == CollisionNode.NOT_IN_LIST : "node.heapIndex: " + node
+                .getHeapIndex();
         assert timeInTree == 0;
         assert world == null;
         return true;
@@ -1,5 +1,6 @@
 package gameengine.context;
 
+import gameengine.collisiondetection.Broadphase;
 import gameengine.collisiondetection.Collision;
 import gameengine.collisiondetection.Viewport;
 import gameengine.collisiondetection.World;
@@ -63,6 +64,33 @@ public abstract class Context {
         viewPort = new Viewport(0, 0, 1, width, height);
     }
 
+    /**
+     * Constructs a Context whose {@link World} uses a specific {@link Broadphase}.
+     *
+     * @param controller        The {@link GameController} controlling the game
+     * @param broadphaseFactory Creates the {@link Broadphase} of the world
+     */
+    protected Context(GameController controller, Broadphase.Factory broadphaseFactory) {
+        this.controller = controller;
+
+        ScreenManager screen = controller.getScreenManager();
+        world = new World(broadphaseFactory);
+        viewPort = new Viewport(0, 0, 1, screen.getWidth(), screen.getHeight());
+    }
+
+    /**
+     * Constructs a Context that isn't shown on a screen, used to update a {@link World} without
+     * a window such as in the headless benchmarks.
+     *
+     * @param world  The world of this context
+     * @param width  The width of the area that the context covers
+     * @param height The height of the area that the context covers
+     */
+    protected Context(World world, int width, int height) {
+        this.world = world;
+        viewPort = new Viewport(0, 0, 1, width, height);
+    }
+
     public Viewport getViewPort() {
         return viewPort;
     }
@@ -127,6 +155,22 @@ public abstract class Context {
 
     public abstract void handleCollision(Collision collision);
 
+    /**
+     * Called with the collisions that happen at the same time, within the batch tolerance of the
+     * world, no two of them share an entity.  The entities are only updated once all of the
+     * collisions have been handled.  Subclasses can override this to respond to the collisions
+     * together, by default they are handled one at a time by {@link #handleCollision(Collision)}.
+     *
+     * @param collisions the collisions, only the first count are used
+     * @param count      the number of collisions
+     * @see World#setCollisionBatchTolerance(double)
+     */
+    public void handleCollisions(Collision[] collisions, int count) {
+        for (int i = 0; i < count; i++) {
+            handleCollision(collisions[i]);
+        }
+    }
+
     public void mapInputAction(String action, int inputCode) {
         inputActionMap.put(inputCode, action);
     }
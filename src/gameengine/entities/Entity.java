@@ -2,6 +2,7 @@ package gameengine.entities;
 
 import gameengine.collisiondetection.EntityType;
 import gameengine.collisiondetection.shapes.Shape;
+import gameengine.collisiondetection.tree.StaticBodies;
 import gameengine.collisiondetection.tree.Tree;
 import gameengine.graphics.Renderer;
 import gameengine.motion.motions.Motion;
@@ -19,11 +20,29 @@ public abstract class Entity {
     private double BBHalfWidth, BBHalfHeight, BBCenterX, BBCenterY;
     private double BBMinX, BBMaxX, BBMinY, BBMaxY;
     private int entityType = EntityType.STANDARD.ordinal();
-    private int entityTypeBitMask = 1 << entityType;
+    private long entityTypeBitMask = EntityType.getBitMask(entityType);
     private Motion motion;
     private Shape shape;
     private Tree containingTree;
+    /**
+     * The static bodies that hold this entity if it has been added to the world as a static
+     * body, in which case it isn't in any tree and the index is its index in the static bodies
+     */
+    private StaticBodies staticBodies;
     private int indexInTree;
+    private boolean isSleeping = false;
+    private int numSlowFrames = 0;
+    /**
+     * The entities that this entity is in resting contact with, see
+     * {@link gameengine.collisiondetection.RestingContacts}
+     */
+    private Entity[] contacts = null;
+    private int numContacts = 0;
+    /**
+     * Marks the entity while the region sensors of the world are checked, see
+     * {@link gameengine.collisiondetection.tree.RegionSensors}
+     */
+    private long sensorStamp = 0;
 
     public Entity(double x, double y, Shape shape) {
         this(x, y, defaultMaterial, shape);
@@ -93,6 +112,8 @@ public abstract class Entity {
     public void setVelocity(double dx, double dy) {
         this.dx = dx;
         this.dy = dy;
+        motionChanged();
+        wakeUp();
     }
 
     public void calculateBoundingBox(double time) {
@@ -164,21 +185,40 @@ public abstract class Entity {
     }
 
     public void setEntityType(EntityType type) {
-        entityType = type.ordinal();
-        entityTypeBitMask = 1 << entityType;
+        setEntityType(type.ordinal());
+    }
+
+    /**
+     * Sets the type of this entity, which can be one of the {@link EntityType}s or a user defined
+     * type from {@link EntityType#FIRST_USER_TYPE} up.
+     *
+     * @param type the type of this entity
+     */
+    public void setEntityType(int type) {
+        assert type >= 0;
+        entityType = type;
+        entityTypeBitMask = EntityType.getBitMask(type);
+        if (containingTree != null) {
+            // the tree skips nodes that have no entities of the types this entity collides with
+            containingTree.entityTypeChanged(this);
+        } else if (staticBodies != null) {
+            staticBodies.entityTypeChanged(this);
+        }
     }
 
     public int getEntityType() {
         return entityType;
     }
 
-    public int getEntityTypeBitMask() {
+    public long getEntityTypeBitMask() {
         return entityTypeBitMask;
     }
 
     public void addVelocity(double dx, double dy) {
         this.dx += dx;
         this.dy += dy;
+        motionChanged();
+        wakeUp();
     }
 
     public void setMass(double mass) {
@@ -209,17 +249,43 @@ public abstract class Entity {
         return containingTree;
     }
 
+    public long getSensorStamp() {
+        return sensorStamp;
+    }
+
+    public void setSensorStamp(long sensorStamp) {
+        this.sensorStamp = sensorStamp;
+    }
+
     public void setContainingTree(Tree containingTree, int indexInTree) {
         this.containingTree = containingTree;
         setIndexInTree(indexInTree);
     }
 
+    public StaticBodies getStaticBodies() {
+        return staticBodies;
+    }
+
+    public void setStaticBodies(StaticBodies staticBodies, int indexInTree) {
+        this.staticBodies = staticBodies;
+        setIndexInTree(indexInTree);
+    }
+
+    /**
+     * @return true if this entity has been added to the world as a static body, see
+     * {@link gameengine.collisiondetection.World#addStaticEntity(Entity)}
+     */
+    public boolean isStaticBody() {
+        return staticBodies != null;
+    }
+
     public Shape getShape() {
         return shape;
     }
 
     public void setShape(Shape shape) {
         this.shape = shape;
+        motionChanged();
     }
 
     public void updateMass() {
@@ -237,8 +303,13 @@ public abstract class Entity {
      */
     public void updateMotion(double elapsedTime) {
         motion.update(this, elapsedTime);
-        dx = motion.getVelocityX();
-        dy = motion.getVelocityY();
+        double motionDX = motion.getVelocityX();
+        double motionDY = motion.getVelocityY();
+        if (motionDX != dx || motionDY != dy) {
+            dx = motionDX;
+            dy = motionDY;
+            motionChanged();
+        }
     }
 
     /**
@@ -252,14 +323,18 @@ public abstract class Entity {
     }
 
     public void removeFromWorld() {
-        containingTree.removeEntityFromWorld(this);
+        if (staticBodies != null) {
+            staticBodies.removeEntityFromWorld(this);
+        } else {
+            containingTree.removeEntityFromWorld(this);
+        }
     }
 
     /**
      * @return True if this entity is still in the world.
      */
     public boolean isInWorld() {
-        return containingTree != null;
+        return containingTree != null || staticBodies != null;
     }
 
     public void drawLineToPartition(Graphics2D g, Color color) {
@@ -282,6 +357,8 @@ public abstract class Entity {
     public void setPosition(double x, double y) {
         this.x = x;
         this.y = y;
+        motionChanged();
+        wakeUp();
     }
 
     public Motion getMotion() {
@@ -296,6 +373,130 @@ public abstract class Entity {
      */
     public void setMotion(Motion motion) {
         this.motion = motion;
+        wakeUp();
+    }
+
+    /**
+     * @return True if this entity is asleep, sleeping entities don't move and are skipped by the
+     * motion, bounding box and collision passes until they are woken up.
+     */
+    public boolean isSleeping() {
+        return isSleeping;
+    }
+
+    /**
+     * Counts the number of updates in a row that the speed of this entity has been below the
+     * sleep speed after its motion was updated and puts it to sleep once there are enough.
+     *
+     * @param sleepSpeed    the speed that this entity has to stay below
+     * @param framesToSleep the number of updates in a row that this entity has to be slow for
+     * @return true if this entity has just fallen asleep
+     */
+    public boolean updateSleep(double sleepSpeed, int framesToSleep) {
+        if (dx * dx + dy * dy >= sleepSpeed * sleepSpeed) {
+            numSlowFrames = 0;
+            return false;
+        }
+        numSlowFrames++;
+        if (numSlowFrames < framesToSleep) {
+            return false;
+        }
+        isSleeping = true;
+        dx = 0;
+        dy = 0;
+        motionChanged();
+        // the bounding box no longer has to cover the distance that would have been travelled
+        calculateBoundingBox(0);
+        return true;
+    }
+
+    /**
+     * Lets the tree know that the collisions it has calculated for this entity are no longer
+     * valid, they may be kept across updates when the world has a collision horizon.
+     */
+    private void motionChanged() {
+        if (containingTree != null) {
+            containingTree.invalidateCollision(this);
+        }
+    }
+
+    /**
+     * Changes the velocity of this entity to keep it from moving into an entity that it is
+     * resting against.  Unlike {@link #addVelocity(double, double)} this doesn't reset the sleep
+     * count since entities that rest against each other are meant to fall asleep.
+     *
+     * @param dx the change in the x velocity
+     * @param dy the change in the y velocity
+     */
+    public void addContactVelocity(double dx, double dy) {
+        assert !isSleeping : "sleeping entities can't be moved";
+        this.dx += dx;
+        this.dy += dy;
+        motionChanged();
+    }
+
+    public int getNumContacts() {
+        return numContacts;
+    }
+
+    public Entity getContact(int index) {
+        assert index < numContacts;
+        return contacts[index];
+    }
+
+    /**
+     * @return true if this entity is in resting contact with the entity
+     */
+    public boolean isInContactWith(Entity entity) {
+        for (int i = 0; i < numContacts; i++) {
+            if (contacts[i] == entity) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the entity to the contacts of this entity, the contact has to be added to the other
+     * entity as well.
+     *
+     * @param entity the entity that this entity is resting against
+     */
+    public void addContact(Entity entity) {
+        assert !isInContactWith(entity);
+        if (contacts == null) {
+            contacts = new Entity[2];
+        } else if (numContacts == contacts.length) {
+            Entity[] temp = new Entity[numContacts * 2];
+            System.arraycopy(contacts, 0, temp, 0, numContacts);
+            contacts = temp;
+        }
+        contacts[numContacts] = entity;
+        numContacts++;
+    }
+
+    public void removeContact(Entity entity) {
+        for (int i = 0; i < numContacts; i++) {
+            if (contacts[i] == entity) {
+                numContacts--;
+                contacts[i] = contacts[numContacts];
+                contacts[numContacts] = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wakes this entity up if it is asleep.
+     */
+    public void wakeUp() {
+        numSlowFrames = 0;
+        if (isSleeping) {
+            isSleeping = false;
+            if (containingTree != null) {
+                containingTree.entityWokeUp();
+            }
+        }
     }
 
     public abstract void update(double elapsedTime);
@@ -2,25 +2,28 @@ package gameengine.entities;
 
 import Utilities.HashSet;
 import gameengine.collisiondetection.shapes.Shape;
+import gameengine.collisiondetection.tree.RegionSensors;
 import gameengine.graphics.Renderer;
 
 import java.util.function.Consumer;
-import java.util.function.Predicate;
 
 /**
- * A region sensor detects when entities enter the region.
+ * A region sensor detects when entities enter and exit the region.
+ * <p>
+ * Sensors aren't part of the broadphase so they never take part in the collisions of the world.
+ * Instead the world checks which entities overlap each sensor once at the end of each update and
+ * passes the entities that have entered or exited to the handlers, see
+ * {@link RegionSensors}.  An entity that passes all the way through a sensor within a single
+ * update isn't detected.
  */
 public class RegionSensor extends Entity {
     private HashSet<Entity> containedEntities = new HashSet<>();
     private Consumer<Entity> enteredRegionHandler;
     private Consumer<Entity> exitedRegionHandler;
-    private Predicate<Entity> outOfBounds = entity -> {
-        boolean exited = !entity.isInWorld() || !getShape().isOverlappingShape(this, entity);
-        if (exited && exitedRegionHandler != null) {
-            exitedRegionHandler.accept(entity);
-        }
-        return exited;
-    };
+    /**
+     * The sensors of the world that this sensor is in, sensors aren't in any tree
+     */
+    private RegionSensors regionSensors;
 
     public RegionSensor(double x, double y, Shape shape, Consumer<Entity> enteredRegionHandler,
                         Consumer<Entity> exitedRegionHandler) {
@@ -31,9 +34,30 @@ public class RegionSensor extends Entity {
 
     @Override
     public void update(double elapsedTime) {
-        containedEntities.forEachConditionallyRemove(outOfBounds);
     }
 
+    public RegionSensors getRegionSensors() {
+        return regionSensors;
+    }
+
+    public void setRegionSensors(RegionSensors regionSensors, int index) {
+        this.regionSensors = regionSensors;
+        setIndexInTree(index);
+    }
+
+    @Override
+    public void removeFromWorld() {
+        regionSensors.removeSensor(this);
+    }
+
+    @Override
+    public boolean isInWorld() {
+        return regionSensors != null;
+    }
+
+    /**
+     * Called by the world when the entity has entered the region.
+     */
     public void addEntity(Entity entity) {
         containedEntities.add(entity);
         if (enteredRegionHandler != null) {
@@ -41,14 +65,37 @@ public class RegionSensor extends Entity {
         }
     }
 
+    /**
+     * Called by the world when the entity has exited the region or has been removed from the
+     * world.
+     */
+    public void removeEntity(Entity entity) {
+        containedEntities.remove(entity);
+        if (exitedRegionHandler != null) {
+            exitedRegionHandler.accept(entity);
+        }
+    }
+
     public boolean containsEntity(Entity entity) {
         return containedEntities.contains(entity);
     }
 
+    public int getContainedEntityCount() {
+        return containedEntities.size();
+    }
+
     public void forEach(Consumer<Entity> consumer) {
         containedEntities.forEach(consumer);
     }
 
+    /**
+     * Forgets the contained entities without calling the exit handler, used when the sensor is
+     * removed from the world.
+     */
+    public void clearContainedEntities() {
+        containedEntities.clear();
+    }
+
     @Override
     public void draw(Renderer renderer) {
         getShape().draw(renderer, getX(), getY());
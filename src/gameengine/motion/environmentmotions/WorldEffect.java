@@ -3,30 +3,59 @@ package gameengine.motion.environmentmotions;
 import gameengine.collisiondetection.EntityType;
 import gameengine.entities.Entity;
 
+import java.util.Arrays;
+
 /**
  * documentation
  *
  * @author davidrusu
  */
 public abstract class WorldEffect {
-    private int collisionTypes = 0;
+    /**
+     * The types that are affected, with a bit for every type
+     */
+    private long[] collisionTypes = new long[1];
 
     public void addCollisionType(EntityType type) {
-        int ordinal = type.ordinal();
+        addCollisionTypeOrdinal(type.ordinal());
+    }
 
-        int mask = 1 << ordinal;
-        collisionTypes |= mask;
+    /**
+     * Makes this effect affect the entities of the type, which can be the ordinal of any of the
+     * {@link EntityType}s or a user defined type.
+     *
+     * @param type the type to affect
+     */
+    public void addCollisionTypeOrdinal(int type) {
+        int word = type >>> 6;
+        if (word >= collisionTypes.length) {
+            collisionTypes = Arrays.copyOf(collisionTypes, word + 1);
+        }
+        collisionTypes[word] |= 1L << type;
     }
 
     public void removeCollisionType(EntityType type) {
-        int ordinal = type.ordinal();
+        removeCollisionTypeOrdinal(type.ordinal());
+    }
+
+    public void removeCollisionTypeOrdinal(int type) {
+        int word = type >>> 6;
+        if (word < collisionTypes.length) {
+            collisionTypes[word] &= ~(1L << type);
+        }
+    }
 
-        int mask = ~(1 << ordinal);
-        collisionTypes &= mask;
+    public boolean isCollisionTypeAffected(EntityType type) {
+        return isCollisionTypeOrdinalAffected(type.ordinal());
     }
 
-    public boolean isCollisionTypeAffected(int collisionTypeBitMask) {
-        return (collisionTypes & collisionTypeBitMask) != 0;
+    /**
+     * @param type the type of an entity, not a type mask
+     * @return true if the entities of the type are affected
+     */
+    public boolean isCollisionTypeOrdinalAffected(int type) {
+        int word = type >>> 6;
+        return word < collisionTypes.length && (collisionTypes[word] & 1L << type) != 0;
     }
 
     public abstract void reset();
@@ -9,9 +9,6 @@ import gameengine.geometry.Vector2D;
  */
 public class Physics {
 
-    private static Vector2D unitY = new Vector2D();
-    private static Vector2D unitX = new Vector2D();
-
     private Physics() {
     }
 
@@ -28,33 +25,38 @@ public class Physics {
     }
 
     public static void performCollision(Collision collision) {
-        unitY.set(collision.getCollisionNormal());
-        unitX.set(-unitY.getY(), unitY.getX());
+        // the normal and the tangent are kept in locals so that worlds can be updated on
+        // separate threads
+        Vector2D normal = collision.getCollisionNormal();
+        double unitYX = normal.getX();
+        double unitYY = normal.getY();
+        double unitXX = -unitYY;
+        double unitXY = unitYX;
         Entity a = collision.getA();
         Entity b = collision.getB();
         double friction = Material.getFriction(a.getMaterial(), b.getMaterial());
         double restitution = Material.getRestitution(a.getMaterial(), b.getMaterial());
 
-        double xLengthA = Vector2D.unitScalarProject(a.getDX(), a.getDY(), unitX);
-        double yLengthA = Vector2D.unitScalarProject(a.getDX(), a.getDY(), unitY);
-        double xLengthB = Vector2D.unitScalarProject(b.getDX(), b.getDY(), unitX);
-        double yLengthB = Vector2D.unitScalarProject(b.getDX(), b.getDY(), unitY);
+        double xLengthA = Vector2D.unitScalarProject(a.getDX(), a.getDY(), unitXX, unitXY);
+        double yLengthA = Vector2D.unitScalarProject(a.getDX(), a.getDY(), unitYX, unitYY);
+        double xLengthB = Vector2D.unitScalarProject(b.getDX(), b.getDY(), unitXX, unitXY);
+        double yLengthB = Vector2D.unitScalarProject(b.getDX(), b.getDY(), unitYX, unitYY);
 
         double aMass = a.getMass();
         double bMass = b.getMass();
         boolean isMassAInfinite = aMass == Double.POSITIVE_INFINITY;
         boolean isMassBInfinite = bMass == Double.POSITIVE_INFINITY;
         if (isMassAInfinite && isMassBInfinite) {
-            a.setVelocity(unitX.getX() * xLengthA, unitX.getY() * xLengthA);
-            b.setVelocity(unitX.getX() * xLengthB, unitX.getY() * xLengthB);
+            a.setVelocity(unitXX * xLengthA, unitXY * xLengthA);
+            b.setVelocity(unitXX * xLengthB, unitXY * xLengthB);
             return;
         } else if (isMassAInfinite) {
-            performInfiniteMassCollision(b, friction, restitution, unitX, unitY, yLengthA,
-                    xLengthB, yLengthB);
+            performInfiniteMassCollision(b, restitution, unitXX, unitXY, unitYX, unitYY,
+                    yLengthA, xLengthB, yLengthB);
             return;
         } else if (isMassBInfinite) {
-            performInfiniteMassCollision(a, friction, restitution, unitX, unitY, yLengthB,
-                    xLengthA, yLengthA);
+            performInfiniteMassCollision(a, restitution, unitXX, unitXY, unitYX, unitYY,
+                    yLengthB, xLengthA, yLengthA);
             return;
         }
 
@@ -79,21 +81,21 @@ public class Physics {
         double xFinalB = xLengthB - frictionDirection * frictionImpulse / bMass;
 
 
-        double xA = unitY.getX() * yFinalA + unitX.getX() * xFinalA;
-        double yA = unitY.getY() * yFinalA + unitX.getY() * xFinalA;
-        double xB = unitY.getX() * yFinalB + unitX.getX() * xFinalB;
-        double yB = unitY.getY() * yFinalB + unitX.getY() * xFinalB;
+        double xA = unitYX * yFinalA + unitXX * xFinalA;
+        double yA = unitYY * yFinalA + unitXY * xFinalA;
+        double xB = unitYX * yFinalB + unitXX * xFinalB;
+        double yB = unitYY * yFinalB + unitXY * xFinalB;
 
         a.setVelocity(xA, yA);
         b.setVelocity(xB, yB);
     }
 
-    private static void performInfiniteMassCollision(Entity b, double friction, double
-            restitution, Vector2D unitX, Vector2D unitY, double yLengthA, double xLengthB, double
-            yLengthB) {
+    private static void performInfiniteMassCollision(Entity b, double restitution, double
+            unitXX, double unitXY, double unitYX, double unitYY, double yLengthA, double
+            xLengthB, double yLengthB) {
         double yFinalB = yLengthA * (1 + restitution) - restitution * yLengthB;
-        double xB = unitY.getX() * yFinalB + unitX.getX() * xLengthB;
-        double yB = unitY.getY() * yFinalB + unitX.getY() * xLengthB;
+        double xB = unitYX * yFinalB + unitXX * xLengthB;
+        double yB = unitYY * yFinalB + unitXY * xLengthB;
         b.setVelocity(xB, yB);
     }
 }